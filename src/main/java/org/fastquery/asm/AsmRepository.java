@@ -29,6 +29,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.fastquery.core.GenerateRepository;
+import org.fastquery.core.InvocationPlan;
 import org.fastquery.core.Prepared;
 import org.fastquery.core.Repository;
 import org.fastquery.mapper.QueryValidator;
@@ -48,6 +49,11 @@ public class AsmRepository implements Opcodes {
 
 	private static final Logger LOG = LoggerFactory.getLogger(AsmRepository.class);
 	
+	// 调用计划常量的名称前缀
+	private static final String PLAN = "plan";
+	
+	private static final String PLAN_DESCRIPTOR = Type.getDescriptor(InvocationPlan.class);
+	
 	private AsmRepository(){
 	}
 	
@@ -68,7 +74,8 @@ public class AsmRepository implements Opcodes {
 
 		// 生成类
 		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-		cw.visit(V1_1, ACC_PUBLIC, proxyName, null, "java/lang/Object", interfaces);
+		// 在<clinit>中需要ldc接口的class常量,因此版本不能低于V1_5
+		cw.visit(V1_5, ACC_PUBLIC, proxyName, null, "java/lang/Object", interfaces);
 
 		// 单例
 		String repositoryDescriptor = Type.getDescriptor(repositoryClazz);
@@ -106,39 +113,68 @@ public class AsmRepository implements Opcodes {
 
 		// 根据接口clazz 生成实现的方法
 		Method[] methods = repositoryClazz.getMethods();
-		for (Method method : methods) {
-			cw = generateMethod(cw, method,Prepared.class);
+		for (int i = 0; i < methods.length; i++) {
+			// 每个方法对应一个静态的调用计划常量
+			fv = cw.visitField(ACC_PRIVATE + ACC_STATIC + ACC_FINAL, PLAN + i, PLAN_DESCRIPTOR, null, null);
+			fv.visitEnd();
+			cw = generateMethod(cw, methods[i],proxyName,PLAN + i);
 		}
+		
+		// 生成静态初始化块, 调用计划在类初始化时解析一次
+		generateClinit(cw, repositoryClazz, proxyName, methods);
 		cw.visitEnd();
 
 		return cw.toByteArray();
 	}
 
+	/**
+	 * 生成静态初始化块: planN = InvocationPlan.of(接口.class, 方法名称, 方法描述)
+	 * @param cw
+	 * @param repositoryClazz
+	 * @param proxyName
+	 * @param methods
+	 */
+	private static void generateClinit(ClassWriter cw,Class<? extends Repository> repositoryClazz,String proxyName,Method[] methods) {
+		org.objectweb.asm.MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+		mv.visitCode();
+		Type iface = Type.getType(repositoryClazz);
+		String planInternalName = Type.getInternalName(InvocationPlan.class);
+		for (int i = 0; i < methods.length; i++) {
+			mv.visitLdcInsn(iface);
+			mv.visitLdcInsn(methods[i].getName());
+			mv.visitLdcInsn(Type.getType(methods[i]).getDescriptor());
+			mv.visitMethodInsn(INVOKESTATIC, planInternalName, "of", "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/String;)" + PLAN_DESCRIPTOR, false);
+			mv.visitFieldInsn(PUTSTATIC, proxyName, PLAN + i, PLAN_DESCRIPTOR);
+		}
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(3, 0);
+		mv.visitEnd();
+	}
+
 	/**
 	 * 生成方法
 	 * @param cw
 	 * @param method
-	 * @param exceptions
-	 * @param interfaceClazz
+	 * @param proxyName 生成类的内部名称
+	 * @param planField 该方法所对应的调用计划常量名称
 	 */
-	private static ClassWriter generateMethod(ClassWriter cw,java.lang.reflect.Method method,Class<Prepared> prepared){
+	private static ClassWriter generateMethod(ClassWriter cw,java.lang.reflect.Method method,String proxyName,String planField){
 		
 		org.objectweb.asm.commons.Method m = new org.objectweb.asm.commons.Method(method.getName(), Type.getMethodDescriptor(method));
 		GeneratorAdapter mv = new GeneratorAdapter(ACC_PUBLIC, m, null, null,cw);
 	
-		mv.visitLdcInsn(method.getName()); // excute的第1参数
-		mv.visitLdcInsn(Type.getType(method).getDescriptor()); // excute的第2参数
+		mv.visitFieldInsn(GETSTATIC, proxyName, planField, PLAN_DESCRIPTOR); // excute的第1参数
 		
-		//  excute的第3参数(是可变参数)
+		//  excute的第2参数(是可变参数)
 		Parameter[] parameters = method.getParameters();
 		mv = setIn(mv, parameters); 
 	
-		// excute的第4个参数
+		// excute的第3个参数
 		mv.visitVarInsn(ALOAD, 0);
 		
 		// 调用Prepared中的excute方法
 		// INVOKESTATIC
-		mv.visitMethodInsn(INVOKESTATIC, Type.getType(prepared).getInternalName(), "excute", "(Ljava/lang/String;Ljava/lang/String;[Ljava/lang/Object;Lorg/fastquery/core/Repository;)Ljava/lang/Object;", false);
+		mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Prepared.class), "excute", "(" + PLAN_DESCRIPTOR + "[Ljava/lang/Object;Lorg/fastquery/core/Repository;)Ljava/lang/Object;", false);
 		
 		// 返回值处理
 		String internalName  = Type.getInternalName(method.getReturnType());
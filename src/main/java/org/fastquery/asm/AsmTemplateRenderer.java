@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.asm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fastquery.asm.TemplateParser.Compare;
+import org.fastquery.asm.TemplateParser.Expr;
+import org.fastquery.asm.TemplateParser.Foreach;
+import org.fastquery.asm.TemplateParser.If;
+import org.fastquery.asm.TemplateParser.Logic;
+import org.fastquery.asm.TemplateParser.Not;
+import org.fastquery.asm.TemplateParser.Operand;
+import org.fastquery.asm.TemplateParser.Ref;
+import org.fastquery.asm.TemplateParser.Text;
+import org.fastquery.core.RepositoryException;
+import org.fastquery.mapper.CompiledTemplate;
+import org.fastquery.mapper.TemplateRenderer;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 把命名查询模板编译成字节码的渲染器. <br>
+ * 每个模板生成一个 CompiledTemplate 的子类, 其render方法是直接往StringBuilder里追加内容的直线式代码, <br>
+ * 不再需要VelocityContext, 反射和StringWriter. 支持的语法见 TemplateParser, 超出的部分返回null, 由Velocity渲染.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class AsmTemplateRenderer implements TemplateRenderer, Opcodes {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AsmTemplateRenderer.class);
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private static final String SUPER = Type.getInternalName(CompiledTemplate.class);
+	private static final String SB = "java/lang/StringBuilder";
+	private static final String ITERATOR = "java/util/Iterator";
+
+	// ldc 的字符串常量不能超过65535个字节, 长文本分段追加
+	private static final int CHUNK = 8192;
+
+	@Override
+	public CompiledTemplate compile(String name, String source) {
+		List<Object> nodes;
+		try {
+			nodes = TemplateParser.parse(source);
+		} catch (TemplateParser.Unsupported e) {
+			LOG.debug("{} 含有不支持编译的模板语法, 交由Velocity渲染", name);
+			return null;
+		}
+
+		String className = "org/fastquery/asm/CompiledTemplate$" + COUNTER.incrementAndGet();
+		Generator generator = new Generator(className);
+		byte[] bytes;
+		try {
+			bytes = generator.generate(nodes);
+		} catch (RuntimeException e) { // 如: 方法体超过64K
+			LOG.warn("{} 编译失败, 交由Velocity渲染: {}", name, e.getMessage());
+			return null;
+		}
+
+		try {
+			Class<?> clazz = new Loader(CompiledTemplate.class.getClassLoader()).define(className.replace('/', '.'), bytes);
+			String[] names = generator.names.toArray(new String[generator.names.size()]);
+			return (CompiledTemplate) clazz.getConstructor(String[].class).newInstance((Object) names);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			throw new RepositoryException(name + " 编译失败", e);
+		}
+	}
+
+	// 每个模板一个类加载器, 模板重新加载后旧的类可以被回收
+	private static final class Loader extends ClassLoader {
+		private Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		private Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	// #foreach 所占用的局部变量
+	private static final class Loop {
+		private final String var;
+		private final int varLocal;
+		private final int itLocal;
+		private final int countLocal;
+
+		private Loop(String var, int local) {
+			this.var = var;
+			this.varLocal = local;
+			this.itLocal = local + 1;
+			this.countLocal = local + 2;
+		}
+	}
+
+	private static final class Generator {
+		private final String className;
+		private final List<String> names = new ArrayList<>();
+		private final Deque<Loop> loops = new ArrayDeque<>();
+		private MethodVisitor mv;
+		private int nextLocal = 3; // 0:this, 1:values, 2:sb
+
+		private Generator(String className) {
+			this.className = className;
+		}
+
+		private byte[] generate(List<Object> nodes) {
+			ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+			// 低于V1_6不需要生成StackMapTable
+			cw.visit(V1_5, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, className, null, SUPER, null);
+
+			mv = cw.visitMethod(ACC_PUBLIC, "<init>", "([Ljava/lang/String;)V", null, null);
+			mv.visitCode();
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitMethodInsn(INVOKESPECIAL, SUPER, "<init>", "([Ljava/lang/String;)V", false);
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+
+			mv = cw.visitMethod(ACC_PUBLIC, "render", "([Ljava/lang/Object;Ljava/lang/StringBuilder;)V", null, null);
+			mv.visitCode();
+			emit(nodes);
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+
+			cw.visitEnd();
+			return cw.toByteArray();
+		}
+
+		private void emit(List<Object> nodes) {
+			for (Object node : nodes) {
+				if (node instanceof Text) {
+					text(((Text) node).text);
+				} else if (node instanceof Ref) {
+					Ref ref = (Ref) node;
+					mv.visitVarInsn(ALOAD, 2);
+					load(ref.operand);
+					mv.visitLdcInsn(ref.raw);
+					mv.visitMethodInsn(INVOKESTATIC, SUPER, "append", "(Ljava/lang/StringBuilder;Ljava/lang/Object;Ljava/lang/String;)V", false);
+				} else if (node instanceof If) {
+					ifNode((If) node);
+				} else {
+					foreach((Foreach) node);
+				}
+			}
+		}
+
+		private void text(String text) {
+			for (int i = 0; i < text.length(); i += CHUNK) {
+				mv.visitVarInsn(ALOAD, 2);
+				mv.visitLdcInsn(text.substring(i, Math.min(text.length(), i + CHUNK)));
+				mv.visitMethodInsn(INVOKEVIRTUAL, SB, "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+				mv.visitInsn(POP);
+			}
+		}
+
+		private void ifNode(If node) {
+			Label end = new Label();
+			for (int i = 0; i < node.conditions.size(); i++) {
+				Label next = new Label();
+				test(node.conditions.get(i));
+				mv.visitJumpInsn(IFEQ, next);
+				emit(node.bodies.get(i));
+				mv.visitJumpInsn(GOTO, end);
+				mv.visitLabel(next);
+			}
+			if (node.otherwise != null) {
+				emit(node.otherwise);
+			}
+			mv.visitLabel(end);
+		}
+
+		private void foreach(Foreach node) {
+			load(node.list); // 在进入新的作用域之前求值
+			Loop loop = new Loop(node.var, nextLocal);
+			nextLocal += 3;
+			mv.visitMethodInsn(INVOKESTATIC, SUPER, "iterator", "(Ljava/lang/Object;)Ljava/util/Iterator;", false);
+			mv.visitVarInsn(ASTORE, loop.itLocal);
+			mv.visitInsn(ICONST_0);
+			mv.visitVarInsn(ISTORE, loop.countLocal);
+
+			Label top = new Label();
+			Label done = new Label();
+			mv.visitLabel(top);
+			mv.visitVarInsn(ALOAD, loop.itLocal);
+			mv.visitMethodInsn(INVOKEINTERFACE, ITERATOR, "hasNext", "()Z", true);
+			mv.visitJumpInsn(IFEQ, done);
+			mv.visitVarInsn(ALOAD, loop.itLocal);
+			mv.visitMethodInsn(INVOKEINTERFACE, ITERATOR, "next", "()Ljava/lang/Object;", true);
+			mv.visitVarInsn(ASTORE, loop.varLocal);
+			mv.visitIincInsn(loop.countLocal, 1);
+
+			loops.push(loop);
+			emit(node.body);
+			loops.pop();
+
+			mv.visitJumpInsn(GOTO, top);
+			mv.visitLabel(done);
+			nextLocal -= 3;
+		}
+
+		// 求条件的真假, 结果(0或1)留在栈顶
+		private void test(Expr expr) {
+			if (expr instanceof Operand) {
+				load((Operand) expr);
+				mv.visitMethodInsn(INVOKESTATIC, SUPER, "truthy", "(Ljava/lang/Object;)Z", false);
+			} else if (expr instanceof Not) {
+				test(((Not) expr).expr);
+				mv.visitInsn(ICONST_1);
+				mv.visitInsn(IXOR);
+			} else if (expr instanceof Logic) {
+				Logic logic = (Logic) expr;
+				Label shortcut = new Label();
+				Label end = new Label();
+				test(logic.left);
+				mv.visitJumpInsn(logic.and ? IFEQ : IFNE, shortcut);
+				test(logic.right);
+				mv.visitJumpInsn(GOTO, end);
+				mv.visitLabel(shortcut);
+				mv.visitInsn(logic.and ? ICONST_0 : ICONST_1);
+				mv.visitLabel(end);
+			} else {
+				Compare compare = (Compare) expr;
+				value(compare.left);
+				value(compare.right);
+				mv.visitIntInsn(BIPUSH, compare.op);
+				mv.visitMethodInsn(INVOKESTATIC, SUPER, "compare", "(Ljava/lang/Object;Ljava/lang/Object;I)Z", false);
+			}
+		}
+
+		// 把表达式的值(Object)压入栈顶, 逻辑运算的值是Boolean
+		private void value(Expr expr) {
+			if (expr instanceof Operand) {
+				load((Operand) expr);
+			} else {
+				test(expr);
+				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+			}
+		}
+
+		// 把操作数的值(Object)压入栈顶
+		private void load(Operand operand) {
+			if (operand.kind == Operand.VAR) {
+				for (Loop loop : loops) { // 从最内层开始找
+					if (loop.var.equals(operand.name)) {
+						mv.visitVarInsn(ALOAD, loop.varLocal);
+						return;
+					}
+				}
+				int index = names.indexOf(operand.name);
+				if (index == -1) {
+					index = names.size();
+					names.add(operand.name);
+				}
+				mv.visitVarInsn(ALOAD, 1);
+				mv.visitLdcInsn(index);
+				mv.visitInsn(AALOAD);
+			} else if (operand.kind == Operand.FOREACH) {
+				foreachProperty(loops.peek(), operand.name);
+			} else {
+				literal(operand.value);
+			}
+		}
+
+		private void foreachProperty(Loop loop, String property) {
+			switch (property) {
+			case "count":
+			case "index":
+				mv.visitVarInsn(ILOAD, loop.countLocal);
+				if ("index".equals(property)) {
+					mv.visitInsn(ICONST_1);
+					mv.visitInsn(ISUB);
+				}
+				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+				break;
+			case "first":
+				Label no = new Label();
+				Label end = new Label();
+				mv.visitVarInsn(ILOAD, loop.countLocal);
+				mv.visitInsn(ICONST_1);
+				mv.visitJumpInsn(IF_ICMPNE, no);
+				mv.visitInsn(ICONST_1);
+				mv.visitJumpInsn(GOTO, end);
+				mv.visitLabel(no);
+				mv.visitInsn(ICONST_0);
+				mv.visitLabel(end);
+				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+				break;
+			default: // hasNext, last
+				mv.visitVarInsn(ALOAD, loop.itLocal);
+				mv.visitMethodInsn(INVOKEINTERFACE, ITERATOR, "hasNext", "()Z", true);
+				if ("last".equals(property)) {
+					mv.visitInsn(ICONST_1);
+					mv.visitInsn(IXOR);
+				}
+				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+				break;
+			}
+		}
+
+		private void literal(Object value) {
+			if (value instanceof Boolean) {
+				mv.visitFieldInsn(GETSTATIC, "java/lang/Boolean", (Boolean) value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+			} else if (value instanceof Integer) {
+				mv.visitLdcInsn(value);
+				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+			} else if (value instanceof Long) {
+				mv.visitLdcInsn(value);
+				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;", false);
+			} else if (value instanceof Double) {
+				mv.visitLdcInsn(value);
+				mv.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+			} else {
+				mv.visitLdcInsn(value); // String
+			}
+		}
+	}
+}
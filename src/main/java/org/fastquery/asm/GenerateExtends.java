@@ -36,6 +36,7 @@ import org.fastquery.filter.generate.global.PageableFilter;
 import org.fastquery.filter.generate.global.ReturnTypeFilter;
 import org.fastquery.filter.generate.modifying.AnnotationSynxFilter;
 import org.fastquery.filter.generate.modifying.ArgsFilter;
+import org.fastquery.filter.generate.modifying.BatchFilter;
 import org.fastquery.filter.generate.modifying.ModifyingReturnTypeFilter;
 import org.fastquery.filter.generate.query.NotAllowedRepeat;
 import org.fastquery.filter.generate.query.PageFilter;
@@ -132,6 +133,7 @@ class GenerateExtends {
 					queryFilterChain.addFilter(new AnnotationSynxFilter());
 					queryFilterChain.addFilter(new ArgsFilter());
 					queryFilterChain.addFilter(new ModifyingReturnTypeFilter());
+					queryFilterChain.addFilter(new BatchFilter());
 				}
 				
 				// filter/query
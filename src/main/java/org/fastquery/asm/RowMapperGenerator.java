@@ -0,0 +1,502 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.asm;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.TypeVariable;
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fastquery.core.RowMapper;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import com.alibaba.fastjson.annotation.JSONType;
+import com.alibaba.fastjson.parser.ParserConfig;
+import com.alibaba.fastjson.util.TypeUtils;
+
+/**
+ * 生成把结果集的行直接映射成实体的 RowMapper. <br>
+ * 针对"实体类 + 列布局(列标签, SQL类型)"生成一个类, 每一列直接调用相应的JDBC getXxx, 然后调用实体的setter(或公有字段)赋值, <br>
+ * 省去每行一个HashMap, JSONObject及fastjson的类型解析. 列与属性的匹配规则以及空值的处理同 JSON.toJavaObject 保持一致, <br>
+ * 列的SQL类型与属性类型对不上的, 用 getObject 取值后交给fastjson的 TypeUtils.cast 转换. <br>
+ * 实体不受支持(如: 使用了@JSONField)时返回null, 调用者应退回到fastjson转换.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class RowMapperGenerator implements Opcodes {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RowMapperGenerator.class);
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	// 每个实体最多缓存多少种列布局, 超出后退回到fastjson转换, 以免动态SQL导致生成的类无限增长
+	private static final int MAX_LAYOUTS = 64;
+
+	// 生成失败或不支持的列布局
+	private static final Object UNSUPPORTED = new Object();
+
+	private static final Map<Class<?>, BeanInfo> BEANS = new ConcurrentHashMap<>();
+
+	private static final String RS = "java/sql/ResultSet";
+	private static final String TYPES = "[Ljava/lang/reflect/Type;";
+
+	private RowMapperGenerator() {
+	}
+
+	/**
+	 * 获取实体的行映射器, 同一个实体, 同一种列布局只生成一次.
+	 * 
+	 * @param beanType 实体的class
+	 * @param meta 结果集元数据
+	 * @param <T> 实体类型
+	 * @return 行映射器, 不支持返回null
+	 * @throws SQLException 读取元数据出错
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> RowMapper<T> get(Class<T> beanType, ResultSetMetaData meta) throws SQLException {
+		BeanInfo info = BEANS.computeIfAbsent(beanType, BeanInfo::new);
+		if (!info.supported) {
+			return null;
+		}
+
+		int count = meta.getColumnCount();
+		Column[] columns = new Column[count];
+		StringBuilder layout = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			Column column = new Column(meta, i + 1);
+			columns[i] = column;
+			layout.append(column.label).append(':').append(column.sqlType).append(column.signed ? ',' : 'u').append(column.precision).append(';');
+		}
+
+		String key = layout.toString();
+		Object mapper = info.mappers.get(key);
+		if (mapper == null) {
+			if (info.mappers.size() >= MAX_LAYOUTS) {
+				return null;
+			}
+			mapper = info.mappers.computeIfAbsent(key, k -> generate(info, columns));
+		}
+		return mapper == UNSUPPORTED ? null : (RowMapper<T>) mapper;
+	}
+
+	/**
+	 * 把列值转换成属性的类型, 由生成的类调用. 转换规则同fastjson.
+	 * 
+	 * @param value 列值, 不为null
+	 * @param type 属性的类型
+	 * @return 转换后的值
+	 */
+	public static Object cast(Object value, java.lang.reflect.Type type) {
+		return TypeUtils.cast(value, type, ParserConfig.getGlobalInstance());
+	}
+
+	/**
+	 * 规范化列名或属性名, 匹配方式同fastjson的smartMatch: 忽略大小写, "_" 和 "-"
+	 * 
+	 * @param name 列名或属性名
+	 * @return 规范化后的名称, 相等即视为匹配
+	 */
+	public static String normalize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c != '_' && c != '-') {
+				sb.append(c);
+			}
+		}
+		return sb.toString().toLowerCase(Locale.ENGLISH);
+	}
+
+	private static Object generate(BeanInfo info, Column[] columns) {
+		Property[] properties = new Property[columns.length];
+		Set<Property> used = new HashSet<>();
+		for (int i = 0; i < columns.length; i++) {
+			Property property = info.find(columns[i].label);
+			if (property != null && !used.add(property)) { // 多个列对应同一个属性, 赋值顺序依赖于HashMap, 不做处理
+				return UNSUPPORTED;
+			}
+			properties[i] = property;
+		}
+
+		String className = "org/fastquery/asm/RowMapper$" + COUNTER.incrementAndGet();
+		try {
+			byte[] bytes = new Generator(className, info.type).generate(columns, properties);
+			Class<?> clazz = new Loader(info.type.getClassLoader()).define(className.replace('/', '.'), bytes);
+			java.lang.reflect.Type[] types = new java.lang.reflect.Type[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				types[i] = properties[i] != null ? properties[i].genericType : null;
+			}
+			return clazz.getConstructor(java.lang.reflect.Type[].class).newInstance((Object) types);
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			LOG.warn("{} 生成RowMapper失败, 交由fastjson转换: {}", info.type.getName(), e.getMessage());
+			return UNSUPPORTED;
+		}
+	}
+
+	// 生成的类由它定义: 实体类从实体的类加载器中找, RowMapper等从fastquery的类加载器中找
+	private static final class Loader extends ClassLoader {
+		private Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			return Class.forName(name, false, RowMapperGenerator.class.getClassLoader());
+		}
+
+		private Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	// 结果集中的一列
+	private static final class Column {
+		private final String label;
+		private final int sqlType;
+		private final boolean signed;
+		private final int precision; // 仅BIT类型才取, 用于区分 BIT(1) 和 BIT(n)
+
+		private Column(ResultSetMetaData meta, int index) throws SQLException {
+			this.label = meta.getColumnLabel(index);
+			this.sqlType = meta.getColumnType(index);
+			this.signed = meta.isSigned(index);
+			this.precision = sqlType == Types.BIT ? meta.getPrecision(index) : 0;
+		}
+	}
+
+	// 实体中可以被赋值的属性: setter 或 公有字段
+	private static final class Property {
+		private final Method setter;
+		private final Field field;
+		private final Class<?> type;
+		private final java.lang.reflect.Type genericType;
+
+		private Property(Method setter) {
+			this.setter = setter;
+			this.field = null;
+			this.type = setter.getParameterTypes()[0];
+			this.genericType = setter.getGenericParameterTypes()[0];
+		}
+
+		private Property(Field field) {
+			this.setter = null;
+			this.field = field;
+			this.type = field.getType();
+			this.genericType = field.getGenericType();
+		}
+	}
+
+	private static final class BeanInfo {
+		private final Class<?> type;
+		private final boolean supported;
+		private final Map<String, Property> properties = new HashMap<>(); // key: normalize后的属性名
+		private final Map<String, Object> mappers = new ConcurrentHashMap<>(); // key: 列布局
+
+		private BeanInfo(Class<?> type) {
+			this.type = type;
+			this.supported = supports(type) && collect();
+		}
+
+		private static boolean supports(Class<?> type) {
+			int mod = type.getModifiers();
+			if (!Modifier.isPublic(mod) || Modifier.isAbstract(mod) || type.isInterface() || type.isArray() || type.isPrimitive()
+					|| (type.isMemberClass() && !Modifier.isStatic(mod)) || type.getName().startsWith("java.")
+					|| Map.class.isAssignableFrom(type) || Collection.class.isAssignableFrom(type) || type.isAnnotationPresent(JSONType.class)) {
+				return false;
+			}
+			try {
+				type.getConstructor();
+			} catch (NoSuchMethodException e) {
+				return false;
+			}
+			// @JSONField 会改变fastjson的映射规则
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field f : c.getDeclaredFields()) {
+					if (f.isAnnotationPresent(JSONField.class)) {
+						return false;
+					}
+				}
+				for (Method m : c.getDeclaredMethods()) {
+					if (m.isAnnotationPresent(JSONField.class)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		// 收集属性, 同fastjson: 返回void或本类的setXxx, 以及非final的公有字段. 有重名(如重载的setter)的不支持
+		private boolean collect() {
+			for (Method m : type.getMethods()) {
+				String name = m.getName();
+				Class<?> rt = m.getReturnType();
+				if (name.length() > 3 && name.startsWith("set") && !Modifier.isStatic(m.getModifiers()) && m.getParameterCount() == 1
+						&& !m.isBridge() && !m.isSynthetic() && (rt == void.class || rt == m.getDeclaringClass())
+						&& properties.put(normalize(name.substring(3)), new Property(m)) != null) {
+					return false;
+				}
+			}
+			for (Field f : type.getFields()) {
+				int mod = f.getModifiers();
+				if (!Modifier.isStatic(mod) && !Modifier.isFinal(mod)) {
+					properties.putIfAbsent(normalize(f.getName()), new Property(f));
+				}
+			}
+			for (Property p : properties.values()) {
+				Class<?> c = p.type;
+				while (c.isArray()) {
+					c = c.getComponentType();
+				}
+				// 生成的类不能访问非公有的类型; 类型变量的实际类型需借助fastjson解析
+				if (!Modifier.isPublic(c.getModifiers()) || p.genericType instanceof TypeVariable) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private Property find(String label) {
+			String key = normalize(label);
+			Property property = properties.get(key);
+			if (property == null && key.startsWith("is")) { // 如: 列isOn 对应 boolean 属性on
+				property = properties.get(key.substring(2));
+				if (property != null && property.type != boolean.class && property.type != Boolean.class) {
+					property = null;
+				}
+			}
+			return property;
+		}
+	}
+
+	private static final class Generator {
+		private final String className;
+		private final String owner;
+		private MethodVisitor mv;
+
+		private Generator(String className, Class<?> beanType) {
+			this.className = className;
+			this.owner = Type.getInternalName(beanType);
+		}
+
+		private byte[] generate(Column[] columns, Property[] properties) {
+			ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+			// 低于V1_6不需要生成StackMapTable
+			cw.visit(V1_5, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, className, null, "java/lang/Object", new String[] { Type.getInternalName(RowMapper.class) });
+			cw.visitField(ACC_PRIVATE + ACC_FINAL, "types", TYPES, null, null).visitEnd();
+
+			mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(" + TYPES + ")V", null, null);
+			mv.visitCode();
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitFieldInsn(PUTFIELD, className, "types", TYPES);
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+
+			// 0:this, 1:rs, 2:bean, 3(,4):列值
+			mv = cw.visitMethod(ACC_PUBLIC, "map", "(Ljava/sql/ResultSet;)Ljava/lang/Object;", null, new String[] { "java/sql/SQLException" });
+			mv.visitCode();
+			mv.visitTypeInsn(NEW, owner);
+			mv.visitInsn(DUP);
+			mv.visitMethodInsn(INVOKESPECIAL, owner, "<init>", "()V", false);
+			mv.visitVarInsn(ASTORE, 2);
+			for (int i = 0; i < columns.length; i++) {
+				if (properties[i] != null) {
+					column(i, columns[i], properties[i]);
+				}
+			}
+			mv.visitVarInsn(ALOAD, 2);
+			mv.visitInsn(ARETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+
+			cw.visitEnd();
+			return cw.toByteArray();
+		}
+
+		private void column(int i, Column column, Property property) {
+			Class<?> type = property.type;
+			Class<?> primitive = type.isPrimitive() ? type : unbox(type);
+			String getter = getter(type, column);
+			Label nul = new Label();
+			Label end = new Label();
+			if (getter == null) { // getObject 后交给fastjson转换
+				call("getObject", Object.class, i);
+				mv.visitVarInsn(ASTORE, 3);
+				mv.visitVarInsn(ALOAD, 3);
+				mv.visitJumpInsn(IFNULL, nul);
+				mv.visitVarInsn(ALOAD, 2);
+				mv.visitVarInsn(ALOAD, 3);
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitFieldInsn(GETFIELD, className, "types", TYPES);
+				push(i);
+				mv.visitInsn(AALOAD);
+				mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(RowMapperGenerator.class), "cast", "(Ljava/lang/Object;Ljava/lang/reflect/Type;)Ljava/lang/Object;", false);
+				if (type.isPrimitive()) {
+					Class<?> wrapper = box(type);
+					mv.visitTypeInsn(CHECKCAST, Type.getInternalName(wrapper));
+					mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(wrapper), type.getName() + "Value", "()" + Type.getDescriptor(type), false);
+				} else {
+					mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+				}
+			} else if (primitive == null) { // getString, getBigDecimal, getTimestamp, getDate, null 照样赋值
+				mv.visitVarInsn(ALOAD, 2);
+				call(getter, getter.equals("getString") ? String.class : getter.equals("getBigDecimal") ? BigDecimal.class : getter.equals("getTimestamp") ? Timestamp.class : java.sql.Date.class, i);
+			} else { // 基本类型: 取值后判断wasNull
+				Type t = Type.getType(primitive);
+				call(getter, primitive, i);
+				mv.visitVarInsn(t.getOpcode(ISTORE), 3);
+				mv.visitVarInsn(ALOAD, 1);
+				mv.visitMethodInsn(INVOKEINTERFACE, RS, "wasNull", "()Z", true);
+				mv.visitJumpInsn(IFNE, nul);
+				mv.visitVarInsn(ALOAD, 2);
+				mv.visitVarInsn(t.getOpcode(ILOAD), 3);
+				if (!type.isPrimitive()) {
+					mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(type), "valueOf", "(" + t.getDescriptor() + ")" + Type.getDescriptor(type), false);
+				}
+			}
+			assign(property);
+			if (getter == null || primitive != null) {
+				mv.visitJumpInsn(GOTO, end);
+				mv.visitLabel(nul);
+				if (!type.isPrimitive()) { // 列值为null: 包装类型赋null, 基本类型保持默认值(同fastjson)
+					mv.visitVarInsn(ALOAD, 2);
+					mv.visitInsn(ACONST_NULL);
+					assign(property);
+				}
+				mv.visitLabel(end);
+			}
+		}
+
+		// rs.getXxx(index)
+		private void call(String getter, Class<?> returnType, int i) {
+			mv.visitVarInsn(ALOAD, 1);
+			push(i + 1);
+			mv.visitMethodInsn(INVOKEINTERFACE, RS, getter, "(I)" + Type.getDescriptor(returnType), true);
+		}
+
+		private void push(int value) {
+			if (value <= 5) {
+				mv.visitInsn(ICONST_0 + value);
+			} else if (value <= Byte.MAX_VALUE) {
+				mv.visitIntInsn(BIPUSH, value);
+			} else {
+				mv.visitIntInsn(SIPUSH, value);
+			}
+		}
+
+		private void assign(Property property) {
+			if (property.setter != null) {
+				Method setter = property.setter;
+				mv.visitMethodInsn(INVOKEVIRTUAL, owner, setter.getName(), Type.getMethodDescriptor(setter), false);
+				if (setter.getReturnType() != void.class) { // 如: 返回this的setter
+					mv.visitInsn(POP);
+				}
+			} else {
+				mv.visitFieldInsn(PUTFIELD, owner, property.field.getName(), Type.getDescriptor(property.type));
+			}
+		}
+	}
+
+	// 列的SQL类型与属性类型恰好对应时用哪个JDBC方法取值, 返回null表示用getObject取值再转换
+	private static String getter(Class<?> type, Column column) {
+		int t = column.sqlType;
+		boolean small = t == Types.SMALLINT || t == Types.TINYINT;
+		if (type == String.class) {
+			return t == Types.CHAR || t == Types.VARCHAR || t == Types.LONGVARCHAR || t == Types.NCHAR || t == Types.NVARCHAR || t == Types.LONGNVARCHAR ? "getString" : null;
+		} else if (type == int.class || type == Integer.class) {
+			return small || (t == Types.INTEGER && column.signed) ? "getInt" : null;
+		} else if (type == long.class || type == Long.class) {
+			return small || t == Types.INTEGER || (t == Types.BIGINT && column.signed) ? "getLong" : null;
+		} else if (type == double.class || type == Double.class) {
+			return t == Types.DOUBLE ? "getDouble" : null;
+		} else if (type == float.class || type == Float.class) {
+			return t == Types.REAL ? "getFloat" : null;
+		} else if (type == boolean.class || type == Boolean.class) {
+			return t == Types.BOOLEAN || (t == Types.BIT && column.precision <= 1) ? "getBoolean" : null;
+		} else if (type == BigDecimal.class) {
+			return t == Types.DECIMAL || t == Types.NUMERIC ? "getBigDecimal" : null;
+		} else if (type == Timestamp.class || type == Date.class) {
+			if (t == Types.TIMESTAMP) {
+				return "getTimestamp";
+			}
+			return t == Types.DATE && type == Date.class ? "getDate" : null;
+		} else if (type == java.sql.Date.class) {
+			return t == Types.DATE ? "getDate" : null;
+		}
+		return null;
+	}
+
+	// 包装类型对应的基本类型, 不是包装类型返回null
+	private static Class<?> unbox(Class<?> type) {
+		for (Class<?> p : new Class<?>[] { boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class }) {
+			if (box(p) == type) {
+				return p;
+			}
+		}
+		return null;
+	}
+
+	private static Class<?> box(Class<?> primitive) {
+		if (primitive == boolean.class) {
+			return Boolean.class;
+		} else if (primitive == byte.class) {
+			return Byte.class;
+		} else if (primitive == char.class) {
+			return Character.class;
+		} else if (primitive == short.class) {
+			return Short.class;
+		} else if (primitive == int.class) {
+			return Integer.class;
+		} else if (primitive == long.class) {
+			return Long.class;
+		} else if (primitive == float.class) {
+			return Float.class;
+		} else {
+			return Double.class;
+		}
+	}
+}
@@ -0,0 +1,659 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.asm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 把命名查询模板解析成语法树, 仅支持Velocity语法的一个子集: <br>
+ * #if/#elseif/#else/#end, #foreach($x in $list), $name, ${name}, $!name, $!{name}, $foreach.count/index/hasNext/first/last, ## 和 #* *# 注释. <br>
+ * 条件里支持 !, &amp;&amp;, ||, ==, !=, &gt;, &gt;=, &lt;, &lt;=, 括号, 数字, 字符串, true, false. <br>
+ * 遇到子集之外的写法抛出 Unsupported, 由调用者退回到Velocity. 指令后紧跟的换行会被吞掉, 与Velocity的默认行为一致.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class TemplateParser {
+
+	// 子集之外的指令, 一旦出现就交给Velocity
+	private static final Set<String> OTHER_DIRECTIVES = new HashSet<>(Arrays.asList("set", "macro", "parse", "include", "define", "break", "stop", "evaluate"));
+
+	private static final Set<String> FOREACH_PROPERTIES = new HashSet<>(Arrays.asList("count", "index", "hasNext", "first", "last"));
+
+	private final String src;
+	private final int len;
+	private int pos;
+	private int loops; // 当前所处的#foreach层数
+
+	private TemplateParser(String src) {
+		this.src = src;
+		this.len = src.length();
+	}
+
+	/**
+	 * 解析模板
+	 * 
+	 * @param src 模板
+	 * @return 节点集
+	 * @throws Unsupported 模板超出了支持的子集
+	 */
+	static List<Object> parse(String src) {
+		TemplateParser parser = new TemplateParser(src);
+		List<Object> nodes = new ArrayList<>();
+		String end = parser.block(nodes);
+		if (end != null) { // 多余的 #else/#elseif/#end
+			throw new Unsupported();
+		}
+		return nodes;
+	}
+
+	// 解析到 #elseif/#else/#end 或模板结束为止, 返回遇到的那个指令名, 模板结束返回null
+	private String block(List<Object> nodes) {
+		StringBuilder text = new StringBuilder();
+		while (pos < len) {
+			char c = src.charAt(pos);
+			if (c == '\\' && pos + 1 < len && (src.charAt(pos + 1) == '$' || src.charAt(pos + 1) == '#')) {
+				throw new Unsupported(); // 转义
+			} else if (c == '$') {
+				reference(text, nodes);
+			} else if (c == '#') {
+				String end = hash(text, nodes);
+				if (end != null) {
+					return end;
+				}
+			} else {
+				text.append(c);
+				pos++;
+			}
+		}
+		flush(text, nodes);
+		return null;
+	}
+
+	private static void flush(StringBuilder text, List<Object> nodes) {
+		if (text.length() != 0) {
+			nodes.add(new Text(text.toString()));
+			text.setLength(0);
+		}
+	}
+
+	// $name ${name} $!name $!{name} $foreach.xxx
+	private void reference(StringBuilder text, List<Object> nodes) {
+		int start = pos;
+		int p = pos + 1;
+		boolean quiet = p < len && src.charAt(p) == '!';
+		if (quiet) {
+			p++;
+		}
+		boolean braced = p < len && src.charAt(p) == '{';
+		if (braced) {
+			p++;
+		}
+		int end = identifier(p);
+		if (end == p) {
+			if (quiet || braced || !Character.isWhitespace(charAt(pos + 1)) || nextNonBlank(p) == '#') {
+				throw new Unsupported();
+			}
+			text.append('$');
+			pos++;
+			return;
+		}
+		String name = src.substring(p, end);
+		Operand operand;
+		if (braced) {
+			if (end >= len || src.charAt(end) != '}') {
+				throw new Unsupported();
+			}
+			end++;
+			operand = Operand.var(name);
+		} else if (end < len && src.charAt(end) == '[') {
+			throw new Unsupported();
+		} else if (end + 1 < len && src.charAt(end) == '.' && isIdentifierStart(src.charAt(end + 1))) {
+			int e = identifier(end + 1);
+			operand = foreach(name, src.substring(end + 1, e));
+			end = e;
+			if (end < len && (src.charAt(end) == '.' || src.charAt(end) == '(' || src.charAt(end) == '[' || src.charAt(end) == '$' || src.startsWith("#*", end) || src.startsWith("##", end))) {
+				throw new Unsupported();
+			}
+		} else {
+			operand = Operand.var(name);
+		}
+		if ("foreach".equals(name) && operand.kind == Operand.VAR) {
+			throw new Unsupported();
+		}
+		flush(text, nodes);
+		nodes.add(new Ref(operand, quiet ? "" : src.substring(start, end)));
+		pos = end;
+	}
+
+	// $foreach.xxx, 只能出现在#foreach内部
+	private Operand foreach(String name, String property) {
+		if (!"foreach".equals(name) || !FOREACH_PROPERTIES.contains(property) || loops == 0) {
+			throw new Unsupported();
+		}
+		return new Operand(Operand.FOREACH, property, null);
+	}
+
+	// 以"#"开头: 注释, 指令或者普通文本
+	private String hash(StringBuilder text, List<Object> nodes) {
+		int p = pos + 1;
+		if (p < len && src.charAt(p) == '#') { // 行注释, 连同换行一起去掉
+			int nl = src.indexOf('\n', p);
+			if (nl == -1 && charAt(p + 1) == '*') {
+				throw new Unsupported(); // 如: 结尾处的"##* c *#", Velocity 解析失败
+			}
+			pos = nl == -1 ? len : nl + 1;
+			return null;
+		}
+		if (p < len && src.charAt(p) == '*') { // 块注释
+			int close = src.indexOf("*#", p + 1);
+			if (close == -1) {
+				throw new Unsupported();
+			}
+			pos = close + 2;
+			return null;
+		}
+		if (p < len && src.charAt(p) == '[') {
+			throw new Unsupported();
+		}
+		boolean braced = p < len && src.charAt(p) == '{';
+		if (braced) {
+			p++;
+		}
+		int end = directiveName(p);
+		String name = src.substring(p, end);
+		if (braced && !name.isEmpty()) {
+			if (end >= len || src.charAt(end) != '}') {
+				throw new Unsupported();
+			}
+			end++;
+		} else if (!name.isEmpty() && isIdentifierPart(charAt(end))) {
+			throw new Unsupported(); // 如: #end2
+		}
+		if (!isDirective(name)) {
+			if (OTHER_DIRECTIVES.contains(name) || startsWithDirective(name) || (!name.isEmpty() && nextNonBlank(end) == '(')) {
+				throw new Unsupported();
+			}
+			if (name.isEmpty() && !Character.isWhitespace(charAt(pos + 1)) && !(braced && charAt(p) == '#')) {
+				throw new Unsupported(); // 只认 "# ", "#{#" 和 "#name" 为普通文本
+			}
+			if (name.isEmpty() && !braced && nextNonBlank(end) == '#') {
+				throw new Unsupported(); // 如: "#	#end", Velocity 会吞掉前面的"#"
+			}
+			text.append('#'); // 普通文本, 如: #{#where}
+			pos++;
+			return null;
+		}
+
+		gobbleLeading(text);
+		flush(text, nodes);
+		pos = end;
+		switch (name) {
+		case "if":
+			ifDirective(nodes);
+			return null;
+		case "foreach":
+			foreachDirective(nodes);
+			return null;
+		case "elseif":
+			return name;
+		default: // else, end
+			gobbleTrailing();
+			return name;
+		}
+	}
+
+	private void ifDirective(List<Object> nodes) {
+		If node = new If();
+		String end = "elseif";
+		while ("elseif".equals(end)) {
+			Expr cond = condition();
+			List<Object> body = new ArrayList<>();
+			end = block(body);
+			node.conditions.add(cond);
+			node.bodies.add(body);
+		}
+		if ("else".equals(end)) {
+			node.otherwise = new ArrayList<>();
+			end = block(node.otherwise);
+		}
+		if (!"end".equals(end)) {
+			throw new Unsupported();
+		}
+		nodes.add(node);
+	}
+
+	private void foreachDirective(List<Object> nodes) {
+		open();
+		skipBlank();
+		if (pos >= len || src.charAt(pos) != '$') {
+			throw new Unsupported();
+		}
+		int end = identifier(pos + 1);
+		if (end == pos + 1) {
+			throw new Unsupported();
+		}
+		String var = src.substring(pos + 1, end);
+		pos = end;
+		if (!Character.isWhitespace(peek())) {
+			throw new Unsupported();
+		}
+		skipBlank();
+		if (!src.startsWith("in", pos) || !Character.isWhitespace(charAt(pos + 2))) {
+			throw new Unsupported();
+		}
+		pos += 2;
+		skipBlank();
+		Operand list = operand();
+		if (list.kind != Operand.VAR) {
+			throw new Unsupported();
+		}
+		close();
+
+		Foreach node = new Foreach(var, list);
+		loops++;
+		String end2 = block(node.body);
+		loops--;
+		if (!"end".equals(end2)) {
+			throw new Unsupported();
+		}
+		nodes.add(node);
+	}
+
+	// #if(...) 或 #elseif(...) 的条件部分
+	private Expr condition() {
+		open();
+		Expr expr = or();
+		close();
+		return expr;
+	}
+
+	private void open() {
+		skipSpace();
+		if (pos >= len || src.charAt(pos) != '(') {
+			throw new Unsupported();
+		}
+		pos++;
+	}
+
+	private void close() {
+		skipBlank();
+		if (pos >= len || src.charAt(pos) != ')') {
+			throw new Unsupported();
+		}
+		pos++;
+		gobbleTrailing();
+	}
+
+	private Expr or() {
+		Expr left = and();
+		while (skipBlank() && src.startsWith("||", pos)) {
+			pos += 2;
+			left = new Logic(false, left, and());
+		}
+		return left;
+	}
+
+	private Expr and() {
+		Expr left = comparison();
+		while (skipBlank() && src.startsWith("&&", pos)) {
+			pos += 2;
+			left = new Logic(true, left, comparison());
+		}
+		return left;
+	}
+
+	// "!" 的优先级高于比较运算符, 如: !$a > 1 即 (!$a) > 1
+	private Expr not() {
+		skipBlank();
+		if (peek() == '!' && charAt(pos + 1) != '=') {
+			pos++;
+			return new Not(not());
+		}
+		return primary();
+	}
+
+	private Expr comparison() {
+		Expr left = not();
+		skipBlank();
+		int op = -1;
+		String[] ops = { "==", "!=", ">=", "<=", ">", "<" };
+		int[] codes = { 0, 1, 3, 5, 2, 4 }; // 与 CompiledTemplate 中的常量对应
+		for (int i = 0; i < ops.length; i++) {
+			if (src.startsWith(ops[i], pos)) {
+				op = codes[i];
+				pos += ops[i].length();
+				break;
+			}
+		}
+		if (op == -1) {
+			return left;
+		}
+		return new Compare(op, left, not());
+	}
+
+	private Expr primary() {
+		skipBlank();
+		if (peek() == '(') {
+			pos++;
+			Expr expr = or();
+			skipBlank();
+			if (peek() != ')') {
+				throw new Unsupported();
+			}
+			pos++;
+			return expr;
+		}
+		return operand();
+	}
+
+	private Operand operand() {
+		char c = peek();
+		if (c == '$') {
+			int p = pos + 1;
+			if (charAt(p) == '!') {
+				p++;
+			}
+			boolean braced = charAt(p) == '{';
+			if (braced) {
+				p++;
+			}
+			int end = identifier(p);
+			if (end == p) {
+				throw new Unsupported();
+			}
+			String name = src.substring(p, end);
+			Operand operand;
+			if (braced) {
+				if (charAt(end) != '}') {
+					throw new Unsupported();
+				}
+				end++;
+				operand = Operand.var(name);
+			} else if (charAt(end) == '.') {
+				int e = identifier(end + 1);
+				operand = foreach(name, src.substring(end + 1, e));
+				end = e;
+			} else {
+				operand = Operand.var(name);
+			}
+			if ("foreach".equals(name) && operand.kind == Operand.VAR || charAt(end) == '.' || charAt(end) == '[' || charAt(end) == '(') {
+				throw new Unsupported();
+			}
+			pos = end;
+			return operand;
+		} else if (c == '"' || c == '\'') {
+			int close = src.indexOf(c, pos + 1);
+			if (close == -1) {
+				throw new Unsupported();
+			}
+			String str = src.substring(pos + 1, close);
+			if (str.indexOf('\\') != -1 || (c == '"' && (str.indexOf('$') != -1 || str.indexOf('#') != -1))) {
+				throw new Unsupported(); // 转义或字符串插值
+			}
+			pos = close + 1;
+			return new Operand(Operand.LITERAL, null, str);
+		} else if (Character.isDigit(c) || (c == '-' && Character.isDigit(charAt(pos + 1)))) {
+			return number();
+		} else if (startsWithWord("true")) {
+			pos += 4;
+			return new Operand(Operand.LITERAL, null, Boolean.TRUE);
+		} else if (startsWithWord("false")) {
+			pos += 5;
+			return new Operand(Operand.LITERAL, null, Boolean.FALSE);
+		}
+		throw new Unsupported();
+	}
+
+	private Operand number() {
+		int p = pos;
+		if (src.charAt(p) == '-') {
+			p++;
+		}
+		while (Character.isDigit(charAt(p))) {
+			p++;
+		}
+		boolean decimal = charAt(p) == '.' && Character.isDigit(charAt(p + 1));
+		if (decimal) {
+			p++;
+			while (Character.isDigit(charAt(p))) {
+				p++;
+			}
+		}
+		if (Character.isLetterOrDigit(charAt(p)) || charAt(p) == '.' || charAt(p) == '_') {
+			throw new Unsupported();
+		}
+		String str = src.substring(pos, p);
+		pos = p;
+		Object value;
+		if (decimal) {
+			value = Double.valueOf(str);
+		} else {
+			long l = Long.parseLong(str);
+			value = l == (int) l ? Integer.valueOf((int) l) : (Object) Long.valueOf(l);
+		}
+		return new Operand(Operand.LITERAL, null, value);
+	}
+
+	private boolean startsWithWord(String word) {
+		return src.startsWith(word, pos) && !isIdentifierPart(charAt(pos + word.length()));
+	}
+
+	// 指令所在行的前面只有空白, 那么去掉这些空白
+	private void gobbleLeading(StringBuilder text) {
+		int i = pos;
+		while (i > 0 && (src.charAt(i - 1) == ' ' || src.charAt(i - 1) == '\t')) {
+			i--;
+		}
+		if ((i == 0 || src.charAt(i - 1) == '\n') && pos - i <= text.length()) {
+			text.setLength(text.length() - (pos - i));
+		}
+	}
+
+	// 指令后紧跟的空白和换行去掉
+	private void gobbleTrailing() {
+		int p = pos;
+		while (p < len && (src.charAt(p) == ' ' || src.charAt(p) == '\t')) {
+			p++;
+		}
+		if (p < len && src.charAt(p) == '\r') {
+			p++;
+		}
+		if (p < len && src.charAt(p) == '\n') {
+			pos = p + 1;
+		}
+	}
+
+	private boolean skipBlank() {
+		while (pos < len && Character.isWhitespace(src.charAt(pos))) {
+			pos++;
+		}
+		return true;
+	}
+
+	private void skipSpace() {
+		while (pos < len && src.charAt(pos) == ' ') {
+			pos++;
+		}
+	}
+
+	private char nextNonBlank(int from) {
+		int p = from;
+		while (p < len && Character.isWhitespace(src.charAt(p))) {
+			p++;
+		}
+		return charAt(p);
+	}
+
+	private char peek() {
+		return charAt(pos);
+	}
+
+	private char charAt(int i) {
+		return i < len ? src.charAt(i) : '\0';
+	}
+
+	private int identifier(int from) {
+		if (from >= len || !isIdentifierStart(src.charAt(from))) {
+			return from;
+		}
+		int p = from + 1;
+		while (p < len && isIdentifierPart(src.charAt(p))) {
+			p++;
+		}
+		return p;
+	}
+
+	private int directiveName(int from) {
+		int p = from;
+		while (p < len && Character.isLetter(src.charAt(p))) {
+			p++;
+		}
+		return p;
+	}
+
+	private static boolean isIdentifierStart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return isIdentifierStart(c) || (c >= '0' && c <= '9');
+	}
+
+	private static boolean isDirective(String name) {
+		return "if".equals(name) || "elseif".equals(name) || "else".equals(name) || "end".equals(name) || "foreach".equals(name);
+	}
+
+	private static boolean startsWithDirective(String name) {
+		return name.startsWith("if") || name.startsWith("else") || name.startsWith("end") || name.startsWith("foreach");
+	}
+
+	/**
+	 * 模板超出了支持的子集
+	 */
+	static final class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	// 文本
+	static final class Text {
+		final String text;
+
+		Text(String text) {
+			this.text = text;
+		}
+	}
+
+	// 输出一个引用
+	static final class Ref {
+		final Operand operand;
+		final String raw; // 值为null时的输出
+
+		Ref(Operand operand, String raw) {
+			this.operand = operand;
+			this.raw = raw;
+		}
+	}
+
+	static final class If {
+		final List<Expr> conditions = new ArrayList<>();
+		final List<List<Object>> bodies = new ArrayList<>();
+		List<Object> otherwise; // #else, 没有为null
+	}
+
+	static final class Foreach {
+		final String var;
+		final Operand list;
+		final List<Object> body = new ArrayList<>();
+
+		Foreach(String var, Operand list) {
+			this.var = var;
+			this.list = list;
+		}
+	}
+
+	abstract static class Expr {
+	}
+
+	// 变量, $foreach的属性, 或字面量
+	static final class Operand extends Expr {
+		static final int VAR = 0;
+		static final int FOREACH = 1;
+		static final int LITERAL = 2;
+
+		final int kind;
+		final String name; // 变量名 或 $foreach的属性名
+		final Object value; // 字面量
+
+		Operand(int kind, String name, Object value) {
+			this.kind = kind;
+			this.name = name;
+			this.value = value;
+		}
+
+		static Operand var(String name) {
+			return new Operand(VAR, name, null);
+		}
+	}
+
+	static final class Not extends Expr {
+		final Expr expr;
+
+		Not(Expr expr) {
+			this.expr = expr;
+		}
+	}
+
+	// && 或 ||
+	static final class Logic extends Expr {
+		final boolean and;
+		final Expr left;
+		final Expr right;
+
+		Logic(boolean and, Expr left, Expr right) {
+			this.and = and;
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	// 比较运算, 操作数若不是Operand, 则取其真假
+	static final class Compare extends Expr {
+		final int op;
+		final Expr left;
+		final Expr right;
+
+		Compare(int op, Expr left, Expr right) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+	}
+}
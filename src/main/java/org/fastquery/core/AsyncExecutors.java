@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.fastquery.util.FastQueryJSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 异步方法(返回CompletableFuture&lt;T&gt;)的执行器. 每个数据源一个有界的线程池, 线程数和队列容量取自fastquery.json, 
+ * 这样异步任务同时占用的连接数不会超过线程数. JVM支持虚拟线程时, 工作线程用虚拟线程.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class AsyncExecutors {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AsyncExecutors.class);
+
+	// 按数据源实例区分(DataSource的equals可能被实现成别的含义), 取线程池时不加全局锁
+	private static final ConcurrentMap<Key, ExecutorService> EXECUTORS = new ConcurrentHashMap<>();
+
+	private static final AtomicInteger POOL_NUMBER = new AtomicInteger(1);
+
+	private static final MethodHandle VIRTUAL_FACTORY = virtualFactory(); // 不支持虚拟线程为null
+
+	private AsyncExecutors() {
+	}
+
+	/**
+	 * 在数据源对应的线程池里执行任务, 队列已满时返回以RepositoryException结束的future
+	 * 
+	 * @param dataSource 数据源
+	 * @param task 任务
+	 * @return future
+	 */
+	static <T> CompletableFuture<T> submit(DataSource dataSource, Supplier<T> task) {
+		try {
+			return CompletableFuture.supplyAsync(task, executor(dataSource));
+		} catch (RejectedExecutionException e) {
+			return failed(new RepositoryException("异步任务队列已满(asyncQueueSize), 任务被拒绝执行", e));
+		}
+	}
+
+	static <T> CompletableFuture<T> failed(Throwable e) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(e);
+		return future;
+	}
+
+	private static ExecutorService executor(DataSource dataSource) {
+		Key key = new Key(dataSource);
+		ExecutorService cached = EXECUTORS.get(key); // Java 8 的computeIfAbsent即便已有值也会锁住桶, 先查一次
+		return cached != null ? cached : EXECUTORS.computeIfAbsent(key, k -> {
+			DataSource ds = k.dataSource;
+			int size = FastQueryJSONObject.getAsyncPoolSize();
+			int queueSize = FastQueryJSONObject.getAsyncQueueSize();
+			ThreadFactory factory = threadFactory("fastquery-async-" + POOL_NUMBER.getAndIncrement() + "-");
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), factory);
+			executor.allowCoreThreadTimeOut(true);
+			LOG.info("为数据源 {} 创建异步线程池, 线程数:{}, 队列容量:{}", ds, size, queueSize);
+			return executor;
+		});
+	}
+
+	// 以数据源的同一性作为键
+	private static final class Key {
+		private final DataSource dataSource;
+
+		Key(DataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(dataSource);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).dataSource == dataSource;
+		}
+	}
+
+	private static ThreadFactory threadFactory(String prefix) {
+		if (VIRTUAL_FACTORY != null && FastQueryJSONObject.getAsyncVirtualThreads()) {
+			try {
+				return (ThreadFactory) VIRTUAL_FACTORY.invoke(prefix);
+			} catch (Throwable e) {
+				LOG.warn("无法创建虚拟线程工厂, 改用平台线程", e);
+			}
+		}
+		AtomicInteger number = new AtomicInteger(1);
+		return r -> {
+			Thread t = new Thread(r, prefix + number.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	// Thread.ofVirtual().name(prefix, 1).factory(), Java 21 以前的JVM返回null
+	private static MethodHandle virtualFactory() {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+			MethodHandle create = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtual));
+			MethodHandle name = lookup.findVirtual(ofVirtual, "name", MethodType.methodType(ofVirtual, String.class, long.class));
+			MethodHandle factory = lookup.findVirtual(builder, "factory", MethodType.methodType(ThreadFactory.class));
+			MethodHandle named = MethodHandles.insertArguments(name, 2, 1L); // (OfVirtual, String) -> OfVirtual
+			named = MethodHandles.collectArguments(named, 0, create); // (String) -> OfVirtual
+			return MethodHandles.filterReturnValue(named, factory.asType(MethodType.methodType(ThreadFactory.class, ofVirtual)));
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+}
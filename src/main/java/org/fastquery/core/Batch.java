@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标识批量改操作: 方法只有一个集合(或数组)参数(&#064;Source除外), 集合中的每个成员绑定到同一条&#064;Query, 
+ * 在一个连接和事务里每batchSize(见fastquery.json)个成员执行一次executeBatch. <br>
+ * 成员是Object[]时, "?N"对应数组的第N个元素; 成员是实体时, ":name"对应实体的属性. <br>
+ * 返回值可以是: int[] 每个成员的影响行数, int 影响行数之和, void. 如:
+ * 
+ * <pre>
+ * &#064;Batch
+ * &#064;Modifying
+ * &#064;Query("update t set status = ?1 where id = ?2")
+ * int[] updateStatus(List&lt;Object[]&gt; rows);
+ * </pre>
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@Documented
+public @interface Batch {
+}
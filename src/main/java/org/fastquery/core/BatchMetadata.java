@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.fastquery.struct.SQLValue;
+import org.fastquery.util.TypeUtil;
+
+/**
+ * &#064;Batch 方法的元数据: 集合参数的位置, 成员的绑定方式和编译后的SQL
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class BatchMetadata {
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private final int index; // 集合参数的索引
+	private final SQLTemplate template;
+	private final MethodHandle[] getters; // 成员是实体时的属性取值器, 成员是Object[]时为null
+	private final int width; // 成员是Object[]时, 数组至少要有几个元素
+
+	private BatchMetadata(int index, SQLTemplate template, MethodHandle[] getters) {
+		this.index = index;
+		this.template = template;
+		this.getters = getters;
+		this.width = Arrays.stream(template.getParams()).max().orElse(-1) + 1;
+	}
+
+	/**
+	 * 解析 &#064;Batch 方法, 声明不正确时抛出 RepositoryException
+	 * 
+	 * @param method 方法
+	 * @return 元数据
+	 */
+	public static BatchMetadata of(Method method) {
+		Query[] queries = method.getAnnotationsByType(Query.class);
+		if (queries.length != 1 || method.getAnnotation(QueryByNamed.class) != null) {
+			throw new RepositoryException("@Batch 方法必须有且只有一个@Query");
+		}
+		String sql = queries[0].value();
+		int sourceIndex = TypeUtil.findAnnotationIndex(Source.class, method.getParameters());
+		Type[] types = method.getGenericParameterTypes();
+		int index = -1;
+		for (int i = 0; i < types.length; i++) {
+			if (i != sourceIndex) {
+				if (index != -1) {
+					throw new RepositoryException("@Batch 方法除了@Source, 只能有一个集合或数组参数");
+				}
+				index = i;
+			}
+		}
+		Class<?> elementType = index == -1 ? null : elementType(types[index]);
+		if (elementType == null) {
+			throw new RepositoryException("@Batch 方法需要一个元素类型明确的集合或数组参数, 如: List<Object[]>, Collection<Bean>, Bean[]");
+		}
+
+		if (elementType.isArray()) {
+			if (elementType.getComponentType().isPrimitive()) {
+				throw new RepositoryException("@Batch 的成员不能是基本类型数组, 请用Object[]");
+			}
+			return new BatchMetadata(index, SQLTemplate.compile(sql, null, false), null);
+		}
+
+		if (!TypeUtil.matchesNotrepeat(sql, Placeholder.SP1_REG).isEmpty()) {
+			throw new RepositoryException("@Batch 的成员是实体时, 只能用\":name\"绑定: " + sql);
+		}
+		// 只读取SQL中用到的属性
+		Map<String, Method> readers = new HashMap<>();
+		try {
+			for (PropertyDescriptor pd : Introspector.getBeanInfo(elementType, Object.class).getPropertyDescriptors()) {
+				if (pd.getReadMethod() != null) {
+					readers.put(pd.getName(), pd.getReadMethod());
+				}
+			}
+		} catch (IntrospectionException e) {
+			throw new RepositoryException(e);
+		}
+		Map<String, Integer> names = new HashMap<>();
+		List<MethodHandle> getters = new ArrayList<>();
+		for (String expression : TypeUtil.matchesNotrepeat(sql, Placeholder.EL_OR_COLON)) {
+			String name = expression.replace(":", "").replace("$", "").replace("{", "").replace("}", "");
+			if (Character.isDigit(name.charAt(0))) { // 如: '12:00'
+				continue;
+			}
+			Method reader = readers.get(name);
+			if (reader == null) {
+				throw new RepositoryException(String.format("@Batch 的成员%s中没有可读的属性\"%s\"", elementType.getName(), name));
+			}
+			if (!names.containsKey(name)) {
+				names.put(name, getters.size());
+				try {
+					reader.setAccessible(true);
+					getters.add(MethodHandles.lookup().unreflect(reader).asType(GETTER_TYPE));
+				} catch (IllegalAccessException e) {
+					throw new RepositoryException(e);
+				}
+			}
+		}
+		return new BatchMetadata(index, SQLTemplate.compile(sql, names), getters.toArray(new MethodHandle[getters.size()]));
+	}
+
+	// 集合或数组的成员类型, 不能确定返回null
+	private static Class<?> elementType(Type type) {
+		if (type instanceof Class) {
+			Class<?> clazz = (Class<?>) type;
+			return clazz.isArray() ? clazz.getComponentType() : null;
+		}
+		if (type instanceof ParameterizedType) {
+			ParameterizedType pt = (ParameterizedType) type;
+			if (pt.getRawType() instanceof Class && Iterable.class.isAssignableFrom((Class<?>) pt.getRawType())) {
+				Type arg = pt.getActualTypeArguments()[0];
+				if (arg instanceof Class) {
+					return (Class<?>) arg;
+				} else if (arg instanceof ParameterizedType) {
+					return (Class<?>) ((ParameterizedType) arg).getRawType();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 把集合参数中的每个成员渲染成SQL, 渲染是延迟的
+	 * 
+	 * @param args 方法的实参
+	 * @param table "#{#table}"的值
+	 * @param id "#{#id}"的值
+	 * @return SQL和值
+	 */
+	Iterator<SQLValue> sqlValues(Object[] args, String table, String id) {
+		Object arg = args[index];
+		if (arg == null) {
+			throw new RepositoryException("@Batch 方法的集合参数不能为null");
+		}
+		Iterator<?> elements = arg.getClass().isArray() ? Arrays.asList((Object[]) arg).iterator() : ((Iterable<?>) arg).iterator();
+		return new Iterator<SQLValue>() {
+			@Override
+			public boolean hasNext() {
+				return elements.hasNext();
+			}
+
+			@Override
+			public SQLValue next() {
+				return template.render(null, bind(elements.next()), table, id);
+			}
+		};
+	}
+
+	// 成员 -> 模板的实参
+	private Object[] bind(Object element) {
+		if (element == null) {
+			throw new RepositoryException("@Batch 方法的集合中不能有null");
+		}
+		if (getters == null) {
+			Object[] row = (Object[]) element;
+			if (row.length < width) {
+				throw new RepositoryException(String.format("@Batch 的SQL需要%d个值, 而%s只有%d个", width, Arrays.toString(row), row.length));
+			}
+			return row;
+		}
+		Object[] values = new Object[getters.length];
+		try {
+			for (int i = 0; i < values.length; i++) {
+				values[i] = (Object) getters[i].invokeExact(element);
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RepositoryException(e);
+		}
+		return values;
+	}
+}
@@ -22,9 +22,9 @@
 
 package org.fastquery.core;
 
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -32,17 +32,24 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
+import org.fastquery.asm.RowMapperGenerator;
+import org.fastquery.dialect.Dialect;
+import org.fastquery.dialect.Dialects;
 import org.fastquery.struct.RespUpdate;
+import org.fastquery.struct.RowMap;
 import org.fastquery.struct.SQLValue;
 import org.fastquery.util.BeanUtil;
-import org.fastquery.where.I18n;
+import org.fastquery.util.EntityMetadata;
+import org.fastquery.util.SQLScriptReader;
+import org.fastquery.util.TypeUtil;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
@@ -60,25 +67,82 @@ public class DB {
 	}
 
 	public static List<Map<String, Object>> find(SQLValue sqlValue) {
+		return find(sqlValue, rs -> rs2Map(rs, QueryContext.getMetadata().getI18nFields()));
+	}
 
-		String sql = sqlValue.getSql();
-		List<Object> objs = sqlValue.getValues();
-		List<Map<String, Object>> keyvals = null;
-		Connection conn = QueryContext.getConnection();
+	/**
+	 * 查询, 并把每一行直接映射成实体
+	 * 
+	 * @param sqlValue 待执行的SQL
+	 * @param beanType 实体的class
+	 * @param <T> 实体类型
+	 * @return 实体集
+	 */
+	public static <T> List<T> find(SQLValue sqlValue, Class<T> beanType) {
+		return find(sqlValue, rs -> rs2Bean(rs, beanType, QueryContext.getMetadata().getI18nFields()));
+	}
+
+	/**
+	 * 流式查询, 返回的游标接管当前连接, 直到游标关闭才释放.
+	 * 
+	 * @param sqlValue 待执行的SQL
+	 * @param rowType 行对应的类型, 支持 Map, JSONObject, 包装类型, 实体
+	 * @param fetchSize 每次从数据库抓取的行数, 0 表示由驱动决定
+	 * @param <T> 行类型
+	 * @return 游标
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> RowCursor<T> cursor(SQLValue sqlValue, Class<T> rowType, int fetchSize) {
 		PreparedStatement stat = null;
 		ResultSet rs = null;
 		try {
-			QueryContext.addSqls(sql);
-			info(sql, objs);
-			stat = conn.prepareStatement(sql);
-			// 设置sql参数值
-			int lenTmp = objs.size();
-			for (int i = 0; i < lenTmp; i++) {
-				stat.setObject(i + 1, objs.get(i));
+			stat = prepare(sqlValue, fetchSize);
+			rs = stat.executeQuery();
+			RowMapper<T> mapper = (RowMapper<T>) rowMapper(rs, rowType, QueryContext.getMetadata().getI18nFields());
+			// 连接交给游标, QueryContext 生命周期结束时不再关闭它
+			return new RowCursor<>(rs, stat, QueryContext.detachConnection(), mapper);
+		} catch (Exception e) {
+			close(rs, stat);
+			throw new RepositoryException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * 流式查询, 每读取一行就回调一次, 结果集不会整体装入内存.
+	 * 
+	 * @param sqlValue 待执行的SQL
+	 * @param rowType 行对应的类型, 支持 Map, JSONObject, 包装类型, 实体
+	 * @param fetchSize 每次从数据库抓取的行数, 0 表示由驱动决定
+	 * @param handler 行处理器
+	 * @param <T> 行类型
+	 * @return 处理的行数
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> long each(SQLValue sqlValue, Class<T> rowType, int fetchSize, RowHandler<? super T> handler) {
+		return find(sqlValue, fetchSize, rs -> {
+			RowMapper<T> mapper = (RowMapper<T>) rowMapper(rs, rowType, QueryContext.getMetadata().getI18nFields());
+			long count = 0;
+			while (rs.next()) {
+				handler.handle(mapper.map(rs));
+				count++;
 			}
-			// 设置sql参数值 End
+			return count;
+		});
+	}
+
+	private static <R> R find(SQLValue sqlValue, ResultSetReader<R> reader) {
+		Integer fetchSize = QueryContext.getMetadata().getFetchSize();
+		return find(sqlValue, fetchSize != null ? fetchSize : 0, reader);
+	}
+
+	private static <R> R find(SQLValue sqlValue, int fetchSize, ResultSetReader<R> reader) {
+		R result = null;
+		PreparedStatement stat = null;
+		ResultSet rs = null;
+		try {
+			stat = prepare(sqlValue, fetchSize);
 			rs = stat.executeQuery();
-			keyvals = rs2Map(rs, QueryContext.getMethod());
+			result = reader.read(rs);
 			stat.close();
 		} catch (Exception e) {
 			throw new RepositoryException(e.getMessage(), e);
@@ -86,7 +150,35 @@ public class DB {
 			close(rs, stat);
 		}
 
-		return keyvals;
+		return result;
+	}
+
+	// 用当前连接预编译查询语句, 并设置好参数
+	private static PreparedStatement prepare(SQLValue sqlValue, int fetchSize) throws SQLException {
+		String sql = sqlValue.getSql();
+		List<Object> objs = sqlValue.getValues();
+		Connection conn = QueryContext.getConnection();
+		QueryContext.addSqls(sql);
+		info(sql, objs);
+		PreparedStatement stat = QueryContext.watch(conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY));
+		try {
+			if (fetchSize != 0) {
+				stat.setFetchSize(fetchSize);
+			}
+			setValues(stat, objs);
+		} catch (SQLException e) {
+			stat.close();
+			throw e;
+		}
+		return stat;
+	}
+
+	// 设置sql参数值
+	private static void setValues(PreparedStatement stat, List<Object> values) throws SQLException {
+		int len = values.size();
+		for (int i = 0; i < len; i++) {
+			stat.setObject(i + 1, values.get(i));
+		}
 	}
 
 	/**
@@ -103,7 +195,7 @@ public class DB {
 		List<RespUpdate> rus = null;
 		Connection conn = QueryContext.getConnection(); // 由QueryContext自动关闭
 		try {
-			QueryContext.setAutoCommit(false); // 关闭自动提交
+			QueryContext.begin(sqlValues.size()); // 多条语句时关闭自动提交
 			rus = modify(sqlValues, hasEffect, hasPK, conn);
 			QueryContext.commit(); // 提交事务
 		} catch (Exception e) {
@@ -118,69 +210,163 @@ public class DB {
 		return rus;
 	}
 
+	// 语句按原有顺序执行, 相邻且SQL相同的语句合并成一次executeBatch, 相同的SQL共用一个PreparedStatement.
+	// hasPK为true时才请求生成的主键
 	private static List<RespUpdate> modify(List<SQLValue> sqlValues, boolean hasEffect, boolean hasPK, Connection conn)
 			throws SQLException {
-		List<RespUpdate> rus = new ArrayList<>();
-		for (SQLValue sqlValue : sqlValues) {
-			ResultSet rs = null;
-			PreparedStatement stat = null;
-			RespUpdate ru = new RespUpdate();
-			try {
-				String sql = sqlValue.getSql();
-				QueryContext.addSqls(sql);
-				info(sql, sqlValue.getValues());
-				if (hasPK) {
-					stat = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+		int size = sqlValues.size();
+		List<RespUpdate> rus = new ArrayList<>(size);
+		Map<String, PreparedStatement> stats = new HashMap<>();
+		try {
+			int from = 0;
+			while (from < size) {
+				String sql = sqlValues.get(from).getSql();
+				int to = from + 1;
+				while (to < size && sql.equals(sqlValues.get(to).getSql())) {
+					to++;
+				}
+				PreparedStatement stat = stats.get(sql);
+				if (stat == null) {
+					stat = QueryContext.watch(hasPK ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) : conn.prepareStatement(sql));
+					stats.put(sql, stat);
+				}
+				int[] effects = new int[to - from];
+				if (to - from == 1) {
+					SQLValue sqlValue = sqlValues.get(from);
+					QueryContext.addSqls(sql);
+					info(sql, sqlValue.getValues());
+					setValues(stat, sqlValue.getValues());
+					if (hasEffect || hasPK) {
+						effects[0] = stat.executeUpdate();
+					}
 				} else {
-					stat = conn.prepareStatement(sql);
+					for (int k = from; k < to; k++) {
+						SQLValue sqlValue = sqlValues.get(k);
+						QueryContext.addSqls(sql);
+						info(sql, sqlValue.getValues());
+						setValues(stat, sqlValue.getValues());
+						stat.addBatch();
+					}
+					int[] counts = stat.executeBatch();
+					for (int k = 0; k < effects.length; k++) {
+						effects[k] = counts[k] == Statement.SUCCESS_NO_INFO ? 1 : counts[k];
+					}
 				}
-				List<Object> values = sqlValue.getValues();
-				int len = values.size();
-				for (int i = 0; i < len; i++) {
-					// 设置sql参数值
-					stat.setObject(i + 1, values.get(i));
+				Long[] pks = hasPK ? generatedKeys(stat, effects.length) : null;
+				for (int k = 0; k < effects.length; k++) {
+					RespUpdate ru = new RespUpdate();
+					if (hasEffect) {
+						ru.setEffect(effects[k]);
+					}
+					if (pks != null) {
+						ru.setPk(pks[k]);
+					}
+					rus.add(ru);
 				}
+				from = to;
+			}
+		} finally {
+			for (PreparedStatement stat : stats.values()) {
+				close(null, stat);
+			}
+		}
+		return rus;
+	}
 
-				if (hasEffect) {
-					ru.setEffect(stat.executeUpdate());
+	// 在一个事务里批量执行, 每batchSize条语句执行一次executeBatch, commitPerBatch为true时每批提交一次. 
+	// SQL相同的语句共用一个PreparedStatement(集合参数展开后SQL可能不同), 返回每条语句的影响行数
+	static int[] modifyBatch(Iterator<SQLValue> sqlValues, int batchSize, boolean commitPerBatch) {
+		Connection conn = QueryContext.getConnection();
+		Map<String, PreparedStatement> stats = new HashMap<>();
+		IntStream.Builder effects = IntStream.builder();
+		PreparedStatement stat = null; // 正在攒批的语句
+		int rows = 0; // 当前批次已攒下的行数
+		int pending = 0; // stat中尚未执行的行数
+		try {
+			QueryContext.setAutoCommit(false);
+			while (sqlValues.hasNext()) {
+				SQLValue sqlValue = sqlValues.next();
+				String sql = sqlValue.getSql();
+				PreparedStatement current = stats.get(sql);
+				if (current == null) {
+					QueryContext.addSqls(sql);
+					LOG.info(sql);
+					current = QueryContext.watch(conn.prepareStatement(sql));
+					stats.put(sql, current);
 				}
-
-				if (hasPK) {
-					rs = stat.getGeneratedKeys();
-					if (rs.next()) {
-						ru.setPk(rs.getLong(1));
+				if (current != stat) {
+					executeBatch(stat, pending, effects);
+					pending = 0;
+					stat = current;
+				}
+				setValues(stat, sqlValue.getValues());
+				stat.addBatch();
+				pending++;
+				if (++rows == batchSize) {
+					executeBatch(stat, pending, effects);
+					rows = 0;
+					pending = 0;
+					if (commitPerBatch) {
+						QueryContext.commit();
 					}
 				}
-				stat.close();
-			} catch (SQLException e) {
-				throw new SQLException(e);
-			} finally {
-				close(rs, stat);
 			}
+			executeBatch(stat, pending, effects);
+			QueryContext.commit();
+		} catch (Exception e) {
+			try {
+				QueryContext.rollback();
+			} catch (SQLException e1) {
+				throw new RepositoryException(e1);
+			}
+			throw new RepositoryException(e);
+		} finally {
+			for (PreparedStatement ps : stats.values()) {
+				close(null, ps);
+			}
+		}
+		return effects.build().toArray();
+	}
 
-			rus.add(ru);
+	private static void executeBatch(PreparedStatement stat, int rows, IntStream.Builder effects) throws SQLException {
+		if (rows == 0) {
+			return;
+		}
+		for (int count : stat.executeBatch()) {
+			effects.add(count == Statement.SUCCESS_NO_INFO ? 1 : count);
 		}
+	}
 
-		return rus;
+	// 依次取出生成的主键, 一条语句对应一个, 没有的为null
+	private static Long[] generatedKeys(PreparedStatement stat, int count) throws SQLException {
+		Long[] pks = new Long[count];
+		try (ResultSet rs = stat.getGeneratedKeys()) {
+			for (int i = 0; i < count && rs.next(); i++) {
+				pks[i] = rs.getLong(1);
+			}
+		}
+		return pks;
 	}
 
 	/**
 	 * 插入数据返回主键值,如果没有主键,返回null
 	 * 
-	 * @param dataSource
-	 * @param sql
-	 * @return
+	 * @param sqlValue 参数化的insert语句及其值
+	 * @return 主键值
 	 */
-	static Object insert(String sql) {
+	static Object insert(SQLValue sqlValue) {
 		Connection conn = null;
 		PreparedStatement stat = null;
 		ResultSet rs = null;
 		Object key = null;
+		String sql = sqlValue.getSql();
 		try {
 			conn = QueryContext.getConnection();
 			QueryContext.addSqls(sql);
-			QueryContext.setAutoCommit(false);
-			stat = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			info(sql, sqlValue.getValues());
+			QueryContext.begin(1);
+			stat = QueryContext.watch(conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS));
+			setValues(stat, sqlValue.getValues());
 			stat.executeUpdate();
 			rs = stat.getGeneratedKeys();
 			// 获取主键
@@ -203,95 +389,195 @@ public class DB {
 		return key;
 	}
 
-	static int insert2(String sql) {
-		Connection conn = null;
-		Statement stat = null;
-		ResultSet rs = null;
-		int i;
+	/**
+	 * 用参数化的insert语句批量插入实体, 每 batchSize 行执行一次executeBatch. <br>
+	 * 语句按实体class及主键是否有值确定, 相邻的实体语句相同时共用同一个PreparedStatement, 不同时先执行已攒下的批次.
+	 * 
+	 * @param beans 实体集
+	 * @param dbName 数据库名称, 可以为null
+	 * @param ignoreRepeat 忽略重复
+	 * @param batchSize 每批的行数
+	 * @param commitPerBatch 是否每执行一批就提交一次
+	 * @return 影响行数
+	 */
+	static int insertBatch(Iterable<?> beans, String dbName, boolean ignoreRepeat, int batchSize, boolean commitPerBatch) {
+		Connection conn = QueryContext.getConnection();
+		PreparedStatement stat = null;
+		Class<?> clazz = null;
+		boolean hasId = false;
+		int effect = 0;
+		int rows = 0; // 当前批次已攒下的行数
 		try {
-			conn = QueryContext.getConnection();
-			QueryContext.addSqls(sql);
 			QueryContext.setAutoCommit(false);
-			stat = conn.createStatement();
-			QueryContext.addSqls(sql);
-			i = stat.executeUpdate(sql);
-			QueryContext.commit();
-		} catch (SQLException e) {
-			if (conn != null) {
-				try {
-					QueryContext.rollback();
-				} catch (SQLException e1) {
-					throw new RepositoryException(e1);
+			for (Object bean : beans) {
+				if (bean == null) {
+					throw new RepositoryException("待插入的实体集中不能有null");
+				}
+				boolean id = BeanUtil.hasIdValue(bean);
+				if (stat == null || bean.getClass() != clazz || id != hasId) {
+					if (stat != null) {
+						effect += executeInsertBatch(stat, rows);
+						rows = 0;
+						stat.close();
+					}
+					clazz = bean.getClass();
+					hasId = id;
+					String sql = BeanUtil.toInsertSQL(clazz, dbName, ignoreRepeat, hasId);
+					QueryContext.addSqls(sql);
+					LOG.info(sql);
+					stat = QueryContext.watch(conn.prepareStatement(sql));
 				}
+				Object[] values = BeanUtil.toInsertValues(bean, hasId);
+				for (int i = 0; i < values.length; i++) {
+					stat.setObject(i + 1, values[i]);
+				}
+				stat.addBatch();
+				if (++rows == batchSize) {
+					effect += executeInsertBatch(stat, rows);
+					rows = 0;
+					if (commitPerBatch) {
+						QueryContext.commit();
+					}
+				}
+			}
+			effect += executeInsertBatch(stat, rows);
+			QueryContext.commit();
+		} catch (Exception e) {
+			try {
+				QueryContext.rollback();
+			} catch (SQLException e1) {
+				throw new RepositoryException(e1);
 			}
 			throw new RepositoryException(e);
 		} finally {
-			close(rs, stat);
+			close(null, stat);
 		}
-		return i;
+		return effect;
 	}
 
-	// 查询一条数据然后转换成一个实体
-	static Object select(String sql, Object bean) {
-		Connection conn = null;
-		Statement stat = null;
-		ResultSet rs = null;
+	// 批量插入或更新(依据主键), 全部在一个事务里, 每batchSize个实体执行一次批处理, 返回每批的影响行数(驱动没有给出行数时为SUCCESS_NO_INFO)
+	static int[] upsertBatch(Iterable<?> beans, String dbName, int batchSize) {
+		Dialect dialect = Dialects.get();
+		Connection conn = QueryContext.getConnection();
+		PreparedStatement stat = null;
+		EntityMetadata metadata = null;
+		List<Integer> effects = new ArrayList<>();
+		int effect = 0; // 当前批次已执行部分的影响行数
+		int rows = 0; // 当前批次的实体数
+		int pending = 0; // stat中尚未执行的行数
 		try {
-			conn = QueryContext.getConnection();
-			stat = conn.createStatement();
-			LOG.info(sql);
-			QueryContext.addSqls(sql);
-			rs = stat.executeQuery(sql);
-			List<Map<String, Object>> maps = rs2Map(rs, null);
-			if (maps.isEmpty()) {
-				return null;
+			QueryContext.setAutoCommit(false);
+			for (Object bean : beans) {
+				if (bean == null) {
+					throw new RepositoryException("待保存或更新的实体集中不能有null");
+				}
+				if (metadata == null || bean.getClass() != metadata.getType()) {
+					if (stat != null) {
+						effect = plus(effect, executeBatch(stat, pending));
+						pending = 0;
+						stat.close();
+					}
+					metadata = EntityMetadata.of(bean.getClass());
+					String sql = dialect.upsertSQL(metadata, dbName);
+					QueryContext.addSqls(sql);
+					LOG.info(sql);
+					stat = QueryContext.watch(conn.prepareStatement(sql));
+				}
+				if (metadata.idValue(bean) == null) {
+					throw new RepositoryException(bean.getClass() + " 实体需要包含主键值否则报错");
+				}
+				Object[] values = dialect.upsertValues(metadata, bean);
+				for (int i = 0; i < values.length; i++) {
+					stat.setObject(i + 1, values[i]);
+				}
+				stat.addBatch();
+				pending++;
+				if (++rows == batchSize) {
+					effects.add(plus(effect, executeBatch(stat, pending)));
+					effect = 0;
+					rows = 0;
+					pending = 0;
+				}
+			}
+			if (rows > 0) {
+				effects.add(plus(effect, executeBatch(stat, pending)));
 			}
-			return JSON.toJavaObject(new JSONObject(maps.get(0)), bean.getClass());
+			QueryContext.commit();
 		} catch (Exception e) {
+			try {
+				QueryContext.rollback();
+			} catch (SQLException e1) {
+				throw new RepositoryException(e1);
+			}
 			throw new RepositoryException(e);
 		} finally {
-			close(rs, stat);
+			close(null, stat);
+		}
+		int[] counts = new int[effects.size()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = effects.get(i);
 		}
+		return counts;
 	}
 
-	static boolean exists(String sql, Object bean) {
-		Connection conn = null;
-		Statement stat = null;
-		ResultSet rs = null;
-		try {
-			conn = QueryContext.getConnection();
-			stat = conn.createStatement();
-			QueryContext.addSqls(sql);
-			rs = stat.executeQuery(sql);
-			return rs.next();
-		} catch (SQLException e) {
-			throw new RepositoryException(e);
-		} finally {
-			close(rs, stat);
+	// 执行已攒下的批次, 返回影响行数.
+	// MySQL开启rewriteBatchedStatements后, 整批被改写成一条多值语句, 驱动只能给出SUCCESS_NO_INFO, 此时行数未知, 返回SUCCESS_NO_INFO
+	private static int executeBatch(PreparedStatement stat, int rows) throws SQLException {
+		if (rows == 0) {
+			return 0;
+		}
+		int effect = 0;
+		for (int count : stat.executeBatch()) {
+			effect = plus(effect, count);
+		}
+		return effect;
+	}
+
+	// 影响行数相加, 有一方未知(SUCCESS_NO_INFO)则结果也未知
+	private static int plus(int effect, int count) {
+		if (effect == Statement.SUCCESS_NO_INFO || count == Statement.SUCCESS_NO_INFO) {
+			return Statement.SUCCESS_NO_INFO;
+		}
+		return effect + count;
+	}
+
+	// insert语句每条插入1行, 因此驱动给出SUCCESS_NO_INFO时按行数计算
+	private static int executeInsertBatch(PreparedStatement stat, int rows) throws SQLException {
+		int effect = executeBatch(stat, rows);
+		return effect == Statement.SUCCESS_NO_INFO ? rows : effect;
+	}
+
+	// 查询一条数据然后转换成一个实体
+	static Object select(SQLValue sqlValue, Class<?> beanType) {
+		List<?> beans = find(sqlValue, 0, rs -> rs2Bean(rs, beanType, null));
+		if (beans.isEmpty()) {
+			return null;
 		}
+		return beans.get(0);
+	}
+
+	static boolean exists(SQLValue sqlValue) {
+		return find(sqlValue, 0, ResultSet::next);
 	}
 
-	// 更新一条数据,然后返回更新后的数据,返回根据主键查询的sql语句
-	static String update(Object bean, String dbName) {
+	// 更新一条数据,然后返回根据主键查询的语句
+	static SQLValue update(Object bean, String dbName) {
 		Connection conn = null;
 		PreparedStatement stat = null;
-		Object[] updateInfo = BeanUtil.toUpdateSQL(bean, dbName,true);
+		Object[] updateInfo = BeanUtil.toUpdateSQL(bean, dbName,false);
 		if (updateInfo == null) {
 			return null;
 		}
 		String sql = updateInfo[0].toString();
 		@SuppressWarnings("unchecked")
 		List<Object> args = (List<Object>) updateInfo[1];
-		int count = args.size();
 		try {
 			conn = QueryContext.getConnection();
-			QueryContext.setAutoCommit(false);
+			QueryContext.begin(1);
 			QueryContext.addSqls(sql);
 			info(sql, args);
-			stat = conn.prepareStatement(sql);
-			for (int i = 1; i <= count; i++) {
-				stat.setObject(i, args.get(i - 1));
-			}
+			stat = QueryContext.watch(conn.prepareStatement(sql));
+			setValues(stat, args);
 			stat.executeUpdate();
 			QueryContext.commit();
 		} catch (SQLException e) {
@@ -306,7 +592,7 @@ public class DB {
 		} finally {
 			close(null, stat);
 		}
-		return updateInfo[2].toString();
+		return BeanUtil.toSelectSQLValue(bean, null, dbName);
 	}
 
 	static int update(Object bean, String dbName, String where) {
@@ -324,10 +610,10 @@ public class DB {
 		int count = args.size();
 		try {
 			conn = QueryContext.getConnection();
-			QueryContext.setAutoCommit(false);
+			QueryContext.begin(1);
 			QueryContext.addSqls(sql);
 			info(sql, args);
-			stat = conn.prepareStatement(sql);
+			stat = QueryContext.watch(conn.prepareStatement(sql));
 			for (int i = 1; i <= count; i++) {
 				stat.setObject(i, args.get(i - 1));
 			}
@@ -348,53 +634,78 @@ public class DB {
 		return effect;
 	}
 
-	private static List<String> parserSQLFile(String name) {
-		List<String> sqlList = new ArrayList<>();
-
-		try (InputStream inputStream = new FileInputStream(name)) {
-			StringBuilder sb = new StringBuilder();
-			byte[] buff = new byte[1024];
-			int b;
-			while ((b = inputStream.read(buff)) != -1) {
-				sb.append(new String(buff, 0, b));
-			}
-			String[] sqlArray = sb.toString().split(Placeholder.SQLSPLIT);
-			int len = sqlArray.length;
-			for (int i = 0; i < len; i++) {
-				// 替换注释
-				String sql = sqlArray[i].replaceAll("--.*", "").trim();
-				if (!"".equals(sql)) {
-					sqlList.add(sql);
+	// 流式地执行SQL文件, 每batchSize条语句执行一次批处理. commitPerBatch为true时每批提交一次, 否则全部成功后才提交.
+	// 进度和失败的语句写进output(为null就不输出). 失败时回滚当前还没有提交的语句并抛出异常
+	static void executeBatch(String sqlFile, String output, int batchSize, boolean commitPerBatch) {
+		Connection conn = QueryContext.getConnection();
+		Statement stat = null;
+		List<String> sqls = new ArrayList<>();
+		List<Integer> lines = new ArrayList<>();
+		long total = 0; // 执行成功的语句数
+		long committed = 0; // 已提交的语句数
+		int chunk = 0;
+		long start = System.currentTimeMillis();
+		try (ScriptReport report = new ScriptReport(output); SQLScriptReader reader = new SQLScriptReader(Paths.get(sqlFile))) {
+			report.start(sqlFile, batchSize, commitPerBatch);
+			try {
+				QueryContext.setAutoCommit(false);
+				stat = QueryContext.watch(conn.createStatement());
+				String sql = reader.next();
+				while (sql != null) {
+					stat.addBatch(sql);
+					sqls.add(sql);
+					lines.add(reader.getLine());
+					sql = reader.next();
+					if (sqls.size() == batchSize || (sql == null && !sqls.isEmpty())) {
+						chunk++;
+						executeChunk(stat, sqls, lines, report);
+						total += sqls.size();
+						if (commitPerBatch) {
+							QueryContext.commit();
+							committed = total;
+						}
+						report.chunk(chunk, sqls.size(), total, lines.get(lines.size() - 1), commitPerBatch);
+						sqls.clear();
+						lines.clear();
+					}
 				}
+				QueryContext.commit();
+				report.finish(total, chunk, System.currentTimeMillis() - start);
+			} catch (Exception e) {
+				try {
+					QueryContext.rollback();
+				} catch (SQLException e1) {
+					throw new RepositoryException(e1.getMessage(), e1);
+				}
+				report.rollback(chunk, committed);
+				throw new RepositoryException(e);
 			}
-			return sqlList;
-		} catch (Exception e) {
+		} catch (IOException e) {
 			throw new RepositoryException(e);
+		} finally {
+			close(null, stat);
 		}
 	}
 
-	static void executeBatch(String sqlFile) {
-		Connection conn = QueryContext.getConnection();
-		Statement stat = null;
-		List<String> sqlList = parserSQLFile(sqlFile);
+	// 执行一批语句, 失败时把失败的语句写进报告
+	private static void executeChunk(Statement stat, List<String> sqls, List<Integer> lines, ScriptReport report) throws SQLException {
 		try {
-			QueryContext.setAutoCommit(false);
-			stat = conn.createStatement();
-			for (String sql : sqlList) {
-				stat.addBatch(sql);
-			}
 			stat.executeBatch();
-			stat.clearBatch();
-			QueryContext.commit();
-		} catch (Exception e) {
-			try {
-				QueryContext.rollback();
-			} catch (SQLException e1) {
-				throw new RepositoryException(e1.getMessage(), e1);
+		} catch (BatchUpdateException e) {
+			int[] counts = e.getUpdateCounts();
+			if (counts != null && counts.length == sqls.size()) { // 驱动执行完了整批(如MySQL), 逐条标出失败的
+				for (int i = 0; i < counts.length; i++) {
+					if (counts[i] == Statement.EXECUTE_FAILED) {
+						report.failed(lines.get(i), sqls.get(i), e.getMessage());
+					}
+				}
+			} else { // 驱动在第一条失败的语句处停止
+				int i = counts == null ? 0 : counts.length;
+				report.failed(lines.get(i), sqls.get(i), e.getMessage());
 			}
-			throw new RepositoryException(e);
+			throw e;
 		} finally {
-			close(null, stat);
+			stat.clearBatch();
 		}
 	}
 
@@ -429,47 +740,93 @@ public class DB {
 	 * 
 	 * @param rs
 	 *            结果集
-	 * @param method
-	 *            当前方法
+	 * @param feildNames
+	 *            需要国际化的字段, 可以为null
 	 * @return List map结果集
 	 * @throws SQLException
 	 *             SQL异常
 	 */
-	private static List<Map<String, Object>> rs2Map(ResultSet rs, Method method) throws SQLException {
-
-		List<String> feildNames = null;
-		if (method != null) {
-			I18n i18n = method.getAnnotation(I18n.class);
-			if (i18n != null) {
-				feildNames = Arrays.asList(i18n.value());
-			}
+	private static List<Map<String, Object>> rs2Map(ResultSet rs, List<String> feildNames) throws SQLException {
+		List<Map<String, Object>> keyvals = new ArrayList<>();
+		RowMapper<Map<String, Object>> mapper = mapMapper(rs.getMetaData(), feildNames);
+		while (rs.next()) {
+			keyvals.add(mapper.map(rs));
 		}
+		return keyvals;
+	}
 
-		List<Map<String, Object>> keyvals = new ArrayList<>();
-		Map<String, Object> keyval;
-		// 获取列信息
-		ResultSetMetaData resultSetMetaData;
+	// 把行映射成Map的RowMapper, 列信息整个结果集只取一次
+	private static RowMapper<Map<String, Object>> mapMapper(ResultSetMetaData resultSetMetaData, List<String> feildNames) throws SQLException {
 		// 总列数
-		int columnCount;
-
-		String key;
-		Object obj;
-		while (rs.next()) {
-			resultSetMetaData = rs.getMetaData();
-			columnCount = resultSetMetaData.getColumnCount();
-			keyval = new HashMap<>();
-			for (int i = 1; i <= columnCount; i++) {
-				// key = resultSetMetaData.getColumnName(i); // 获取列名称
-				key = resultSetMetaData.getColumnLabel(i); // 获取列别名,若没有别名那么就获取本身名称(getColumnName)
-				obj = rs.getObject(i);
-				if (feildNames != null && feildNames.contains(key)) {
+		int columnCount = resultSetMetaData.getColumnCount();
+		String[] labels = new String[columnCount];
+		boolean[] i18ns = new boolean[columnCount];
+		for (int i = 0; i < columnCount; i++) {
+			labels[i] = resultSetMetaData.getColumnLabel(i + 1); // 获取列别名,若没有别名那么就获取本身名称(getColumnName)
+			i18ns[i] = feildNames != null && feildNames.contains(labels[i]);
+		}
+		// 所有行共享同一个列名字典, 每行只有一个Object[]
+		RowMap.Columns columns = new RowMap.Columns(labels);
+		return rs -> {
+			Object[] values = new Object[columns.size()];
+			for (int i = 0; i < columnCount; i++) {
+				Object obj = rs.getObject(i + 1);
+				if (i18ns[i]) {
 					obj = i18n(obj);
 				}
-				keyval.put(key, obj);
+				values[columns.slot(i)] = obj;
 			}
-			keyvals.add(keyval);
+			return new RowMap(columns, values);
+		};
+	}
+
+	// 把结果集映射成实体集
+	private static <T> List<T> rs2Bean(ResultSet rs, Class<T> beanType, List<String> feildNames) throws SQLException {
+		RowMapper<?> mapper = rowMapper(rs, beanType, feildNames);
+		List<T> beans = new ArrayList<>();
+		while (rs.next()) {
+			beans.add(beanType.cast(mapper.map(rs)));
 		}
-		return keyvals;
+		return beans;
+	}
+
+	/**
+	 * 把行映射成 rowType 的RowMapper. 实体有国际化字段或不支持直接映射时, 依然借助fastjson转换.
+	 * 
+	 * @param rs 结果集
+	 * @param rowType 支持 Map, JSONObject, 包装类型(结果集只能有一列, 值按需转换), 实体
+	 * @param feildNames 需要国际化的字段, 可以为null
+	 * @return RowMapper
+	 * @throws SQLException SQL异常
+	 */
+	private static RowMapper<?> rowMapper(ResultSet rs, Class<?> rowType, List<String> feildNames) throws SQLException {
+		ResultSetMetaData resultSetMetaData = rs.getMetaData();
+		if (rowType == Map.class) {
+			return mapMapper(resultSetMetaData, feildNames);
+		} else if (rowType == JSONObject.class) {
+			RowMapper<Map<String, Object>> mapper = mapMapper(resultSetMetaData, feildNames);
+			return r -> new JSONObject(mapper.map(r));
+		} else if (TypeUtil.isWarrp(rowType)) {
+			if (resultSetMetaData.getColumnCount() != 1) {
+				throw new RepositoryException(String.format("查询结果有%d列, 不能映射成%s", resultSetMetaData.getColumnCount(), rowType.getName()));
+			}
+			return r -> {
+				Object obj = r.getObject(1);
+				return obj != null ? RowMapperGenerator.cast(obj, rowType) : null;
+			};
+		}
+		RowMapper<?> mapper = feildNames == null ? RowMapperGenerator.get(rowType, resultSetMetaData) : null;
+		if (mapper == null) {
+			RowMapper<Map<String, Object>> mapMapper = mapMapper(resultSetMetaData, feildNames);
+			return r -> JSON.toJavaObject(new JSONObject(mapMapper.map(r)), rowType);
+		}
+		return mapper;
+	}
+
+	// 读取结果集
+	@FunctionalInterface
+	private interface ResultSetReader<R> {
+		R read(ResultSet rs) throws SQLException;
 	}
 
 	private static Object i18n(Object obj) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 一次方法调用的时限. 所登记的语句都设置好剩余的queryTimeout, 到期时由看门狗线程取消尚未完成的语句.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class Deadline {
+
+	private static final Logger LOG = LoggerFactory.getLogger(Deadline.class);
+
+	private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "fastquery-watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static {
+		WATCHDOG.setRemoveOnCancelPolicy(true);
+	}
+
+	private final int timeout; // 秒
+	private final long expireAt; // System.nanoTime()
+	private final List<Statement> statements = new ArrayList<>();
+	private final ScheduledFuture<?> watchdog;
+	private volatile boolean expired;
+
+	/**
+	 * @param timeout 时限(秒), 必须大于0
+	 */
+	Deadline(int timeout) {
+		this.timeout = timeout;
+		this.expireAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+		this.watchdog = WATCHDOG.schedule(this::expire, timeout, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * 登记语句, 把剩余的时间设置成它的queryTimeout
+	 * 
+	 * @param stat 语句
+	 * @throws SQLException 已经超时
+	 */
+	void watch(Statement stat) throws SQLException {
+		long remaining = expireAt - System.nanoTime();
+		if (expired || remaining <= 0) {
+			throw new SQLTimeoutException("已超过方法的时限 " + timeout + " 秒");
+		}
+		stat.setQueryTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining + TimeUnit.SECONDS.toNanos(1) - 1)));
+		synchronized (statements) {
+			// 与 expire() 在同一把锁内判断, 否则看门狗取走语句之后才登记的语句就不会被取消
+			if (expired) {
+				throw new SQLTimeoutException("已超过方法的时限 " + timeout + " 秒");
+			}
+			statements.add(stat);
+		}
+	}
+
+	boolean isExpired() {
+		return expired;
+	}
+
+	int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * 方法已结束, 撤销看门狗
+	 */
+	void cancel() {
+		watchdog.cancel(false);
+		synchronized (statements) {
+			statements.clear();
+		}
+	}
+
+	// 在锁内取出已登记的语句, 在锁外取消. cancel() 要跟驱动通信, 持锁会阻塞正在登记语句的工作线程
+	private void expire() {
+		List<Statement> running;
+		synchronized (statements) {
+			expired = true;
+			running = new ArrayList<>(statements);
+			statements.clear();
+		}
+		for (Statement stat : running) {
+			try {
+				if (!stat.isClosed()) {
+					stat.cancel();
+				}
+			} catch (SQLException e) {
+				LOG.debug("取消语句失败", e);
+			}
+		}
+	}
+}
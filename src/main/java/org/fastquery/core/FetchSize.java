@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 
+ * 指定查询每次从数据库抓取的行数(Statement.setFetchSize). <br>
+ * 流式查询(返回Stream, Iterator 或带有逐行回调参数)没有标识该注解时, 取 fastquery.json 中的 "fetchSize". <br>
+ * MySQL 需要设置成 Integer.MIN_VALUE 才会逐行读取, 否则驱动会把整个结果集读入内存.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD })
+public @interface FetchSize {
+
+	/**
+	 * 每次抓取的行数, 0 表示由驱动决定
+	 * 
+	 * @return 行数
+	 */
+	int value();
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.lang.reflect.Method;
+
+import org.fastquery.page.Page;
+import org.fastquery.util.TypeUtil;
+
+/**
+ * 方法调用计划. 由生成的Repository实现类在类初始化时为每个方法构建一次(静态常量), <br>
+ * 此后每次调用直接使用, 不再做 getInterfaces/getMethod 等反射查找和字符串比较.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class InvocationPlan {
+
+	/**
+	 * 不能识别的Repository
+	 */
+	static final byte UNKNOWN = 0;
+
+	/**
+	 * 改操作 (@Query或@QueryByNamed 并且有 @Modifying)
+	 */
+	static final byte MODIFYING = 1;
+
+	/**
+	 * 查询
+	 */
+	static final byte QUERY = 2;
+
+	/**
+	 * 分页查询
+	 */
+	static final byte PAGE = 3;
+
+	/**
+	 * QueryByNamed 分页查询
+	 */
+	static final byte NAMED_PAGE = 4;
+
+	/**
+	 * 标识有@Id的方法查询, 如 QueryRepository 中的方法
+	 */
+	static final byte METHOD_QUERY_ID = 5;
+
+	/**
+	 * 既没有@Query,也没有@Id的方法查询
+	 */
+	static final byte METHOD_QUERY = 6;
+
+	private final Class<? extends Repository> iclass; // 方法所在的接口
+	private final Method method; // 接口方法
+	private final MethodMetadata metadata; // 方法元数据
+	private final Class<?> returnType; // 返回类型
+	private final byte path; // 执行路径
+	private final Id id; // 方法上的@Id, 可能为null
+	private final int sourceIndex; // 标识有@Source的参数的索引, 没有为-1
+	private final boolean replicaReadable; // 数据源配置了从库时, 是否可以由从库执行
+
+	private InvocationPlan(Class<? extends Repository> iclass, Method method) {
+		this.iclass = iclass;
+		this.method = method;
+		this.metadata = MethodMetadata.of(method);
+		this.returnType = metadata.getReturnType();
+		this.id = method.getAnnotation(Id.class);
+		this.path = path(iclass, metadata, this.id);
+		this.sourceIndex = metadata.getSourceIndex();
+		// 只有普通查询才走从库, 改操作, 事务中的方法, QueryRepository 的内置方法以及标识有@Primary的方法, 始终走主库
+		this.replicaReadable = (path == QUERY || path == PAGE || path == NAMED_PAGE) && metadata.getTransactional() == null
+				&& method.getAnnotation(Primary.class) == null;
+	}
+
+	/**
+	 * 构建调用计划, 供生成的类在 &lt;clinit&gt; 中调用
+	 * 
+	 * @param iclass Repository 接口
+	 * @param methodName 方法名称
+	 * @param methodDescriptor 方法完整描述(asm)
+	 * @return 调用计划
+	 */
+	public static InvocationPlan of(Class<? extends Repository> iclass, String methodName, String methodDescriptor) {
+		return new InvocationPlan(iclass, TypeUtil.getMethod(iclass, methodName, methodDescriptor));
+	}
+
+	// 确定执行路径
+	private static byte path(Class<? extends Repository> iclass, MethodMetadata metadata, Id id) {
+		// 目前只有一种可能:Query Interface
+		if (!QueryRepository.class.isAssignableFrom(iclass)) { // 判断iclazz 是否就是QueryRepository.class,或是其子类
+			return UNKNOWN;
+		}
+		// QueryRepository 中的方法可分成4类
+		// 1. 同时包含有@Query和@Modify
+		// 2. 只包含@Query
+		// 3. 只包含@Modify 这是不允许的, 该检测已放在生成类之前做了.
+		// 4. 没有Query,也没有@Modify
+		boolean hasQuery = metadata.getQueries().length > 0;
+		boolean modifying = metadata.getModifying() != null;
+		boolean named = metadata.getQueryByNamed() != null;
+		if ((hasQuery || named) && modifying) {
+			return MODIFYING;
+		} else if (hasQuery || named) {
+			if (metadata.getReturnType() == Page.class) {
+				return named ? NAMED_PAGE : PAGE;
+			}
+			return QUERY;
+		} else {
+			// 分两种 是否由@Id
+			return id != null ? METHOD_QUERY_ID : METHOD_QUERY;
+		}
+	}
+
+	public Class<? extends Repository> getIclass() {
+		return iclass;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public MethodMetadata getMetadata() {
+		return metadata;
+	}
+
+	public Class<?> getReturnType() {
+		return returnType;
+	}
+
+	// 是否是普通查询(@Query,@QueryByNamed及其分页)
+	boolean isQuery() {
+		return path == QUERY || path == PAGE || path == NAMED_PAGE;
+	}
+
+	boolean isBuiltin() {
+		return path == METHOD_QUERY || path == METHOD_QUERY_ID;
+	}
+
+	boolean isReplicaReadable() {
+		return replicaReadable;
+	}
+
+	byte getPath() {
+		return path;
+	}
+
+	Id getId() {
+		return id;
+	}
+
+	/**
+	 * 标识有@Source的参数的索引, 从0开始计数, 没有返回-1
+	 * 
+	 * @return 索引
+	 */
+	public int getSourceIndex() {
+		return sourceIndex;
+	}
+
+	@Override
+	public String toString() {
+		return method.toString();
+	}
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.fastquery.page.NotCount;
+import org.fastquery.page.PageIndex;
+import org.fastquery.page.PageSize;
+import org.fastquery.page.Pageable;
+import org.fastquery.util.TypeUtil;
+import org.fastquery.where.Condition;
+import org.fastquery.where.I18n;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * 方法元数据. 在生成Repository实现类时, 把方法上的注解及返回值泛型一次性解析好并登记在册, <br>
+ * 运行期间直接读取, 不再通过JDK的注解代理反复反射(getAnnotation, getParameterAnnotations 等每次都会克隆数组).
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class MethodMetadata {
+
+	private static final Map<Method, MethodMetadata> REGISTRY = new ConcurrentHashMap<>();
+
+	private final Method method;
+
+	// 方法上的注解
+	private final Query[] queries;
+	private final Condition[] conditions;
+	private final Modifying modifying;
+	private final QueryByNamed queryByNamed;
+	private final boolean notCount;
+	private final List<String> i18nFields; // 需要国际化的字段, 没有为null
+	private final SQLTemplate[] queryTemplates; // 与queries一一对应
+	private final WhereTemplate where; // 编译后的conditions
+	private final Transactional transactional; // 可能为null
+	private final boolean transactionSupported;
+	private final Integer fetchSize; // @FetchSize, 没有为null
+	private final int timeout; // @QueryTimeout 或 @Transactional(timeout) 指定的时限(秒), 没有指定为-1
+
+	// 参数
+	private final Parameter[] parameters;
+	private final Param[] params; // 第i个参数上的@Param, 没有为null
+	private final BatchMetadata batch; // 没有标识@Batch为null
+	private final int sourceIndex;
+	private final boolean scatter; // @Source 标识的参数是集合或数组, 即: 在多个数据源上执行
+	private final int shardKeyIndex;
+	private final int idIndex;
+	private final int pageableIndex;
+	private final int pageIndexIndex;
+	private final int pageSizeIndex;
+	private final int[] typeVariableIndexes; // 类型为泛型变量的参数索引,如 <E> E save(E entity)
+	private final int rowHandlerIndex; // 最后一个参数是Consumer<T>或RowHandler<T>时为其索引, 反之为-1
+
+	// 返回值分析
+	private final boolean async; // 是否返回CompletableFuture<T>, 若是, returnType和genericReturnType均指T
+	private final Class<?> returnType;
+	private final Type genericReturnType;
+	private final boolean listMapSO; // 是否是 List<Map<String,Object>> 或 List<Map<String,String>>
+	private final Class<?> mapValueType; // Map<String,V> 中V的类型
+	private final Class<?> listMapValueType; // List<Map<String,V>> 中V的类型
+	private final Type listElementType; // List<T> 中T的类型
+	private final Class<?> pageBeanType; // Page<T> 中T如果是实体, 那么就是该实体的class, 反之为null
+	private final Class<?> rowBeanType; // 返回List<T>, T[] 或 T, 且T是实体, 那么就是T的class, 反之为null
+	private final boolean streaming; // 是否是流式查询: 返回Stream<T>, Iterator<T> 或 最后一个参数是Consumer<T>, RowHandler<T>
+	private final Class<?> rowType; // 流式查询中T的class, T不受支持为null
+
+	private MethodMetadata(Method method) {
+		this.method = method;
+
+		this.queries = method.getAnnotationsByType(Query.class);
+		this.conditions = method.getAnnotationsByType(Condition.class);
+		this.modifying = method.getAnnotation(Modifying.class);
+		this.queryByNamed = method.getAnnotation(QueryByNamed.class);
+		this.notCount = method.getAnnotation(NotCount.class) != null;
+		I18n i18n = method.getAnnotation(I18n.class);
+		this.i18nFields = i18n != null ? Collections.unmodifiableList(Arrays.asList(i18n.value())) : null;
+		this.transactional = method.getAnnotation(Transactional.class);
+		this.transactionSupported = transactional == null || transactional.propagation() != Propagation.NOT_SUPPORTED;
+		FetchSize fs = method.getAnnotation(FetchSize.class);
+		this.fetchSize = fs != null ? fs.value() : null;
+		QueryTimeout qt = method.getAnnotation(QueryTimeout.class);
+		if (qt != null) {
+			this.timeout = qt.value();
+		} else {
+			this.timeout = transactional != null && transactional.timeout() > 0 ? transactional.timeout() : -1;
+		}
+
+		this.parameters = method.getParameters();
+		Annotation[][] annotations = method.getParameterAnnotations();
+		this.params = new Param[parameters.length];
+		List<Integer> tvs = new ArrayList<>();
+		for (int i = 0; i < parameters.length; i++) {
+			for (Annotation ann : annotations[i]) {
+				if (ann.annotationType() == Param.class) {
+					params[i] = (Param) ann;
+				}
+			}
+			if (parameters[i].getParameterizedType() instanceof TypeVariable) {
+				tvs.add(i);
+			}
+		}
+		this.typeVariableIndexes = tvs.stream().mapToInt(Integer::intValue).toArray();
+		this.sourceIndex = TypeUtil.findAnnotationIndex(Source.class, parameters);
+		this.scatter = sourceIndex != -1 && (Collection.class.isAssignableFrom(parameters[sourceIndex].getType()) || parameters[sourceIndex].getType() == String[].class);
+		this.idIndex = TypeUtil.findAnnotationIndex(Id.class, parameters);
+		this.shardKeyIndex = TypeUtil.findAnnotationIndex(ShardKey.class, parameters);
+		this.pageIndexIndex = TypeUtil.findAnnotationIndex(PageIndex.class, parameters);
+		this.pageSizeIndex = TypeUtil.findAnnotationIndex(PageSize.class, parameters);
+		int pi = -1;
+		for (int i = 0; i < parameters.length; i++) {
+			if (Pageable.class.isAssignableFrom(parameters[i].getType())) {
+				pi = i;
+				break;
+			}
+		}
+		this.pageableIndex = pi;
+		int last = parameters.length - 1;
+		boolean handler = last != -1 && (parameters[last].getType() == Consumer.class || parameters[last].getType() == RowHandler.class);
+		this.rowHandlerIndex = handler ? last : -1;
+
+		boolean named = queryByNamed != null;
+		this.queryTemplates = new SQLTemplate[queries.length];
+		for (int i = 0; i < queries.length; i++) {
+			queryTemplates[i] = SQLTemplate.compile(queries[i].value(), params, named);
+		}
+		this.where = new WhereTemplate(conditions, params, named);
+		this.batch = method.getAnnotation(Batch.class) != null ? BatchMetadata.of(method) : null;
+
+		this.async = TypeUtil.isAsync(method);
+		this.returnType = TypeUtil.getReturnType(method);
+		this.genericReturnType = TypeUtil.getGenericReturnType(method);
+		this.listMapSO = TypeUtil.isListMapSO(genericReturnType);
+		this.mapValueType = returnType == Map.class ? typeArgument(genericReturnType, 1) : null;
+		this.listMapValueType = listMapSO ? typeArgument(((ParameterizedType) genericReturnType).getActualTypeArguments()[0], 1) : null;
+		Type[] args = genericReturnType instanceof ParameterizedType ? ((ParameterizedType) genericReturnType).getActualTypeArguments() : new Type[0];
+		this.listElementType = returnType == List.class && args.length == 1 ? args[0] : null;
+		if (genericReturnType.getTypeName().contains("Page<java.util.Map<java.lang.String, java.lang.Object>>") || args.length == 0 || !(args[0] instanceof Class)) {
+			this.pageBeanType = null;
+		} else {
+			this.pageBeanType = (Class<?>) args[0];
+		}
+		this.rowBeanType = rowBeanType(returnType, listElementType);
+		if (returnType == Stream.class || returnType == Iterator.class) {
+			this.streaming = true;
+			this.rowType = rowType(genericReturnType);
+		} else {
+			this.streaming = handler;
+			this.rowType = handler ? rowType(parameters[last].getParameterizedType()) : null;
+		}
+	}
+
+	/**
+	 * 获取方法元数据, 若还没有登记就解析并登记. 该方法是线程安全的.
+	 * 
+	 * @param method 方法
+	 * @return 方法元数据
+	 */
+	public static MethodMetadata of(Method method) {
+		MethodMetadata metadata = REGISTRY.get(method);
+		if (metadata == null) {
+			metadata = REGISTRY.computeIfAbsent(method, MethodMetadata::new);
+		}
+		return metadata;
+	}
+
+	// 查询结果需要转换成的实体类型, 同QueryProcess中对返回值的分类: List<T>, T[], T
+	private static Class<?> rowBeanType(Class<?> returnType, Type listElementType) {
+		Class<?> type;
+		if (returnType == List.class) {
+			type = listElementType instanceof Class ? (Class<?>) listElementType : null;
+		} else if (returnType.isArray()) {
+			type = returnType.getComponentType();
+		} else {
+			type = returnType;
+		}
+		if (type == null || type.isPrimitive() || type == Object.class || TypeUtil.isWarrp(type) || Map.class.isAssignableFrom(type)
+				|| Collection.class.isAssignableFrom(type) || !TypeUtil.hasDefaultConstructor(type)) {
+			return null;
+		}
+		return type;
+	}
+
+	// 流式查询的行类型, 支持 Map<String,Object>, JSONObject, 包装类型(除了Boolean), 实体
+	private static Class<?> rowType(Type type) {
+		if (!(type instanceof ParameterizedType)) {
+			return null;
+		}
+		Type t = ((ParameterizedType) type).getActualTypeArguments()[0];
+		if ("java.util.Map<java.lang.String, java.lang.Object>".equals(t.getTypeName())) {
+			return Map.class;
+		} else if (t == JSONObject.class || (TypeUtil.isWarrp(t) && t != Boolean.class)) {
+			return (Class<?>) t;
+		} else if (t instanceof Class && !((Class<?>) t).isArray()) {
+			return rowBeanType((Class<?>) t, null);
+		}
+		return null;
+	}
+
+	// 获取泛型参数中的第index个类型, 若不是Class返回null
+	private static Class<?> typeArgument(Type type, int index) {
+		if (type instanceof ParameterizedType) {
+			Type[] types = ((ParameterizedType) type).getActualTypeArguments();
+			if (index < types.length && types[index] instanceof Class) {
+				return (Class<?>) types[index];
+			}
+		}
+		return null;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public Query[] getQueries() {
+		return queries;
+	}
+
+	public Condition[] getConditions() {
+		return conditions;
+	}
+
+	/**
+	 * 编译后的&#064;Query, 与 getQueries() 一一对应
+	 * 
+	 * @return SQL模板集
+	 */
+	public SQLTemplate[] getQueryTemplates() {
+		return queryTemplates;
+	}
+
+	/**
+	 * 编译后的&#064;Condition集
+	 * 
+	 * @return where模板
+	 */
+	public WhereTemplate getWhere() {
+		return where;
+	}
+
+	public Modifying getModifying() {
+		return modifying;
+	}
+
+	public QueryByNamed getQueryByNamed() {
+		return queryByNamed;
+	}
+
+	public boolean isNotCount() {
+		return notCount;
+	}
+
+	public List<String> getI18nFields() {
+		return i18nFields;
+	}
+
+	/**
+	 * &#064;FetchSize 指定的抓取行数
+	 * 
+	 * @return 行数, 没有标识&#064;FetchSize为null
+	 */
+	public Integer getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * 方法声明的时限(秒), 取自 &#064;QueryTimeout 或 &#064;Transactional(timeout), 没有声明返回-1
+	 * 
+	 * @return 秒
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public Transactional getTransactional() {
+		return transactional;
+	}
+
+	/**
+	 * 方法的传播行为, 没有标识 &#064;Transactional 时为 REQUIRED
+	 * 
+	 * @return 传播行为
+	 */
+	public Propagation getPropagation() {
+		return transactional != null ? transactional.propagation() : Propagation.REQUIRED;
+	}
+
+	/**
+	 * 是否支持事务, 标识有 &#064;Transactional(propagation=Propagation.NOT_SUPPORTED) 的方法不支持
+	 * 
+	 * @return y:true/n:false
+	 */
+	public boolean isTransactionSupported() {
+		return transactionSupported;
+	}
+
+	public Parameter[] getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * 参数上的@Param, 数组的第i个成员对应第i个参数,没有标识@Param的为null
+	 * 
+	 * @return Param集
+	 */
+	public Param[] getParams() {
+		return params;
+	}
+
+	/**
+	 * &#064;Batch 方法的元数据
+	 * 
+	 * @return 没有标识&#064;Batch返回null
+	 */
+	public BatchMetadata getBatch() {
+		return batch;
+	}
+
+	/**
+	 * &#064;Source 标识的参数是否是集合或数组, 若是, 同一个查询在其列出的每个数据源上并行执行, 再合并结果
+	 * 
+	 * @return y:true/n:false
+	 */
+	public boolean isScatter() {
+		return scatter;
+	}
+
+	/**
+	 * 标识有&#064;ShardKey的参数的索引
+	 * 
+	 * @return 没有为-1
+	 */
+	public int getShardKeyIndex() {
+		return shardKeyIndex;
+	}
+
+	public int getSourceIndex() {
+		return sourceIndex;
+	}
+
+	public int getIdIndex() {
+		return idIndex;
+	}
+
+	public int getPageableIndex() {
+		return pageableIndex;
+	}
+
+	public int getPageIndexIndex() {
+		return pageIndexIndex;
+	}
+
+	public int getPageSizeIndex() {
+		return pageSizeIndex;
+	}
+
+	public int[] getTypeVariableIndexes() {
+		return typeVariableIndexes;
+	}
+
+	/**
+	 * 逐行回调参数(Consumer或RowHandler)的索引
+	 * 
+	 * @return 索引, 没有为-1
+	 */
+	public int getRowHandlerIndex() {
+		return rowHandlerIndex;
+	}
+
+	public boolean isAsync() {
+		return async;
+	}
+
+	public Class<?> getReturnType() {
+		return returnType;
+	}
+
+	public Type getGenericReturnType() {
+		return genericReturnType;
+	}
+
+	public boolean isListMapSO() {
+		return listMapSO;
+	}
+
+	public Class<?> getMapValueType() {
+		return mapValueType;
+	}
+
+	public Class<?> getListMapValueType() {
+		return listMapValueType;
+	}
+
+	public Type getListElementType() {
+		return listElementType;
+	}
+
+	public Class<?> getRowBeanType() {
+		return rowBeanType;
+	}
+
+	/**
+	 * 是否是流式查询, 即返回 Stream&lt;T&gt;, Iterator&lt;T&gt; 或 最后一个参数是 Consumer&lt;T&gt;, RowHandler&lt;T&gt;
+	 * 
+	 * @return y:true/n:false
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * 流式查询中每行对应的类型, Map&lt;String,Object&gt; 为 Map.class
+	 * 
+	 * @return 行类型, 不是流式查询或T不受支持为null
+	 */
+	public Class<?> getRowType() {
+		return rowType;
+	}
+
+	public Class<?> getPageBeanType() {
+		return pageBeanType;
+	}
+}
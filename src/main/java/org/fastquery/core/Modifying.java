@@ -49,4 +49,12 @@ public @interface Modifying {
 	 * @return String
 	 */
 	String table() default "";
+
+	/**
+	 * 返回值是Map,JSONObject或实体时, 改操作之后是否根据主键再查询一次, 默认是. <br>
+	 * 为false时不再查询, 返回值由主键(生成的主键或用&#064;Id标识的参数)和标识了&#064;Param的参数(参数名称作为键)构成, 适用于表上没有触发器和数据库端默认值的情形. <br>
+	 * 此时除了&#064;Id和&#064;Source, 每个参数都必须用&#064;Param标识, 且名称与列名相同, 生成实现类时会校验
+	 * @return boolean
+	 */
+	boolean readBack() default true;
 }
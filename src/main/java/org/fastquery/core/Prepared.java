@@ -24,15 +24,14 @@ package org.fastquery.core;
 
 import java.lang.reflect.Method;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.util.List;
 
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.fastquery.filter.FilterChainHandler;
 import org.fastquery.mapper.QueryPool;
-import org.fastquery.page.Page;
 import org.fastquery.util.FastQueryJSONObject;
-import org.fastquery.util.TypeUtil;
 
 /**
  * 
@@ -53,10 +52,69 @@ public class Prepared {
 	 * @return 执行之后的值
 	 */
 	public static Object excute(String methodName,String methodDescriptor,Object[] args,Repository target) {
+		@SuppressWarnings("unchecked") // 是动态生成的实例,因此它的接口可以很明确就是一个
+		Class<? extends Repository> iclazz = (Class<? extends Repository>) target.getClass().getInterfaces()[0];
+		return excute(InvocationPlan.of(iclazz, methodName, methodDescriptor), args, target);
+	}
+	
+	/**
+	 * 执行方法
+	 * @param plan 调用计划(由生成的类在初始化时构建)
+	 * @param args 方法参数 注意: 此处参数列表的成员,永远都是包装类型(已经验证)
+	 * @param target 目标 Repository
+	 * @return 执行之后的值
+	 */
+	public static Object excute(InvocationPlan plan,Object[] args,Repository target) {
+		MethodMetadata metadata = plan.getMetadata();
+		if (metadata.isScatter()) {
+			// @Source 是集合或数组: 在每个数据源上执行, 再合并结果
+			checkTransaction(plan, "在多个数据源上执行的方法");
+			return ScatterGather.excute(plan, args, ScatterGather.sources(args[metadata.getSourceIndex()]), (source, as) -> excuteSync(plan, as, target, source));
+		}
+		String source = null;
+		List<String> shards;
+		try {
+			shards = ShardRouter.route(plan, args);
+		} catch (RepositoryException e) {
+			if (metadata.isAsync()) {
+				return AsyncExecutors.failed(e);
+			}
+			throw e;
+		}
+		if (shards != null) {
+			if (shards.size() != 1) {
+				// 分片组中没有分片键的查询: 在每个分片上执行, 再合并结果
+				checkTransaction(plan, "在分片组的所有数据源上执行的方法");
+				return ScatterGather.excute(plan, args, shards, (s, as) -> excuteSync(plan, as, target, s));
+			}
+			source = shards.get(0);
+		}
+		if (metadata.isAsync()) {
+			// 返回CompletableFuture<T>: 在数据源对应的线程池里执行, QueryContext在工作线程上建立和释放
+			String s = source;
+			try {
+				checkTransaction(plan, "异步方法");
+				return AsyncExecutors.submit(QueryContext.dataSource(plan, args, s), () -> excuteSync(plan, args, target, s));
+			} catch (RuntimeException | Error e) {
+				return AsyncExecutors.failed(e);
+			}
+		}
+		return excuteSync(plan, args, target, source);
+	}
+	
+	// 不在当前线程上执行, 或用到多个连接的方法无法加入当前事务, 拒绝执行, 以免它在事务之外提交. REQUIRES_NEW 和 NOT_SUPPORTED 本就不加入
+	private static void checkTransaction(InvocationPlan plan, String kind) {
+		Propagation propagation = plan.getMetadata().getPropagation();
+		if (TransactionContext.isActive() && propagation != Propagation.REQUIRES_NEW && propagation != Propagation.NOT_SUPPORTED) {
+			throw new RepositoryException(plan.getMethod() + " 是" + kind + ", 不能加入当前事务. 请在事务之外调用它, 或者标识@Transactional(propagation = Propagation.REQUIRES_NEW)");
+		}
+	}
+	
+	// source: 已经确定的数据源名称, 为null时取@Source标识的参数
+	private static Object excuteSync(InvocationPlan plan,Object[] args,Repository target,String source) {
 		try {
-			@SuppressWarnings("unchecked") // 是动态生成的实例,因此它的接口可以很明确就是一个
-			Class<? extends Repository> iclazz = (Class<? extends Repository>) target.getClass().getInterfaces()[0];
-			Method method = TypeUtil.getMethod(iclazz, methodName,methodDescriptor);
+			Class<? extends Repository> iclazz = plan.getIclass();
+			Method method = plan.getMethod();
 			
 	        // 如果是调试模式
 	        if(FastQueryJSONObject.getDebug()){
@@ -64,7 +122,7 @@ public class Prepared {
 	        }
 	        
 	        // QueryContext 生命开始
-	        QueryContext.start(iclazz, method, args);
+	        QueryContext.start(plan, args, source);
 	        
 			// 在businessProcess的先后加拦截器 ==================
 			// 注入BeforeFilter
@@ -75,7 +133,7 @@ public class Prepared {
 
 	        LOG.info("准备执行方法:" + method);
 	        // 取出当前线程中method和args(BeforeFilter 有可能中途修换其他method, 因为过滤器有个功能this.change(..,...) )
-	        object = businessProcess();
+	        object = businessProcess(plan);
 
 	        // 注入AfterFilter
 	        object = FilterChainHandler.bindAfterFilterChain(iclazz,target,method,args,object); // 注意,这个方法的method,必须是原始的!!!
@@ -101,7 +159,7 @@ public class Prepared {
 				sb.append('\n');
 			});
 			LOG.error(sb.toString(),e);
-			throw new RepositoryException(e);
+			throw failure(e);
 		} finally {
 	        // QueryContext 生命终止
 	        try {
@@ -112,46 +170,46 @@ public class Prepared {
 		}
 	}
 	
-	private static Object businessProcess() {
-		Method method = QueryContext.getMethod();
-		Class<?> returnType = QueryContext.getReturnType();
-		// 目前只有一种可能:Query Interface
-		// 在这里是一个分水岭
-		if(QueryRepository.class.isAssignableFrom(QueryContext.getIclass())){ // 判断iclazz 是否就是QueryRepository.class,或是其子类
-			// QueryRepository 中的方法可分成4类
-			// 1. 同时包含有@Query和@Modify
-			// 2. 只包含@Query
-			// 3. 只包含@Modify 这是不允许的, 该检测已放在生成类之前做了.
-			// 4. 没有Query,也没有@Modify
-			Query[] querys = method.getAnnotationsByType(Query.class);
-			Modifying modifying = method.getAnnotation(Modifying.class);
-			QueryByNamed queryById = method.getAnnotation(QueryByNamed.class);
-			if( (querys.length>0 || queryById!=null) && modifying !=null) {  // ->进入Modify
-				return QueryProcess.getInstance().modifying();
-			} else if(querys.length>0  || queryById!=null) {
-				if(returnType == Page.class && queryById != null) {  // ->进入QueryByNamed Page
-					return QueryProcess.getInstance().queryByNamedPage();
-				}
-				
-				
-				if(returnType == Page.class) {  // ->进入Page
-					return QueryProcess.getInstance().queryPage();
-				}
-				
-				// -> 进入query
-				return QueryProcess.getInstance().query();
-			} 
-			 else {
-				 // 分两种 是否由@Id
-				 Id id = method.getAnnotation(Id.class);
-				 if(id!=null) {
-					 return QueryProcess.getInstance().methodQuery(id);
-				 } else {
-					 return QueryProcess.getInstance().methodQuery();
-				 }
+	/**
+	 * 方法执行失败时抛出的异常. 超过了方法的时限, 或异常链中有语句超时, 为QueryTimeoutException
+	 * 
+	 * @param e 执行时的异常
+	 * @return 要抛出的异常
+	 */
+	static RepositoryException failure(Exception e) {
+		int timeout = QueryContext.expiredTimeout();
+		if (timeout > 0 || isTimeout(e)) {
+			return new QueryTimeoutException(timeout > 0 ? "执行超过了时限 " + timeout + " 秒" : e.getMessage(), e);
+		}
+		return new RepositoryException(e);
+	}
+	
+	// 异常链中是否有语句超时
+	private static boolean isTimeout(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof SQLTimeoutException) {
+				return true;
 			}
-			
-		} else {
+		}
+		return false;
+	}
+	
+	private static Object businessProcess(InvocationPlan plan) {
+		// 执行路径在生成类初始化时就已确定, 在这里是一个分水岭
+		switch (plan.getPath()) {
+		case InvocationPlan.MODIFYING: // ->进入Modify
+			return QueryProcess.getInstance().modifying();
+		case InvocationPlan.NAMED_PAGE: // ->进入QueryByNamed Page
+			return QueryProcess.getInstance().queryByNamedPage();
+		case InvocationPlan.PAGE: // ->进入Page
+			return QueryProcess.getInstance().queryPage();
+		case InvocationPlan.QUERY: // -> 进入query
+			return QueryProcess.getInstance().query();
+		case InvocationPlan.METHOD_QUERY_ID:
+			return QueryProcess.getInstance().methodQuery(plan.getId());
+		case InvocationPlan.METHOD_QUERY:
+			return QueryProcess.getInstance().methodQuery();
+		default:
 			throw new RepositoryException("不能识别的Repository");
 		}
 	}
@@ -49,4 +49,12 @@ public @interface QueryByNamed {
 	 * @return boolean
 	 */
 	boolean render() default true;
+
+	/**
+	 * 是否按参数的"形状"缓存渲染结果,默认是false. 形状是指每个&#064;Param参数是否为null,是否为空,布尔值,集合或数组的长度. <br>
+	 * 只有当模板的渲染结果仅取决于参数的形状时(如: 只用#if($name)做判断, 值通过:name引用),才可以设置为true.
+	 * 
+	 * @return boolean
+	 */
+	boolean memo() default false;
 }
@@ -1,9 +1,10 @@
 package org.fastquery.core;
 
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -13,7 +14,8 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.fastquery.dsm.FQueryFactoryImpl;
 import org.fastquery.dsm.FQueryProperties;
-import org.fastquery.util.TypeUtil;
+import org.fastquery.dsm.ReplicaSet;
+import org.fastquery.util.FastQueryJSONObject;
 
 /**
  * 
@@ -29,9 +31,16 @@ public final class QueryContext {
 	private Class<?> returnType; // 返回类型
 	private Connection connection; // 当前连接
 	private String sourceName; // 当前数据源名称
+	private MethodMetadata metadata; // 当前method的元数据
 	private Class<? extends Repository> iclass;// 当前拦截到的接口
 	private Object[] args; // 当前方法的实参
 	private List<String> sqls = new ArrayList<>(); // 当前method所执行的SQL集合
+	private Deadline deadline; // 当前method的时限, 不限为null
+	private ReplicaSet replicaSet; // 当前method由从库执行时, 从库所在的集合, 反之为null
+	private int replica; // 所用从库的索引
+	private boolean joined; // 当前连接是否属于 TransactionContext 的事务, 是则由事务负责提交和关闭
+	private Savepoint savepoint; // 传播行为为NESTED的方法加入事务时的保存点
+	private Boolean autoCommit; // 当前连接的自动提交状态, null表示还没有读取过, 用来省去多余的setAutoCommit和commit
 
 	private static String lang = "zh_CN"; // 语言编码
 	// 用作调式
@@ -44,7 +53,15 @@ public final class QueryContext {
 		return threadLocal.get();
 	}
 
-	static void start(Class<? extends Repository> iclass, Method method, Object[] args) throws SQLException {
+	/**
+	 * QueryContext 生命开始
+	 * 
+	 * @param plan 调用计划
+	 * @param args 方法实参
+	 * @param source 已经确定的数据源名称(如分片), 为null时取 &#064;Source 标识的参数
+	 * @throws SQLException 异常
+	 */
+	static void start(InvocationPlan plan, Object[] args, String source) throws SQLException {
 		if (threadLocal.get() != null && !debug) {
 			clear();
 			throw new SQLException("QueryContext 没有正确释放");
@@ -53,19 +70,37 @@ public final class QueryContext {
 			threadLocal.set(new QueryContext());
 		}
 		QueryContext context = getQueryContext();
-		context.iclass = iclass;
-		context.method = method;
+		context.iclass = plan.getIclass();
+		context.method = plan.getMethod();
+		context.metadata = plan.getMetadata();
 		context.args = args;
 
-		context.sourceName = findSource(method.getParameters(), args);
-		if (context.connection == null || context.connection.isClosed()) { // 不加这行,测试StudentDBServiceTest会卡顿
-			context.connection = getDataSource(context.sourceName, iclass.getName()).getConnection();
+		if (context.deadline != null) { // 调试模式下上一个方法的
+			context.deadline.cancel();
+		}
+		int timeout = plan.getMetadata().getTimeout();
+		if (timeout == -1) {
+			timeout = FastQueryJSONObject.getQueryTimeout();
+		}
+		context.deadline = timeout > 0 ? new Deadline(timeout) : null;
+
+		context.sourceName = source != null ? source : findSource(plan.getSourceIndex(), args);
+		Propagation propagation = plan.getMetadata().getPropagation();
+		Connection joined = TransactionContext.join(propagation, () -> getDataSource(context.sourceName, context.iclass.getName()));
+		if (joined != null) {
+			context.connection = joined;
+			context.joined = true;
+			context.savepoint = propagation == Propagation.NESTED ? joined.setSavepoint() : null;
+		} else if (context.connection == null || context.connection.isClosed()) { // 不加这行,测试StudentDBServiceTest会卡顿
+			context.connection = connection(context, plan);
+			context.autoCommit = null;
 			if (debug) {
 				getQueryContext().connection.setAutoCommit(false);
+				context.autoCommit = false;
 			}
 		}
 
-		context.returnType = method.getReturnType();
+		context.returnType = plan.getReturnType();
 	}
 
 	public static List<String> getSqls() {
@@ -89,6 +124,15 @@ public final class QueryContext {
 		return getQueryContext().method;
 	}
 
+	/**
+	 * 获取当前方法的元数据
+	 * 
+	 * @return 方法元数据
+	 */
+	public static MethodMetadata getMetadata() {
+		return getQueryContext().metadata;
+	}
+
 	public static void setLang(String lang) {
 		QueryContext.lang = lang;
 	}
@@ -97,6 +141,55 @@ public final class QueryContext {
 		return getQueryContext().connection;
 	}
 
+	/**
+	 * 把当前连接移交出去, 之后 clear() 不再关闭它, 由接手者负责关闭. 调试模式下连接依然由QueryContext管理, 加入了事务的连接由事务管理, 都返回null.
+	 * 
+	 * @return 当前连接, 调试模式下或加入了事务时为null
+	 */
+	static Connection detachConnection() {
+		if (debug || getQueryContext().joined) { // 加入事务的连接由事务关闭
+			return null;
+		}
+		QueryContext context = getQueryContext();
+		Connection connection = context.connection;
+		context.connection = null;
+		return connection;
+	}
+
+	/**
+	 * 登记当前方法执行的语句, 设置好剩余的时限, 到期时它会被取消. 方法没有时限时什么也不做.
+	 * 
+	 * @param stat 语句
+	 * @param <S> 语句类型
+	 * @return stat
+	 * @throws SQLException 已经超时
+	 */
+	static <S extends Statement> S watch(S stat) throws SQLException {
+		Deadline deadline = getQueryContext().deadline;
+		if (deadline != null) {
+			try {
+				deadline.watch(stat);
+			} catch (SQLException e) {
+				stat.close();
+				throw e;
+			}
+		}
+		return stat;
+	}
+
+	/**
+	 * 当前方法的时限(秒), 已经超时返回正数, 否则返回0
+	 * 
+	 * @return 已超过的时限(秒), 没有超时为0
+	 */
+	static int expiredTimeout() {
+		QueryContext context = getQueryContext();
+		if (context == null || context.deadline == null || !context.deadline.isExpired()) {
+			return 0;
+		}
+		return context.deadline.getTimeout();
+	}
+
 	public static String getSourceName() {
 		return getQueryContext().sourceName;
 	}
@@ -107,6 +200,7 @@ public final class QueryContext {
 
 	public static void setConnection(Connection connection) {
 		getQueryContext().connection = connection;
+		getQueryContext().autoCommit = null;
 	}
 
 	public static void setSourceName(String sourceName) {
@@ -118,6 +212,19 @@ public final class QueryContext {
 	}
 
 	public static void clear() throws SQLException {
+		QueryContext current = getQueryContext();
+		if (current != null && current.deadline != null) {
+			current.deadline.cancel();
+		}
+		if (current != null && current.replicaSet != null) {
+			current.replicaSet.release(current.replica);
+			current.replicaSet = null;
+		}
+		if (current != null && current.joined) { // 连接属于事务, 不能关闭
+			releaseSavepoint(current);
+			current.connection = null;
+			current.joined = false;
+		}
 		if (debug) {
 			return;
 		}
@@ -126,6 +233,7 @@ public final class QueryContext {
 			QueryContext context = getQueryContext();
 			lang = null;
 			context.method = null;
+			context.metadata = null;
 			context.sqls.clear();
 			if (context.connection != null) {
 				context.connection.close();
@@ -139,6 +247,18 @@ public final class QueryContext {
 		}
 	}
 
+	private static void releaseSavepoint(QueryContext context) {
+		if (context.savepoint != null) {
+			Savepoint sp = context.savepoint;
+			context.savepoint = null;
+			try {
+				context.connection.releaseSavepoint(sp);
+			} catch (SQLException e) {
+				LOG.warn(e.getMessage(), e);
+			}
+		}
+	}
+
 	public static void forceClear() throws SQLException {
 		debug = false;
 		clear();
@@ -170,17 +290,60 @@ public final class QueryContext {
 		return dataSource;
 	}
 
+	/**
+	 * 为调用打开连接. 普通查询且主库配置了从库时, 由均衡策略选出的从库执行, 否则由主库执行
+	 * 
+	 * @param context 当前调用的上下文, 选中从库时记下从库以便归还
+	 * @param plan 调用计划
+	 * @return 连接
+	 * @throws SQLException 取连接失败
+	 */
+	private static Connection connection(QueryContext context, InvocationPlan plan) throws SQLException {
+		if (plan.isReplicaReadable()) {
+			String primary = context.sourceName != null ? context.sourceName : FQueryProperties.findDataSourceName(context.iclass.getName());
+			ReplicaSet replicaSet = FQueryProperties.findReplicaSet(primary);
+			if (replicaSet != null) {
+				int index = replicaSet.acquire();
+				try {
+					Connection conn = getDataSource(replicaSet.getReplica(index), context.iclass.getName()).getConnection();
+					context.replicaSet = replicaSet;
+					context.replica = index;
+					return conn;
+				} catch (SQLException | RuntimeException e) {
+					replicaSet.release(index);
+					throw e;
+				}
+			}
+		}
+		return getDataSource(context.sourceName, context.iclass.getName()).getConnection();
+	}
+
+	/**
+	 * 调用计划在这组实参下所用的数据源
+	 * 
+	 * @param plan 调用计划
+	 * @param args 方法实参
+	 * @param source 已经确定的数据源名称, 为null时取 &#064;Source 标识的参数
+	 * @return 数据源
+	 */
+	static DataSource dataSource(InvocationPlan plan, Object[] args, String source) {
+		return getDataSource(source != null ? source : findSource(plan.getSourceIndex(), args), plan.getIclass().getName());
+	}
+
 	/**
 	 * 标识有Source注解的参数的具体的实参.
 	 * 
-	 * @param parameters
-	 *            类型集合
+	 * @param sourceIndex
+	 *            标识有Source注解的参数的索引,-1表示没有
 	 * @param args
 	 *            实参
 	 * @return 值
 	 */
-	private static String findSource(Parameter[] parameters, Object... args) {
-		Object obj = TypeUtil.findAnnotationParameterVal(Source.class, parameters, args);
+	private static String findSource(int sourceIndex, Object... args) {
+		if (sourceIndex == -1) {
+			return null;
+		}
+		Object obj = args[sourceIndex];
 		return obj != null ? obj.toString() : null;
 	}
 
@@ -206,13 +369,35 @@ public final class QueryContext {
 			return;
 		}
 		QueryContext context = getQueryContext();
-		Transactional t = context.method.getAnnotation(Transactional.class);
-		boolean suppor = t == null || !t.propagation().equals(Propagation.NOT_SUPPORTED);
-		if (!suppor) {
+		if (!context.metadata.isTransactionSupported() || context.joined) {
 			return;
 		}
 
-		getQueryContext().connection.setAutoCommit(autoCommit);
+		if (isAutoCommit(context) != autoCommit) { // 状态没变就不必再设置
+			context.connection.setAutoCommit(autoCommit);
+			context.autoCommit = autoCommit;
+		}
+	}
+
+	/**
+	 * 改操作执行前调用. 只有一条语句, 且方法没有标识 &#064;Transactional 时, 保持自动提交, 省去关闭自动提交和提交这两次往返; 
+	 * 否则关闭自动提交, 由调用者提交或回滚.
+	 * 
+	 * @param statements 将要执行的语句数
+	 * @throws SQLException 异常
+	 */
+	static void begin(int statements) throws SQLException {
+		if (statements > 1 || getQueryContext().metadata.getTransactional() != null) {
+			setAutoCommit(false);
+		}
+	}
+
+	// 当前连接是否处于自动提交状态, 只在第一次读取
+	private static boolean isAutoCommit(QueryContext context) throws SQLException {
+		if (context.autoCommit == null) {
+			context.autoCommit = context.connection.getAutoCommit();
+		}
+		return context.autoCommit;
 	}
 
 	/**
@@ -225,14 +410,13 @@ public final class QueryContext {
 			return;
 		}
 		QueryContext context = getQueryContext();
-
-		Transactional t = context.method.getAnnotation(Transactional.class);
-		boolean suppor = t == null || !t.propagation().equals(Propagation.NOT_SUPPORTED);
-		if (!suppor) {
+		if (!context.metadata.isTransactionSupported() || context.joined) { // 加入了事务, 由事务统一提交
 			return;
 		}
 
-		getQueryContext().connection.commit();
+		if (!isAutoCommit(context)) { // 自动提交时, 语句执行完就已经提交了
+			context.connection.commit();
+		}
 	}
 
 	/**
@@ -245,14 +429,21 @@ public final class QueryContext {
 			return;
 		}
 		QueryContext context = getQueryContext();
-
-		Transactional t = context.method.getAnnotation(Transactional.class);
-		boolean suppor = t == null || !t.propagation().equals(Propagation.NOT_SUPPORTED);
-		if (!suppor) {
+		if (!context.metadata.isTransactionSupported()) {
 			return;
 		}
 
-		getQueryContext().connection.rollback();
+		if (!context.joined) {
+			if (!isAutoCommit(context)) {
+				context.connection.rollback();
+			}
+		} else if (context.savepoint != null) { // NESTED: 只撤销本方法所做的
+			Savepoint sp = context.savepoint;
+			context.savepoint = null;
+			context.connection.rollback(sp);
+		} else {
+			TransactionContext.setRollbackOnly();
+		}
 	}
 
 }
@@ -23,22 +23,16 @@
 package org.fastquery.core;
 
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.Map.Entry;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.fastquery.mapper.QueryPool;
-import org.fastquery.page.NotCount;
 import org.fastquery.page.Pageable;
 import org.fastquery.page.PageableImpl;
-import org.fastquery.struct.ParamMap;
 import org.fastquery.struct.SQLValue;
 import org.fastquery.util.TypeUtil;
 
@@ -55,6 +49,19 @@ public class QueryParser {
 	private QueryParser() {
 	}
 
+	// 获取 pageable, 没有传递Pageable,那么必然有 pageIndex, pageSize 不然,不能通过初始化
+	static Pageable pageable(MethodMetadata metadata, Object[] args) {
+		int index = metadata.getPageableIndex();
+		if (index != -1 && args[index] != null) {
+			return (Pageable) args[index];
+		}
+		return new PageableImpl(intArg(args, metadata.getPageIndexIndex()), intArg(args, metadata.getPageSizeIndex()));
+	}
+
+	private static int intArg(Object[] args, int index) {
+		return (index != -1 && args[index] != null) ? (int) args[index] : -1;
+	}
+
 	/**
 	 * 改操作分析
 	 * 
@@ -62,27 +69,18 @@ public class QueryParser {
 	 * @return
 	 */
 	static List<SQLValue> modifyParser() {
-		Method method = QueryContext.getMethod();
+		MethodMetadata metadata = QueryContext.getMetadata();
 		Object[] args = QueryContext.getArgs();
-		Query[] queries = method.getAnnotationsByType(Query.class);
 
-		Modifying modifying = method.getAnnotation(Modifying.class);
+		Modifying modifying = metadata.getModifying();
 		String id = modifying.id(); // 不可能为null
 		String table = modifying.table();
 
-		List<String> sqls = TypeUtil.getQuerySQL(method, queries, args);
-
-		int sqlCount = sqls.size();
-
-		List<SQLValue> msvs = new ArrayList<>(sqlCount);
-
-		for (int jk = 0; jk < sqlCount; jk++) {
-			// 获取sql
-			String sql = sqls.get(jk);
-			// 替换SQL中的占位变量符
-			sql = sql.replaceAll(Placeholder.TABLE_REG, Matcher.quoteReplacement(table));
-			sql = sql.replaceAll(Placeholder.ID_REG, Matcher.quoteReplacement(id));
-			msvs.add(inParser(sql));
+		SQLTemplate[] templates = templates(metadata);
+		List<SQLValue> msvs = new ArrayList<>(templates.length);
+		for (SQLTemplate template : templates) {
+			// 替换SQL中的占位变量符, 展开"?"
+			msvs.add(template.render(metadata, args, table, id));
 		}
 
 		return msvs;
@@ -94,10 +92,16 @@ public class QueryParser {
 	 * @return
 	 */
 	static SQLValue queryParser() {
-		Method method = QueryContext.getMethod();
-		Query[] queries = method.getAnnotationsByType(Query.class);
-		String sql = TypeUtil.getQuerySQL(method, queries, QueryContext.getArgs()).get(0);
-		return inParser(sql);
+		MethodMetadata metadata = QueryContext.getMetadata();
+		return templates(metadata)[0].render(metadata, QueryContext.getArgs(), null, null);
+	}
+
+	// 获取编译好的模板, QueryByNamed 的模板需要先经过渲染
+	private static SQLTemplate[] templates(MethodMetadata metadata) {
+		if (metadata.getQueryByNamed() != null) {
+			return new SQLTemplate[] { QueryPool.template(true) };
+		}
+		return metadata.getQueryTemplates();
 	}
 
 	public static List<SQLValue> pageParser() {
@@ -107,25 +111,14 @@ public class QueryParser {
 		// 下一页query
 		List<SQLValue> sqlValues = new ArrayList<>(2);
 
-		Method method = QueryContext.getMethod();
+		MethodMetadata metadata = QueryContext.getMetadata();
+		Method method = metadata.getMethod();
 		Object[] args = QueryContext.getArgs();
-		Query[] querys = method.getAnnotationsByType(Query.class);
+		Query[] querys = metadata.getQueries();
 
 		// 获取sql
 		String sql = TypeUtil.getQuerySQL(method, querys, args).get(0);
-		Pageable pageable = null;
-		for (Object arg : args) {
-			if (arg instanceof Pageable) { // 如果当前arg是Pageable接口的一个实例
-				pageable = (Pageable) arg;
-				break;
-			}
-		}
-		Parameter[] parameters = method.getParameters();
-		if (pageable == null) {
-			// 没有传递Pageable,那么必然有 pageIndex, pageSize 不然,不能通过初始化
-			pageable = new PageableImpl(TypeUtil.findPageIndex(parameters, args),
-					TypeUtil.findPageSize(parameters, args));
-		}
+		Pageable pageable = pageable(metadata, args);
 
 		int firstResult = pageable.getOffset();
 		int maxResults = pageable.getPageSize();
@@ -152,7 +145,7 @@ public class QueryParser {
 		sqlValues.add(inParser(sql));
 
 		Query query = querys[0];
-		if (method.getAnnotation(NotCount.class) == null) {
+		if (!metadata.isNotCount()) {
 			// 求和 ---------------------------------------------------
 			String countField = query.countField();
 			// 获取求和sql
@@ -210,63 +203,40 @@ public class QueryParser {
 		// 下一页query
 		List<SQLValue> sqlValues = new ArrayList<>(2);
 
-		String query = QueryPool.render(true);
+		// 编译好的模板(不渲染或memo=true时已缓存), 直接渲染, 不再每次把文本编译两遍
+		SQLTemplate query = QueryPool.template(true);
 
-		Method method = QueryContext.getMethod();
+		MethodMetadata metadata = QueryContext.getMetadata();
 		Object[] args = QueryContext.getArgs();
-		// 获取 pageable
-		Pageable pageable = null;
-		for (Object arg : args) {
-			if (arg instanceof Pageable) { // 如果当前arg是Pageable接口的一个实例
-				pageable = (Pageable) arg;
-				break;
-			}
-		}
-		Parameter[] parameters = method.getParameters();
-		if (pageable == null) {
-			// 没有传递Pageable,那么必然有 pageIndex, pageSize 不然,不能通过初始化
-			pageable = new PageableImpl(TypeUtil.findPageIndex(parameters, args),
-					TypeUtil.findPageSize(parameters, args));
-		}
-		// 获取 pageable End
+		Pageable pageable = pageable(metadata, args);
 
-		// 获取sql
-		String sql = TypeUtil.paramNameFilter(method, args, query);
+		SQLValue sqlValue = query.render(null, args, null, null);
+		sqlValues.add(limit(sqlValue, getLimit(pageable.getOffset(), pageable.getPageSize())));
 
-		String limit = getLimit(pageable.getOffset(), pageable.getPageSize());
-		if (sql.indexOf(Placeholder.LIMIT) != -1) { // 如果#{#limit}存在
-			sql = sql.replaceAll(Placeholder.LIMIT_RGE, Matcher.quoteReplacement(limit));
-		} else {
-			sql += limit;
-		}
-
-		sqlValues.add(inParser(sql));
-
-		if (method.getAnnotation(NotCount.class) == null) { // 需要求和
-			String countQuery = QueryPool.render(false);
-			sql = TypeUtil.paramNameFilter(method, args, countQuery);
-
-			sqlValues.add(inParser(sql));
+		if (!metadata.isNotCount()) { // 需要求和
+			sqlValues.add(QueryPool.template(false).render(null, args, null, null));
 
 			// 求和 --------------------------------------------------- End
 		} else {
-			// 获取sql
-			sql = TypeUtil.paramNameFilter(method, args, query); // 06-11-11
 			// 在查一下推算出下一页是否有数据, 要不要把下一页的数据存储起来,有待考虑...
 			int firstResult = pageable.getOffset() + pageable.getPageSize();
-			limit = getLimit(firstResult, pageable.getPageSize());
-			if (sql.indexOf(Placeholder.LIMIT) != -1) {
-				sql = sql.replaceAll(Placeholder.LIMIT_RGE, Matcher.quoteReplacement(limit));
-			} else {
-				sql += limit;
-			}
-
-			sqlValues.add(inParser(sql));
+			sqlValues.add(limit(sqlValue, getLimit(firstResult, pageable.getPageSize())));
 		}
 
 		return sqlValues;
 	}
 
+	// 把limit放到#{#limit}处, 如果#{#limit}不存在, 放到末尾
+	private static SQLValue limit(SQLValue sqlValue, String limit) {
+		String sql = sqlValue.getSql();
+		if (sql.indexOf(Placeholder.LIMIT) != -1) {
+			sql = sql.replace(Placeholder.LIMIT, limit);
+		} else {
+			sql += limit;
+		}
+		return SQLValue.expanded(sql, new ArrayList<>(sqlValue.getValues()));
+	}
+
 	/**
 	 * 根据regex在target中首次匹配到的开始索引, 没有匹配到返回-1
 	 * 
@@ -317,17 +287,7 @@ public class QueryParser {
 	}
 
 	private static SQLValue inParser(String sql) {
-		int[] ints = TypeUtil.getSQLParameter(sql);
-		// sql 中的"?"号调整
 		// sql中的"?"可能会因为方法参数是一个集合,会变成多个, 举例说明: in (?) 那么这个?的实际个数取决于传递的集合长度
-		ParamMap paramMap = TypeUtil.getParamMap(ints, QueryContext.getArgs());
-		Map<Integer, Integer> rpates = paramMap.getRps();
-		List<Object> objs = paramMap.getObjs();
-
-		Set<Entry<Integer, Integer>> entities = rpates.entrySet();
-		for (Entry<Integer, Integer> entry : entities) {
-			sql = TypeUtil.replace(sql, entry.getKey(), entry.getValue());
-		}
-		return new SQLValue(sql, objs);
+		return SQLTemplate.compile(sql, null, true).render(null, QueryContext.getArgs(), null, null);
 	}
 }
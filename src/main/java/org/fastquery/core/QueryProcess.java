@@ -23,27 +23,25 @@
 package org.fastquery.core;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.TypeVariable;
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.fastquery.handler.ModifyingHandler;
 import org.fastquery.handler.QueryHandler;
-import org.fastquery.page.NotCount;
 import org.fastquery.page.PageImpl;
 import org.fastquery.page.Pageable;
-import org.fastquery.page.PageableImpl;
 import org.fastquery.page.Slice;
 import org.fastquery.struct.RespUpdate;
 import org.fastquery.struct.SQLValue;
 import org.fastquery.util.BeanUtil;
+import org.fastquery.util.EntityMetadata;
 import org.fastquery.util.FastQueryJSONObject;
 import org.fastquery.util.TypeUtil;
 import org.objectweb.asm.Type;
@@ -82,14 +80,18 @@ public class QueryProcess {
 	
 	// 改操作
 	Object modifying() {
-		Method method = QueryContext.getMethod();
+		MethodMetadata metadata = QueryContext.getMetadata();
 		Class<?> returnType = QueryContext.getReturnType();
+		if (metadata.getBatch() != null) {
+			return batch(metadata, returnType);
+		}
 		
 		// 获取待执行的sql
 		List<SQLValue> sqlValues = QueryParser.modifyParser();
 		
-		// 执行
-		List<RespUpdate> respUpdates = DB.modify(sqlValues, true, true);
+		// 执行, 只有返回值需要主键时(Map,JSONObject,Primarykey,实体)才请求生成的主键
+		boolean hasPK = !(returnType == void.class || returnType == int.class || returnType == int[].class || returnType == boolean.class);
+		List<RespUpdate> respUpdates = DB.modify(sqlValues, true, hasPK);
 		
 		Long autoIncKey = respUpdates.get(0).getPk();
 		
@@ -107,7 +109,7 @@ public class QueryProcess {
 			}
 			return effects;
 		} else if(returnType == Map.class) { // 如果然会值是Map,那么一定是insert或update,在生成实现的时候已经做安全检测
-			return mh.mapType(autoIncKey,TypeUtil.mapValueTyep(method));
+			return mh.mapType(autoIncKey,metadata.getMapValueType());
 		} else if(returnType == JSONObject.class) {
 			return mh.jsonObjectType(autoIncKey);
 		} else if(returnType == Primarykey.class) {
@@ -120,18 +122,39 @@ public class QueryProcess {
 		// 返回类型分析===================================== End
 		
 	}
+
+	// 批量改操作: 集合中的每个成员绑定到同一条SQL
+	private Object batch(MethodMetadata metadata, Class<?> returnType) {
+		Modifying modifying = metadata.getModifying();
+		Iterator<SQLValue> sqlValues = metadata.getBatch().sqlValues(QueryContext.getArgs(), modifying.table(), modifying.id());
+		int[] effects = DB.modifyBatch(sqlValues, FastQueryJSONObject.getBatchSize(), FastQueryJSONObject.getBatchCommit());
+		if (returnType == int[].class) {
+			return effects;
+		} else if (returnType == int.class) {
+			return Arrays.stream(effects).sum();
+		} else {
+			return null;
+		}
+	}
 	
 	// 查操作
 	Object query() {
 		
-		Method method = QueryContext.getMethod();
+		MethodMetadata metadata = QueryContext.getMetadata();
 		Class<?> returnType = QueryContext.getReturnType();
 		SQLValue sqlValue =  QueryParser.queryParser();
+		if(metadata.isStreaming()) { // Stream<T>, Iterator<T>, 或逐行回调
+			return stream(metadata, returnType, sqlValue);
+		}
+		QueryHandler qh = QueryHandler.getInstance();
+		Class<?> beanType = metadata.getRowBeanType();
+		if(beanType != null) { // List<T>, T[], T 中的T是实体, 行直接映射成实体
+			return qh.beanType(returnType, DB.find(sqlValue, beanType));
+		}
 		List<Map<String, Object>> keyvals = DB.find(sqlValue);
 		
 		// 上面的try发生异常了,才会导致keyvals为null, 不过异常一旦捕获到就throw了,因此,程序执行到这里keyvals不可能为null.
 		// 返回类型分析=====================================
-		QueryHandler qh = QueryHandler.getInstance();
 		if(returnType == long.class) {
 			return qh.longType(keyvals);
 		} else if(returnType == int.class) {
@@ -139,9 +162,9 @@ public class QueryProcess {
 		} else if(returnType == boolean.class) {
 			return qh.booleanType(keyvals);
 		} else if(returnType == Map.class){
-			return qh.mapType(keyvals,TypeUtil.mapValueTyep(method));
-		} else if(TypeUtil.isListMapSO(method.getGenericReturnType())){
-			return qh.listType(keyvals,TypeUtil.listMapValueTyep(method));
+			return qh.mapType(keyvals,metadata.getMapValueType());
+		} else if(metadata.isListMapSO()){
+			return qh.listType(keyvals,metadata.getListMapValueType());
 		}else if(returnType == List.class){
 			return qh.list(keyvals);
 		}else if(returnType == JSONObject.class){
@@ -149,7 +172,7 @@ public class QueryProcess {
 		}else if(returnType == JSONArray.class){
 			return qh.jsonArrayType(keyvals);
 		}else if(TypeUtil.isWarrp(returnType)){
-			return qh.wrapperType(method,returnType,keyvals);
+			return qh.wrapperType(metadata.getMethod(),returnType,keyvals);
 		}else if(TypeUtil.isWarrp(returnType.getComponentType()) || TypeUtil.hasDefaultConstructor(returnType.getComponentType())){
 			// 基本类型数组, bean数组
 			return qh.wrapperAarryType(returnType,keyvals);
@@ -159,28 +182,41 @@ public class QueryProcess {
 		// 返回类型分析===================================== End
 	}
 	
+	// 流式查询, 行在读取时才映射, 结果集不会整体装入内存
+	@SuppressWarnings("unchecked")
+	private Object stream(MethodMetadata metadata, Class<?> returnType, SQLValue sqlValue) {
+		Integer fs = metadata.getFetchSize();
+		int fetchSize = fs != null ? fs : FastQueryJSONObject.getFetchSize();
+		int index = metadata.getRowHandlerIndex();
+		if(index == -1) { // 返回Stream或Iterator, 连接由游标接管
+			RowCursor<?> cursor = DB.cursor(sqlValue, metadata.getRowType(), fetchSize);
+			return returnType == Iterator.class ? cursor : cursor.stream();
+		}
+		Object handler = QueryContext.getArgs()[index];
+		if(handler == null) {
+			throw new RepositoryException(metadata.getMethod() + " 的第" + (index + 1) + "个参数(逐行回调)不能为null");
+		}
+		RowHandler<Object> rowHandler = handler instanceof RowHandler ? (RowHandler<Object>) handler : ((Consumer<Object>) handler)::accept;
+		long count = DB.each(sqlValue, metadata.getRowType(), fetchSize, rowHandler);
+		if(returnType == long.class) {
+			return count;
+		} else if(returnType == int.class) {
+			return (int) count;
+		} else {
+			return null;
+		}
+	}
+	
 	// 分页查询
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	Object queryPage() {
-		Method method = QueryContext.getMethod();
-		Object[] args = QueryContext.getArgs();
-		
-		
-		Pageable pageable = null;
-		for (Object arg : args) {
-			if(arg instanceof Pageable) { // 如果当前arg是Pageable接口的一个实例
-				pageable = (Pageable) arg;
-				break;
-			}
-		}
-		Parameter[] parameters = method.getParameters();
-		if(pageable == null ) {
-			// 没有传递Pageable,那么必然有 pageIndex, pageSize 不然,不能通过初始化
-			pageable = new PageableImpl(TypeUtil.findPageIndex(parameters, args), TypeUtil.findPageSize(parameters, args));
-		}
+		MethodMetadata metadata = QueryContext.getMetadata();
+		Pageable pageable = QueryParser.pageable(metadata, QueryContext.getArgs());
 
 		List<SQLValue> sqlValues = QueryParser.pageParser();
-		List<Map<String, Object>> keyvals = DB.find(sqlValues.get(0));
+		// Page<T> 中的 T如果是一个实体,那么行直接映射成实体
+		Class<?> pageBeanType = metadata.getPageBeanType();
+		List<?> keyvals = pageBeanType != null ? DB.find(sqlValues.get(0), pageBeanType) : DB.find(sqlValues.get(0));
 		
 		int size = pageable.getPageSize();      // 每页多少条数据
 		long totalElements = -1L;               // 总行数,如果不求和默认-1L
@@ -192,7 +228,7 @@ public class QueryProcess {
 		boolean hasNext;                                 // 有下一页吗? 在这里不用给默认值,如下一定会给他赋值.
 		boolean isLast;
 		
-		if(method.getAnnotation(NotCount.class)==null) {
+		if(!metadata.isNotCount()) {
 			 
 			List<Map<String, Object>> results = DB.find(sqlValues.get(1));
 			if(!results.isEmpty()) {
@@ -221,45 +257,20 @@ public class QueryProcess {
 		Slice previousPageable = new Slice((!isFirst) ? (number - 1) : number, size);
 		
 		
-		List<?> list = keyvals;
-		// Page<T> 中的 T如果是一个实体,那么需要把 HashMap 转换成实体
-		//method.getGenericReturnType()
-		if(!method.getGenericReturnType().getTypeName().contains("Page<java.util.Map<java.lang.String, java.lang.Object>>")){
-			// 则说明是一个T是一个实体
-			java.lang.reflect.Type type = method.getGenericReturnType();
-			if(type instanceof ParameterizedType){
-				ParameterizedType parameterizedType = (ParameterizedType) method.getGenericReturnType();
-				Class<?> bean = (Class<?>) parameterizedType.getActualTypeArguments()[0];
-				list = TypeUtil.listMap2ListBean(keyvals, bean);
-			}
-		}
-						
-		return new PageImpl(size, numberOfElements, number, list,totalElements, totalPages, hasContent, hasNext, hasPrevious,isFirst, isLast, nextPageable, previousPageable);
+		return new PageImpl(size, numberOfElements, number, keyvals,totalElements, totalPages, hasContent, hasNext, hasPrevious,isFirst, isLast, nextPageable, previousPageable);
 		
 	}
 
 	    // 分页查询(仅针对QueryByNamed Page分页查询,不针对Query)
 		@SuppressWarnings({ "rawtypes", "unchecked" })
 		Object queryByNamedPage() {
-			Method method = QueryContext.getMethod();
-			Object[] args = QueryContext.getArgs();
-			// 获取 pageable
-			Pageable pageable = null;
-			for (Object arg : args) {
-				if(arg instanceof Pageable) { // 如果当前arg是Pageable接口的一个实例
-					pageable = (Pageable) arg;
-					break;
-				}
-			}
-			Parameter[] parameters = method.getParameters();
-			if(pageable == null ) {
-				// 没有传递Pageable,那么必然有 pageIndex, pageSize 不然,不能通过初始化
-				pageable = new PageableImpl(TypeUtil.findPageIndex(parameters, args), TypeUtil.findPageSize(parameters, args));
-			}
-			// 获取 pageable End
+			MethodMetadata metadata = QueryContext.getMetadata();
+			Pageable pageable = QueryParser.pageable(metadata, QueryContext.getArgs());
 			
 			List<SQLValue> sqlValues = QueryParser.pageParserByNamed();
-			List<Map<String, Object>> keyvals = DB.find(sqlValues.get(0));
+			// Page<T> 中的 T如果是一个实体,那么行直接映射成实体
+			Class<?> pageBeanType = metadata.getPageBeanType();
+			List<?> keyvals = pageBeanType != null ? DB.find(sqlValues.get(0), pageBeanType) : DB.find(sqlValues.get(0));
 			
 			int size = pageable.getPageSize();      // 每页多少条数据
 			long totalElements = -1L;               // 总行数,如果不求和默认-1L
@@ -271,7 +282,7 @@ public class QueryProcess {
 			boolean hasNext;                                 // 有下一页吗? 在这里不用给默认值,如下一定会给他赋值.
 			boolean isLast;
 			
-			if(method.getAnnotation(NotCount.class)==null) { // 需要求和
+			if(!metadata.isNotCount()) { // 需要求和
 				List<Map<String, Object>> results = DB.find(sqlValues.get(1));
 					if(!results.isEmpty()) {
 						totalElements = (long)results.get(0).values().iterator().next();	
@@ -298,93 +309,58 @@ public class QueryProcess {
 			Slice previousPageable = new Slice((!isFirst) ? (number - 1) : number, size);
 			
 			
-			List<?> list = keyvals;
-			// Page<T> 中的 T如果是一个实体,那么需要把 HashMap 转换成实体
-			//method.getGenericReturnType()
-			if(!method.getGenericReturnType().getTypeName().contains("Page<java.util.Map<java.lang.String, java.lang.Object>>")){
-				// 则说明是一个T是一个实体
-				java.lang.reflect.Type type = method.getGenericReturnType();
-				if(type instanceof ParameterizedType){
-					ParameterizedType parameterizedType = (ParameterizedType) method.getGenericReturnType();
-					Class<?> bean = (Class<?>) parameterizedType.getActualTypeArguments()[0];
-					list = TypeUtil.listMap2ListBean(keyvals, bean);
-				}
-			}
-							
-			return new PageImpl(size, numberOfElements, number, list,totalElements, totalPages, hasContent, hasNext, hasPrevious,isFirst, isLast, nextPageable, previousPageable);
+			return new PageImpl(size, numberOfElements, number, keyvals,totalElements, totalPages, hasContent, hasNext, hasPrevious,isFirst, isLast, nextPageable, previousPageable);
 			
 		}
 	
 	@SuppressWarnings("unchecked")
 	Object methodQuery(Id id) {
-		Method method = QueryContext.getMethod();
 		Object[] iargs = QueryContext.getArgs();
 		// 检验实体
-		Parameter[] parameters = method.getParameters();
-		for (int i = 0; i < parameters.length; i++) {
-			if( parameters[i].getParameterizedType() instanceof TypeVariable ) { // 这个类型是变量类型吗?
-				Field[] fields = iargs[i].getClass().getDeclaredFields();
-				for (Field field : fields) {
-					if( Type.getType(field.getType()).getSort() != Type.OBJECT ) {
-						throw new RepositoryException(String.format("%s这个实体的成员变量%s %s %s不允许是基本类型", iargs[i].getClass().getName(),Modifier.toString(field.getModifiers()),field.getType().getName(),field.getName()));
-					}
+		for (int i : QueryContext.getMetadata().getTypeVariableIndexes()) { // 类型为变量类型的参数
+			Field[] fields = iargs[i].getClass().getDeclaredFields();
+			for (Field field : fields) {
+				if( Type.getType(field.getType()).getSort() != Type.OBJECT ) {
+					throw new RepositoryException(String.format("%s这个实体的成员变量%s %s %s不允许是基本类型", iargs[i].getClass().getName(),Modifier.toString(field.getModifiers()),field.getType().getName(),field.getName()));
 				}
-			}	
+			}
 		}
 		// 检验实体 end
 		byte methodId = id.value();
 		
 		Object bean;
-		String sql;
 		String dbName = null;
 		boolean ignoreRepeat;
 		switch (methodId) {
 		case MethodId.QUERY:
 			if(iargs.length == 3) {
+				dbName = iargs[1].toString();
 				bean = iargs[2];
-				sql = BeanUtil.toInsertSQL(iargs[1].toString(),bean);
-				LOG.info(sql);
-				Object keyObj = DB.insert(sql);
-				if(keyObj==null){
-					return new BigInteger("-1");
-				} else {
-					return new BigInteger(keyObj.toString());
-				}
 			} else {
 				bean = iargs[0];
-				sql = BeanUtil.toInsertSQL(bean,false);
-				LOG.info(sql);
-				Object keyObj = DB.insert(sql);
-				if(keyObj==null){
-					return new BigInteger("-1");
-				} else {
-					return new BigInteger(keyObj.toString());
-				}
+			}
+			Object keyObj = DB.insert(BeanUtil.toInsertSQLValue(bean, dbName));
+			if(keyObj==null){
+				return new BigInteger("-1");
+			} else {
+				return new BigInteger(keyObj.toString());
 			}
 			
 		case MethodId.QUERY0:
 			if(iargs.length == 3) {
+				dbName = iargs[1].toString();
 				bean = iargs[2];
-				sql = BeanUtil.toInsertSQL(iargs[1].toString(),bean);
-				LOG.info(sql);
-				Object keyObj = DB.insert(sql);
-				if(keyObj==null){
-					return null;
-				} else {
-					sql = BeanUtil.toSelectSQL(bean, keyObj.toString(), iargs[1].toString());
-					return DB.select(sql, bean);
-				}
 			} else {
 				bean = iargs[0];
-				sql = BeanUtil.toInsertSQL(bean,false);
-				LOG.info(sql);
-				Object keyObj = DB.insert(sql);
-				if(keyObj==null){
-					return null;
-				} else {
-					sql = BeanUtil.toSelectSQL(bean, keyObj.toString(), null);
-					return DB.select(sql, bean);	
-				}
+			}
+			keyObj = DB.insert(BeanUtil.toInsertSQLValue(bean, dbName));
+			EntityMetadata entity = EntityMetadata.of(bean.getClass());
+			if(!entity.isReadBack()) {
+				return entity.copy(bean, keyObj);
+			} else if(keyObj==null){
+				return null;
+			} else {
+				return DB.select(BeanUtil.toSelectSQLValue(bean, keyObj, dbName), bean.getClass());
 			}
 		
 		case MethodId.QUERY1:
@@ -396,11 +372,12 @@ public class QueryProcess {
 				dbName = iargs[1].toString();
 				bean = iargs[2];
 			}
-			sql = DB.update(bean, dbName);
-			if(sql==null){
+			SQLValue select = DB.update(bean, dbName);
+			if(select==null){
 				return null;
 			}
-			return DB.select(sql, bean);
+			entity = EntityMetadata.of(bean.getClass());
+			return entity.isReadBack() ? DB.select(select, bean.getClass()) : entity.copy(bean, null);
 			
 		case MethodId.QUERY2:
 			if (iargs.length == 1) {
@@ -411,15 +388,16 @@ public class QueryProcess {
 				dbName = iargs[1].toString();
 				bean = iargs[2];
 			}
-			sql = BeanUtil.toSelectSQL(bean, null, dbName);
-			if(DB.exists(sql, bean)) {
+			select = BeanUtil.toSelectSQLValue(bean, null, dbName);
+			if(DB.exists(select)) {
 				// 更新
 				DB.update(bean, dbName);
 			} else {
 				// 保存
-				DB.insert((iargs.length==3) ? BeanUtil.toInsertSQL(iargs[1].toString(),bean) : BeanUtil.toInsertSQL(bean,false));
+				DB.insert(BeanUtil.toInsertSQLValue(bean, dbName));
 			}
-			return DB.select(sql, bean);			
+			entity = EntityMetadata.of(bean.getClass());
+			return entity.isReadBack() ? DB.select(select, bean.getClass()) : entity.copy(bean, null);			
 		case MethodId.QUERY3:
 			if (iargs.length == 2) {
 				bean = iargs[0];
@@ -436,19 +414,24 @@ public class QueryProcess {
 			if(iargs.length == 4) {
 				dbName = iargs[2].toString();
 			}
-			if(entitiesObj.getClass().isArray()) {
-				sql = BeanUtil.arr2InsertSQL((Object[])entitiesObj, dbName, ignoreRepeat);
-			} else {
-				sql = BeanUtil.toInsertSQL((Iterable<Object>)entitiesObj, dbName, ignoreRepeat);
+			Iterable<Object> entities = entitiesObj.getClass().isArray() ? Arrays.asList((Object[])entitiesObj) : (Iterable<Object>)entitiesObj;
+			return DB.insertBatch(entities, dbName, ignoreRepeat, FastQueryJSONObject.getBatchSize(), FastQueryJSONObject.getBatchCommit());
+			
+		case MethodId.QUERY5:
+			entitiesObj = iargs[iargs.length-1];
+			if(iargs.length == 3) {
+				dbName = iargs[1].toString();
 			}
-			LOG.info(sql);
-			return DB.insert2(sql);
+			entities = entitiesObj.getClass().isArray() ? Arrays.asList((Object[])entitiesObj) : (Iterable<Object>)entitiesObj;
+			return DB.upsertBatch(entities, dbName, FastQueryJSONObject.getBatchSize());
 			
 		case MethodId.QUERY6:
 			String basedir = FastQueryJSONObject.getBasedir();
 			String sqlFile = basedir + (String)iargs[0];
+			String output = (String) iargs[1];
+			output = output == null || output.isEmpty() ? null : basedir + output;
 			try {
-				DB.executeBatch(sqlFile);
+				DB.executeBatch(sqlFile, output, FastQueryJSONObject.getBatchSize(), FastQueryJSONObject.getBatchCommit());
 			} catch (Exception e) {
 				throw new RepositoryException(e);
 			}
@@ -114,6 +114,45 @@ public interface QueryRepository extends Repository {
 	 */
 	@Id(MethodId.QUERY4)
 	int saveArray(boolean ignoreRepeat,@Source String dataSourceName,String dbName,Object...entities);
+
+	/**
+	 * 批量保存或者更新实体,实体需要包含主键值否则报错(如果不存在就存储,存在就只更新值不为null的字段). <br>
+	 * 全部在同一个事务里, 每batchSize(见fastquery.json)个实体执行一次批处理, 不会把实体再查询回来.
+	 * @param <E> 实体
+	 * @param entities 实体集合
+	 * @return 每一批的影响行数(MySQL: 插入的行计1,更新的行计2,没有变化的行计0). 驱动没有给出行数时(如MySQL开启了rewriteBatchedStatements), 该批为Statement.SUCCESS_NO_INFO(-2)
+	 */
+	@Id(MethodId.QUERY5)
+	<E> int[] saveOrUpdate(Collection<E> entities);
+	/**
+	 * 批量保存或者更新实体,实体需要包含主键值否则报错(如果不存在就存储,存在就只更新值不为null的字段). <br>
+	 * 全部在同一个事务里, 每batchSize(见fastquery.json)个实体执行一次批处理, 不会把实体再查询回来.
+	 * @param entities 实体集合
+	 * @return 每一批的影响行数(MySQL: 插入的行计1,更新的行计2,没有变化的行计0). 驱动没有给出行数时(如MySQL开启了rewriteBatchedStatements), 该批为Statement.SUCCESS_NO_INFO(-2)
+	 */
+	@Id(MethodId.QUERY5)
+	int[] saveOrUpdateArray(Object...entities);
+	/**
+	 * 批量保存或者更新实体,实体需要包含主键值否则报错(如果不存在就存储,存在就只更新值不为null的字段). <br>
+	 * 全部在同一个事务里, 每batchSize(见fastquery.json)个实体执行一次批处理, 不会把实体再查询回来.
+	 * @param <E> 实体
+	 * @param dataSourceName 数据源名称
+	 * @param entities 实体集合
+	 * @return 每一批的影响行数(MySQL: 插入的行计1,更新的行计2,没有变化的行计0). 驱动没有给出行数时(如MySQL开启了rewriteBatchedStatements), 该批为Statement.SUCCESS_NO_INFO(-2)
+	 */
+	@Id(MethodId.QUERY5)
+	<E> int[] saveOrUpdate(@Source String dataSourceName,Collection<E> entities);
+	/**
+	 * 批量保存或者更新实体,实体需要包含主键值否则报错(如果不存在就存储,存在就只更新值不为null的字段). <br>
+	 * 全部在同一个事务里, 每batchSize(见fastquery.json)个实体执行一次批处理, 不会把实体再查询回来.
+	 * @param <E> 实体
+	 * @param dataSourceName 数据源名称
+	 * @param dbName 数据库名称
+	 * @param entities 实体集合
+	 * @return 每一批的影响行数(MySQL: 插入的行计1,更新的行计2,没有变化的行计0). 驱动没有给出行数时(如MySQL开启了rewriteBatchedStatements), 该批为Statement.SUCCESS_NO_INFO(-2)
+	 */
+	@Id(MethodId.QUERY5)
+	<E> int[] saveOrUpdate(@Source String dataSourceName,String dbName,Collection<E> entities);
 	
 	/**
 	 * 保存一个实体,这个实体必须有一个自增长的主键 <br>
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 
+ * 方法的时限(秒). 从方法被调用开始计时, 包括分页时的求和语句在内, 该方法执行的所有SQL都要在时限内完成, 
+ * 否则语句会被取消(Statement.cancel), 方法抛出 QueryTimeoutException. <br>
+ * 优先级: &#064;QueryTimeout &gt; &#064;Transactional(timeout) &gt; fastquery.json 中的 "queryTimeout".
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD })
+public @interface QueryTimeout {
+
+	/**
+	 * 时限(秒), 0 表示不限
+	 * 
+	 * @return 秒
+	 */
+	int value();
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * 标识在实体上, save,update,saveOrUpdate之后是否根据主键再查询一次来构造返回的实体, 默认是. <br>
+ * &#064;ReadBack(false) 表示不再查询, 返回的实体是传入实体的拷贝, 加上数据库生成的主键. 适用于表上没有触发器和数据库端默认值的情形. <br>
+ * 注意: update 返回的实体中, 值为null的字段依然是null, 不代表数据库中的值.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+@Target(TYPE)
+@Retention(RUNTIME)
+@Documented
+public @interface ReadBack {
+
+	/**
+	 * 是否再查询一次
+	 * 
+	 * @return boolean
+	 */
+	boolean value() default true;
+}
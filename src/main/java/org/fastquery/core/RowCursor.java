@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.io.Closeable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 流式查询的游标, 每次调用 next() 才从结果集中读取并映射一行. <br>
+ * 游标持有结果集, Statement 及连接, 读完最后一行, 读取出错或调用 close() 时一并释放. <br>
+ * 没有读完就被丢弃的游标, 在被GC回收后由后台线程释放其资源, 并输出警告.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ * @param <T> 行对应的类型
+ */
+public final class RowCursor<T> implements Iterator<T>, Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RowCursor.class);
+
+	private static final ReferenceQueue<RowCursor<?>> QUEUE = new ReferenceQueue<>();
+	// PhantomReference 自身必须可达, 才会被放入QUEUE
+	private static final Set<Reaper> REAPERS = ConcurrentHashMap.newKeySet();
+
+	static {
+		Thread thread = new Thread(RowCursor::reap, "fastquery-cursor-reaper");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private final ResultSet rs;
+	private final RowMapper<T> mapper;
+	private final Resources resources;
+	private final Reaper reaper;
+	private Boolean ahead; // 已经向前移动但还没有被读取, null表示还没有移动
+
+	/**
+	 * 构造游标
+	 * 
+	 * @param rs 结果集
+	 * @param stat 产生结果集的Statement
+	 * @param connection 游标关闭时需要一起关闭的连接, 可以为null
+	 * @param mapper 行映射器
+	 */
+	RowCursor(ResultSet rs, Statement stat, Connection connection, RowMapper<T> mapper) {
+		this.rs = rs;
+		this.mapper = mapper;
+		this.resources = new Resources(rs, stat, connection);
+		this.reaper = new Reaper(this, resources);
+		REAPERS.add(reaper);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (ahead == null) {
+			if (resources.closed) {
+				return false;
+			}
+			try {
+				ahead = rs.next();
+			} catch (SQLException e) {
+				close();
+				throw new RepositoryException(e.getMessage(), e);
+			}
+			if (!ahead) {
+				close();
+			}
+		}
+		return ahead;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		ahead = null;
+		try {
+			return mapper.map(rs);
+		} catch (SQLException e) {
+			close();
+			throw new RepositoryException(e.getMessage(), e);
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 释放结果集, Statement 及连接. 可以重复调用.
+	 */
+	@Override
+	public void close() {
+		REAPERS.remove(reaper);
+		reaper.clear();
+		resources.close();
+	}
+
+	/**
+	 * 是否已经释放资源
+	 * 
+	 * @return y:true/n:false
+	 */
+	public boolean isClosed() {
+		return resources.closed;
+	}
+
+	/**
+	 * 把游标包装成顺序流, 关闭流就会关闭游标
+	 * 
+	 * @return 流
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+				.onClose(this::close);
+	}
+
+	private static void reap() {
+		while (true) {
+			try {
+				Reaper reaper = (Reaper) QUEUE.remove();
+				if (REAPERS.remove(reaper) && !reaper.resources.closed) {
+					LOG.warn("流式查询的结果没有关闭就被丢弃了, 已自动释放其连接, 请在用完Stream或Iterator后调用close()");
+					reaper.resources.close();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	// 游标不可达后, 依然需要被释放的资源. 不能引用游标本身
+	private static final class Resources {
+		private final ResultSet rs;
+		private final Statement stat;
+		private final Connection connection;
+		private volatile boolean closed;
+
+		Resources(ResultSet rs, Statement stat, Connection connection) {
+			this.rs = rs;
+			this.stat = stat;
+			this.connection = connection;
+		}
+
+		synchronized void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			close(rs);
+			close(stat);
+			if (connection != null) {
+				close(connection);
+			}
+		}
+
+		private static void close(AutoCloseable closeable) {
+			try {
+				closeable.close();
+			} catch (Exception e) {
+				LOG.error(e.getMessage(), e);
+			}
+		}
+	}
+
+	private static final class Reaper extends PhantomReference<RowCursor<?>> {
+		private final Resources resources;
+
+		Reaper(RowCursor<?> cursor, Resources resources) {
+			super(cursor, QUEUE);
+			this.resources = resources;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+/**
+ * 逐行处理查询结果. 作为查询方法的最后一个参数时, 结果集不会整体装入内存, 每读取一行就回调一次.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ * @param <T> 行对应的类型
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+
+	/**
+	 * 处理一行
+	 * 
+	 * @param row 当前行
+	 */
+	void handle(T row);
+}
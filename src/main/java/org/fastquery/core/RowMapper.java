@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 把结果集的当前行映射成一个对象. 不负责移动游标.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ * @param <T> 行对应的类型
+ */
+public interface RowMapper<T> {
+
+	/**
+	 * 映射当前行
+	 * 
+	 * @param rs 结果集, 游标已经指向待映射的行
+	 * @return 行对应的对象
+	 * @throws SQLException 读取列值出错
+	 */
+	T map(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,603 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.fastquery.struct.SQLValue;
+import org.fastquery.util.BeanUtil;
+import org.fastquery.util.PreventSQLInjection;
+import org.fastquery.util.TypeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 编译后的SQL模板. <br>
+ * &#064;Query 或 &#064;Condition 的值在启动时被解析成由字面量和槽位组成的片段序列, 槽位包括: <br>
+ * "?N", ":name", "${name}"/"$name", "#{#where}", "#{#limit}", "#{#table}", "#{#id}" 以及微笑表达式. <br>
+ * 运行时只需对片段序列做一次遍历, 便能得到最终的SQL和"?"号对应的值, 不再依赖正则表达式.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class SQLTemplate {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SQLTemplate.class);
+
+	private static final byte LITERAL = 0; // 字面量
+	private static final byte PARAM = 1; // ?N 或 :name
+	private static final byte EL = 2; // ${name} 或 $name
+	private static final byte SMILE = 3; // 微笑表达式 `-...-`
+	private static final byte WHERE = 4;
+	private static final byte LIMIT = 5;
+	private static final byte TABLE = 6;
+	private static final byte ID = 7;
+
+	// 在变换(如: null处理,去掉首个单词)时, 用私有区字符代表除了字面量和"?N"之外的片段
+	private static final char MARK = '\uE000';
+
+	private final Segment[] segments;
+	private final int capacity; // 预估的渲染长度
+	private final int[] params; // 出现过的参数索引(从0开始,已去重)
+	private SQLTemplate stripped; // 去掉首个单词之后的模板(条件模板才会用到)
+
+	SQLTemplate(List<Segment> list) {
+		this.segments = list.toArray(new Segment[list.size()]);
+		int len = 0;
+		List<Integer> ps = new ArrayList<>();
+		for (Segment segment : segments) {
+			len += segment.text.length();
+			collect(segment, ps);
+		}
+		this.capacity = len + 16;
+		this.params = ps.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static void collect(Segment segment, List<Integer> ps) {
+		if (segment.kind == PARAM && !ps.contains(segment.index)) {
+			ps.add(segment.index);
+		} else if (segment.kind == SMILE) {
+			for (Segment s : segment.inner) {
+				collect(s, ps);
+			}
+		}
+	}
+
+	/**
+	 * 编译SQL
+	 * 
+	 * @param sql 待编译的SQL
+	 * @param params 方法参数上的&#064;Param, 第i个成员对应第i个参数, 可以为null(表示不解析":name"和"$name")
+	 * @param named 是否是QueryByNamed模板, 若是, 不解析"$name"和"#{#where}"
+	 * @return 编译后的模板
+	 */
+	public static SQLTemplate compile(String sql, Param[] params, boolean named) {
+		Map<String, Integer> names = null;
+		if (params != null) {
+			names = new HashMap<>();
+			for (int i = 0; i < params.length; i++) {
+				if (params[i] != null) {
+					names.putIfAbsent(params[i].value(), i);
+				}
+			}
+		}
+		Parser parser = new Parser(sql, names, params, named);
+		return new SQLTemplate(parser.parse(0, sql.length(), true));
+	}
+
+	/**
+	 * 编译SQL, ":name" 按给定的名称解析, 用于&#064;Batch按实体属性绑定
+	 * 
+	 * @param sql 待编译的SQL
+	 * @param names 名称 -&gt; 实参的索引
+	 * @return 编译后的模板
+	 */
+	static SQLTemplate compile(String sql, Map<String, Integer> names) {
+		Parser parser = new Parser(sql, names, null, false);
+		return new SQLTemplate(parser.parse(0, sql.length(), true));
+	}
+
+	/**
+	 * 渲染出可执行的SQL和其对应的值, 集合或数组类型的参数会展开成多个"?"
+	 * 
+	 * @param metadata 方法元数据, 用于计算"#{#where}", 可以为null
+	 * @param args 方法的实参
+	 * @param table "#{#table}"的值, 为null表示不替换
+	 * @param id "#{#id}"的值, 为null表示不替换
+	 * @return SQL和值
+	 */
+	public SQLValue render(MethodMetadata metadata, Object[] args, String table, String id) {
+		StringBuilder sb = new StringBuilder(capacity);
+		List<Object> values = new ArrayList<>(params.length);
+		render(sb, values, metadata, args, table, id);
+		return SQLValue.expanded(sb.toString(), values);
+	}
+
+	/**
+	 * 渲染出文本, "?N"和":name"统一成"?N", 不做展开
+	 * 
+	 * @param metadata 方法元数据, 用于计算"#{#where}", 为null表示不替换"#{#where}"
+	 * @param args 方法的实参
+	 * @return 文本
+	 */
+	public String text(MethodMetadata metadata, Object[] args) {
+		StringBuilder sb = new StringBuilder(capacity);
+		render(sb, null, metadata, args, null, null);
+		return sb.toString();
+	}
+
+	int[] getParams() {
+		return params;
+	}
+
+	/**
+	 * 是否能对其渲染结果做缓存: 渲染出的文本不为空, 且最后一个字符与实参无关 (即: 不以"$name"结尾)
+	 * 
+	 * @return 是否能缓存
+	 */
+	boolean isStable() {
+		return segments.length != 0 && segments[segments.length - 1].kind != EL && Arrays.stream(segments).anyMatch(s -> s.kind != EL);
+	}
+
+	void render(StringBuilder sb, List<Object> values, MethodMetadata metadata, Object[] args, String table, String id) {
+		for (Segment segment : segments) {
+			switch (segment.kind) {
+			case LITERAL:
+				sb.append(segment.text);
+				break;
+			case PARAM:
+				if (values == null) {
+					positional(sb, segment);
+				} else {
+					param(sb, values, args, segment.index);
+				}
+				break;
+			case EL:
+				Object objx = BeanUtil.parseList(args[segment.index]);
+				sb.append(objx != null ? objx.toString() : segment.defaultVal);
+				break;
+			case SMILE:
+				smile(sb, values, args, segment);
+				break;
+			case WHERE:
+				if (metadata != null) {
+					metadata.getWhere().render(sb, values, args, table, id);
+				} else {
+					sb.append(segment.text);
+				}
+				break;
+			case TABLE:
+				sb.append(table != null ? table : segment.text);
+				break;
+			case ID:
+				sb.append(id != null ? id : segment.text);
+				break;
+			default: // LIMIT 由分页单独处理
+				sb.append(segment.text);
+				break;
+			}
+		}
+	}
+
+	// 统一成"?N"
+	private static void positional(StringBuilder sb, Segment segment) {
+		if (segment.text.charAt(0) == '?') {
+			sb.append(segment.text);
+		} else {
+			sb.append('?').append(segment.index + 1);
+		}
+	}
+
+	// sql中的"?"可能会因为方法参数是一个集合,会变成多个, 举例说明: in (?) 那么这个?的实际个数取决于传递的集合长度
+	private static void param(StringBuilder sb, List<Object> values, Object[] args, int index) {
+		Object mp = args[index];
+		if (mp == null) {
+			sb.append('?');
+			values.add(null);
+			return;
+		}
+		Iterator<?> iterator = null;
+		if (mp instanceof Iterable) {
+			iterator = ((Iterable<?>) mp).iterator();
+		} else if (mp.getClass().isArray()) {
+			iterator = Arrays.asList((Object[]) mp).iterator();
+		}
+		if (iterator == null) {
+			sb.append('?');
+			values.add(mp);
+		} else if (!iterator.hasNext()) {
+			sb.append('?'); // 空集合, 不提供值
+		} else {
+			sb.append('?');
+			values.add(iterator.next());
+			while (iterator.hasNext()) {
+				sb.append(",?");
+				values.add(iterator.next());
+			}
+		}
+	}
+
+	// 微笑表达式, 如: `-%?1%-` 整体作为一个"?", 它的值是把"?"换成实参之后的内容
+	private static void smile(StringBuilder sb, List<Object> values, Object[] args, Segment segment) {
+		StringBuilder content = new StringBuilder(segment.text.length());
+		int index = -1;
+		for (Segment s : segment.inner) {
+			if (s.kind == PARAM) {
+				if (index == -1) {
+					index = s.index;
+				}
+				if (values == null) {
+					positional(content, s);
+				} else {
+					content.append('?');
+				}
+			} else if (s.kind == EL) {
+				Object objx = BeanUtil.parseList(args[s.index]);
+				content.append(objx != null ? objx.toString() : s.defaultVal);
+			} else {
+				content.append(s.text);
+			}
+		}
+
+		if (values == null) {
+			sb.append("`-").append(content).append("-`");
+			return;
+		}
+
+		if (index == -1) {
+			String in = new StringBuilder("`-").append(content).append("-`").toString();
+			if (content.indexOf("?") == -1 && PreventSQLInjection.isInjectStr(in)) {
+				String tip = content + "中包含有危险关键字,正在尝试SQL注入";
+				LOG.error(tip);
+				throw new RepositoryException(tip);
+			}
+			sb.append(in);
+			return;
+		}
+
+		Object arg = args[index];
+		int q = content.indexOf("?");
+		content.replace(q, q + 1, arg != null ? arg.toString().replace("`", "") : "");
+		String value = content.toString();
+		if (isPercent(value)) {
+			throw new RepositoryException("这个SQL实参值禁止都是%组成");
+		}
+		sb.append('?');
+		values.add(value);
+	}
+
+	private static boolean isPercent(String value) {
+		int len = value.length();
+		if (len == 0) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (value.charAt(i) != '%') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 如果传递null 还要求参与运算. <br>
+	 * sql中null无法跟比较运算符(如 =, &lt;, 或者 &lt;&gt;),一起运算,必须使用 is null 和 is not null 操作符.
+	 * 
+	 * @param args 方法的实参
+	 * @return 处理之后的模板
+	 */
+	SQLTemplate nullable(Object[] args) {
+		List<Segment> marks = new ArrayList<>();
+		StringBuilder sb = new StringBuilder(capacity);
+		encode(sb, marks);
+		String value = collapse(sb).replace("=?", "= ?"); // 把多个空白换成一个空格, 将"=?" 替换成 "= ?"
+		for (int index : params) {
+			if (args[index] == null) {
+				String q = "?" + (index + 1);
+				value = value.replace(" = " + q, " is null");
+				value = value.replace(" <> " + q, " is not null");
+				value = value.replace(" != " + q, " is not null");
+			}
+		}
+		return decode(value, marks);
+	}
+
+	// 把连续的空白换成一个空格, 等价于 replaceAll("\\s+", " ")
+	private static String collapse(CharSequence str) {
+		StringBuilder sb = new StringBuilder(str.length());
+		boolean blank = false;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+				blank = true;
+			} else {
+				if (blank) {
+					sb.append(' ');
+					blank = false;
+				}
+				sb.append(c);
+			}
+		}
+		if (blank) {
+			sb.append(' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 去掉首个单词之后的模板, 参照 TypeUtil.removePart
+	 * 
+	 * @return 处理之后的模板
+	 */
+	SQLTemplate stripped() {
+		SQLTemplate s = stripped;
+		if (s == null) {
+			List<Segment> marks = new ArrayList<>();
+			StringBuilder sb = new StringBuilder(capacity);
+			encode(sb, marks);
+			s = decode(TypeUtil.removePart(sb.toString()), marks);
+			stripped = s;
+		}
+		return s;
+	}
+
+	// 把模板还原成文本, 非字面量(除了"?N")的片段用 MARK+i 表示
+	void encode(StringBuilder sb, List<Segment> marks) {
+		for (Segment segment : segments) {
+			if (segment.kind == LITERAL) {
+				sb.append(segment.text);
+			} else if (segment.kind == PARAM) {
+				positional(sb, segment);
+			} else {
+				sb.append((char) (MARK + marks.size()));
+				marks.add(segment);
+			}
+		}
+	}
+
+	static SQLTemplate decode(String str, List<Segment> marks) {
+		List<Segment> list = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int len = str.length();
+		int i = 0;
+		while (i < len) {
+			char c = str.charAt(i);
+			int m = c - MARK;
+			if (m >= 0 && m < marks.size()) {
+				Parser.flush(literal, list);
+				list.add(marks.get(m));
+				i++;
+			} else if (c == '?' && Parser.digits(str, i + 1, len) != i + 1) {
+				int end = Parser.digits(str, i + 1, len);
+				Parser.flush(literal, list);
+				list.add(new Segment(PARAM, str.substring(i, end), Integer.parseInt(str.substring(i + 1, end)) - 1));
+				i = end;
+			} else {
+				literal.append(c);
+				i++;
+			}
+		}
+		Parser.flush(literal, list);
+		return new SQLTemplate(list);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(capacity);
+		for (Segment segment : segments) {
+			sb.append(segment.text);
+		}
+		return sb.toString();
+	}
+
+	// 片段
+	static final class Segment {
+		private final byte kind;
+		private final String text; // 原文
+		private final int index; // 参数索引,从0开始
+		private final String defaultVal; // EL 的默认值
+		private final Segment[] inner; // 微笑表达式内部的片段
+
+		private Segment(byte kind, String text, int index) {
+			this(kind, text, index, null, null);
+		}
+
+		private Segment(byte kind, String text, int index, String defaultVal, Segment[] inner) {
+			this.kind = kind;
+			this.text = text;
+			this.index = index;
+			this.defaultVal = defaultVal;
+			this.inner = inner;
+		}
+	}
+
+	// 单趟扫描, 不用正则
+	private static final class Parser {
+		private final String sql;
+		private final Map<String, Integer> names;
+		private final Param[] params;
+		private final boolean named;
+		private boolean where; // #{#where} 只替换第一个
+
+		private Parser(String sql, Map<String, Integer> names, Param[] params, boolean named) {
+			this.sql = sql;
+			this.names = names;
+			this.params = params;
+			this.named = named;
+		}
+
+		// top 为false表示正在解析微笑表达式的内部
+		private List<Segment> parse(int from, int to, boolean top) {
+			List<Segment> list = new ArrayList<>();
+			StringBuilder literal = new StringBuilder();
+			int i = from;
+			while (i < to) {
+				char c = sql.charAt(i);
+				int end = -1;
+				if (c == '?') {
+					end = param(i, to, list, literal);
+				} else if (c == ':') {
+					end = colon(i, to, list, literal);
+				} else if (c == '$') {
+					end = el(i, to, list, literal);
+				} else if (c == '`' && top) {
+					end = smile(i, to, list, literal);
+				} else if (c == '#' && top) {
+					end = placeholder(i, list, literal);
+				}
+				if (end == -1) {
+					literal.append(c);
+					i++;
+				} else {
+					i = end;
+				}
+			}
+			flush(literal, list);
+			return list;
+		}
+
+		// ?N
+		private int param(int i, int to, List<Segment> list, StringBuilder literal) {
+			int end = digits(sql, i + 1, to);
+			if (end == i + 1) {
+				return -1;
+			}
+			flush(literal, list);
+			list.add(new Segment(PARAM, sql.substring(i, end), Integer.parseInt(sql.substring(i + 1, end)) - 1));
+			return end;
+		}
+
+		// :name
+		private int colon(int i, int to, List<Segment> list, StringBuilder literal) {
+			if (names == null) {
+				return -1;
+			}
+			int end = word(i + 1, to);
+			Integer index = names.get(sql.substring(i + 1, end));
+			if (index == null) {
+				return -1;
+			}
+			flush(literal, list);
+			list.add(new Segment(PARAM, sql.substring(i, end), index));
+			return end;
+		}
+
+		// ${name} 或 $name
+		private int el(int i, int to, List<Segment> list, StringBuilder literal) {
+			if (names == null || named) {
+				return -1;
+			}
+			String name;
+			int end;
+			if (i + 1 < to && sql.charAt(i + 1) == '{') {
+				int close = sql.indexOf('}', i + 2);
+				if (close == -1 || close >= to) {
+					return -1;
+				}
+				name = sql.substring(i + 2, close);
+				end = close + 1;
+			} else {
+				end = word(i + 1, to);
+				name = sql.substring(i + 1, end);
+			}
+			Integer index = names.get(name);
+			if (index == null) {
+				return -1;
+			}
+			flush(literal, list);
+			list.add(new Segment(EL, sql.substring(i, end), index, params != null ? params[index].defaultVal() : "", null));
+			return end;
+		}
+
+		// 微笑表达式 `-...-`, 中间不能有"`"
+		private int smile(int i, int to, List<Segment> list, StringBuilder literal) {
+			if (i + 1 >= to || sql.charAt(i + 1) != '-') {
+				return -1;
+			}
+			int close = sql.indexOf('`', i + 2);
+			if (close == -1 || close >= to || close - 1 <= i + 1 || sql.charAt(close - 1) != '-') {
+				return -1;
+			}
+			flush(literal, list);
+			List<Segment> inner = parse(i + 2, close - 1, false);
+			list.add(new Segment(SMILE, sql.substring(i, close + 1), -1, null, inner.toArray(new Segment[inner.size()])));
+			return close + 1;
+		}
+
+		private int placeholder(int i, List<Segment> list, StringBuilder literal) {
+			byte kind;
+			String text;
+			if (!named && !where && sql.startsWith(Placeholder.WHERE, i)) {
+				where = true;
+				kind = WHERE;
+				text = Placeholder.WHERE;
+			} else if (sql.startsWith(Placeholder.LIMIT, i)) {
+				kind = LIMIT;
+				text = Placeholder.LIMIT;
+			} else if (sql.startsWith(Placeholder.TABLE, i)) {
+				kind = TABLE;
+				text = Placeholder.TABLE;
+			} else if (sql.startsWith(Placeholder.ID, i)) {
+				kind = ID;
+				text = Placeholder.ID;
+			} else {
+				return -1;
+			}
+			flush(literal, list);
+			list.add(new Segment(kind, text, -1));
+			return i + text.length();
+		}
+
+		// 单词分界, 参照正则中的 \b
+		private int word(int from, int to) {
+			int i = from;
+			while (i < to) {
+				char c = sql.charAt(i);
+				if (!Character.isLetterOrDigit(c) && c != '_') {
+					break;
+				}
+				i++;
+			}
+			return i;
+		}
+
+		private static int digits(String str, int from, int to) {
+			int i = from;
+			while (i < to && str.charAt(i) >= '0' && str.charAt(i) <= '9') {
+				i++;
+			}
+			return i;
+		}
+
+		private static void flush(StringBuilder literal, List<Segment> list) {
+			if (literal.length() != 0) {
+				list.add(new Segment(LITERAL, literal.toString(), -1));
+				literal.setLength(0);
+			}
+		}
+	}
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.fastquery.asm.RowMapperGenerator;
+import org.fastquery.dsm.FQueryProperties;
+import org.fastquery.page.Page;
+import org.fastquery.page.PageImpl;
+import org.fastquery.page.Pageable;
+import org.fastquery.page.PageableImpl;
+import org.fastquery.page.Slice;
+import org.fastquery.util.FastQueryJSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 分散-汇聚: &#064;Source 标识的参数是集合或数组时, 或分片组中没有分片键的查询, 同一个查询在每个数据源上并行执行, 再合并结果. <br>
+ * List 依次拼接; int, long 求和; boolean 任一为true即为true; int[] 依次拼接; 单个值取第一个不为null的结果; 
+ * Page 在各数据源上都取前 页码×每页条数 行, 若&#064;Query声明了order by, 按它做多路归并, 再截取全局的那一页. 
+ * order by 的列与行中的键或属性的匹配方式同 RowMapperGenerator.normalize, 匹配不到时按数据源的顺序拼接.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class ScatterGather {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ScatterGather.class);
+
+	// 行的类型 -> 规范化的属性名 -> getter, 每个类型只内省一次
+	private static final Map<Class<?>, Map<String, MethodHandle>> GETTERS = new ConcurrentHashMap<>();
+
+	// 匹配最后一个 order by 子句, 其后可跟 limit
+	private static final Pattern ORDER_BY = Pattern.compile("(?is).*\\border\\s+by\\s+(.+?)(?:\\s+limit\\s+.*)?\\s*$");
+	private static final Pattern ORDER_ITEM = Pattern.compile("(?i)^[`\"]?(?:\\w+[`\"]?\\.[`\"]?)?(\\w+)[`\"]?(?:\\s+(asc|desc))?$");
+
+	private ScatterGather() {
+	}
+
+	/**
+	 * 在每个数据源上执行, 并合并结果
+	 * 
+	 * @param plan 调用计划
+	 * @param args 方法实参
+	 * @param sources 数据源名称
+	 * @param executor 在单个数据源上执行的函数, 参数是数据源名称和实参. &#064;Source 是集合或数组时, 实参中的它已经替换成了数据源名称
+	 * @return 合并后的结果
+	 */
+	static Object excute(InvocationPlan plan, Object[] args, List<String> sources, BiFunction<String, Object[], Object> executor) {
+		MethodMetadata metadata = plan.getMetadata();
+		checkSources(sources);
+		boolean page = metadata.getReturnType() == Page.class;
+		Pageable pageable = page ? QueryParser.pageable(metadata, args) : null;
+		int top = page ? top(pageable) : 0;
+
+		List<Object> results = gather(plan, sources, source -> {
+			Object[] as = args.clone();
+			if (metadata.isScatter()) {
+				as[metadata.getSourceIndex()] = source;
+			}
+			if (page) {
+				top(metadata, as, top);
+			}
+			return executor.apply(source, as);
+		});
+
+		return merge(metadata, pageable, results);
+	}
+
+	/**
+	 * &#064;Source 标识的集合或数组中的数据源名称
+	 * 
+	 * @param arg 实参
+	 * @return 数据源名称
+	 */
+	static List<String> sources(Object arg) {
+		if (arg == null) {
+			throw new RepositoryException("@Source 标识的数据源集合不能为null");
+		}
+		Collection<?> names = arg instanceof String[] ? Arrays.asList((String[]) arg) : (Collection<?>) arg;
+		List<String> sources = new ArrayList<>(names.size());
+		for (Object name : names) {
+			sources.add(name != null ? name.toString() : null);
+		}
+		return sources;
+	}
+
+	private static void checkSources(List<String> sources) {
+		for (String name : sources) {
+			if (name == null || FQueryProperties.findDataSource(name) == null) {
+				throw new RepositoryException("没有找到数据源: " + name);
+			}
+		}
+	}
+
+	// 在各数据源对应的线程池里执行, 同时执行的数据源不超过 scatterParallelism 个, 结果与sources一一对应
+	private static List<Object> gather(InvocationPlan plan, List<String> sources, Function<String, Object> task) {
+		Semaphore permits = new Semaphore(FastQueryJSONObject.getScatterParallelism());
+		List<CompletableFuture<Object>> futures = new ArrayList<>(sources.size());
+		try {
+			for (String source : sources) {
+				permits.acquire();
+				DataSource dataSource = FQueryProperties.findDataSource(source);
+				CompletableFuture<Object> future = AsyncExecutors.submit(dataSource, () -> task.apply(source));
+				future.whenComplete((r, e) -> permits.release());
+				futures.add(future);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			futures.forEach(f -> f.cancel(false));
+			throw new RepositoryException(plan.getMethod() + " 等待执行时被中断", e);
+		}
+
+		List<Object> results = new ArrayList<>(futures.size());
+		RuntimeException failure = null;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				results.add(futures.get(i).join());
+			} catch (CompletionException e) {
+				if (failure == null) {
+					Throwable cause = e.getCause();
+					failure = cause instanceof RepositoryException ? (RepositoryException) cause
+							: new RepositoryException("数据源 " + sources.get(i) + " 执行失败", cause);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return results;
+	}
+
+	// 各数据源需要取的行数: 页码×每页条数
+	private static int top(Pageable pageable) {
+		try {
+			return Math.multiplyExact(pageable.getPageIndex(), pageable.getPageSize());
+		} catch (ArithmeticException e) {
+			throw new RepositoryException("页码×每页条数超出了范围: " + pageable.getPageIndex() + "×" + pageable.getPageSize(), e);
+		}
+	}
+
+	// 把分页参数改成第1页, 每页top条
+	private static void top(MethodMetadata metadata, Object[] args, int top) {
+		int index = metadata.getPageableIndex();
+		if (index != -1 && args[index] != null) {
+			args[index] = new PageableImpl(1, top);
+		} else {
+			args[metadata.getPageIndexIndex()] = 1;
+			args[metadata.getPageSizeIndex()] = top;
+		}
+	}
+
+	private static Object merge(MethodMetadata metadata, Pageable pageable, List<Object> results) {
+		Class<?> returnType = metadata.getReturnType();
+		if (returnType == void.class) {
+			return null;
+		} else if (returnType == List.class) {
+			List<Object> list = new ArrayList<>();
+			results.forEach(r -> list.addAll((List<?>) r));
+			return list;
+		} else if (returnType == int.class || returnType == Integer.class) {
+			return results.stream().filter(r -> r != null).mapToInt(r -> ((Number) r).intValue()).sum();
+		} else if (returnType == long.class || returnType == Long.class) {
+			return results.stream().filter(r -> r != null).mapToLong(r -> ((Number) r).longValue()).sum();
+		} else if (returnType == boolean.class || returnType == Boolean.class) {
+			return results.stream().anyMatch(Boolean.TRUE::equals);
+		} else if (returnType == int[].class) {
+			return results.stream().flatMapToInt(r -> Arrays.stream((int[]) r)).toArray();
+		} else if (returnType == Page.class) {
+			return mergePage(metadata, pageable, results);
+		}
+		// 单个值(实体, Map, 包装类型等): 取第一个不为null的结果
+		return results.stream().filter(r -> r != null).findFirst().orElse(null);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Page<?> mergePage(MethodMetadata metadata, Pageable pageable, List<Object> results) {
+		int number = pageable.getPageIndex();
+		int size = pageable.getPageSize();
+		int offset = (number - 1) * size;
+
+		List<List<?>> contents = new ArrayList<>(results.size());
+		long totalElements = metadata.isNotCount() ? -1L : 0L;
+		boolean more = false; // 某个数据源在前 number×size 行之后还有数据
+		for (Object r : results) {
+			Page<?> p = (Page<?>) r;
+			contents.add(p.getContent());
+			if (!metadata.isNotCount()) {
+				totalElements += p.getTotalElements();
+			}
+			more |= p.isHasNext();
+		}
+
+		Comparator<Object> comparator = readable(metadata, comparator(metadata), contents);
+		List<Object> merged = comparator != null ? mergeSorted(contents, comparator, offset + size) : concat(contents, offset + size);
+		List content = merged.size() > offset ? new ArrayList<>(merged.subList(offset, merged.size())) : new ArrayList<>();
+
+		int totalPages = -1;
+		boolean hasNext;
+		if (!metadata.isNotCount()) {
+			totalPages = (int) (totalElements / size) + (totalElements % size != 0 ? 1 : 0);
+			hasNext = number < totalPages;
+		} else {
+			hasNext = more || contents.stream().mapToLong(List::size).sum() > offset + size;
+		}
+		boolean hasContent = !content.isEmpty();
+		boolean isFirst = number == 1;
+		boolean isLast = !hasNext;
+		Slice nextPageable = new Slice(!isLast ? number + 1 : number, size);
+		Slice previousPageable = new Slice(!isFirst ? number - 1 : number, size);
+		return new PageImpl(size, content.size(), number, content, totalElements, totalPages, hasContent, hasNext, number > 1 && hasContent, isFirst,
+				isLast, nextPageable, previousPageable);
+	}
+
+	private static List<Object> concat(List<List<?>> contents, int limit) {
+		List<Object> list = new ArrayList<>();
+		for (List<?> c : contents) {
+			for (Object row : c) {
+				if (list.size() == limit) {
+					return list;
+				}
+				list.add(row);
+			}
+		}
+		return list;
+	}
+
+	// 每个数据源的行已按comparator有序, 多路归并出前limit行
+	private static List<Object> mergeSorted(List<List<?>> contents, Comparator<Object> comparator, int limit) {
+		PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, contents.size()), (a, b) -> {
+			int c = comparator.compare(contents.get(a[0]).get(a[1]), contents.get(b[0]).get(b[1]));
+			return c != 0 ? c : Integer.compare(a[0], b[0]);
+		});
+		for (int i = 0; i < contents.size(); i++) {
+			if (!contents.get(i).isEmpty()) {
+				heap.add(new int[] { i, 0 });
+			}
+		}
+		List<Object> list = new ArrayList<>();
+		while (!heap.isEmpty() && list.size() < limit) {
+			int[] head = heap.poll();
+			List<?> c = contents.get(head[0]);
+			list.add(c.get(head[1]));
+			if (head[1] + 1 < c.size()) {
+				heap.add(new int[] { head[0], head[1] + 1 });
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 根据 &#064;Query 中最后的 order by 构建行比较器, 只支持按列名(可带表别名)排序. 
+	 * 没有 order by, 或其中含有参数, 表达式时返回null, 此时按数据源的顺序拼接.
+	 */
+	static OrderBy comparator(MethodMetadata metadata) {
+		Query[] queries = metadata.getQueries();
+		if (queries.length == 0) {
+			return null;
+		}
+		Matcher m = ORDER_BY.matcher(queries[0].value());
+		if (!m.matches()) {
+			return null;
+		}
+		OrderBy orderBy = new OrderBy();
+		for (String item : m.group(1).split(",")) {
+			Matcher im = ORDER_ITEM.matcher(item.trim());
+			if (!im.matches()) {
+				return null;
+			}
+			orderBy.add(im.group(1), "desc".equalsIgnoreCase(im.group(2)));
+		}
+		return orderBy;
+	}
+
+	// 每个数据源的首行都能读到排序的列才用orderBy归并, 否则返回null
+	private static Comparator<Object> readable(MethodMetadata metadata, OrderBy orderBy, List<List<?>> contents) {
+		if (orderBy == null) {
+			return null;
+		}
+		for (List<?> c : contents) {
+			String column = c.isEmpty() ? null : orderBy.unresolved(c.get(0));
+			if (column != null) {
+				LOG.warn("{} 的行中没有与 order by 的列 {} 对应的键或属性, 按数据源的顺序拼接", metadata.getMethod(), column);
+				return null;
+			}
+		}
+		return orderBy;
+	}
+
+	/**
+	 * 按 order by 中的列依次比较两行, 行是Map或JavaBean
+	 */
+	static final class OrderBy implements Comparator<Object> {
+
+		private final List<String> columns = new ArrayList<>();
+		private final List<String> keys = new ArrayList<>(); // 规范化的列名
+		private Comparator<Object> comparator;
+
+		private OrderBy() {
+		}
+
+		private void add(String column, boolean desc) {
+			String key = RowMapperGenerator.normalize(column);
+			columns.add(column);
+			keys.add(key);
+			Comparator<Object> c = (a, b) -> compareValue(value(a, column, key), value(b, column, key));
+			if (desc) {
+				c = c.reversed();
+			}
+			comparator = comparator == null ? c : comparator.thenComparing(c);
+		}
+
+		/**
+		 * 第一个在行中找不到的列
+		 * 
+		 * @param row 行
+		 * @return 列名, 都能找到返回null
+		 */
+		String unresolved(Object row) {
+			for (int i = 0; i < keys.size(); i++) {
+				if (row instanceof Map ? entry((Map<?, ?>) row, columns.get(i), keys.get(i)) == null : !getters(row.getClass()).containsKey(keys.get(i))) {
+					return columns.get(i);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public int compare(Object a, Object b) {
+			return comparator.compare(a, b);
+		}
+	}
+
+	// null 排在最前, 与MySQL的升序一致
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static int compareValue(Object a, Object b) {
+		if (a == null || b == null) {
+			return a == null ? (b == null ? 0 : -1) : 1;
+		}
+		if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+			return new BigDecimal(a.toString()).compareTo(new BigDecimal(b.toString()));
+		}
+		if (a instanceof Comparable && a.getClass() == b.getClass()) {
+			return ((Comparable) a).compareTo(b);
+		}
+		return a.toString().compareTo(b.toString());
+	}
+
+	private static Object value(Object row, String column, String key) {
+		if (row instanceof Map) {
+			Map.Entry<?, ?> e = entry((Map<?, ?>) row, column, key);
+			return e != null ? e.getValue() : null;
+		}
+		MethodHandle getter = getters(row.getClass()).get(key);
+		if (getter == null) {
+			return null;
+		}
+		try {
+			return getter.invokeExact(row);
+		} catch (Throwable e) {
+			throw new RepositoryException("不能读取 " + row.getClass() + " 的属性 " + column, e);
+		}
+	}
+
+	// 键与列名相同的优先, 其次是规范化后相同的
+	private static Map.Entry<?, ?> entry(Map<?, ?> map, String column, String key) {
+		Map.Entry<?, ?> matched = null;
+		for (Map.Entry<?, ?> e : map.entrySet()) {
+			String name = String.valueOf(e.getKey());
+			if (name.equals(column)) {
+				return e;
+			} else if (matched == null && key.equals(RowMapperGenerator.normalize(name))) {
+				matched = e;
+			}
+		}
+		return matched;
+	}
+
+	private static Map<String, MethodHandle> getters(Class<?> type) {
+		Map<String, MethodHandle> getters = GETTERS.get(type);
+		if (getters == null) {
+			getters = GETTERS.computeIfAbsent(type, ScatterGather::introspect);
+		}
+		return getters;
+	}
+
+	private static Map<String, MethodHandle> introspect(Class<?> type) {
+		Map<String, MethodHandle> getters = new HashMap<>();
+		try {
+			for (PropertyDescriptor pd : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+				Method getter = pd.getReadMethod();
+				if (getter != null) {
+					getter.setAccessible(true);
+					MethodHandle handle = MethodHandles.lookup().unreflect(getter).asType(MethodType.methodType(Object.class, Object.class));
+					getters.putIfAbsent(RowMapperGenerator.normalize(pd.getName()), handle);
+				}
+			}
+		} catch (IntrospectionException | IllegalAccessException e) {
+			throw new RepositoryException("不能读取 " + type + " 的属性", e);
+		}
+		return getters;
+	}
+}
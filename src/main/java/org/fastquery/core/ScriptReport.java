@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 执行SQL文件的输出: 进度和失败的语句. 没有指定输出文件时什么也不做.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class ScriptReport implements Closeable {
+
+	private final BufferedWriter writer;
+
+	ScriptReport(String output) throws IOException {
+		this.writer = output == null ? null : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8);
+	}
+
+	void start(String sqlFile, int batchSize, boolean commitPerBatch) {
+		println(String.format("[%s] 开始执行: %s, 每批%d条, %s", now(), sqlFile, batchSize, commitPerBatch ? "每批提交一次" : "全部成功后提交"));
+	}
+
+	void chunk(int chunk, int count, long total, int lastLine, boolean committed) {
+		println(String.format("[%s] 第%d批: %d条语句执行成功, 累计%d条, 执行到第%d行%s", now(), chunk, count, total, lastLine, committed ? ", 已提交" : ""));
+	}
+
+	void failed(int line, String sql, String message) {
+		println(String.format("[%s] 失败: 第%d行, %s%n    语句: %s", now(), line, message, sql));
+	}
+
+	void rollback(int chunk, long committed) {
+		println(String.format("[%s] 第%d批回滚, 已提交的语句%d条", now(), chunk, committed));
+	}
+
+	void finish(long total, int chunks, long millis) {
+		println(String.format("[%s] 执行完毕: 共%d条语句, %d批, 耗时%dms", now(), total, chunks, millis));
+	}
+
+	private void println(String text) {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.write(text);
+			writer.newLine();
+			writer.flush();
+		} catch (IOException e) {
+			throw new RepositoryException(e);
+		}
+	}
+
+	private static String now() {
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (writer != null) {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.fastquery.dsm.FQueryProperties;
+import org.fastquery.dsm.ShardGroup;
+import org.fastquery.util.EntityMetadata;
+
+/**
+ * 分片路由. Repository 属于某个分片组时, 根据分片键(&#064;ShardKey 标识的参数, 或内置方法中实体的主键)选出数据源, 
+ * 没有分片键的查询, 以及按条件更新的内置方法 update(entity, where) 在分片组的所有数据源上执行. &#064;Source 指定了数据源时不分片.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class ShardRouter {
+
+	private ShardRouter() {
+	}
+
+	/**
+	 * 选出执行该方法的数据源
+	 * 
+	 * @param plan 调用计划
+	 * @param args 方法实参
+	 * @return 不分片返回null; 有分片键时只有一个数据源; 没有分片键的查询为分片组的全部数据源
+	 */
+	static List<String> route(InvocationPlan plan, Object[] args) {
+		MethodMetadata metadata = plan.getMetadata();
+		int sourceIndex = metadata.getSourceIndex();
+		if (sourceIndex != -1 && args[sourceIndex] != null) { // @Source 优先
+			return null;
+		}
+		ShardGroup group = FQueryProperties.findShardGroup(plan.getIclass().getName());
+		if (group == null) {
+			return null;
+		}
+
+		int keyIndex = metadata.getShardKeyIndex();
+		if (keyIndex != -1) {
+			return Collections.singletonList(group.route(args[keyIndex]));
+		}
+		if (plan.isBuiltin()) {
+			boolean where = isUpdateWhere(plan);
+			String source = entityShard(group, args, sourceIndex, !where);
+			if (source == null && where) { // 条件可能命中任何分片
+				return group.getDataSourceNames();
+			} else if (source == null) {
+				throw new RepositoryException(plan.getMethod() + " 属于分片组" + group.getName() + ", 没有可用于分片的实体主键, 请用@Source指定数据源");
+			}
+			return Collections.singletonList(source);
+		}
+		if (plan.isQuery() && !metadata.isStreaming() && !metadata.isAsync()) {
+			return group.getDataSourceNames();
+		}
+		throw new RepositoryException(plan.getMethod() + " 属于分片组" + group.getName() + ", 改操作,流式查询和异步方法必须用@ShardKey指定分片键");
+	}
+
+	// update(entity, where), update(source, entity, where), update(source, dbName, entity, where)
+	private static boolean isUpdateWhere(InvocationPlan plan) {
+		Class<?>[] types = plan.getMethod().getParameterTypes();
+		return "update".equals(plan.getMethod().getName()) && types.length > 1 && types[types.length - 1] == String.class;
+	}
+
+	// 实参中实体的主键所对应的数据源, 没有实体返回null. 同一次调用中的实体必须属于同一个分片. keyRequired为false时忽略主键为null的实体
+	private static String entityShard(ShardGroup group, Object[] args, int sourceIndex, boolean keyRequired) {
+		String source = null;
+		for (int i = 0; i < args.length; i++) {
+			if (i == sourceIndex || args[i] == null) {
+				continue;
+			}
+			Collection<?> beans;
+			if (args[i] instanceof Collection) {
+				beans = (Collection<?>) args[i];
+			} else if (args[i] instanceof Object[]) {
+				beans = Arrays.asList((Object[]) args[i]);
+			} else {
+				beans = Collections.singletonList(args[i]);
+			}
+			for (Object bean : beans) {
+				if (!isEntity(bean)) {
+					continue;
+				}
+				EntityMetadata entity = EntityMetadata.of(bean.getClass());
+				Object key = entity.idValue(bean);
+				if (key == null && !keyRequired) {
+					continue;
+				} else if (key == null) {
+					throw new RepositoryException(bean.getClass().getName() + " 属于分片组" + group.getName() + ", 实体的主键不能为null");
+				}
+				String s = group.route(key);
+				if (source != null && !source.equals(s)) {
+					throw new RepositoryException("同一次调用中的实体分属不同的分片: " + source + ", " + s);
+				}
+				source = s;
+			}
+		}
+		return source;
+	}
+
+	private static boolean isEntity(Object obj) {
+		if (obj == null || obj instanceof CharSequence || obj instanceof Number || obj instanceof Boolean || obj instanceof Character
+				|| obj instanceof Class || obj instanceof Map || obj instanceof Enum || obj.getClass().isArray()) {
+			return false;
+		}
+		return EntityMetadata.of(obj.getClass()).getId() != null;
+	}
+}
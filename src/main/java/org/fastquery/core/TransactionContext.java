@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 跨越多次Repository调用的事务. 事务开始后, 当前线程上每个数据源只取一个连接, 之后的调用按各自的传播行为加入它, 
+ * 结束时统一提交或回滚, 再关闭连接. REQUIRES_NEW 挂起当前事务另起一个, NESTED 采用保存点.
+ * <p>
+ * 只作用于当前线程, 异步方法和在多个数据源上执行的方法无法加入, 在事务中调用它们会被拒绝(REQUIRES_NEW, NOT_SUPPORTED 除外). 
+ * 加入当前事务的代码抛出异常时, 事务被标记为只能回滚.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class TransactionContext {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TransactionContext.class);
+
+	private static final ThreadLocal<Deque<Frame>> FRAMES = new ThreadLocal<>();
+
+	private TransactionContext() {
+	}
+
+	/**
+	 * 按传播行为执行一段代码
+	 * 
+	 * @param propagation 传播行为
+	 * @param work 要执行的代码
+	 * @param <T> 返回类型
+	 * @return work的返回值
+	 */
+	public static <T> T execute(Propagation propagation, Supplier<T> work) {
+		Tx active = active();
+		switch (propagation) {
+		case REQUIRED:
+			return active != null ? joined(work) : run(new Frame(new Tx(), null), work);
+		case SUPPORTS:
+			return active != null ? joined(work) : work.get();
+		case MANDATORY:
+			if (active == null) {
+				throw new RepositoryException("传播行为是MANDATORY, 可是当前不存在事务");
+			}
+			return joined(work);
+		case REQUIRES_NEW:
+			return run(new Frame(new Tx(), null), work);
+		case NOT_SUPPORTED:
+			return active != null ? run(new Frame(null, null), work) : work.get();
+		case NEVER:
+			if (active != null) {
+				throw new RepositoryException("传播行为是NEVER, 可是当前存在事务");
+			}
+			return work.get();
+		case NESTED:
+			return run(active != null ? new Frame(active, savepoints(active)) : new Frame(new Tx(), null), work);
+		default:
+			throw new RepositoryException("不支持的传播行为: " + propagation);
+		}
+	}
+
+	/**
+	 * 当前线程是否处在事务中
+	 * 
+	 * @return y:true/n:false
+	 */
+	public static boolean isActive() {
+		return active() != null;
+	}
+
+	/**
+	 * Repository 的方法按其传播行为加入当前事务
+	 * 
+	 * @param propagation 方法的传播行为
+	 * @param dataSource 方法所用的数据源
+	 * @return 事务在该数据源上的连接, 不加入(当前没有事务, 或者 REQUIRES_NEW, NOT_SUPPORTED)返回null
+	 * @throws SQLException 取连接失败
+	 */
+	static Connection join(Propagation propagation, Supplier<DataSource> dataSource) throws SQLException {
+		Tx active = active();
+		if (active == null) {
+			if (propagation == Propagation.MANDATORY) {
+				throw new RepositoryException("传播行为是MANDATORY, 可是当前不存在事务");
+			}
+			return null;
+		}
+		switch (propagation) {
+		case NEVER:
+			throw new RepositoryException("传播行为是NEVER, 可是当前存在事务");
+		case REQUIRES_NEW:
+		case NOT_SUPPORTED:
+			return null;
+		default:
+			return connection(active, dataSource.get());
+		}
+	}
+
+	/**
+	 * 加入事务的方法执行失败, 事务只能回滚
+	 */
+	static void setRollbackOnly() {
+		Deque<Frame> frames = FRAMES.get();
+		if (frames != null && !frames.isEmpty()) {
+			frames.peek().rollbackOnly = true;
+		}
+	}
+
+	private static Tx active() {
+		Deque<Frame> frames = FRAMES.get();
+		return frames == null || frames.isEmpty() ? null : frames.peek().tx;
+	}
+
+	// 加入当前事务执行, 抛出的异常即便被外层捕获, 事务也只能回滚
+	private static <T> T joined(Supplier<T> work) {
+		try {
+			return work.get();
+		} catch (RuntimeException | Error e) {
+			setRollbackOnly();
+			throw e;
+		}
+	}
+
+	private static <T> T run(Frame frame, Supplier<T> work) {
+		Deque<Frame> frames = FRAMES.get();
+		if (frames == null) {
+			frames = new ArrayDeque<>();
+			FRAMES.set(frames);
+		}
+		frames.push(frame);
+		T result;
+		try {
+			result = work.get();
+		} catch (RuntimeException | Error e) {
+			pop(frames);
+			try {
+				frame.rollback();
+			} catch (SQLException e1) {
+				e.addSuppressed(e1);
+			}
+			throw e;
+		}
+		pop(frames);
+		if (frame.rollbackOnly) {
+			try {
+				frame.rollback();
+			} catch (SQLException e) {
+				throw new RepositoryException(e.getMessage(), e);
+			}
+			throw new RepositoryException("事务中有方法执行失败, 已被标记为只能回滚, 事务已回滚");
+		}
+		try {
+			frame.commit();
+		} catch (SQLException e) {
+			throw new RepositoryException(e.getMessage(), e);
+		}
+		return result;
+	}
+
+	private static void pop(Deque<Frame> frames) {
+		frames.pop();
+		if (frames.isEmpty()) {
+			FRAMES.remove();
+		}
+	}
+
+	// 事务在dataSource上的连接, 第一次用到时才取. 新取的连接要给当前所有的嵌套事务补上保存点
+	private static Connection connection(Tx tx, DataSource dataSource) throws SQLException {
+		Connection conn = tx.connections.get(dataSource);
+		if (conn != null) {
+			return conn;
+		}
+		conn = dataSource.getConnection();
+		try {
+			conn.setAutoCommit(false);
+		} catch (SQLException e) {
+			conn.close();
+			throw e;
+		}
+		tx.connections.put(dataSource, conn);
+		Iterator<Frame> iterator = FRAMES.get().descendingIterator();
+		while (iterator.hasNext()) {
+			Frame frame = iterator.next();
+			if (frame.tx == tx && frame.savepoints != null) {
+				frame.savepoints.put(conn, conn.setSavepoint());
+			}
+		}
+		return conn;
+	}
+
+	private static Map<Connection, Savepoint> savepoints(Tx tx) {
+		Map<Connection, Savepoint> savepoints = new LinkedHashMap<>();
+		try {
+			for (Connection conn : tx.connections.values()) {
+				savepoints.put(conn, conn.setSavepoint());
+			}
+		} catch (SQLException e) {
+			throw new RepositoryException(e.getMessage(), e);
+		}
+		return savepoints;
+	}
+
+	// 一个物理事务, 每个数据源一个连接
+	private static final class Tx {
+		private final Map<DataSource, Connection> connections = new IdentityHashMap<>();
+	}
+
+	// 事务栈的一层. tx为null表示挂起了事务(NOT_SUPPORTED); savepoints不为null表示嵌套事务, 结束时只释放或回滚到保存点
+	private static final class Frame {
+		private final Tx tx;
+		private final Map<Connection, Savepoint> savepoints;
+		private boolean rollbackOnly;
+
+		Frame(Tx tx, Map<Connection, Savepoint> savepoints) {
+			this.tx = tx;
+			this.savepoints = savepoints;
+		}
+
+		void commit() throws SQLException {
+			if (tx == null) {
+				return;
+			}
+			if (savepoints != null) {
+				for (Map.Entry<Connection, Savepoint> entry : savepoints.entrySet()) {
+					entry.getKey().releaseSavepoint(entry.getValue());
+				}
+				return;
+			}
+			try {
+				for (Connection conn : tx.connections.values()) {
+					conn.commit();
+				}
+			} catch (SQLException e) {
+				rollback(); // 尚未提交的连接回滚
+				throw e;
+			}
+			close();
+		}
+
+		void rollback() throws SQLException {
+			if (tx == null) {
+				return;
+			}
+			if (savepoints != null) {
+				for (Map.Entry<Connection, Savepoint> entry : savepoints.entrySet()) {
+					entry.getKey().rollback(entry.getValue());
+				}
+				return;
+			}
+			SQLException error = null;
+			for (Connection conn : tx.connections.values()) {
+				try {
+					conn.rollback();
+				} catch (SQLException e) {
+					LOG.error(e.getMessage(), e);
+					error = error == null ? e : error;
+				}
+			}
+			close();
+			if (error != null) {
+				throw error;
+			}
+		}
+
+		private void close() {
+			for (Connection conn : tx.connections.values()) {
+				try {
+					conn.setAutoCommit(true);
+					conn.close();
+				} catch (SQLException e) {
+					LOG.warn(e.getMessage(), e);
+				}
+			}
+			tx.connections.clear();
+		}
+	}
+}
@@ -22,15 +22,22 @@
 
 package org.fastquery.core;
 
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
 /**
  * 事务
  * 
  * @author xixifeng (fastquery@126.com)
  */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.METHOD })
 public @interface Transactional {
 
 	/**
-	 * 超时,默认-1,表示永不超时
+	 * 超时(秒),默认-1,表示不在此处指定, 见 QueryTimeout
 	 * 
 	 * @return int
 	 */
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.fastquery.where.Condition;
+
+/**
+ * 编译后的&#064;Condition集. <br>
+ * 启动时预编译 allow/ignore 正则; 运行时把参与运算的条件记作位掩码, 再加上值为null的参数的位掩码, 作为键缓存拼装好的where片段. <br>
+ * 同样"形状"的实参得到的是同一个SQL, 既省去了每次的正则运算, 也有利于提高数据库端语句缓存的命中率.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class WhereTemplate {
+
+	// n个条件最多有 2^n 种组合, 因此要限定缓存的数量, 超出后不再缓存, 直接渲染
+	private static final int MAX_CACHED = 512;
+
+	private final Cond[] conds;
+	private final boolean cacheable;
+	private final Map<Long, SQLTemplate> cache;
+
+	WhereTemplate(Condition[] conditions, Param[] params, boolean named) {
+		this.conds = new Cond[conditions.length];
+		boolean c = conditions.length <= 32;
+		for (int i = 0; i < conditions.length; i++) {
+			conds[i] = new Cond(conditions[i], SQLTemplate.compile(conditions[i].value(), params, named));
+			c = c && conds[i].template.isStable() && conds[i].template.stripped().isStable();
+			for (int index : conds[i].template.getParams()) {
+				c = c && index < 32;
+			}
+		}
+		this.cacheable = c;
+		this.cache = c ? new ConcurrentHashMap<>() : null;
+	}
+
+	/**
+	 * 计算出where部分的文本, "?N"和":name"统一成"?N"
+	 * 
+	 * @param args 方法的实参
+	 * @return where部分sql
+	 */
+	public String text(Object[] args) {
+		StringBuilder sb = new StringBuilder();
+		render(sb, null, args, null, null);
+		return sb.toString();
+	}
+
+	/**
+	 * 当前已缓存的where片段的个数
+	 * 
+	 * @return 个数
+	 */
+	public int cachedSize() {
+		return cache != null ? cache.size() : 0;
+	}
+
+	void render(StringBuilder sb, List<Object> values, Object[] args, String table, String id) {
+		if (conds.length == 0) {
+			return;
+		}
+		if (!cacheable) {
+			dynamic(sb, values, args, table, id);
+			return;
+		}
+		int active = 0;
+		int nulls = 0;
+		o: for (int i = 0; i < conds.length; i++) {
+			Cond cond = conds[i];
+			int n = 0;
+			for (int index : cond.template.getParams()) {
+				Object arg = args[index];
+				if (cond.ignore(arg)) {
+					continue o; // 跳出最外层的当次循环,不进行条件追加
+				} else if (arg == null) {
+					n |= 1 << index;
+				}
+			}
+			active |= 1 << i;
+			nulls |= n;
+		}
+		long key = ((long) active << 32) | (nulls & 0xFFFFFFFFL);
+		SQLTemplate template = cache.get(key);
+		if (template == null) {
+			template = assemble(active, args);
+			if (cache.size() < MAX_CACHED) {
+				cache.putIfAbsent(key, template);
+			}
+		}
+		template.render(sb, values, null, args, table, id);
+	}
+
+	// 按参与运算的条件拼装出where片段, 非字面量的片段用占位字符代替, 拼装完后再还原成模板
+	private SQLTemplate assemble(int active, Object[] args) {
+		List<SQLTemplate.Segment> marks = new ArrayList<>();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < conds.length; i++) {
+			if ((active & (1 << i)) == 0) {
+				continue;
+			}
+			SQLTemplate template = conds[i].variant(args);
+			if (sb.length() == 0 || sb.charAt(sb.length() - 1) != ' ') {
+				sb.append(' ');
+			}
+			if (sb.length() == 1 && i != 0) { // 这个SQL条件的前面还不存在条件, 那么第一个条件的链接符,必须去掉
+				template = template.stripped();
+			}
+			template.encode(sb, marks);
+		}
+		if (sb.length() > 0) {
+			sb.insert(0, "where");
+		}
+		return SQLTemplate.decode(sb.toString(), marks);
+	}
+
+	// 条件中含有渲染结果不确定的片段(如: 以$name结尾), 每次都逐个计算
+	private void dynamic(StringBuilder sb, List<Object> values, Object[] args, String table, String id) {
+		int begin = sb.length();
+		o: for (int i = 0; i < conds.length; i++) {
+			Cond cond = conds[i];
+			boolean hasNull = false;
+			for (int index : cond.template.getParams()) {
+				if (cond.ignore(args[index])) {
+					continue o;
+				} else if (args[index] == null) {
+					hasNull = true;
+				}
+			}
+			SQLTemplate template = hasNull ? cond.template.nullable(args) : cond.template;
+
+			int len = sb.length() - begin;
+			// 长度是0 或者 最后一个字符不是空格
+			if (len == 0 || sb.charAt(sb.length() - 1) != ' ') {
+				sb.append(' ');
+			}
+			if (sb.length() - begin == 1 && i != 0) { // 这个SQL条件的前面还不存在条件, 那么第一个条件的链接符,必须去掉. (where后面不能直接跟运算符号)
+				template = template.stripped();
+			}
+			template.render(sb, values, null, args, table, id);
+		}
+		if (sb.length() > begin) {
+			sb.insert(begin, "where");
+		}
+	}
+
+	// 单个条件: 模板及预编译的正则
+	private static final class Cond {
+		private final SQLTemplate template;
+		private final Pattern[] allows;
+		private final Pattern[] ignores;
+		private final boolean ignoreNull;
+		private final boolean ignoreEmpty;
+
+		private Cond(Condition condition, SQLTemplate template) {
+			this.template = template;
+			this.allows = compile(condition.allow());
+			this.ignores = compile(condition.ignore());
+			this.ignoreNull = condition.ignoreNull();
+			this.ignoreEmpty = condition.ignoreEmpty();
+		}
+
+		private static Pattern[] compile(String[] regexes) {
+			Pattern[] patterns = new Pattern[regexes.length];
+			for (int i = 0; i < regexes.length; i++) {
+				patterns[i] = Pattern.compile(regexes[i]);
+			}
+			return patterns;
+		}
+
+		// 与 TypeUtil.ignoreCondition 的判断一致
+		private boolean ignore(Object arg) {
+			if (allows.length != 0) { // 表明,允许的范围并不是全部,而是有所限定
+				if (arg == null) { // 范围有明确指定,还传递null,那么必然忽略
+					return true;
+				}
+				String str = arg.toString();
+				boolean a = false;
+				for (Pattern allow : allows) {
+					if (allow.matcher(str).matches()) {
+						a = true;
+						break;
+					}
+				}
+				if (!a) { // 传递的值不在允许范围之内,那么必然忽略条件
+					return true;
+				}
+			}
+			if (arg == null) { // ignoreNull是false,那么表明arg即使是null也不忽略
+				return ignoreNull;
+			}
+			String str = arg.toString();
+			if (ignoreEmpty && str.isEmpty()) {
+				return true;
+			}
+			for (Pattern ignore : ignores) {
+				if (ignore.matcher(str).matches()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		// 有值为null的参数时, 换成 is null / is not null 的写法
+		private SQLTemplate variant(Object[] args) {
+			for (int index : template.getParams()) {
+				if (args[index] == null) {
+					return template.nullable(args);
+				}
+			}
+			return template;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dialect;
+
+import org.fastquery.util.EntityMetadata;
+
+/**
+ * 数据库方言. 与具体数据库有关的SQL由方言提供, 默认是MySQL, 可以在fastquery.json中通过"dialect"指定实现类.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public interface Dialect {
+
+	/**
+	 * 根据主键插入或更新的参数化语句: 主键不存在就插入, 存在就只更新值不为null的字段. 
+	 * 
+	 * @param metadata 实体元数据
+	 * @param dbName 数据库名称, 可以为null
+	 * @return 语句, 其中的"?"与 upsertValues 一一对应
+	 */
+	String upsertSQL(EntityMetadata metadata, String dbName);
+
+	/**
+	 * upsertSQL 中"?"对应的值, 默认与含主键的insert一致
+	 * 
+	 * @param metadata 实体元数据
+	 * @param bean 实体
+	 * @return 值
+	 */
+	default Object[] upsertValues(EntityMetadata metadata, Object bean) {
+		return metadata.insertValues(bean, true);
+	}
+}
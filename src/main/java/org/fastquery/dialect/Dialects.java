@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dialect;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.fastquery.core.RepositoryException;
+import org.fastquery.util.FastQueryJSONObject;
+
+/**
+ * 获取fastquery.json中配置的方言, 没有配置用MySQLDialect
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class Dialects {
+
+	private static final Dialect MYSQL = new MySQLDialect();
+	private static final Map<String, Dialect> DIALECTS = new ConcurrentHashMap<>();
+
+	private Dialects() {
+	}
+
+	/**
+	 * 当前的方言
+	 * 
+	 * @return 方言
+	 */
+	public static Dialect get() {
+		String className = FastQueryJSONObject.getDialect();
+		if (className == null) {
+			return MYSQL;
+		}
+		return DIALECTS.computeIfAbsent(className, Dialects::newDialect);
+	}
+
+	private static Dialect newDialect(String className) {
+		try {
+			Class<?> clazz = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+			if (!Dialect.class.isAssignableFrom(clazz)) {
+				throw new RepositoryException(String.format("fastquery.json-> dialect配置错误,%s没有实现%s", className, Dialect.class.getName()));
+			}
+			return (Dialect) clazz.newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new RepositoryException(String.format("fastquery.json-> dialect配置错误,不能实例化%s", className), e);
+		}
+	}
+}
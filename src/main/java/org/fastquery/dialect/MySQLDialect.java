@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dialect;
+
+import org.fastquery.util.EntityMetadata;
+
+/**
+ * MySQL方言
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class MySQLDialect implements Dialect {
+
+	/**
+	 * 如: insert into `User`(`id`,`name`,`age`) values(?,?,?) on duplicate key update `name`=ifnull(values(`name`),`name`),`age`=ifnull(values(`age`),`age`)
+	 */
+	@Override
+	public String upsertSQL(EntityMetadata metadata, String dbName) {
+		StringBuilder sb = new StringBuilder(metadata.insertSQL(dbName, false, true));
+		sb.append(" on duplicate key update ");
+		int len = sb.length();
+		for (EntityMetadata.Property property : metadata.getProperties()) {
+			if (!property.isId()) {
+				String column = property.getColumn();
+				sb.append(column).append("=ifnull(values(").append(column).append("),").append(column).append("),");
+			}
+		}
+		if (sb.length() == len) { // 只有主键
+			String id = metadata.getId().getColumn();
+			return sb.append(id).append('=').append(id).toString();
+		}
+		return sb.deleteCharAt(sb.length() - 1).toString();
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dsm;
+
+import java.lang.ref.WeakReference;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * FastPool 存放连接的容器, 借还都不加锁. <br>
+ * 每个条目的状态用CAS切换. 借连接时先看当前线程最近归还过的条目(线程本地, 多半还空闲着), 再扫描共享列表; 
+ * 都没有空闲的, 就登记为等待者, 在交接队列上等别的线程归还.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class ConcurrentBag {
+
+	static final int NOT_IN_USE = 0;
+	static final int IN_USE = 1;
+	static final int REMOVED = -1;
+	static final int RESERVED = -2; // 被清理线程占住, 不能借出
+
+	private static final int LOCAL_MAX = 16; // 每个线程最多记住几个最近归还的条目
+
+	private final CopyOnWriteArrayList<Entry> shared = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<List<WeakReference<Entry>>> local = ThreadLocal.withInitial(ArrayList::new);
+	private final SynchronousQueue<Entry> handoff = new SynchronousQueue<>(true);
+	private final AtomicInteger waiters = new AtomicInteger();
+
+	/**
+	 * 不等待, 借一个空闲的条目
+	 * 
+	 * @return 没有空闲的返回null
+	 */
+	Entry poll() {
+		List<WeakReference<Entry>> list = local.get();
+		for (int i = list.size() - 1; i >= 0; i--) {
+			Entry entry = list.remove(i).get();
+			if (entry != null && entry.compareAndSet(NOT_IN_USE, IN_USE)) {
+				return entry;
+			}
+		}
+		for (Entry entry : shared) {
+			if (entry.compareAndSet(NOT_IN_USE, IN_USE)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 等别的线程归还条目
+	 * 
+	 * @param nanos 最多等待的纳秒数
+	 * @return 超时返回null
+	 * @throws InterruptedException 等待时被中断
+	 */
+	Entry await(long nanos) throws InterruptedException {
+		waiters.incrementAndGet();
+		try {
+			Entry entry = poll(); // 登记之后再看一次, 以免错过登记前刚归还的
+			long deadline = System.nanoTime() + nanos;
+			while (entry == null && nanos > 0) {
+				entry = handoff.poll(nanos, TimeUnit.NANOSECONDS);
+				if (entry != null && !entry.compareAndSet(NOT_IN_USE, IN_USE)) {
+					entry = null; // 被别的线程抢先借走了
+				}
+				nanos = deadline - System.nanoTime();
+			}
+			return entry;
+		} finally {
+			waiters.decrementAndGet();
+		}
+	}
+
+	/**
+	 * 归还条目. 有线程在等待时, 直接交给它
+	 * 
+	 * @param entry 条目
+	 */
+	void requite(Entry entry) {
+		entry.set(NOT_IN_USE);
+		for (int i = 0; waiters.get() > 0; i++) {
+			if (entry.get() != NOT_IN_USE || handoff.offer(entry)) {
+				return;
+			}
+			if ((i & 0xff) == 0xff) {
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+			} else {
+				Thread.yield();
+			}
+		}
+		List<WeakReference<Entry>> list = local.get();
+		if (list.size() < LOCAL_MAX) {
+			list.add(new WeakReference<>(entry));
+		}
+	}
+
+	/**
+	 * 加入一个条目
+	 * 
+	 * @param entry 条目, 状态由调用者设置好
+	 */
+	void add(Entry entry) {
+		shared.add(entry);
+		if (entry.get() == NOT_IN_USE && waiters.get() > 0) {
+			handoff.offer(entry);
+		}
+	}
+
+	/**
+	 * 移除条目. 条目必须是借出或占住的状态
+	 * 
+	 * @param entry 条目
+	 * @return 是否移除了
+	 */
+	boolean remove(Entry entry) {
+		if (!entry.compareAndSet(IN_USE, REMOVED) && !entry.compareAndSet(RESERVED, REMOVED)) {
+			return false;
+		}
+		return shared.remove(entry);
+	}
+
+	/**
+	 * 占住一个空闲的条目, 以便检查或关闭它
+	 * 
+	 * @param entry 条目
+	 * @return 是否占住了
+	 */
+	boolean reserve(Entry entry) {
+		return entry.compareAndSet(NOT_IN_USE, RESERVED);
+	}
+
+	/**
+	 * 放开占住的条目
+	 * 
+	 * @param entry 条目
+	 */
+	void unreserve(Entry entry) {
+		if (entry.compareAndSet(RESERVED, IN_USE)) {
+			requite(entry);
+		}
+	}
+
+	List<Entry> values() {
+		return new ArrayList<>(shared);
+	}
+
+	int count(int state) {
+		int n = 0;
+		for (Entry entry : shared) {
+			if (entry.get() == state) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	int getWaiters() {
+		return waiters.get();
+	}
+
+	/**
+	 * 池中的一个物理连接
+	 */
+	static final class Entry extends AtomicInteger {
+
+		private static final long serialVersionUID = 1L;
+
+		final transient Connection connection;
+		final long expireAt; // 寿命到期的时刻(System.nanoTime()), Long.MAX_VALUE表示不限
+		volatile long lastAccessed; // 最近一次归还的时刻(System.nanoTime())
+		volatile boolean evict; // 出现了连接级的错误, 归还时关闭
+		final transient StatementCache statements; // 该连接上的语句缓存, 没有启用为null
+		transient Object[] settings; // 借出后被改过的设置的原值, 由FastPool在第一次改之前读取
+
+		Entry(Connection connection, int state, long expireAt, StatementCache statements) {
+			super(state);
+			this.connection = connection;
+			this.expireAt = expireAt;
+			this.statements = statements;
+			this.lastAccessed = System.nanoTime();
+		}
+	}
+}
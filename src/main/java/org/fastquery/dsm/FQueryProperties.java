@@ -24,9 +24,11 @@ package org.fastquery.dsm;
 
 import java.beans.PropertyDescriptor;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.sql.DataSource;
 
@@ -45,6 +47,12 @@ public class FQueryProperties {
 	// 在此用Map,是为了查寻方便, 放在这里我们最终是为了查寻.
 	private static Map<String, DataSource> dataSources = new HashMap<>();
 
+	// <String,ReplicaSet> 第一个参数是主库的数据源名字
+	private static Map<String, ReplicaSet> replicaSets = new HashMap<>();
+
+	// <String,ShardGroup> 第一个参数是basePackage
+	private static Map<String, ShardGroup> shardGroups = new HashMap<>();
+
 	private FQueryProperties(){}
 	
 	public static void putDataSourceIndex(String key, String value) {
@@ -65,18 +73,22 @@ public class FQueryProperties {
 	 * @return 数据源名称,没有找到返回null
 	 */
 	public static String findDataSourceName(String packageName) {
-		String dataSourceName = dataSourceIndexs.get(packageName);
+		return findByPackage(dataSourceIndexs, packageName);
+	}
+
+	private static <V> V findByPackage(Map<String, V> map, String packageName) {
+		V value = map.get(packageName);
 		String pname = packageName;
 		int len;
-		while(dataSourceName == null && (len = pname.lastIndexOf('.')) != -1) {
+		while(value == null && (len = pname.lastIndexOf('.')) != -1) {
 			// 注意:可能出现这种情况
 			// map中存在 "A.B"
 			// packageName 可能是A.B.C
 			// 因此需要做如下处理
 			pname = pname.substring(0, len);
-			dataSourceName = dataSourceIndexs.get(pname);
+			value = map.get(pname);
 		}
-		return dataSourceName;
+		return value;
 	}
 
 	/**
@@ -130,8 +142,58 @@ public class FQueryProperties {
 		dataSources.remove(key);
 	}
 	
+	/**
+	 * 登记主库的从库
+	 * 
+	 * @param replicaSet 主库和从库
+	 */
+	public static void putReplicaSet(ReplicaSet replicaSet) {
+		replicaSets.put(replicaSet.getPrimary(), replicaSet);
+	}
+
+	/**
+	 * 根据主库的数据源名称查找它的从库
+	 * 
+	 * @param dataSourceName 主库的数据源名称
+	 * @return 没有配置从库返回null
+	 */
+	public static ReplicaSet findReplicaSet(String dataSourceName) {
+		return dataSourceName != null ? replicaSets.get(dataSourceName) : null;
+	}
+
+	/**
+	 * 把basePackage 划入分片组
+	 * 
+	 * @param basePackage 包地址或完整类名称
+	 * @param shardGroup 分片组
+	 */
+	public static void putShardGroup(String basePackage, ShardGroup shardGroup) {
+		shardGroups.put(basePackage, shardGroup);
+	}
+
+	/**
+	 * 划入了分片组的basePackage
+	 * 
+	 * @return 包地址或完整类名称
+	 */
+	public static Set<String> getShardGroupPackages() {
+		return Collections.unmodifiableSet(shardGroups.keySet());
+	}
+
+	/**
+	 * 根据basePackage 查找出所属的分片组
+	 * 
+	 * @param packageName 包名称或完整类名称
+	 * @return 不属于任何分片组返回null
+	 */
+	public static ShardGroup findShardGroup(String packageName) {
+		return shardGroups.isEmpty() ? null : findByPackage(shardGroups, packageName);
+	}
+
 	public static void clear() {
+		shardGroups.clear();
 		dataSourceIndexs.clear();
 		dataSources.clear();
+		replicaSets.clear();
 	}
 }
@@ -0,0 +1,711 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dsm;
+
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.fastquery.core.RepositoryException;
+import org.fastquery.dsm.ConcurrentBag.Entry;
+import org.slf4j.LoggerFactory;
+
+/**
+ * fastquery 自带的连接池, 在fastquery.json中用 "config":"fastpool" 启用. <br>
+ * 连接存放在无锁的 ConcurrentBag 中, 同一个线程优先拿回它刚归还的连接. 借出时, 空闲超过validationBypass的连接用Connection.isValid校验, 
+ * 寿命到期的连接不再借出. 清理线程定期关闭多余的空闲连接和寿命到期的连接, 并补足minIdle. 设置了leakDetectionThreshold时, 
+ * 借出太久未归还的连接连同借出的位置一起记录在日志里. 
+ * 设置了statementCacheSize时, 每个物理连接缓存最近用过的PreparedStatement, 见 StatementCache.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class FastPool implements DataSource, Closeable {
+
+	private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(FastPool.class);
+
+	private static final ScheduledThreadPoolExecutor HOUSEKEEPER = new ScheduledThreadPoolExecutor(1, r -> {
+		Thread t = new Thread(r, "fastpool-housekeeper");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static {
+		HOUSEKEEPER.setRemoveOnCancelPolicy(true);
+	}
+
+	// 借出的连接和语句所用的代理类的构造方法
+	private static final Constructor<?> PROXY = proxyConstructor(Connection.class);
+	private static final Constructor<?> STATEMENT = proxyConstructor(Statement.class);
+	private static final Constructor<?> PREPARED_STATEMENT = proxyConstructor(PreparedStatement.class);
+	private static final Constructor<?> CALLABLE_STATEMENT = proxyConstructor(CallableStatement.class);
+
+	private static final Object NULL = new Object(); // 设置的原值为null
+
+	private static final long WAIT_SLICE = TimeUnit.MILLISECONDS.toNanos(50); // 等待归还时, 每隔这么久看一次能否新建连接
+
+	/**
+	 * 创建物理连接
+	 */
+	@FunctionalInterface
+	interface ConnectionFactory {
+		Connection create() throws SQLException;
+	}
+
+	private final FastPoolConfig config;
+	private final ConnectionFactory factory;
+	private final ConcurrentBag bag = new ConcurrentBag();
+	private final AtomicInteger total = new AtomicInteger(); // 物理连接数, 包括正在创建的
+	private final AtomicLong leaks = new AtomicLong();
+	private final StatementCache.Stats statementStats = new StatementCache.Stats();
+	private final ScheduledFuture<?> housekeeping;
+	private volatile boolean closed;
+	private volatile PrintWriter logWriter;
+
+	/**
+	 * 创建连接池, 物理连接通过 DriverManager 获得
+	 * 
+	 * @param config 配置
+	 */
+	public FastPool(FastPoolConfig config) {
+		this(config, driverManager(config));
+	}
+
+	FastPool(FastPoolConfig config, ConnectionFactory factory) {
+		config.check();
+		this.config = config;
+		this.factory = factory;
+		this.housekeeping = HOUSEKEEPER.scheduleWithFixedDelay(this::housekeep, 0, config.getHousekeepingPeriod(), TimeUnit.MILLISECONDS);
+	}
+
+	private static ConnectionFactory driverManager(FastPoolConfig config) {
+		if (config.getDriverClass() != null) {
+			try {
+				Class.forName(config.getDriverClass());
+			} catch (ClassNotFoundException e) {
+				throw new RepositoryException("fastpool " + config.getName() + " 找不到驱动: " + config.getDriverClass(), e);
+			}
+		}
+		Properties props = new Properties();
+		if (config.getUser() != null) {
+			props.setProperty("user", config.getUser());
+		}
+		if (config.getPassword() != null) {
+			props.setProperty("password", config.getPassword());
+		}
+		return () -> DriverManager.getConnection(config.getJdbcUrl(), props);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long timeout = TimeUnit.MILLISECONDS.toNanos(config.getConnectionTimeout());
+		long deadline = System.nanoTime() + timeout;
+		while (true) {
+			if (closed) {
+				throw new SQLException("fastpool " + config.getName() + " 已经关闭");
+			}
+			Entry entry = bag.poll();
+			if (entry == null) {
+				entry = create(ConcurrentBag.IN_USE);
+				if (entry != null) { // 新建的连接不必校验
+					return proxy(entry);
+				}
+			}
+			if (entry == null) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					throw new SQLTransientConnectionException(String.format("fastpool %s 在%dms内没有取到连接, 连接数:%d, 正在使用:%d, 等待者:%d",
+							config.getName(), config.getConnectionTimeout(), total.get(), getActiveConnections(), bag.getWaiters()));
+				}
+				try {
+					entry = bag.await(Math.min(remaining, WAIT_SLICE));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("等待连接时被中断", e);
+				}
+				if (entry == null) {
+					continue;
+				}
+			}
+			if (isUsable(entry)) {
+				return proxy(entry);
+			}
+			discard(entry);
+		}
+	}
+
+	// 寿命没到期, 并且最近用过或者校验通过
+	private boolean isUsable(Entry entry) {
+		long now = System.nanoTime();
+		if (now >= entry.expireAt) {
+			return false;
+		}
+		if (now - entry.lastAccessed < TimeUnit.MILLISECONDS.toNanos(config.getValidationBypass())) {
+			return true;
+		}
+		try {
+			return entry.connection.isValid(config.getValidationTimeout());
+		} catch (SQLException e) {
+			LOG.warn("fastpool {} 校验连接失败: {}", config.getName(), e.getMessage());
+			return false;
+		}
+	}
+
+	// 连接数没有达到上限时新建一个连接, 反之返回null
+	private Entry create(int state) throws SQLException {
+		int n;
+		do {
+			n = total.get();
+			if (n >= config.getMaxPoolSize()) {
+				return null;
+			}
+		} while (!total.compareAndSet(n, n + 1));
+		Connection conn;
+		try {
+			conn = factory.create();
+		} catch (SQLException | RuntimeException e) {
+			total.decrementAndGet();
+			throw e;
+		}
+		long lifetime = config.getMaxLifetime();
+		// 寿命减去一点随机量, 以免同时创建的连接同时到期
+		long expireAt = lifetime > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lifetime - ThreadLocalRandom.current().nextLong(lifetime / 40 + 1))
+				: Long.MAX_VALUE;
+		int cacheSize = config.getStatementCacheSize();
+		Entry entry = new Entry(conn, state, expireAt, cacheSize > 0 ? new StatementCache(cacheSize, statementStats) : null);
+		bag.add(entry);
+		LOG.debug("fastpool {} 新建连接, 连接数:{}", config.getName(), n + 1);
+		return entry;
+	}
+
+	// 关闭一个借出或占住的条目
+	private void discard(Entry entry) {
+		if (bag.remove(entry)) {
+			total.decrementAndGet();
+			try {
+				entry.connection.close();
+			} catch (SQLException e) {
+				LOG.warn("fastpool {} 关闭连接失败: {}", config.getName(), e.getMessage());
+			}
+		}
+	}
+
+	// 归还连接
+	void requite(Entry entry) {
+		if (closed || entry.evict || System.nanoTime() >= entry.expireAt) {
+			discard(entry);
+			return;
+		}
+		entry.lastAccessed = System.nanoTime();
+		bag.requite(entry);
+	}
+
+	/**
+	 * 关闭多余的空闲连接和寿命到期的连接, 再补足minIdle
+	 */
+	void housekeep() {
+		try {
+			long now = System.nanoTime();
+			long idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeout());
+			int excess = bag.count(ConcurrentBag.NOT_IN_USE) - config.getMinIdle();
+			for (Entry entry : bag.values()) {
+				if (!bag.reserve(entry)) {
+					continue;
+				}
+				if (now >= entry.expireAt || (excess > 0 && idleTimeout > 0 && now - entry.lastAccessed >= idleTimeout)) {
+					if (now < entry.expireAt) {
+						excess--;
+					}
+					discard(entry);
+				} else {
+					bag.unreserve(entry);
+				}
+			}
+			while (!closed && bag.count(ConcurrentBag.NOT_IN_USE) < config.getMinIdle() && create(ConcurrentBag.NOT_IN_USE) != null) {
+				// 补足minIdle
+			}
+		} catch (Exception e) {
+			LOG.warn("fastpool " + config.getName() + " 清理连接时出错", e);
+		}
+	}
+
+	private Connection proxy(Entry entry) throws SQLException {
+		try {
+			return (Connection) PROXY.newInstance(new Handler(entry));
+		} catch (ReflectiveOperationException e) {
+			requite(entry);
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * 实现了iface的代理类的构造方法, 缓存起来省去每次Proxy.newProxyInstance查找代理类
+	 * 
+	 * @param iface 接口
+	 * @return 构造方法, 参数是InvocationHandler
+	 */
+	static Constructor<?> proxyConstructor(Class<?> iface) {
+		try {
+			return Proxy.getProxyClass(FastPool.class.getClassLoader(), iface).getConstructor(InvocationHandler.class);
+		} catch (NoSuchMethodException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * 借出期间可能被改, 归还时恢复成连接创建时的值的设置. 原值在连接第一次被改之前读取, 记在 Entry.settings 中. 
+	 * 自动提交另行处理(先回滚再恢复)
+	 */
+	private enum Setting {
+		READ_ONLY {
+			@Override
+			Object get(Connection conn) throws SQLException {
+				return conn.isReadOnly();
+			}
+
+			@Override
+			void set(Connection conn, Object value) throws SQLException {
+				conn.setReadOnly((Boolean) value);
+			}
+		},
+		TRANSACTION_ISOLATION {
+			@Override
+			Object get(Connection conn) throws SQLException {
+				return conn.getTransactionIsolation();
+			}
+
+			@Override
+			void set(Connection conn, Object value) throws SQLException {
+				conn.setTransactionIsolation((Integer) value);
+			}
+		},
+		CATALOG {
+			@Override
+			Object get(Connection conn) throws SQLException {
+				return conn.getCatalog();
+			}
+
+			@Override
+			void set(Connection conn, Object value) throws SQLException {
+				conn.setCatalog((String) value);
+			}
+		},
+		SCHEMA {
+			@Override
+			Object get(Connection conn) throws SQLException {
+				return conn.getSchema();
+			}
+
+			@Override
+			void set(Connection conn, Object value) throws SQLException {
+				conn.setSchema((String) value);
+			}
+		},
+		HOLDABILITY {
+			@Override
+			Object get(Connection conn) throws SQLException {
+				return conn.getHoldability();
+			}
+
+			@Override
+			void set(Connection conn, Object value) throws SQLException {
+				conn.setHoldability((Integer) value);
+			}
+		},
+		NETWORK_TIMEOUT {
+			@Override
+			Object get(Connection conn) throws SQLException {
+				return conn.getNetworkTimeout();
+			}
+
+			@Override
+			void set(Connection conn, Object value) throws SQLException {
+				conn.setNetworkTimeout(Runnable::run, (Integer) value);
+			}
+		};
+
+		private static final Setting[] VALUES = values();
+
+		abstract Object get(Connection conn) throws SQLException;
+
+		abstract void set(Connection conn, Object value) throws SQLException;
+
+		// 方法改的是哪个设置, 不是setter返回null
+		static Setting of(String methodName) {
+			switch (methodName) {
+			case "setReadOnly":
+				return READ_ONLY;
+			case "setTransactionIsolation":
+				return TRANSACTION_ISOLATION;
+			case "setCatalog":
+				return CATALOG;
+			case "setSchema":
+				return SCHEMA;
+			case "setHoldability":
+				return HOLDABILITY;
+			case "setNetworkTimeout":
+				return NETWORK_TIMEOUT;
+			default:
+				return null;
+			}
+		}
+	}
+
+	// 借出的连接. close()把连接还给池, 还之前撤销未提交的事务, 恢复自动提交和借出期间改过的设置
+	private final class Handler implements InvocationHandler {
+
+		private final Entry entry;
+		private final ScheduledFuture<?> leakTask;
+		private final UnaryOperator<Throwable> failure;
+		private boolean autoCommitChanged;
+		private int changed; // 借出期间改过的设置, 每个Setting占一位
+		private volatile boolean released;
+
+		Handler(Entry entry) {
+			this.entry = entry;
+			this.failure = entry.statements != null ? cause -> evictIfFatal(entry, cause) : null;
+			long threshold = config.getLeakDetectionThreshold();
+			if (threshold > 0) {
+				Exception trace = new Exception("连接借出的位置");
+				this.leakTask = HOUSEKEEPER.schedule(() -> {
+					leaks.incrementAndGet();
+					LOG.warn(String.format("fastpool %s 的连接借出超过%dms仍未归还, 可能泄漏了", config.getName(), threshold), trace);
+				}, threshold, TimeUnit.MILLISECONDS);
+			} else {
+				this.leakTask = null;
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				release();
+				return null;
+			case "isClosed":
+				return released;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "FastPool(" + config.getName() + ")" + entry.connection;
+			default:
+				break;
+			}
+			if (released) {
+				throw new SQLException("连接已经归还给 fastpool " + config.getName());
+			}
+			if ("setAutoCommit".equals(method.getName())) {
+				autoCommitChanged = true;
+			} else {
+				Setting setting = Setting.of(method.getName());
+				if (setting != null) {
+					remember(setting);
+				}
+			}
+			StatementCache.Key key = entry.statements != null ? StatementCache.key(method, args) : null;
+			if (key != null) {
+				try {
+					// 缓存的语句自己处理getConnection和连接错误, 不再包一层
+					return entry.statements.prepare(key, entry.connection, (Connection) proxy, method, args, failure);
+				} catch (SQLException e) {
+					throw fatal(entry, e);
+				}
+			}
+			Object result;
+			try {
+				result = method.invoke(entry.connection, args);
+			} catch (InvocationTargetException e) {
+				throw fatal(entry, e);
+			}
+			if (result instanceof Statement) {
+				// 断线通常是执行语句时才发现的, 所以语句也要包一层
+				return statementProxy(method.getReturnType(), new StatementHandler(entry, (Statement) result, (Connection) proxy));
+			}
+			return result;
+		}
+
+		// 连接第一次改这项设置之前, 记下它的原值. 读不到原值就无法恢复, 归还时丢弃连接
+		private void remember(Setting setting) {
+			changed |= 1 << setting.ordinal();
+			if (entry.settings == null) {
+				entry.settings = new Object[Setting.VALUES.length];
+			}
+			if (entry.settings[setting.ordinal()] == null) {
+				try {
+					Object value = setting.get(entry.connection);
+					entry.settings[setting.ordinal()] = value != null ? value : NULL;
+				} catch (SQLException | RuntimeException | AbstractMethodError e) {
+					entry.evict = true;
+					LOG.debug("fastpool {} 读取连接的设置{}失败: {}", config.getName(), setting, e.getMessage());
+				}
+			}
+		}
+
+		// 恢复借出期间改过的设置
+		private void restore() throws SQLException {
+			for (Setting setting : Setting.VALUES) {
+				if ((changed & (1 << setting.ordinal())) != 0) {
+					Object value = entry.settings[setting.ordinal()];
+					setting.set(entry.connection, value != NULL ? value : null);
+				}
+			}
+		}
+
+		private void release() throws SQLException {
+			if (released) {
+				return;
+			}
+			released = true;
+			if (leakTask != null) {
+				leakTask.cancel(false);
+			}
+			if (entry.statements != null) {
+				entry.statements.closeBorrowed(); // 没有关闭的语句放回缓存
+			}
+			try {
+				if (autoCommitChanged && !entry.evict && !entry.connection.getAutoCommit()) {
+					entry.connection.rollback();
+					entry.connection.setAutoCommit(true);
+				}
+				if (changed != 0 && !entry.evict) {
+					restore();
+				}
+			} catch (SQLException | RuntimeException e) {
+				entry.evict = true;
+				LOG.warn("fastpool {} 重置连接失败: {}", config.getName(), e.getMessage());
+			}
+			requite(entry);
+		}
+	}
+
+	// 借出的语句(包括缓存的语句). 执行时报连接错误, 连接归还后就丢弃
+	private static final class StatementHandler implements InvocationHandler {
+
+		private final Entry entry;
+		private final Statement stat;
+		private final Connection logical;
+
+		StatementHandler(Entry entry, Statement stat, Connection logical) {
+			this.entry = entry;
+			this.stat = stat;
+			this.logical = logical;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "getConnection":
+				return logical;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				break;
+			}
+			try {
+				return method.invoke(stat, args);
+			} catch (InvocationTargetException e) {
+				throw fatal(entry, e);
+			}
+		}
+	}
+
+	// 借出的语句的代理
+	private static Statement statementProxy(Class<?> type, InvocationHandler handler) throws SQLException {
+		Constructor<?> constructor = type == CallableStatement.class ? CALLABLE_STATEMENT : type == PreparedStatement.class ? PREPARED_STATEMENT : STATEMENT;
+		try {
+			return (Statement) constructor.newInstance(handler);
+		} catch (ReflectiveOperationException e) {
+			throw new SQLException(e);
+		}
+	}
+
+	// 取出真正的异常, 若是连接错误, 就标记这个连接归还时丢弃
+	private static Throwable fatal(Entry entry, Exception e) {
+		return evictIfFatal(entry, e instanceof InvocationTargetException ? e.getCause() : e);
+	}
+
+	private static Throwable evictIfFatal(Entry entry, Throwable cause) {
+		if (cause instanceof SQLException && isFatal((SQLException) cause)) {
+			entry.evict = true;
+		}
+		return cause;
+	}
+
+	// SQLState 以08开头表示连接出了问题
+	private static boolean isFatal(SQLException e) {
+		String state = e.getSQLState();
+		return state != null && state.startsWith("08");
+	}
+
+	/**
+	 * 关闭连接池. 空闲的连接立即关闭, 借出的连接在归还时关闭
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		housekeeping.cancel(false);
+		for (Entry entry : bag.values()) {
+			if (bag.reserve(entry)) {
+				discard(entry);
+			}
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public FastPoolConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * 物理连接数
+	 * 
+	 * @return 连接数
+	 */
+	public int getTotalConnections() {
+		return total.get();
+	}
+
+	public int getIdleConnections() {
+		return bag.count(ConcurrentBag.NOT_IN_USE);
+	}
+
+	public int getActiveConnections() {
+		return bag.count(ConcurrentBag.IN_USE);
+	}
+
+	public int getThreadsAwaiting() {
+		return bag.getWaiters();
+	}
+
+	/**
+	 * 检测到的疑似泄漏的次数
+	 * 
+	 * @return 次数
+	 */
+	public long getSuspectedLeaks() {
+		return leaks.get();
+	}
+
+	/**
+	 * 语句缓存的命中次数
+	 * 
+	 * @return 次数
+	 */
+	public long getStatementCacheHits() {
+		return statementStats.hits.get();
+	}
+
+	/**
+	 * 语句缓存的未命中次数, 每次未命中都会预编译一个语句
+	 * 
+	 * @return 次数
+	 */
+	public long getStatementCacheMisses() {
+		return statementStats.misses.get();
+	}
+
+	/**
+	 * 缓存满了以后, 关闭最久没用的语句的次数
+	 * 
+	 * @return 次数
+	 */
+	public long getStatementCacheEvictions() {
+		return statementStats.evictions.get();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("fastpool 不支持按用户取连接");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() {
+		return logWriter;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) {
+		this.logWriter = out;
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) {
+		DriverManager.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() {
+		return DriverManager.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("fastpool 不能转换成 " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) {
+		return iface.isInstance(this);
+	}
+
+	@Override
+	public String toString() {
+		return "FastPool(" + config.getName() + ")";
+	}
+}
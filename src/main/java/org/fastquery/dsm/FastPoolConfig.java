@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dsm;
+
+import java.beans.IntrospectionException;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import org.fastquery.core.RepositoryException;
+
+/**
+ * fastpool-config.xml(或fastquery.json中内联的"fastpool")的实体. 时间的单位都是毫秒, validationTimeout除外(秒).
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class FastPoolConfig {
+
+	private String name;
+	private String driverClass; // 可以不指定, 由DriverManager根据jdbcUrl找驱动
+	private String jdbcUrl;
+	private String user;
+	private String password;
+	private int maxPoolSize = 10; // 最多的连接数
+	private int minIdle; // 最少保持的空闲连接数
+	private long connectionTimeout = 30000; // 取连接最多等待多久
+	private long idleTimeout = 600000; // 超出minIdle的空闲连接, 空闲多久后关闭
+	private long maxLifetime = 1800000; // 连接最长的寿命, 0表示不限
+	private int validationTimeout = 5; // 校验连接(Connection.isValid)的超时(秒)
+	private long validationBypass = 500; // 最近这段时间内用过的连接, 借出时不再校验
+	private long leakDetectionThreshold; // 连接借出超过这么久仍未归还就视为泄漏, 记录借出的位置, 0表示不检测
+	private long housekeepingPeriod = 30000; // 清理空闲和过期连接的周期
+	private int statementCacheSize; // 每个连接最多缓存的PreparedStatement数, 0表示不缓存
+
+	public FastPoolConfig() {
+	}
+
+	public FastPoolConfig(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * 根据属性创建配置, 属性名即成员变量名
+	 * 
+	 * @param name 数据源名称
+	 * @param properties 属性
+	 * @return 配置
+	 */
+	public static FastPoolConfig of(String name, Map<String, ?> properties) {
+		FastPoolConfig config = new FastPoolConfig(name);
+		properties.forEach((k, v) -> {
+			Method method;
+			try {
+				method = new PropertyDescriptor(k, FastPoolConfig.class).getWriteMethod();
+			} catch (IntrospectionException e) {
+				throw new RepositoryException("fastpool 不支持该属性: name=" + k, e);
+			}
+			Class<?> type = method.getParameterTypes()[0];
+			String val = v.toString().trim();
+			try {
+				if (type == int.class) {
+					method.invoke(config, Integer.parseInt(val));
+				} else if (type == long.class) {
+					method.invoke(config, Long.parseLong(val));
+				} else {
+					method.invoke(config, val);
+				}
+			} catch (Exception e) {
+				throw new RepositoryException("fastpool 的属性" + k + "的值" + v + "不正确", e);
+			}
+		});
+		config.check();
+		return config;
+	}
+
+	/**
+	 * 校验配置
+	 */
+	public void check() {
+		if (jdbcUrl == null || "".equals(jdbcUrl)) {
+			throw new RepositoryException("fastpool " + name + " 的jdbcUrl不能为空");
+		}
+		if (maxPoolSize < 1) {
+			throw new RepositoryException("fastpool " + name + " 的maxPoolSize必须大于0");
+		}
+		if (minIdle < 0 || minIdle > maxPoolSize) {
+			throw new RepositoryException("fastpool " + name + " 的minIdle必须在0和maxPoolSize之间");
+		}
+		if (connectionTimeout < 0 || idleTimeout < 0 || maxLifetime < 0 || validationTimeout < 0 || validationBypass < 0 || leakDetectionThreshold < 0) {
+			throw new RepositoryException("fastpool " + name + " 的时间不能是负数");
+		}
+		if (statementCacheSize < 0) {
+			throw new RepositoryException("fastpool " + name + " 的statementCacheSize不能是负数");
+		}
+		if (housekeepingPeriod <= 0) {
+			throw new RepositoryException("fastpool " + name + " 的housekeepingPeriod必须大于0");
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getDriverClass() {
+		return driverClass;
+	}
+
+	public void setDriverClass(String driverClass) {
+		this.driverClass = driverClass;
+	}
+
+	public String getJdbcUrl() {
+		return jdbcUrl;
+	}
+
+	public void setJdbcUrl(String jdbcUrl) {
+		this.jdbcUrl = jdbcUrl;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	public void setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public long getConnectionTimeout() {
+		return connectionTimeout;
+	}
+
+	public void setConnectionTimeout(long connectionTimeout) {
+		this.connectionTimeout = connectionTimeout;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public long getMaxLifetime() {
+		return maxLifetime;
+	}
+
+	public void setMaxLifetime(long maxLifetime) {
+		this.maxLifetime = maxLifetime;
+	}
+
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+
+	public void setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+	}
+
+	public long getValidationBypass() {
+		return validationBypass;
+	}
+
+	public void setValidationBypass(long validationBypass) {
+		this.validationBypass = validationBypass;
+	}
+
+	public long getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+
+	public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+	}
+
+	public long getHousekeepingPeriod() {
+		return housekeepingPeriod;
+	}
+
+	public void setHousekeepingPeriod(long housekeepingPeriod) {
+		this.housekeepingPeriod = housekeepingPeriod;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+}
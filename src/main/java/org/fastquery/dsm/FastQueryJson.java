@@ -21,6 +21,8 @@
  */
 
 package org.fastquery.dsm;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 /**
  * 对 fastquery.json 文件的映射
@@ -31,6 +33,9 @@ public class FastQueryJson {
 	private String config;
 	private String dataSourceName; // 重写它hashCode和equals,用它来标识唯一标识.
 	private Set<String> basePackages;
+	private List<String> replicas; // 从库的数据源名称, 没有为null
+	private String balance; // 从库的均衡策略, 见 ReplicaSet
+	private Map<String, Object> fastpool; // config为fastpool时, 内联的连接池配置, 没有为null
 	
 	public String getConfig() {
 		return config;
@@ -51,6 +56,30 @@ public class FastQueryJson {
 		this.basePackages = basePackages;
 	}
 	
+	public List<String> getReplicas() {
+		return replicas;
+	}
+
+	public void setReplicas(List<String> replicas) {
+		this.replicas = replicas;
+	}
+
+	public String getBalance() {
+		return balance;
+	}
+
+	public void setBalance(String balance) {
+		this.balance = balance;
+	}
+
+	public Map<String, Object> getFastpool() {
+		return fastpool;
+	}
+
+	public void setFastpool(Map<String, Object> fastpool) {
+		this.fastpool = fastpool;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.dsm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 一个主库和它的若干从库. 读操作按均衡策略选出一个从库, 用完之后要 release.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class ReplicaSet {
+
+	/**
+	 * 轮询
+	 */
+	public static final String ROUND_ROBIN = "roundRobin";
+
+	/**
+	 * 选正在执行的读操作最少的从库
+	 */
+	public static final String LEAST_IN_FLIGHT = "leastInFlight";
+
+	private final String primary;
+	private final List<String> replicas;
+	private final boolean leastInFlight;
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicIntegerArray inFlight;
+
+	/**
+	 * @param primary 主库的数据源名称
+	 * @param replicas 从库的数据源名称, 不能为空
+	 * @param balance 均衡策略, ROUND_ROBIN 或 LEAST_IN_FLIGHT, 为null表示 ROUND_ROBIN
+	 */
+	public ReplicaSet(String primary, List<String> replicas, String balance) {
+		this.primary = primary;
+		this.replicas = Collections.unmodifiableList(replicas);
+		this.leastInFlight = LEAST_IN_FLIGHT.equals(balance);
+		this.inFlight = new AtomicIntegerArray(replicas.size());
+	}
+
+	/**
+	 * 选出一个从库, 并计入它的在途数
+	 * 
+	 * @return 从库的索引
+	 */
+	public int acquire() {
+		int size = replicas.size();
+		int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+		int index = start;
+		if (leastInFlight) {
+			// 从轮询的位置开始找, 在途数相同时不总是落到第一个从库上
+			for (int i = 1; i < size; i++) {
+				int j = (start + i) % size;
+				if (inFlight.get(j) < inFlight.get(index)) {
+					index = j;
+				}
+			}
+		}
+		inFlight.incrementAndGet(index);
+		return index;
+	}
+
+	/**
+	 * 读操作结束, 扣减从库的在途数
+	 * 
+	 * @param index acquire 返回的索引
+	 */
+	public void release(int index) {
+		inFlight.decrementAndGet(index);
+	}
+
+	public String getReplica(int index) {
+		return replicas.get(index);
+	}
+
+	public String getPrimary() {
+		return primary;
+	}
+
+	public List<String> getReplicas() {
+		return replicas;
+	}
+
+	/**
+	 * 从库当前的在途数
+	 * 
+	 * @param index 从库的索引
+	 * @return 在途数
+	 */
+	public int getInFlight(int index) {
+		return inFlight.get(index);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.dsm;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.fastquery.core.RepositoryException;
+
+/**
+ * 分片组: 若干数据源和分片策略. 
+ * <ul>
+ * <li>hash: 数值键以及由数字组成的字符串键(如"123")按 键 mod 数据源个数 选择, 其他键按 hashCode mod 数据源个数 选择</li>
+ * <li>range: ranges 是升序的上界(不含), 个数比数据源少一个, 键小于第i个上界时选第i个数据源, 都不小于时选最后一个</li>
+ * </ul>
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class ShardGroup {
+
+	/**
+	 * 取模
+	 */
+	public static final String HASH = "hash";
+
+	/**
+	 * 按范围
+	 */
+	public static final String RANGE = "range";
+
+	private static final Pattern INTEGER = Pattern.compile("[-+]?\\d+");
+
+	private final String name;
+	private final List<String> dataSourceNames;
+	private final boolean range;
+	private final BigDecimal[] ranges;
+
+	/**
+	 * @param name 分片组名称
+	 * @param dataSourceNames 数据源名称, 不能为空
+	 * @param strategy HASH 或 RANGE
+	 * @param ranges RANGE 时的上界, 个数必须比数据源少一个; HASH 时忽略
+	 */
+	public ShardGroup(String name, List<String> dataSourceNames, String strategy, List<? extends Number> ranges) {
+		if (dataSourceNames == null || dataSourceNames.isEmpty()) {
+			throw new RepositoryException("分片组" + name + "的dataSourceNames不能为空");
+		}
+		this.name = name;
+		this.dataSourceNames = Collections.unmodifiableList(dataSourceNames);
+		if (RANGE.equals(strategy)) {
+			if (ranges == null || ranges.size() != dataSourceNames.size() - 1) {
+				throw new RepositoryException("分片组" + name + "采用range策略, ranges的个数必须比dataSourceNames少一个");
+			}
+			this.range = true;
+			this.ranges = new BigDecimal[ranges.size()];
+			for (int i = 0; i < this.ranges.length; i++) {
+				this.ranges[i] = new BigDecimal(ranges.get(i).toString());
+				if (i > 0 && this.ranges[i].compareTo(this.ranges[i - 1]) <= 0) {
+					throw new RepositoryException("分片组" + name + "的ranges必须升序");
+				}
+			}
+		} else if (strategy == null || HASH.equals(strategy)) {
+			this.range = false;
+			this.ranges = null;
+		} else {
+			throw new RepositoryException("分片组" + name + "的strategy只能是\"" + HASH + "\"或\"" + RANGE + "\"");
+		}
+	}
+
+	/**
+	 * 根据分片键选出数据源
+	 * 
+	 * @param key 分片键, 不能为null
+	 * @return 数据源名称
+	 */
+	public String route(Object key) {
+		if (key == null) {
+			throw new RepositoryException("分片组" + name + "的分片键不能为null");
+		}
+		return dataSourceNames.get(range ? rangeIndex(key) : hashIndex(key));
+	}
+
+	private int hashIndex(Object key) {
+		int size = dataSourceNames.size();
+		if (key instanceof Integer || key instanceof Long || key instanceof Short || key instanceof Byte) {
+			return (int) Math.floorMod(((Number) key).longValue(), (long) size);
+		} else if (key instanceof Number) {
+			return new BigDecimal(key.toString()).toBigInteger().mod(BigInteger.valueOf(size)).intValue();
+		} else if (key instanceof CharSequence && INTEGER.matcher((CharSequence) key).matches()) { // "123" 与 123 落在同一个分片
+			return new BigInteger(key.toString()).mod(BigInteger.valueOf(size)).intValue();
+		}
+		return Math.floorMod(key.toString().hashCode(), size);
+	}
+
+	private int rangeIndex(Object key) {
+		BigDecimal value;
+		try {
+			value = new BigDecimal(key.toString());
+		} catch (NumberFormatException e) {
+			throw new RepositoryException("分片组" + name + "采用range策略, 分片键必须是数值: " + key, e);
+		}
+		for (int i = 0; i < ranges.length; i++) {
+			if (value.compareTo(ranges[i]) < 0) {
+				return i;
+			}
+		}
+		return ranges.length;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<String> getDataSourceNames() {
+		return dataSourceNames;
+	}
+}
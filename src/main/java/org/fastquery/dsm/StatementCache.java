@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dsm;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 一个物理连接上的PreparedStatement缓存, 按SQL及生成主键的方式(或结果集的类型和并发性)区分, 容量有限, 淘汰最久没用的. <br>
+ * 借出的语句关闭时并不真正关闭, 而是关闭它产生的结果集, 清空参数和批次, 恢复改过的设置, 再放回缓存. 缓存随物理连接一起关闭.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class StatementCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StatementCache.class);
+
+	// 可以恢复原值的设置, 对应的getter都在Statement上
+	private static final Constructor<?> PROXY = FastPool.proxyConstructor(PreparedStatement.class); // 借出的语句所用的代理类
+
+	private static final List<String> RESTORABLE = Arrays.asList("setQueryTimeout", "setFetchSize", "setMaxRows", "setFetchDirection", "setMaxFieldSize");
+
+	private final int capacity;
+	private final Stats stats;
+	private final LinkedHashMap<Key, PreparedStatement> idle = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<Cached, Boolean> borrowed = new IdentityHashMap<>();
+
+	StatementCache(int capacity, Stats stats) {
+		this.capacity = capacity;
+		this.stats = stats;
+	}
+
+	/**
+	 * 能缓存的 prepareStatement 调用对应的键
+	 * 
+	 * @param method Connection 的方法
+	 * @param args 实参
+	 * @return 不能缓存返回null
+	 */
+	static Key key(Method method, Object[] args) {
+		if (!"prepareStatement".equals(method.getName())) {
+			return null;
+		}
+		Class<?>[] types = method.getParameterTypes();
+		String sql = (String) args[0];
+		if (types.length == 1) {
+			return new Key(sql, Statement.NO_GENERATED_KEYS, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		} else if (types.length == 2 && types[1] == int.class) {
+			return new Key(sql, (Integer) args[1], ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		} else if (types.length == 3) {
+			return new Key(sql, Statement.NO_GENERATED_KEYS, (Integer) args[1], (Integer) args[2]);
+		}
+		return null; // 指定了列或holdability的, 不缓存
+	}
+
+	/**
+	 * 从缓存中借出语句, 没有就在物理连接上预编译一个
+	 * 
+	 * @param key 键
+	 * @param physical 物理连接
+	 * @param logical 借出的连接, 语句的getConnection()返回它
+	 * @param method 预编译所用的方法
+	 * @param args 预编译的实参
+	 * @param failure 语句执行时抛出的异常先交给它(如检查是否断线), 抛出它的返回值
+	 * @return 语句
+	 * @throws SQLException 预编译失败
+	 */
+	synchronized PreparedStatement prepare(Key key, Connection physical, Connection logical, Method method, Object[] args,
+			UnaryOperator<Throwable> failure) throws SQLException {
+		PreparedStatement stat = idle.remove(key);
+		if (stat != null) {
+			stats.hits.incrementAndGet();
+		} else {
+			stats.misses.incrementAndGet();
+			try {
+				stat = (PreparedStatement) method.invoke(physical, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+			} catch (IllegalAccessException e) {
+				throw new SQLException(e);
+			}
+		}
+		Cached cached = new Cached(key, stat, logical, failure);
+		borrowed.put(cached, Boolean.TRUE);
+		try {
+			return (PreparedStatement) PROXY.newInstance(cached);
+		} catch (ReflectiveOperationException e) {
+			borrowed.remove(cached);
+			closeQuietly(stat);
+			throw new SQLException(e);
+		}
+	}
+
+	/**
+	 * 借出的连接归还时, 它上面还没有关闭的语句一并放回缓存
+	 */
+	void closeBorrowed() {
+		List<Cached> list;
+		synchronized (this) {
+			list = new ArrayList<>(borrowed.keySet());
+		}
+		for (Cached cached : list) {
+			cached.close();
+		}
+	}
+
+	// 放回缓存. 缓存已满时关闭最久没用的
+	private synchronized void release(Cached cached, boolean reusable) {
+		borrowed.remove(cached);
+		if (!reusable || idle.containsKey(cached.key)) { // 同一条SQL同时借出过多个, 只留一个
+			closeQuietly(cached.stat);
+			return;
+		}
+		idle.put(cached.key, cached.stat);
+		if (idle.size() > capacity) {
+			Iterator<PreparedStatement> eldest = idle.values().iterator();
+			closeQuietly(eldest.next());
+			eldest.remove();
+			stats.evictions.incrementAndGet();
+		}
+	}
+
+	synchronized int size() {
+		return idle.size();
+	}
+
+	private static void closeQuietly(Statement stat) {
+		try {
+			stat.close();
+		} catch (SQLException e) {
+			LOG.warn(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * 缓存的键
+	 */
+	static final class Key {
+		private final String sql;
+		private final int autoGeneratedKeys;
+		private final int resultSetType;
+		private final int resultSetConcurrency;
+
+		Key(String sql, int autoGeneratedKeys, int resultSetType, int resultSetConcurrency) {
+			this.sql = sql;
+			this.autoGeneratedKeys = autoGeneratedKeys;
+			this.resultSetType = resultSetType;
+			this.resultSetConcurrency = resultSetConcurrency;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((sql.hashCode() * 31 + autoGeneratedKeys) * 31 + resultSetType) * 31 + resultSetConcurrency;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return autoGeneratedKeys == other.autoGeneratedKeys && resultSetType == other.resultSetType
+					&& resultSetConcurrency == other.resultSetConcurrency && sql.equals(other.sql);
+		}
+	}
+
+	/**
+	 * 整个连接池的缓存命中, 未命中和淘汰次数
+	 */
+	static final class Stats {
+		final AtomicLong hits = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+		final AtomicLong evictions = new AtomicLong();
+	}
+
+	// 借出的语句
+	private final class Cached implements InvocationHandler {
+
+		private final Key key;
+		private final PreparedStatement stat;
+		private final Connection logical;
+		private final UnaryOperator<Throwable> failure;
+		private final List<ResultSet> results = new ArrayList<>(1);
+		private boolean batched; // 用过addBatch
+		private Map<Method, Object> originals; // 改过的设置(setter)及其原值, 放回缓存前恢复
+		private boolean reusable = true; // 改过无法恢复的设置, 就不再放回缓存
+		private volatile boolean closed;
+
+		Cached(Key key, PreparedStatement stat, Connection logical, UnaryOperator<Throwable> failure) {
+			this.key = key;
+			this.stat = stat;
+			this.logical = logical;
+			this.failure = failure;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			switch (name) {
+			case "close":
+				close();
+				return null;
+			case "isClosed":
+				return closed;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Cached(" + stat + ")";
+			default:
+				break;
+			}
+			if (closed) {
+				throw new SQLException("语句已经关闭");
+			}
+			if ("getConnection".equals(name)) {
+				return logical;
+			} else if ("addBatch".equals(name)) {
+				batched = true;
+			} else if (RESTORABLE.contains(name)) {
+				try {
+					remember(method);
+				} catch (ReflectiveOperationException e) {
+					reusable = false;
+				}
+			} else if (name.startsWith("set") && method.getDeclaringClass() == Statement.class) { // setCursorName, setEscapeProcessing 等
+				reusable = false;
+			}
+			Object result;
+			try {
+				result = method.invoke(stat, args);
+			} catch (InvocationTargetException e) {
+				throw failure.apply(e.getCause());
+			}
+			if (result instanceof ResultSet) {
+				results.add((ResultSet) result);
+			}
+			return result;
+		}
+
+		// 第一次改某项设置前, 记下它的原值
+		private void remember(Method setter) throws ReflectiveOperationException {
+			if (originals == null) {
+				originals = new LinkedHashMap<>();
+			}
+			if (!originals.containsKey(setter)) {
+				originals.put(setter, Statement.class.getMethod("get" + setter.getName().substring(3)).invoke(stat));
+			}
+		}
+
+		// 恢复成刚预编译好的样子再放回缓存, 恢复不了就真正关闭
+		void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				for (ResultSet rs : results) {
+					rs.close();
+				}
+				if (batched) {
+					stat.clearBatch();
+				}
+				stat.clearParameters();
+				if (originals != null) {
+					for (Map.Entry<Method, Object> entry : originals.entrySet()) {
+						entry.getKey().invoke(stat, entry.getValue());
+					}
+				}
+			} catch (SQLException | ReflectiveOperationException e) {
+				LOG.debug("语句无法放回缓存: {}", e.getMessage());
+				reusable = false;
+			}
+			release(this, reusable);
+		}
+	}
+}
@@ -45,7 +45,7 @@ public class PageableFilter implements MethodFilter {
 	@Override
 	public Method doFilter(Method method) {
 		
-		Class<?> returnType = method.getReturnType();
+		Class<?> returnType = TypeUtil.getReturnType(method);
 		Parameter[] parameters = method.getParameters();
 		if(returnType != Page.class) {
 			for (int i = 0; i < parameters.length; i++) {
@@ -63,7 +63,7 @@ public class PageableFilter implements MethodFilter {
 			}
 		} else {
 			// 1). Page<T> 中的T要么是Map,要么是一个实体.
-			Type genericReturnType = method.getGenericReturnType();
+			Type genericReturnType = TypeUtil.getGenericReturnType(method);
 			if( !(genericReturnType instanceof ParameterizedType) ) {
 				this.abortWith(method, "分页Page必须是一个范型");
 			}
@@ -38,7 +38,7 @@ public class ReturnTypeFilter implements MethodFilter {
 	public Method doFilter(Method method) {
 
 		// 1). 返回值不能是Object
-		Class<?> returnType = method.getReturnType();
+		Class<?> returnType = TypeUtil.getReturnType(method);
 		if ( returnType == Object.class ) {
 			this.abortWith(method, "返回值不能是Object,应用层得到一个Object,显然十分不友好!");
 		}
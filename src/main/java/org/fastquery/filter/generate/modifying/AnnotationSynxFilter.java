@@ -23,12 +23,16 @@
 package org.fastquery.filter.generate.modifying;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
 import java.util.Map;
 import java.util.regex.Matcher;
 
+import org.fastquery.core.Id;
 import org.fastquery.core.Modifying;
+import org.fastquery.core.Param;
 import org.fastquery.core.Placeholder;
 import org.fastquery.core.Query;
+import org.fastquery.core.Source;
 import org.fastquery.filter.generate.DBUtils;
 import org.fastquery.filter.generate.common.MethodFilter;
 import org.fastquery.util.TypeUtil;
@@ -44,7 +48,7 @@ public class AnnotationSynxFilter implements MethodFilter {
 	@Override
 	public Method doFilter(Method method) {
 		
-		Class<?> returnType = method.getReturnType();
+		Class<?> returnType = TypeUtil.getReturnType(method);
 		
 		Modifying modifying = method.getAnnotation(Modifying.class);
 		
@@ -55,6 +59,15 @@ public class AnnotationSynxFilter implements MethodFilter {
 		
 		// 当返回值为Map 或 JSONObject 或 bean时, Modifying中的id和table值是必选的
 		if(returnType==Map.class || returnType==JSONObject.class || TypeUtil.hasDefaultConstructor(returnType)) {
+			// 0). readBack=false 时, 返回值由主键和标识了@Param的参数构成(参数名称即列名), 没有标识@Param的参数对应不到列
+			if(!modifying.readBack()) {
+				for (Parameter parameter : method.getParameters()) {
+					if(parameter.getAnnotation(Param.class) == null && parameter.getAnnotation(Id.class) == null && parameter.getAnnotation(Source.class) == null) {
+						this.abortWith(method, String.format("%s 不再查询, 返回值由主键和标识了@Param的参数构成, 因此除了@Id和@Source, 每个参数都必须用@Param标识, 且名称与列名相同.", modifying));
+					}
+				}
+			}
+			
 			for (Query query : queries) {
 				String sql = query.value();
 				// 1). id 或 table 不能为""
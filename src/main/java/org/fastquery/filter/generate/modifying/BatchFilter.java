@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.filter.generate.modifying;
+
+import java.lang.reflect.Method;
+
+import org.fastquery.core.Batch;
+import org.fastquery.core.BatchMetadata;
+import org.fastquery.core.RepositoryException;
+import org.fastquery.filter.generate.common.MethodFilter;
+
+/**
+ * 校验 {@link Batch}: 只有一个&#64;Query, 只有一个元素类型明确的集合或数组参数(&#064;Source除外), SQL中的表达式能从成员中找到
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class BatchFilter implements MethodFilter {
+
+	@Override
+	public Method doFilter(Method method) {
+		if (method.getAnnotation(Batch.class) != null) {
+			try {
+				BatchMetadata.of(method);
+			} catch (RepositoryException e) {
+				this.abortWith(method, e.getMessage());
+			}
+		}
+		return method;
+	}
+
+}
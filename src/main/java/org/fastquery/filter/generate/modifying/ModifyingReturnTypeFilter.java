@@ -27,6 +27,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.Map;
 
+import org.fastquery.core.Batch;
 import org.fastquery.core.Modifying;
 import org.fastquery.core.Primarykey;
 import org.fastquery.core.Query;
@@ -51,8 +52,16 @@ public class ModifyingReturnTypeFilter implements MethodFilter {
 				"void", "int", "java.util.Map<String, Object>或java.util.Map<String, String>", "com.alibaba.fastjson.JSONObject", "Bean",
 				Primarykey.class.getName(),boolean.class);
 		String errmsg2 = " 该SQL的操作结果不能映射成Map格式";
-		Type genericReturnType = method.getGenericReturnType();
-		Class<?> returnType = method.getReturnType();
+		Type genericReturnType = TypeUtil.getGenericReturnType(method);
+		Class<?> returnType = TypeUtil.getReturnType(method);
+		
+		// @Batch 的返回值只能是int[],int或void
+		if (method.getAnnotation(Batch.class) != null) {
+			if (returnType != int[].class && returnType != int.class && returnType != void.class) {
+				this.abortWith(method, "标识了@Batch, 返回值只能是int[](每个成员的影响行数),int(影响行数之和)或void");
+			}
+			return method;
+		}
 		
 		Query[] queries = method.getAnnotationsByType(Query.class);
 		for (Query query : queries) {
@@ -42,7 +42,7 @@ public class PageFilter implements MethodFilter {
 
 	@Override
 	public Method doFilter(Method method) {
-		if(method.getReturnType() == Page.class) {
+		if(TypeUtil.getReturnType(method) == Page.class) {
 			
 			// 部分校验已经提取到 全局 PageableFilter里去了
 			
@@ -26,6 +26,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.List;
 
+import org.fastquery.core.MethodMetadata;
 import org.fastquery.filter.generate.common.MethodFilter;
 import org.fastquery.page.Page;
 import org.fastquery.util.TypeUtil;
@@ -34,7 +35,7 @@ import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
 /**
- * 查询返回值安全检测,既然是查询,如果方法的返回值是void,显然是不受允许的.
+ * 查询返回值安全检测,既然是查询,如果方法的返回值是void,显然是不受允许的(逐行回调的流式查询除外).
  * @author xixifeng (fastquery@126.com)
  */
 public class QueryReturnTypeFilter implements MethodFilter {
@@ -54,12 +55,25 @@ public class QueryReturnTypeFilter implements MethodFilter {
 				"10). Integer,Double,Long,Short,Byte,Character,Float,String 八种基本类型(除了Boolean)",
 				"11). Integer[],Double[],Long[],Short[],Byte[],Character[],Float[]",
 				"12). 自定义实体数组",
-				"13).自定义实体,必须包含有默认的构造函数"
+				"13).自定义实体,必须包含有默认的构造函数",
+				"14). Stream<T>,Iterator<T> 流式查询, T 可以是Map<String,Object>,JSONObject,包装类型(除了Boolean),自定义实体",
+				"15). void/int/long 且最后一个参数是Consumer<T>或RowHandler<T>, 逐行回调, T 同上"
 				);
 		
-		Type genericReturnType = method.getGenericReturnType();
-		Class<?> returnType = method.getReturnType();
+		Type genericReturnType = TypeUtil.getGenericReturnType(method);
+		Class<?> returnType = TypeUtil.getReturnType(method);
 
+		// 流式查询
+		MethodMetadata metadata = MethodMetadata.of(method);
+		if(metadata.isStreaming()) {
+			if(metadata.getRowType() == null) {
+				this.abortWith(method, errmsg);
+			}
+			if(metadata.getRowHandlerIndex() != -1 && returnType != void.class && returnType != int.class && returnType != long.class) {
+				this.abortWith(method, "最后一个参数是Consumer或RowHandler时, 返回值只能是void, int 或 long(处理的行数)");
+			}
+			return method;
+		}
 		
 		// 返回值所允许的类型
 		if(returnType == long.class || returnType == int.class) {
@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import org.fastquery.core.Batch;
 import org.fastquery.core.Param;
 import org.fastquery.core.Placeholder;
 import org.fastquery.core.Query;
@@ -47,6 +48,10 @@ public class MarkFilter implements MethodFilter {
 	@Override
 	public Method doFilter(Method method) {
 		
+		if(method.getAnnotation(Batch.class) != null) { // 绑定的是集合中的成员, 由BatchFilter校验
+			return method;
+		}
+		
 		Set<String> params = new HashSet<>();
 		Parameter[] parameters = method.getParameters();
 		for (Parameter parameter : parameters) {
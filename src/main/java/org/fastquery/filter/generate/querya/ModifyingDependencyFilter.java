@@ -24,6 +24,7 @@ package org.fastquery.filter.generate.querya;
 
 import java.lang.reflect.Method;
 
+import org.fastquery.core.Batch;
 import org.fastquery.core.Modifying;
 import org.fastquery.core.Query;
 import org.fastquery.core.QueryByNamed;
@@ -45,6 +46,9 @@ public class ModifyingDependencyFilter implements MethodFilter {
 		if( m != null && queryLen ==0 && queryByNamed==null ) { // m存在 并且 queryLen为0 并且 queryByNamed不存在
 			this.abortWith(method, "@Modifying 要么跟 @Query 组合, 要么跟@QueryByNamed组合不能独存!");
 		}
+		if( m == null && method.getAnnotation(Batch.class) != null ) {
+			this.abortWith(method, "@Batch 必须跟 @Modifying 组合!");
+		}
 		return method;
 	}
 
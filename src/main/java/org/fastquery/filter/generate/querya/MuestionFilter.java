@@ -25,6 +25,7 @@ package org.fastquery.filter.generate.querya;
 import java.lang.reflect.Method;
 import java.util.Set;
 
+import org.fastquery.core.Batch;
 import org.fastquery.core.Placeholder;
 import org.fastquery.core.Query;
 import org.fastquery.filter.generate.common.MethodFilter;
@@ -38,6 +39,9 @@ public class MuestionFilter implements MethodFilter {
 
 	@Override
 	public Method doFilter(Method method) {
+		if(method.getAnnotation(Batch.class) != null) { // 绑定的是集合中的成员, 由BatchFilter校验
+			return method;
+		}
 		int parameterCount = method.getParameterCount();
 		Query[] queries = method.getAnnotationsByType(Query.class);
 		for (Query query : queries) {
@@ -24,39 +24,49 @@ package org.fastquery.filter.generate.querya;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 
+import org.fastquery.core.ShardKey;
 import org.fastquery.core.Source;
 import org.fastquery.dsm.FQueryProperties;
 import org.fastquery.filter.generate.common.MethodFilter;
+import org.fastquery.page.Page;
 import org.fastquery.util.TypeUtil;
 
 /**
  * 一个QueryRepository必须要在fastquery.json配置basePackages.<br>
  * 
  * 在fastquery.json文件中,如果已经正确配置了basePackages,而没有配置数据源.
- * 那么必须通过@Source来获得相应的数据源. Source注解如果标识在方法的参数上,那么该参数只能是字符串类型.
+ * 那么必须通过@Source来获得相应的数据源. Source注解如果标识在方法的参数上,那么该参数只能是字符串类型.<br>
+ * &#064;Source 也可以标识在 Collection&lt;String&gt; 或 String[] 参数上, 此时返回值必须能够合并.
  * 
  * @author xixifeng (fastquery@126.com)
  */
 public class SourceFilter implements MethodFilter {
 
+	private static final List<Class<?>> SCATTER_RETURN_TYPES = Arrays.asList(List.class, Page.class, int.class, Integer.class, long.class, Long.class,
+			boolean.class, Boolean.class, int[].class, void.class);
+
 	@Override
 	public Method doFilter(Method method) {
 		
 		Class<?> clazz = method.getDeclaringClass();
 		
 		Parameter[] parameters = method.getParameters();
+		int index = TypeUtil.findAnnotationIndex(Source.class, parameters);
+		Class<?> ptype = index != -1 ? method.getParameterTypes()[index] : null;
+		boolean scatter = index != -1 && (Collection.class.isAssignableFrom(ptype) || ptype == String[].class);
 		
 		//1). 在fastquery.json文件中,如果已经正确配置了basePackages,而没有配置数据源.
-		//那么必须通过@Source来获得相应的数据源. Source注解如果标识在方法的参数上,那么该参数只能是字符串类型.
+		//那么必须通过@Source来获得相应的数据源. Source注解如果标识在方法的参数上,那么该参数只能是字符串类型(或字符串集合,见3).
 		String dataSourceName = FQueryProperties.findDataSourceName(clazz.getName());
-		if(dataSourceName==null){ // 表明在fastquery.json中没有配置相应的数据源名称
-			int index = TypeUtil.findAnnotationIndex(Source.class, parameters);
+		if(dataSourceName==null && FQueryProperties.findShardGroup(clazz.getName())==null){ // 表明在fastquery.json中没有配置相应的数据源名称, 也不属于分片组
 			if(index == -1) {
 				this.abortWith(method, "* 在fastquery.json文件中,如果已经正确配置了basePackages,而没有配置数据源.\n* 那么必须通过@Source来获得相应的数据源. Source注解如果标识在方法的参数上,那么该参数只能是字符串类型.");
 			}
-			Class<?> ptype = method.getParameterTypes()[index];
-			if(ptype!=String.class){
+			if(ptype!=String.class && !scatter){
 				this.abortWith(method, "Source注解如果标识在方法的参数上,那么该参数只能是String类型.");
 			}
 		}
@@ -66,6 +76,21 @@ public class SourceFilter implements MethodFilter {
 			this.abortWith(method, "@Source 只能出现一次.");
 		}
 		
+		// 2). @ShardKey不能重复出现
+		if(TypeUtil.countRepeated(ShardKey.class, parameters)>1) {
+			this.abortWith(method, "@ShardKey 只能出现一次.");
+		}
+		
+		// 3). @Source 是集合或数组时, 在多个数据源上执行, 结果要能合并
+		if(scatter) {
+			if(TypeUtil.isAsync(method)) {
+				this.abortWith(method, "@Source 是集合或数组时, 返回值不能是CompletableFuture");
+			}
+			if(!SCATTER_RETURN_TYPES.contains(TypeUtil.getReturnType(method))) {
+				this.abortWith(method, "@Source 是集合或数组时, 返回值只能是 List, Page, int, long, boolean, int[] 或 void");
+			}
+		}
+		
 		return method;
 	}
 
@@ -43,10 +43,10 @@ public class TplPageFilter implements MethodFilter {
 	@Override
 	public Method doFilter(Method method) {
 
-		if (method.getReturnType() == Page.class) {
+		if (TypeUtil.getReturnType(method) == Page.class) {
 
 			// 1). Page<T> 中的T要么是Map,要么是一个实体.
-			ParameterizedType type = (ParameterizedType) method.getGenericReturnType();
+			ParameterizedType type = (ParameterizedType) TypeUtil.getGenericReturnType(method);
 
 			Type[] types = type.getActualTypeArguments();
 			Type t = types[0];
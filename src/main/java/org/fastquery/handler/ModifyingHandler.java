@@ -24,17 +24,18 @@ package org.fastquery.handler;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.fastquery.core.DB;
 import org.fastquery.core.Modifying;
+import org.fastquery.core.Param;
 import org.fastquery.core.Primarykey;
 import org.fastquery.core.QueryContext;
 import org.fastquery.core.RepositoryException;
 import org.fastquery.struct.RespUpdate;
 import org.fastquery.struct.SQLValue;
-import org.fastquery.util.TypeUtil;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
@@ -78,7 +79,7 @@ public final class ModifyingHandler {
 	}
 	
 	public Map<String, Object> mapType(Long autoIncKey, Class<?> convertType) {
-		Modifying modifying = QueryContext.getMethod().getAnnotation(Modifying.class);
+		Modifying modifying = QueryContext.getMetadata().getModifying();
 		String keyFieldName = modifying.id(); // 不可能为null
 		String tableName = modifying.table();
 		String sql;
@@ -93,18 +94,22 @@ public final class ModifyingHandler {
 			}
 			e = pkey;
 		}
-		sql = "select * from " + tableName + " where " + keyFieldName + " = ?";
-		values.add(e);
 		Map<String, Object> keyval = null;
-		SQLValue sqlValue = new SQLValue(sql, values);
-		List<Map<String, Object>> keyvals = DB.find(sqlValue);
-		if (!keyvals.isEmpty()) {
-			keyval = keyvals.get(0);
+		if (modifying.readBack()) {
+			sql = "select * from " + tableName + " where " + keyFieldName + " = ?";
+			values.add(e);
+			SQLValue sqlValue = new SQLValue(sql, values);
+			List<Map<String, Object>> keyvals = DB.find(sqlValue);
+			if (!keyvals.isEmpty()) {
+				keyval = keyvals.get(0);
+			}
+		} else {
+			keyval = localMap(keyFieldName, e);
 		}
 		
 		if (keyval != null && convertType == String.class) {
 			Map<String, Object> map2 = new HashMap<>();
-			keyval.forEach((k, v) -> map2.put(k, v.toString()));
+			keyval.forEach((k, v) -> map2.put(k, v == null ? null : v.toString()));
 			return map2;
 		}
 
@@ -144,9 +149,23 @@ public final class ModifyingHandler {
 	}
 	
 	
+	// 不查询数据库, 用主键和标识了@Param的参数构造改操作之后的结果, @Param的名称即列名(AnnotationSynxFilter 已校验每个参数都有列名)
+	private Map<String, Object> localMap(String keyFieldName, Object key) {
+		Map<String, Object> map = new LinkedHashMap<>();
+		Param[] params = QueryContext.getMetadata().getParams();
+		Object[] args = QueryContext.getArgs();
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] != null) {
+				map.put(params[i].value(), args[i]);
+			}
+		}
+		map.put(keyFieldName, key);
+		return map;
+	}
+
 	private Object getId() { // 获取指定的主健,没有找到返回null
 		Object[] args = QueryContext.getArgs();
-			int index = TypeUtil.findId(QueryContext.getMethod().getParameters());
+			int index = QueryContext.getMetadata().getIdIndex();
 			if( index != -1 ) {
 				return args[index];
 			} else {
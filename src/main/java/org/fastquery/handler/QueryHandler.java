@@ -24,7 +24,6 @@ package org.fastquery.handler;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -32,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.fastquery.core.MethodMetadata;
 import org.fastquery.core.QueryContext;
 import org.fastquery.core.RepositoryException;
 import org.fastquery.util.TypeUtil;
@@ -155,11 +155,10 @@ public class QueryHandler {
 		}
 		
 		// -- start
-		String returnTypeName = QueryContext.getMethod().getGenericReturnType().getTypeName();
-		ParameterizedType pt = (ParameterizedType) QueryContext.getMethod().getGenericReturnType();
-	    java.lang.reflect.Type[] types = pt.getActualTypeArguments();
-	    if( types.length==1) {
-	    	java.lang.reflect.Type ct = types[0];
+		MethodMetadata metadata = QueryContext.getMetadata();
+		String returnTypeName = metadata.getGenericReturnType().getTypeName();
+	    java.lang.reflect.Type ct = metadata.getListElementType();
+	    if( ct != null) {
 	    	if(TypeUtil.isWarrp(ct)) {
 	    		keyvals.forEach(map ->{
 	    			if(map.values().size()>1){
@@ -179,7 +178,7 @@ public class QueryHandler {
 	    }
 		// end
 		
-			Class<?> beanType = (Class<?>) pt.getActualTypeArguments()[0];
+			Class<?> beanType = (Class<?>) ct;
 		
 		for (Map<String, Object> map : keyvals) {
 			list.add(JSON.toJavaObject(new JSONObject(map), beanType));
@@ -303,4 +302,31 @@ public class QueryHandler {
 			return keyvals.get(0).entrySet().iterator().next().getValue();
 		}
 	}
+
+	/**
+	 * 行已直接映射成了实体, 按返回值类型包装
+	 * 
+	 * @param returnType 返回值类型: List&lt;T&gt;, T[] 或 T
+	 * @param beans 实体集
+	 * @return 返回值
+	 */
+	public Object beanType(Class<?> returnType, List<?> beans) {
+		if (returnType == List.class) {
+			return beans;
+		} else if (returnType.isArray()) {
+			int count = beans.size();
+			Object array = Array.newInstance(returnType.getComponentType(), count);
+			for (int index = 0; index < count; index++) {
+				Array.set(array, index, beans.get(index));
+			}
+			return array;
+		}
+		if (beans.isEmpty()) {
+			return null;
+		}
+		if (beans.size() != 1) {
+			throw new RepositoryException(String.format("%s 不能把一个集合转换成 %s %n根据输入的SQL所查询的结果是一个集合.", QueryContext.getMethod(), returnType));
+		}
+		return beans.get(0);
+	}
 }
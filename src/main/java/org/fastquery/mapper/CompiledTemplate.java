@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.mapper;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 编译后的命名查询模板. <br>
+ * 模板中引用到的变量名由 getNames() 给出, render 时传入的值与之一一对应. <br>
+ * 这里提供的静态方法是渲染时的运行支持, 其语义与Velocity保持一致.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public abstract class CompiledTemplate {
+
+	protected static final int EQ = 0; // ==
+	protected static final int NE = 1; // !=
+	protected static final int GT = 2; // >
+	protected static final int GE = 3; // >=
+	protected static final int LT = 4; // <
+	protected static final int LE = 5; // <=
+
+	private final String[] names;
+
+	protected CompiledTemplate(String[] names) {
+		this.names = names;
+	}
+
+	/**
+	 * 模板中引用到的变量名
+	 * 
+	 * @return 变量名
+	 */
+	public String[] getNames() {
+		return names.clone();
+	}
+
+	int size() {
+		return names.length;
+	}
+
+	String getName(int i) {
+		return names[i];
+	}
+
+	/**
+	 * 渲染模板
+	 * 
+	 * @param values 变量的值, 与 getNames() 一一对应
+	 * @param sb 输出
+	 */
+	public abstract void render(Object[] values, StringBuilder sb);
+
+	/**
+	 * 输出引用, 值为null时原样输出引用本身(静默引用"$!name"原样输出的是"")
+	 * 
+	 * @param sb 输出
+	 * @param value 值
+	 * @param raw 引用本身
+	 */
+	protected static void append(StringBuilder sb, Object value, String raw) {
+		String str = value != null ? value.toString() : null;
+		sb.append(str != null ? str : raw);
+	}
+
+	/**
+	 * 条件的真假: null, false, 空串, 零, 空集合/数组/Map 为假, 其余为真
+	 * 
+	 * @param value 值
+	 * @return 真假
+	 */
+	protected static boolean truthy(Object value) {
+		if (value == null) {
+			return false;
+		} else if (value instanceof Boolean) {
+			return (Boolean) value;
+		} else if (value instanceof CharSequence) {
+			return ((CharSequence) value).length() != 0;
+		} else if (value instanceof Number) {
+			return !isZero((Number) value);
+		} else if (value instanceof Collection) {
+			return !((Collection<?>) value).isEmpty();
+		} else if (value instanceof Map) {
+			return !((Map<?, ?>) value).isEmpty();
+		} else if (value.getClass().isArray()) {
+			return Array.getLength(value) != 0;
+		}
+		return true;
+	}
+
+	private static boolean isZero(Number number) {
+		if (number instanceof BigDecimal) {
+			return ((BigDecimal) number).signum() == 0;
+		} else if (number instanceof BigInteger) {
+			return ((BigInteger) number).signum() == 0;
+		} else if (number instanceof Double || number instanceof Float) {
+			return number.doubleValue() == 0;
+		}
+		return number.longValue() == 0;
+	}
+
+	/**
+	 * #foreach 的迭代器, 支持 Iterable, Iterator, Enumeration, 数组 和 Map(迭代其值), 其他一律视为空
+	 * 
+	 * @param value 值
+	 * @return 迭代器
+	 */
+	protected static Iterator<?> iterator(Object value) {
+		if (value instanceof Iterable) {
+			return ((Iterable<?>) value).iterator();
+		} else if (value instanceof Map) {
+			return ((Map<?, ?>) value).values().iterator();
+		} else if (value instanceof Iterator) {
+			return (Iterator<?>) value;
+		} else if (value instanceof Enumeration) {
+			return Collections.list((Enumeration<?>) value).iterator();
+		} else if (value != null && value.getClass().isArray()) {
+			return new ArrayIterator(value);
+		}
+		return Collections.emptyIterator();
+	}
+
+	/**
+	 * 比较运算. 两边都能转换成数字时按数字比较; 否则, == 和 != 按同类型equals或字符串比较, 其余运算为假
+	 * 
+	 * @param left 左值
+	 * @param right 右值
+	 * @param op 运算符
+	 * @return 结果
+	 */
+	protected static boolean compare(Object left, Object right, int op) {
+		if (left == null || right == null) {
+			return op == EQ ? left == right : op == NE && left != right;
+		}
+		Number l = asNumber(left);
+		Number r = l != null ? asNumber(right) : null;
+		if (r != null) {
+			int c = compareNumber(l, r);
+			switch (op) {
+			case EQ:
+				return c == 0;
+			case NE:
+				return c != 0;
+			case GT:
+				return c > 0;
+			case GE:
+				return c >= 0;
+			case LT:
+				return c < 0;
+			default:
+				return c <= 0;
+			}
+		}
+		if (op == EQ || op == NE) {
+			boolean eq = left.getClass() == right.getClass() ? left.equals(right) : left.toString().equals(right.toString());
+			return op == EQ ? eq : !eq;
+		}
+		return false;
+	}
+
+	private static Number asNumber(Object value) {
+		if (value instanceof Number) {
+			return (Number) value;
+		} else if (value instanceof String) {
+			try {
+				return new BigDecimal((String) value);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private static int compareNumber(Number l, Number r) {
+		if (!isFinite(l) || !isFinite(r)) { // NaN 与任何数比较都视为相等
+			double a = l.doubleValue();
+			double b = r.doubleValue();
+			return a < b ? -1 : (a > b ? 1 : 0);
+		}
+		return toBigDecimal(l).compareTo(toBigDecimal(r));
+	}
+
+	private static boolean isFinite(Number number) {
+		if (number instanceof Double || number instanceof Float) {
+			double d = number.doubleValue();
+			return !Double.isNaN(d) && !Double.isInfinite(d);
+		}
+		return true;
+	}
+
+	private static BigDecimal toBigDecimal(Number number) {
+		if (number instanceof BigDecimal) {
+			return (BigDecimal) number;
+		} else if (number instanceof BigInteger) {
+			return new BigDecimal((BigInteger) number);
+		} else if (number instanceof Double || number instanceof Float) {
+			return BigDecimal.valueOf(number.doubleValue());
+		}
+		return BigDecimal.valueOf(number.longValue());
+	}
+
+	// 数组(包括基本类型数组)迭代器
+	private static final class ArrayIterator implements Iterator<Object> {
+		private final Object array;
+		private final int length;
+		private int index;
+
+		private ArrayIterator(Object array) {
+			this.array = array;
+			this.length = Array.getLength(array);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return index < length;
+		}
+
+		@Override
+		public Object next() {
+			if (index >= length) {
+				throw new NoSuchElementException();
+			}
+			return Array.get(array, index++);
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.mapper;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.Velocity;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.RuntimeSingleton;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.fastquery.core.Param;
+import org.fastquery.core.SQLTemplate;
+import org.fastquery.util.TypeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 预先解析好的命名查询模板. <br>
+ * 模板在 QueryPool.put 时就被编译好: 优先交给 TemplateRenderer 编译, 它不支持时解析成Velocity语法树, 渲染时直接复用, 不再每次调用 Velocity.evaluate 重新解析文本. <br>
+ * 若 &#064;QueryByNamed(memo=true), 则按参数的"形状"缓存渲染结果, 以及由渲染结果编译成的SQLTemplate.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class NamedTemplate {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NamedTemplate.class);
+
+	// 一个模板最多缓存多少种形状的渲染结果
+	private static final int MAX_MEMO = 256;
+
+	private final String logTag;
+	private final String source; // 原始模板
+	private final CompiledTemplate compiled; // TemplateRenderer 编译的结果, 没有为null
+	private final Template template; // 解析失败时为null, 渲染时再交给 Velocity.evaluate, 让错误在原来的时机抛出
+	private final Map<String, String> memo = new ConcurrentHashMap<>();
+	private final Map<String, SQLTemplate> sqlTemplates = new ConcurrentHashMap<>(); // 渲染结果 -> 编译好的SQL模板
+	private final Map<Param[], int[]> slots = new ConcurrentHashMap<>(); // 方法的@Param -> compiled 中变量所对应的参数索引
+
+	private NamedTemplate(String logTag, String source, CompiledTemplate compiled, Template template) {
+		this.logTag = logTag;
+		this.source = source;
+		this.compiled = compiled;
+		this.template = template;
+	}
+
+	/**
+	 * 解析模板
+	 * 
+	 * @param logTag 日志标识
+	 * @param source 模板
+	 * @param renderer 渲染器, 为null表示只用Velocity
+	 * @return 解析后的模板, source为null时返回null
+	 */
+	static NamedTemplate parse(String logTag, String source, TemplateRenderer renderer) {
+		if (source == null) {
+			return null;
+		}
+		String normalized = normalize(source);
+		if (renderer != null) {
+			CompiledTemplate compiled = renderer.compile(logTag, normalized);
+			if (compiled != null) {
+				return new NamedTemplate(logTag, source, compiled, null);
+			}
+		}
+		Template template = null;
+		try {
+			RuntimeServices rs = RuntimeSingleton.getRuntimeServices();
+			Template t = new Template();
+			t.setRuntimeServices(rs);
+			t.setName(logTag);
+			t.setData(rs.parse(new StringReader(normalized), t));
+			t.initDocument();
+			template = t;
+		} catch (ParseException | RuntimeException e) {
+			LOG.debug(String.format("%s 预解析失败, 将在渲染时解析: %s", logTag, e.getMessage()));
+		}
+		return new NamedTemplate(logTag, source, null, template);
+	}
+
+	String getSource() {
+		return source;
+	}
+
+	/**
+	 * 渲染模板, 并把结果中的空白规整成一个空格, 处理&lt;where&gt;
+	 * 
+	 * @param params 方法参数上的&#064;Param
+	 * @param args 方法的实参
+	 * @param memoize 是否按参数形状缓存渲染结果
+	 * @return 渲染之后的字符串
+	 */
+	String render(Param[] params, Object[] args, boolean memoize) {
+		String key = null;
+		if (memoize) {
+			key = shape(params, args);
+			String str = memo.get(key);
+			if (str != null) {
+				return str;
+			}
+		}
+
+		String str;
+		if (compiled != null) {
+			int[] indexes = slots.computeIfAbsent(params, this::slots);
+			Object[] values = new Object[indexes.length];
+			for (int i = 0; i < indexes.length; i++) {
+				values[i] = indexes[i] != -1 ? args[indexes[i]] : null;
+			}
+			StringBuilder sb = new StringBuilder(source.length());
+			compiled.render(values, sb);
+			str = sb.toString();
+		} else {
+			VelocityContext context = new VelocityContext();
+			for (int i = 0; i < params.length; i++) {
+				if (params[i] != null) {
+					context.put(params[i].value(), args[i]);
+				}
+			}
+			StringWriter writer = new StringWriter();
+			if (template != null) {
+				template.merge(context, writer);
+			} else {
+				Velocity.evaluate(context, writer, logTag, source);
+			}
+			str = writer.toString();
+		}
+		str = TypeUtil.parWhere(collapse(str));
+
+		if (memoize && memo.size() < MAX_MEMO) {
+			memo.putIfAbsent(key, str);
+		}
+		return str;
+	}
+
+	/**
+	 * 渲染模板并编译成SQLTemplate. 不渲染或按形状缓存渲染结果时, 渲染结果只有有限的几种, 因此按渲染结果缓存编译好的模板
+	 * 
+	 * @param params 方法参数上的&#064;Param
+	 * @param args 方法的实参
+	 * @param render 是否渲染, 为false时直接编译原始模板
+	 * @param memoize 是否按参数形状缓存渲染结果
+	 * @return 编译好的模板
+	 */
+	SQLTemplate compile(Param[] params, Object[] args, boolean render, boolean memoize) {
+		String str = render ? render(params, args, memoize) : source;
+		if (render && !memoize) { // 渲染结果可能随实参的值变化, 不缓存
+			return SQLTemplate.compile(str, params, true);
+		}
+		SQLTemplate tpl = sqlTemplates.get(str);
+		if (tpl == null) {
+			tpl = SQLTemplate.compile(str, params, true);
+			if (sqlTemplates.size() < MAX_MEMO) {
+				sqlTemplates.putIfAbsent(str, tpl);
+			}
+		}
+		return tpl;
+	}
+
+	// 变量名 -> 参数索引, 同名的@Param取最后一个(与放入VelocityContext的效果一致), 没有对应的参数为-1
+	private int[] slots(Param[] params) {
+		int[] indexes = new int[compiled.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = -1;
+			for (int j = 0; j < params.length; j++) {
+				if (params[j] != null && params[j].value().equals(compiled.getName(i))) {
+					indexes[i] = j;
+				}
+			}
+		}
+		return indexes;
+	}
+
+	boolean isCompiled() {
+		return compiled != null;
+	}
+
+	// 参数的形状: null, 布尔值, 空串, 集合/数组/Map的长度, 其他一律视为"有值"
+	private static String shape(Param[] params, Object[] args) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] == null) {
+				continue;
+			}
+			Object arg = args[i];
+			if (arg == null) {
+				sb.append('N');
+			} else if (arg instanceof Boolean) {
+				sb.append((Boolean) arg ? 'T' : 'F');
+			} else if (arg instanceof Collection) {
+				sb.append('C').append(((Collection<?>) arg).size());
+			} else if (arg instanceof Map) {
+				sb.append('M').append(((Map<?, ?>) arg).size());
+			} else if (arg.getClass().isArray()) {
+				sb.append('A').append(Array.getLength(arg));
+			} else if (arg instanceof CharSequence && ((CharSequence) arg).length() == 0) {
+				sb.append('E');
+			} else {
+				sb.append('V');
+			}
+			sb.append(',');
+		}
+		return sb.toString();
+	}
+
+	// 加载时规整模板: 连续的空白换成一个空格, 若其中含有换行就保留一个换行(因为"##"注释以换行结束)
+	static String normalize(String source) {
+		String str = source.trim();
+		StringBuilder sb = new StringBuilder(str.length());
+		int i = 0;
+		int len = str.length();
+		while (i < len) {
+			char c = str.charAt(i);
+			if (Character.isWhitespace(c)) {
+				boolean newline = false;
+				while (i < len && Character.isWhitespace(str.charAt(i))) {
+					newline |= str.charAt(i) == '\n';
+					i++;
+				}
+				sb.append(newline ? '\n' : ' ');
+			} else {
+				sb.append(c);
+				i++;
+			}
+		}
+		return sb.toString();
+	}
+
+	// 等价于 trim().replaceAll("\\s+", " ")
+	static String collapse(String str) {
+		StringBuilder sb = new StringBuilder(str.length());
+		boolean blank = false;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+				blank = sb.length() != 0;
+			} else {
+				if (blank) {
+					sb.append(' ');
+					blank = false;
+				}
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
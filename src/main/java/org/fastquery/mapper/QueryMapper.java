@@ -30,6 +30,7 @@ public class QueryMapper {
 
 	private String id; // 重写id的hashCode和equals,用它作为唯一标识
 	private String template; // 模板
+	private NamedTemplate namedTemplate; // 解析后的模板
 
 	QueryMapper(String id, String template) {
 		this.id = id;
@@ -44,6 +45,14 @@ public class QueryMapper {
 		return template;
 	}
 
+	NamedTemplate getNamedTemplate() {
+		return namedTemplate;
+	}
+
+	void setNamedTemplate(NamedTemplate namedTemplate) {
+		this.namedTemplate = namedTemplate;
+	}
+
 	void setId(String id) {
 		this.id = id;
 	}
@@ -24,7 +24,6 @@ package org.fastquery.mapper;
 
 import java.io.InputStream;
 import java.io.StringWriter;
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -42,13 +41,14 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.Velocity;
-import org.fastquery.core.Param;
+import org.fastquery.asm.AsmTemplateRenderer;
 import org.fastquery.core.QueryByNamed;
+import org.fastquery.core.MethodMetadata;
 import org.fastquery.core.QueryContext;
 import org.fastquery.core.RepositoryException;
+import org.fastquery.core.SQLTemplate;
 import org.fastquery.core.Resource;
 import org.fastquery.util.FastQueryJSONObject;
-import org.fastquery.util.TypeUtil;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -68,6 +68,10 @@ public class QueryPool {
 	
 	private static Map<String, String> countQueryMap = new HashMap<>();
 	
+	private static Map<String, NamedTemplate> countTemplateMap = new HashMap<>();
+	
+	private static TemplateRenderer templateRenderer = new AsmTemplateRenderer();
+	
 	private QueryPool(){}
 	
 	private static void putCountQuery(String key,String value){
@@ -75,6 +79,7 @@ public class QueryPool {
 			return ;
 		}
 		countQueryMap.put(key, value);
+		countTemplateMap.put(key, NamedTemplate.parse(key, value, templateRenderer));
 	}
 	
 	/**
@@ -164,6 +169,8 @@ public class QueryPool {
 					// 边解析,边做合法校验
 					legalCheck(queryMappers, queryMapper,postion);
 					legalCheck(countQuery,postion);
+					// 在加载时就解析成语法树, 渲染时不必再解析
+					queryMapper.setNamedTemplate(NamedTemplate.parse(className + "." + id, template, templateRenderer));
 					queryMappers.add(queryMapper);
 				}
 			}
@@ -253,6 +260,19 @@ public class QueryPool {
 		queryMappers.forEach(queryMapper -> addTemplate(className, queryMapper));
 	}
 	
+	/**
+	 * 设置模板渲染器, 对此后加载的模板生效. 默认是 AsmTemplateRenderer, 设置为null表示全部交由Velocity渲染.
+	 * 
+	 * @param renderer 模板渲染器
+	 */
+	public static void setTemplateRenderer(TemplateRenderer renderer) {
+		templateRenderer = renderer;
+	}
+	
+	public static TemplateRenderer getTemplateRenderer() {
+		return templateRenderer;
+	}
+	
 	/**
 	 * 重新读取模板放入池中,显然在调试模式下很有用
 	 * @param className class名称
@@ -260,6 +280,7 @@ public class QueryPool {
 	public static void reset(String className){
 		mapQueryMapper.clear();
 		countQueryMap.clear();
+		countTemplateMap.clear();
 		Set<QueryMapper> queryMappers = xml2QueryMapper(className, resource);
 		queryMappers.forEach(queryMapper -> addTemplate(className, queryMapper));
 	}
@@ -288,47 +309,51 @@ public class QueryPool {
 	
 	// 该方法永远不会返回null或空,因为在初始化时就做了检测
 	public static String render(boolean isQuery){
+		NamedTemplate tpl = namedTemplate(isQuery);
+		if(tpl == null) {
+			return null;
+		}
+		
+		MethodMetadata metadata = QueryContext.getMetadata();
+		QueryByNamed qbn = metadata.getQueryByNamed();
+		if(!qbn.render()) {
+			return tpl.getSource();
+		}
+		
+		return tpl.render(metadata.getParams(), QueryContext.getArgs(), qbn.memo());
+	}
+	
+	/**
+	 * 渲染当前方法的命名模板, 并编译成SQLTemplate. 不渲染或 memo=true 时, 编译好的模板会被缓存, 不必每次调用都重新编译
+	 * @param isQuery true: 查询模板, false: 求和模板
+	 * @return 编译好的模板, 没有求和模板时返回null
+	 */
+	public static SQLTemplate template(boolean isQuery){
+		NamedTemplate tpl = namedTemplate(isQuery);
+		if(tpl == null) {
+			return null;
+		}
+		MethodMetadata metadata = QueryContext.getMetadata();
+		QueryByNamed qbn = metadata.getQueryByNamed();
+		return tpl.compile(metadata.getParams(), QueryContext.getArgs(), qbn.render(), qbn.memo());
+	}
+	
+	private static NamedTemplate namedTemplate(boolean isQuery){
 		String className = QueryContext.getIclass().getName();
-		Method method = QueryContext.getMethod();
-		Object[] args = QueryContext.getArgs();
-		QueryByNamed qbn = method.getAnnotation(QueryByNamed.class);
+		MethodMetadata metadata = QueryContext.getMetadata();
+		Method method = metadata.getMethod();
+		QueryByNamed qbn = metadata.getQueryByNamed();
 		String id = qbn.value();
 		if("".equals(id)) {
 			id = method.getName();
 		}
 		LOG.info("已获得模板:" + id);
-		String tpl;
 		if(isQuery){
-			// getTemplate 永远不会为null,在初始化时已经做了检测
-			tpl = getTemplate(className, id);	
+			// getNamedTemplate 永远不会为null,在初始化时已经做了检测
+			return getNamedTemplate(className, id);	
 		} else {
-			tpl = getCountQuery(className+'.'+id);
-		}
-		
-		if(!qbn.render()) {
-			return tpl;
+			return countTemplateMap.get(className+'.'+id);
 		}
-		
-		// 处理@Param
-		Map<String, Object> map = new HashMap<>();
-		Annotation[][] annotations = method.getParameterAnnotations();
-		int len = annotations.length;
-		for (int i = 0; i < len; i++) {
-			Annotation[] anns = annotations[i];
-			for (Annotation ann : anns) {
-				if(ann.annotationType() == Param.class) {
-					Param param = (Param) ann;
-					map.put(param.value(), args[i]);
-				}
-			}
-		}
-		// 处理@Param End
-		
-		String logTag = new StringBuilder(className).append('.').append(id).toString();
-		
-		String str = render(tpl, logTag, map).trim().replaceAll("\\s+", " ");
-		
-		return TypeUtil.parWhere(str);
 	}
 
 	/**
@@ -361,6 +386,16 @@ public class QueryPool {
 		return null;
 	}
 	
+	private static NamedTemplate getNamedTemplate(String className,String id) {
+		Set<QueryMapper> queryMappers = mapQueryMapper.get(className);
+		for (QueryMapper queryMapper : queryMappers) {
+			if(queryMapper.getId().equals(id)){
+				return queryMapper.getNamedTemplate();
+			}
+		}
+		return null;
+	}
+	
 	// 在解析xml时,合法性检查
 	private static void legalCheck(Set<QueryMapper> queryMappers, QueryMapper queryMapper,String postion) {
 		String id = queryMapper.getId();
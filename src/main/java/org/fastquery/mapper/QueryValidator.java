@@ -149,7 +149,7 @@ public class QueryValidator {
 				String countQuery = QueryPool.getCountQuery(key);
 				
 				// m2: 如果是分页,并且没有标识@NotCount,必须有求和语句
-				Class<?> returnType = method.getReturnType();
+				Class<?> returnType = TypeUtil.getReturnType(method);
 				if (returnType == Page.class && (countQuery == null || "".equals(countQuery.trim())) && method.getAnnotation(NotCount.class) == null) {
 					error(method,
 							String.format("该方法指明需要分页并且没有标识@NotCount. 而在%s.queries.xml里,<query id=\"%s\">下面没有发现求和语句", className, id));
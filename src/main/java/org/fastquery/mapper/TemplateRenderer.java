@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.mapper;
+
+/**
+ * 命名查询模板(*.queries.xml)的渲染器. <br>
+ * QueryPool 在加载模板时调用 compile 进行编译, 返回null表示该渲染器不支持这个模板, 此时退回到Velocity渲染. <br>
+ * 通过 QueryPool.setTemplateRenderer 更换渲染器, 设置为null表示全部交由Velocity渲染.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public interface TemplateRenderer {
+
+	/**
+	 * 编译模板
+	 * 
+	 * @param name 模板标识, 格式: 类的完整名称.id
+	 * @param source 模板内容
+	 * @return 编译后的模板, 不支持返回null
+	 */
+	CompiledTemplate compile(String name, String source);
+}
@@ -24,10 +24,13 @@ package org.fastquery.service;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.Properties;
+import java.util.function.Supplier;
 
 import org.fastquery.core.GenerateRepository;
+import org.fastquery.core.Propagation;
 import org.fastquery.core.Repository;
 import org.fastquery.core.RepositoryException;
+import org.fastquery.core.TransactionContext;
 import org.fastquery.dsm.FQueryProperties;
 import org.fastquery.util.BeanUtil;
 
@@ -57,6 +60,42 @@ public class FQuery {
 		}		
 	}
 	
+	/**
+	 * 在一个事务里执行work, work中的Repository调用共用当前线程上的连接(每个数据源一个), 全部成功才提交, work抛出异常就回滚.
+	 * 已经处在事务中时, 加入该事务. 
+	 * 
+	 * @param <T> 返回类型
+	 * @param work 要执行的代码
+	 * @return work的返回值
+	 */
+	public static <T> T transaction(Supplier<T> work) {
+		return TransactionContext.execute(Propagation.REQUIRED, work);
+	}
+	
+	/**
+	 * 在一个事务里执行work, 见 transaction(Supplier)
+	 * 
+	 * @param work 要执行的代码
+	 */
+	public static void transaction(Runnable work) {
+		TransactionContext.execute(Propagation.REQUIRED, () -> {
+			work.run();
+			return null;
+		});
+	}
+	
+	/**
+	 * 按指定的传播行为执行work, 例如: REQUIRES_NEW 挂起当前事务另起一个, NESTED 在当前事务里设置保存点, 失败时只回滚到保存点
+	 * 
+	 * @param <T> 返回类型
+	 * @param propagation 传播行为
+	 * @param work 要执行的代码
+	 * @return work的返回值
+	 */
+	public static <T> T transaction(Propagation propagation, Supplier<T> work) {
+		return TransactionContext.execute(propagation, work);
+	}
+	
 	/**
 	 * 创建一个数据源
 	 * @param dataSourceName 数据源的名称,不能重复.
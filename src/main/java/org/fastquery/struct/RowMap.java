@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.struct;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 查询结果中的一行. 列名字典(Columns)由同一个结果集的所有行共享, 每行只持有一个 Object[], <br>
+ * 相比每行一个HashMap, 省去了Entry对象及扩容. 遍历顺序与原来的HashMap一致. <br>
+ * 修改已有列的值直接写入数组; 新增或删除列时, 该行转换成HashMap存储.
+ * 
+ * @author mei.sir@aliyun.cn
+ */
+public final class RowMap extends AbstractMap<String, Object> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient Columns columns;
+	private final transient Object[] values;
+	private transient Map<String, Object> map; // 增删列之后才有值
+
+	/**
+	 * 构造一行
+	 * 
+	 * @param columns 列名字典
+	 * @param values 列值, 下标由 Columns.slot 确定, 长度为 columns.size()
+	 */
+	public RowMap(Columns columns, Object[] values) {
+		this.columns = columns;
+		this.values = values;
+	}
+
+	@Override
+	public int size() {
+		return map != null ? map.size() : values.length;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return map != null ? map.containsKey(key) : columns.indexOf(key) != -1;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (map != null) {
+			return map.get(key);
+		}
+		int i = columns.indexOf(key);
+		return i == -1 ? null : values[i];
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		if (map == null) {
+			int i = columns.indexOf(key);
+			if (i != -1) {
+				Object old = values[i];
+				values[i] = value;
+				return old;
+			}
+			inflate();
+		}
+		return map.put(key, value);
+	}
+
+	@Override
+	public Object remove(Object key) {
+		if (map == null) {
+			if (columns.indexOf(key) == -1) {
+				return null;
+			}
+			inflate();
+		}
+		return map.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		inflate();
+		map.clear();
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		if (map != null) {
+			return map.entrySet();
+		}
+		return new AbstractSet<Entry<String, Object>>() {
+			@Override
+			public Iterator<Entry<String, Object>> iterator() {
+				return new Iterator<Entry<String, Object>>() {
+					private int i;
+
+					@Override
+					public boolean hasNext() {
+						return i < values.length;
+					}
+
+					@Override
+					public Entry<String, Object> next() {
+						if (i >= values.length) {
+							throw new NoSuchElementException();
+						}
+						return new Column(i++);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return values.length;
+			}
+		};
+	}
+
+	private void inflate() {
+		if (map == null) {
+			Map<String, Object> m = new HashMap<>();
+			for (int i = 0; i < values.length; i++) {
+				m.put(columns.keys[i], values[i]);
+			}
+			map = m;
+		}
+	}
+
+	// 序列化成HashMap, 反序列化之后依然是HashMap
+	private Object writeReplace() {
+		return new HashMap<>(this);
+	}
+
+	// 某一列, 可通过setValue修改值
+	private final class Column implements Entry<String, Object> {
+		private final int i;
+
+		private Column(int i) {
+			this.i = i;
+		}
+
+		@Override
+		public String getKey() {
+			return columns.keys[i];
+		}
+
+		@Override
+		public Object getValue() {
+			return values[i];
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			Object old = values[i];
+			values[i] = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Entry)) {
+				return false;
+			}
+			Entry<?, ?> e = (Entry<?, ?>) o;
+			Object v = values[i];
+			return getKey().equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object v = values[i];
+			return getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + values[i];
+		}
+	}
+
+	/**
+	 * 列名字典, 同一个结果集的所有行共享, 不可变.
+	 */
+	public static final class Columns {
+		private final Map<String, Integer> index = new HashMap<>(); // 列名 -> 下标
+		private final String[] keys; // 去重后的列名, 顺序同HashMap的遍历顺序
+		private final int[] slots; // 第i列(从0开始)的值存放在哪个下标
+
+		/**
+		 * 构造列名字典, 列名相同的, 后面的列覆盖前面的列(同HashMap.put)
+		 * 
+		 * @param labels 结果集的列名, 依次对应第1, 2, 3...列
+		 */
+		public Columns(String[] labels) {
+			Map<String, Integer> order = new HashMap<>(); // 按原来每行逐个put的方式得到遍历顺序
+			for (String label : labels) {
+				order.put(label, 0);
+			}
+			this.keys = order.keySet().toArray(new String[order.size()]);
+			for (int i = 0; i < keys.length; i++) {
+				index.put(keys[i], i);
+			}
+			this.slots = new int[labels.length];
+			for (int i = 0; i < labels.length; i++) {
+				slots[i] = index.get(labels[i]);
+			}
+		}
+
+		/**
+		 * 去重后的列数, 即每行值数组的长度
+		 * 
+		 * @return 列数
+		 */
+		public int size() {
+			return keys.length;
+		}
+
+		/**
+		 * 第column列(从0开始)的值在数组中的下标
+		 * 
+		 * @param column 列
+		 * @return 下标
+		 */
+		public int slot(int column) {
+			return slots[column];
+		}
+
+		private int indexOf(Object key) {
+			Integer i = index.get(key);
+			return i == null ? -1 : i;
+		}
+	}
+}
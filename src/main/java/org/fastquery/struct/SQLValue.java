@@ -46,6 +46,23 @@ public class SQLValue {
 	private String sql; // 待执行的sql
 	private List<Object> values;// sql语言中"?"对应的实参
 
+	private SQLValue() {
+	}
+
+	/**
+	 * 构建已经展开好的SQL和值, 不再做"?"号及微笑表达式的分析
+	 * 
+	 * @param sql 待执行的sql
+	 * @param values sql语言中"?"对应的实参
+	 * @return SQLValue
+	 */
+	public static SQLValue expanded(String sql, List<Object> values) {
+		SQLValue sqlValue = new SQLValue();
+		sqlValue.sql = sql;
+		sqlValue.values = values;
+		return sqlValue;
+	}
+
 	public SQLValue(String sql, List<Object> values) {
 		
 		LOG.info("SQL扩展之前:" + sql);
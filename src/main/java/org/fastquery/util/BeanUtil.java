@@ -36,6 +36,7 @@ import org.fastquery.core.Id;
 import org.fastquery.core.Placeholder;
 import org.fastquery.core.RepositoryException;
 import org.fastquery.core.Transient;
+import org.fastquery.struct.SQLValue;
 
 import com.alibaba.fastjson.JSONArray;
 
@@ -63,72 +64,50 @@ public final class BeanUtil {
 	 * @return insert 语句
 	 */
 	public static String toInsertSQL(Object bean,boolean dbNamePrefix) {
-
-		int idOfSet = -1; // 用于记录主键名应该在sql中的什么位置
-		
-		Class<?> clazz = bean.getClass();
-		String tableName = clazz.getSimpleName();
-
+		EntityMetadata metadata = EntityMetadata.of(bean.getClass());
 		StringBuilder sqlsb = new StringBuilder("insert into ");
 		if(dbNamePrefix) {
 		  sqlsb.append("`${dbpre}`.");
 		}
 		sqlsb.append("`");
-		sqlsb.append(tableName);
+		sqlsb.append(metadata.getTableName());
 		sqlsb.append("`");
 		sqlsb.append("(");
-		Field[] fields = clazz.getDeclaredFields();
-		for (Field field : fields) {
-			if(field.getType().isArray() || !TypeUtil.isWarrp(field.getType()) || field.getDeclaredAnnotation(Transient.class) != null){
+		StringBuilder values = new StringBuilder(" values(");
+		for (EntityMetadata.Property property : metadata.getProperties()) {
+			Object val = property.get(bean);
+			if (property.isId() && val == null) {
 				continue;
 			}
-			// 如果是主键,记录一下应该插入的位置
-			if(field.getAnnotation(Id.class) !=null ) {
-				idOfSet = sqlsb.length();	
+			sqlsb.append(property.getColumn());
+			sqlsb.append(',');
+			if (val != null) {
+				values.append("'" + escapeSql(val.toString()) + "',");
 			} else {
-				sqlsb.append("`");
-				sqlsb.append(field.getName());
-				sqlsb.append("`");
+				values.append("null,");
 			}
-			sqlsb.append(',');
-		}
-		sqlsb.deleteCharAt(sqlsb.length() - 1);
-		sqlsb.append(") values");
-		try {
-				sqlsb.append('(');
-				for (Field field : fields) {
-					if(field.getType().isArray() || !TypeUtil.isWarrp(field.getType()) || field.getDeclaredAnnotation(Transient.class) != null){
-						continue;
-					}
-					field.setAccessible(true);
-					Object val = field.get(bean);
-					if(field.getAnnotation(Id.class)!=null) {
-						if (val != null) {
-							sqlsb.insert(idOfSet, new StringBuilder().append("`").append(field.getName()).append("`"));
-							sqlsb.append("'" + escapeSql(val.toString()) + "',");
-						} else {
-							if(sqlsb.charAt(idOfSet) == ',') {
-								sqlsb.deleteCharAt(idOfSet);	
-							}
-						}
-					} else {
-						if (val != null) {
-							sqlsb.append("'" + escapeSql(val.toString()) + "',");
-						} else {
-							sqlsb.append(val);
-							sqlsb.append(',');
-						}
-					}
-				}
-				sqlsb.deleteCharAt(sqlsb.length() - 1);
-				sqlsb.append("),");
-		} catch (Exception e) {
-			throw new RepositoryException(e);
 		}
 		sqlsb.deleteCharAt(sqlsb.length() - 1);
+		values.deleteCharAt(values.length() - 1);
+		sqlsb.append(')');
+		sqlsb.append(values);
+		sqlsb.append(')');
 		return sqlsb.toString();
 	}
 	
+	/**
+	 * 把1个实体转换成参数化的insert语句及其值, 主键值为null时不参与insert. 同一种实体的语句只生成一次.
+	 * 
+	 * @param bean 实体
+	 * @param dbName 数据库名称, 可以为null
+	 * @return insert语句及其值
+	 */
+	public static SQLValue toInsertSQLValue(Object bean, String dbName) {
+		EntityMetadata metadata = EntityMetadata.of(bean.getClass());
+		boolean hasId = metadata.idValue(bean) != null;
+		return SQLValue.expanded(metadata.insertSQL(dbName, false, hasId), Arrays.asList(metadata.insertValues(bean, hasId)));
+	}
+	
 	public static String toInsertSQL(String dbName, Object bean) {
 		return toInsertSQL(bean, true).replace("${dbpre}", dbName);
 	}
@@ -278,6 +257,41 @@ public final class BeanUtil {
 		return toInsertSQL(list, dbName, ignoreRepeat);
 	}
 	
+	/**
+	 * 转换参数化的insert语句, 如: insert into `dbName`.`User`(`name`,`age`) values(?,?). <br>
+	 * 同一个实体class, 只要主键是否有值相同, 语句就相同, 因此可以用同一个PreparedStatement批量执行.
+	 * 
+	 * @param clazz 实体class
+	 * @param dbName 如果为null,表名称之前不会有前缀
+	 * @param ignoreRepeat 忽略重复
+	 * @param hasId 主键是否参与insert
+	 * @return 插入语句
+	 */
+	public static String toInsertSQL(Class<?> clazz, String dbName, boolean ignoreRepeat, boolean hasId) {
+		return EntityMetadata.of(clazz).insertSQL(dbName, ignoreRepeat, hasId);
+	}
+
+	/**
+	 * 实体的主键是否有值
+	 * 
+	 * @param bean 实体
+	 * @return y:true/n:false
+	 */
+	public static boolean hasIdValue(Object bean) {
+		return EntityMetadata.of(bean.getClass()).idValue(bean) != null;
+	}
+
+	/**
+	 * 获取实体参与insert的值, 与 toInsertSQL(Class, String, boolean, boolean) 中的"?"一一对应
+	 * 
+	 * @param bean 实体
+	 * @param hasId 主键是否参与insert
+	 * @return 值
+	 */
+	public static Object[] toInsertValues(Object bean, boolean hasId) {
+		return EntityMetadata.of(bean.getClass()).insertValues(bean, hasId);
+	}
+
 	/**
 	 * 转换查询语句
 	 * @param bean 实体
@@ -286,43 +300,36 @@ public final class BeanUtil {
 	 * @return sql语句
 	 */
 	public static String toSelectSQL(Object bean,Object key,String dbName) {
-		Class<?> cls = bean.getClass();
-		// 表名称
-		String tableName = cls.getSimpleName();
-		if(dbName != null) {
-			tableName = new StringBuilder().append('`').append(dbName).append("`.`").append(tableName).append('`').toString();
-		}else {
-			tableName = '`' + tableName + '`';
+		EntityMetadata metadata = EntityMetadata.of(bean.getClass());
+		EntityMetadata.Property id = metadata.getId();
+		if(id != null && key == null) {
+			key = id.get(bean);
 		}
-		String keyFeild = null;
-		
-		// 获取主键的名称
-		Field[] files = cls.getDeclaredFields();
-		for (Field field : files) {
-			if(field.getType().isArray() || !TypeUtil.isWarrp(field.getType())){
-				continue;
-			}
-			if(field.getAnnotation(Id.class)!=null){
-				keyFeild = field.getName();
-				if(key==null) {
-					// 顺便取主键的值
-					try {
-						field.setAccessible(true);
-						key = field.get(bean);
-					} catch (Exception e) {
-						throw new RepositoryException(e);
-					}	
-				}
-				break;
-			}
+		if(id==null || key == null){
+			throw new RepositoryException(bean.getClass() + " 需要用@Id在实体上标识主键并且主键的值不能为null");
 		}
-		
-		if(keyFeild==null || key == null){
-			throw new RepositoryException(cls + " 需要用@Id在实体上标识主键并且主键的值不能为null");
+		return String.format("select * from %s where %s = %s",metadata.table(dbName),id.getColumn(),key.toString());
+	}
+	
+	/**
+	 * 根据主键查询实体的参数化语句, 如: select * from `User` where `id` = ?
+	 * 
+	 * @param bean 实体
+	 * @param key 主键值, 如果传递null,那么自动获取,获取到的为null那么报错. 指定的值优先
+	 * @param dbName 数据库名称, 可以为null
+	 * @return select语句及主键值
+	 */
+	public static SQLValue toSelectSQLValue(Object bean,Object key,String dbName) {
+		EntityMetadata metadata = EntityMetadata.of(bean.getClass());
+		if(key == null) {
+			key = metadata.idValue(bean);
 		}
-		
-		return String.format("select * from %s where `%s` = %s",tableName,keyFeild,key.toString());
-		
+		if(metadata.getId()==null || key == null){
+			throw new RepositoryException(bean.getClass() + " 需要用@Id在实体上标识主键并且主键的值不能为null");
+		}
+		List<Object> values = new ArrayList<>(1);
+		values.add(key);
+		return SQLValue.expanded(metadata.selectSQL(dbName), values);
 	}
 	
 	/**
@@ -335,89 +342,23 @@ public final class BeanUtil {
 	 * @return 更新语句信息
 	 */
 	public static Object[] toUpdateSQL(Object bean,String dbName,boolean toSQL) {
-		Object key = null;
-		Object[] updateinfo = new Object[3];
-		List<Object> args = new ArrayList<>();
-		Class<?> cls = bean.getClass();
-		// 表名称
-		String tableName = cls.getSimpleName();
-		if(dbName != null) {
-			tableName = new StringBuilder().append('`').append(dbName).append("`.`").append(tableName).append('`').toString();
-		} else {
-			tableName = '`' + tableName + '`';
+		EntityMetadata metadata = EntityMetadata.of(bean.getClass());
+		Object key = metadata.idValue(bean);
+		if(key == null){
+			throw new RepositoryException(bean.getClass() + " 必须有@Id标识,并且主键不能为null");
 		}
-		
-		String keyFeild = null;
-		// 获取主键的名称
-		Field[] files = cls.getDeclaredFields();
-		
-		for (Field field : files) {
-			if(field.getType().isArray() || !TypeUtil.isWarrp(field.getType()) || field.getDeclaredAnnotation(Transient.class) != null){
-				continue;
-			}
-			if(field.getAnnotation(Id.class)!=null){
-				keyFeild = field.getName();
-				// 顺便取主键的值
-				try {
-					field.setAccessible(true);
-					key = field.get(bean);	
-				} catch (Exception e) {
-					throw new RepositoryException(e);
-				}
-				break;
-			}
-		}
-		
-		if(keyFeild==null || key == null){
-			throw new RepositoryException(cls + " 必须有@Id标识,并且主键不能为null");
+		SQLValue sqlValue = metadata.update(bean, dbName);
+		if(sqlValue == null) {
+			LOG.warn("传递的实体,没有什么可以修改," + bean);
+			return null;
 		}
-		
-		// update UserInfo set name=?,age=? where id=?4
-		StringBuilder sb = new StringBuilder("update ");
-		sb.append(tableName);
-		sb.append(" set");
-		int len = sb.length();
-		try {
-			Field[] fields = cls.getDeclaredFields();
-			for (Field field : fields) {
-				if(field.getType().isArray() || !TypeUtil.isWarrp(field.getType()) || field.getDeclaredAnnotation(Transient.class) != null){
-					continue;
-				}
-				field.setAccessible(true);
-				Object val = field.get(bean);
-				Id id = field.getAnnotation(Id.class);
-				if(val!=null && id == null) {
-					args.add(val);
-					
-					sb.append(" `");
-					sb.append(field.getName());
-					sb.append('`');
-					sb.append("=?,");
-					
-				}
-			}
-			if(sb.length()==len) {
-				LOG.warn("传递的实体,没有什么可以修改," + bean);
-				return null;
-			}
-			// 去掉sb最后的一个字符
-			sb.deleteCharAt(sb.length() - 1);
-			sb.append(" where ");
-			sb.append('`');
-			sb.append(keyFeild);
-			sb.append("`=?");
-			args.add(key);
-			updateinfo[0] = sb.toString();
-			updateinfo[1] = args;
-			if(toSQL){
-				updateinfo[2] = String.format("select * from %s where `%s` = %s",tableName,keyFeild,key.toString());
-			}
-		} catch (Exception e) {
-			throw new RepositoryException(e);
+		Object[] updateinfo = new Object[3];
+		updateinfo[0] = sqlValue.getSql();
+		updateinfo[1] = sqlValue.getValues();
+		if(toSQL){
+			updateinfo[2] = String.format("select * from %s where %s = %s",metadata.table(dbName),metadata.getId().getColumn(),key.toString());
 		}
-
 		return updateinfo;
-		
 	}
 	
 	/**
@@ -432,35 +373,21 @@ public final class BeanUtil {
 		List<String> wps = TypeUtil.matches(where , Placeholder.COLON_REG);
 		Object[] updateinfo = new Object[2];
 		List<Object> args = new ArrayList<>();
-		Class<?> cls = bean.getClass();
-		// 表名称
-		String tableName = cls.getSimpleName();
-		if(dbName != null) {
-			tableName = new StringBuilder().append('`').append(dbName).append("`.`").append(tableName).append('`').toString();
-		} else {
-			tableName = '`' + tableName + '`';
-		}
+		EntityMetadata metadata = EntityMetadata.of(bean.getClass());
 		
 		// update UserInfo set name=?,age=? where id=?4
 		StringBuilder sb = new StringBuilder("update ");
-		sb.append(tableName);
+		sb.append(metadata.table(dbName));
 		sb.append(" set");
 		int len = sb.length();
 		try {
-			Field[] fields = cls.getDeclaredFields();
-			for (Field field : fields) {
-				if(field.getType().isArray() || !TypeUtil.isWarrp(field.getType()) || field.getDeclaredAnnotation(Transient.class) != null){
-					continue;
-				}
-				field.setAccessible(true);
-				Object val = field.get(bean);
-				if(val!=null && !wps.contains(":"+field.getName())) {
+			for (EntityMetadata.Property property : metadata.getProperties()) {
+				Object val = property.get(bean);
+				if(val!=null && !wps.contains(":"+property.getName())) {
 					args.add(val);
-					sb.append(" `");
-					sb.append(field.getName());
-					sb.append('`');
+					sb.append(' ');
+					sb.append(property.getColumn());
 					sb.append("=?,");
-					
 				}
 			}
 			if(sb.length()==len) {
@@ -470,7 +397,9 @@ public final class BeanUtil {
 			// where的后面部分 和 追加sql参数
 			String whef = where.replaceAll(Placeholder.COLON_REG, "?");
 			for (String wp : wps) {
-				Object val = new PropertyDescriptor(wp.replace(":", ""), cls).getReadMethod().invoke(bean);
+				String name = wp.replace(":", "");
+				EntityMetadata.Property property = metadata.getProperty(name);
+				Object val = property != null ? property.get(bean) : new PropertyDescriptor(name, bean.getClass()).getReadMethod().invoke(bean);
 				if(val==null) {
 					throw new RepositoryException("条件的值不能为null");
 				}
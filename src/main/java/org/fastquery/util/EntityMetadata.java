@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.fastquery.core.Id;
+import org.fastquery.core.ReadBack;
+import org.fastquery.core.RepositoryException;
+import org.fastquery.core.Transient;
+import org.fastquery.asm.RowMapperGenerator;
+import org.fastquery.struct.SQLValue;
+
+/**
+ * 实体元数据. 每个实体class只解析一次: 表名, 主键, 需要持久化的字段及其取值器, 以及参数化的insert/update/select语句模板. <br>
+ * 需要持久化的字段: 包装类型(含String), 非数组, 没有标识&#064;Transient, 保持声明顺序.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class EntityMetadata {
+
+	private static final Map<Class<?>, EntityMetadata> REGISTRY = new ConcurrentHashMap<>();
+	private static final int MAX_UPDATE_TEMPLATES = 256; // 每张表最多缓存多少种update语句
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private final Class<?> type;
+	private final String tableName;
+	private final Property[] properties;
+	private final Property id; // 没有标识@Id为null
+	private final boolean readBack;
+	private final Map<String, Property> propertyMap;
+	private final Map<String, Templates> templates = new ConcurrentHashMap<>(); // 数据库名称("" 表示没有前缀) -> 语句模板
+
+	private EntityMetadata(Class<?> type) {
+		this.type = type;
+		this.tableName = type.getSimpleName();
+		List<Property> list = new ArrayList<>();
+		Property idProperty = null;
+		Map<String, Property> map = new HashMap<>();
+		for (Field field : type.getDeclaredFields()) {
+			if (field.getType().isArray() || !TypeUtil.isWarrp(field.getType()) || field.getDeclaredAnnotation(Transient.class) != null) {
+				continue;
+			}
+			boolean isId = idProperty == null && field.getAnnotation(Id.class) != null;
+			Property property = new Property(field, list.size(), isId);
+			list.add(property);
+			map.put(property.name, property);
+			if (isId) {
+				idProperty = property;
+			}
+		}
+		this.properties = list.toArray(new Property[list.size()]);
+		this.id = idProperty;
+		ReadBack rb = type.getAnnotation(ReadBack.class);
+		this.readBack = rb == null || rb.value();
+		this.propertyMap = Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * 获取实体元数据, 若还没有解析就解析并登记. 该方法是线程安全的.
+	 * 
+	 * @param type 实体class
+	 * @return 实体元数据
+	 */
+	public static EntityMetadata of(Class<?> type) {
+		EntityMetadata metadata = REGISTRY.get(type);
+		if (metadata == null) {
+			metadata = REGISTRY.computeIfAbsent(type, EntityMetadata::new);
+		}
+		return metadata;
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * 表名称, 即实体的简单类名
+	 * 
+	 * @return 表名称
+	 */
+	public String getTableName() {
+		return tableName;
+	}
+
+	/**
+	 * 需要持久化的字段, 保持声明顺序
+	 * 
+	 * @return 字段集
+	 */
+	public Property[] getProperties() {
+		return properties;
+	}
+
+	/**
+	 * 主键
+	 * 
+	 * @return 主键, 没有标识&#064;Id为null
+	 */
+	public Property getId() {
+		return id;
+	}
+
+	/**
+	 * 根据字段名称获取需要持久化的字段
+	 * 
+	 * @param name 字段名称
+	 * @return 字段, 不存在为null
+	 */
+	public Property getProperty(String name) {
+		return propertyMap.get(name);
+	}
+
+	/**
+	 * 主键的值
+	 * 
+	 * @param bean 实体
+	 * @return 主键的值, 没有主键或其值为null时返回null
+	 */
+	public Object idValue(Object bean) {
+		return id != null ? id.get(bean) : null;
+	}
+
+	/**
+	 * save,update之后是否需要根据主键再查询一次, 见 &#064;ReadBack
+	 * 
+	 * @return y:true/n:false
+	 */
+	public boolean isReadBack() {
+		return readBack;
+	}
+
+	/**
+	 * 不查询数据库, 用实体在本地构造写入之后的结果: 拷贝需要持久化的字段, 主键为null时用key填充
+	 * 
+	 * @param bean 实体
+	 * @param key 数据库生成的主键, 可以为null
+	 * @return 新的实体, 若最终没有主键值返回null
+	 */
+	public Object copy(Object bean, Object key) {
+		Object target;
+		try {
+			target = type.newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new RepositoryException(type + " 需要一个public的默认构造方法", e);
+		}
+		for (Property property : properties) {
+			property.set(target, property.get(bean));
+		}
+		if (id != null && id.get(target) == null && key != null) {
+			id.set(target, RowMapperGenerator.cast(key, id.type));
+		}
+		return idValue(target) == null ? null : target;
+	}
+
+	/**
+	 * 带反引号的表名, 如: `dbName`.`User`
+	 * 
+	 * @param dbName 数据库名称, 可以为null
+	 * @return 表名
+	 */
+	public String table(String dbName) {
+		return templates(dbName).table;
+	}
+
+	/**
+	 * 参数化的insert语句, 如: insert into `User`(`name`,`age`) values(?,?)
+	 * 
+	 * @param dbName 数据库名称, 可以为null
+	 * @param ignoreRepeat 忽略重复
+	 * @param hasId 主键是否参与insert
+	 * @return insert语句
+	 */
+	public String insertSQL(String dbName, boolean ignoreRepeat, boolean hasId) {
+		Templates t = templates(dbName);
+		if (ignoreRepeat) {
+			return hasId ? t.insertIgnoreWithId : t.insertIgnore;
+		}
+		return hasId ? t.insertWithId : t.insert;
+	}
+
+	/**
+	 * 与 insertSQL 中的"?"一一对应的值
+	 * 
+	 * @param bean 实体
+	 * @param hasId 主键是否参与insert
+	 * @return 值
+	 */
+	public Object[] insertValues(Object bean, boolean hasId) {
+		boolean skipId = !hasId && id != null;
+		Object[] values = new Object[skipId ? properties.length - 1 : properties.length];
+		int i = 0;
+		for (Property property : properties) {
+			if (!skipId || property != id) {
+				Object val = property.get(bean);
+				values[i++] = val instanceof Character ? val.toString() : val;
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * 根据主键查询的语句, 如: select * from `User` where `id` = ?
+	 * 
+	 * @param dbName 数据库名称, 可以为null
+	 * @return select语句, 没有主键时为null
+	 */
+	public String selectSQL(String dbName) {
+		return templates(dbName).select;
+	}
+
+	/**
+	 * 根据主键更新实体中值不为null的字段, 如: update `User` set `name`=?, `age`=? where `id`=? <br>
+	 * 参与set的字段组合相同, 语句就相同, 同一种组合的语句会被缓存.
+	 * 
+	 * @param bean 实体, 其主键的值不能为null
+	 * @param dbName 数据库名称, 可以为null
+	 * @return update语句及其值(主键值在最后), 没有可更新的字段返回null
+	 */
+	public SQLValue update(Object bean, String dbName) {
+		List<Object> values = new ArrayList<>();
+		boolean[] sets = new boolean[properties.length];
+		long mask = 0;
+		for (Property property : properties) {
+			if (property != id) {
+				Object val = property.get(bean);
+				if (val != null) {
+					values.add(val);
+					sets[property.index] = true;
+					mask |= 1L << property.index;
+				}
+			}
+		}
+		if (values.isEmpty()) {
+			return null;
+		}
+		values.add(id.get(bean));
+		return SQLValue.expanded(updateSQL(templates(dbName), mask, sets), values);
+	}
+
+	// 字段不超过63个时, 用位掩码作为缓存的键
+	private String updateSQL(Templates t, long mask, boolean[] sets) {
+		boolean maskable = properties.length < Long.SIZE;
+		String sql = maskable ? t.updates.get(mask) : null;
+		if (sql == null) {
+			StringBuilder sb = new StringBuilder("update ").append(t.table).append(" set");
+			for (Property property : properties) {
+				if (sets[property.index]) {
+					sb.append(' ').append(property.column).append("=?,");
+				}
+			}
+			sb.setCharAt(sb.length() - 1, ' ');
+			sql = sb.append("where ").append(id.column).append("=?").toString();
+			if (maskable && t.updates.size() < MAX_UPDATE_TEMPLATES) {
+				t.updates.put(mask, sql);
+			}
+		}
+		return sql;
+	}
+
+	private Templates templates(String dbName) {
+		String key = dbName != null ? dbName : "";
+		Templates t = templates.get(key);
+		if (t == null) {
+			t = templates.computeIfAbsent(key, k -> new Templates(this, dbName));
+		}
+		return t;
+	}
+
+	/**
+	 * 需要持久化的字段
+	 */
+	public static final class Property {
+		private final String name;
+		private final String column; // 带反引号的列名
+		private final int index;
+		private final boolean id;
+		private final Class<?> type;
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		private Property(Field field, int index, boolean id) {
+			this.name = field.getName();
+			this.column = '`' + name + '`';
+			this.index = index;
+			this.id = id;
+			this.type = field.getType();
+			try {
+				field.setAccessible(true);
+				this.getter = MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
+				this.setter = Modifier.isFinal(field.getModifiers()) ? null : MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+			} catch (IllegalAccessException e) {
+				throw new RepositoryException(e);
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * 带反引号的列名
+		 * 
+		 * @return 列名
+		 */
+		public String getColumn() {
+			return column;
+		}
+
+		/**
+		 * 在 getProperties() 中的索引
+		 * 
+		 * @return 索引
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public boolean isId() {
+			return id;
+		}
+
+		/**
+		 * 获取字段的值
+		 * 
+		 * @param bean 实体
+		 * @return 值
+		 */
+		public Object get(Object bean) {
+			try {
+				return (Object) getter.invokeExact(bean);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RepositoryException(e);
+			}
+		}
+
+		/**
+		 * 设置字段的值, final字段忽略
+		 * 
+		 * @param bean 实体
+		 * @param value 值, 类型需要与字段一致
+		 */
+		public void set(Object bean, Object value) {
+			if (setter == null) {
+				return;
+			}
+			try {
+				setter.invokeExact(bean, value);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RepositoryException(e);
+			}
+		}
+	}
+
+	// 某个数据库下的语句模板
+	private static final class Templates {
+		private final String table;
+		private final String insert;
+		private final String insertWithId;
+		private final String insertIgnore;
+		private final String insertIgnoreWithId;
+		private final String select;
+		private final Map<Long, String> updates = new ConcurrentHashMap<>();
+
+		Templates(EntityMetadata metadata, String dbName) {
+			StringBuilder sb = new StringBuilder();
+			if (dbName != null) {
+				sb.append('`').append(dbName).append("`.");
+			}
+			this.table = sb.append('`').append(metadata.tableName).append('`').toString();
+			String values = values(metadata.properties, metadata.id, false);
+			String valuesWithId = values(metadata.properties, metadata.id, true);
+			this.insert = "insert into " + table + values;
+			this.insertWithId = "insert into " + table + valuesWithId;
+			this.insertIgnore = "insert ignore into " + table + values;
+			this.insertIgnoreWithId = "insert ignore into " + table + valuesWithId;
+			this.select = metadata.id != null ? "select * from " + table + " where " + metadata.id.column + " = ?" : null;
+		}
+
+		// (`a`,`b`) values(?,?)
+		private static String values(Property[] properties, Property id, boolean hasId) {
+			StringBuilder cols = new StringBuilder("(");
+			StringBuilder marks = new StringBuilder(" values(");
+			for (Property property : properties) {
+				if (property != id || hasId) {
+					if (marks.length() > 8) {
+						cols.append(',');
+						marks.append(',');
+					}
+					cols.append(property.column);
+					marks.append('?');
+				}
+			}
+			return cols.append(')').append(marks).append(')').toString();
+		}
+	}
+}
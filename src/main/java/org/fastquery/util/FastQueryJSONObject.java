@@ -69,6 +69,101 @@ public class FastQueryJSONObject {
 		return (boolean) getJsonObject().getOrDefault("debug", false);
 	}
 
+	/**
+	 * 流式查询默认每次从数据库抓取的行数, 没有配置为0, 表示由驱动决定
+	 * 
+	 * @return fetchSize
+	 */
+	public static int getFetchSize() {
+		return getJsonObject().getIntValue("fetchSize");
+	}
+
+	/**
+	 * 批量插入时, 每多少行执行一次executeBatch, 没有配置默认1000
+	 * 
+	 * @return batchSize
+	 */
+	public static int getBatchSize() {
+		int batchSize = getJsonObject().getIntValue("batchSize");
+		return batchSize > 0 ? batchSize : 1000;
+	}
+
+	/**
+	 * 批量插入时, 是否每执行一批就提交一次事务, 没有配置默认false, 表示全部插入后才提交
+	 * 
+	 * @return y:true/n:false
+	 */
+	public static boolean getBatchCommit() {
+		return (boolean) getJsonObject().getOrDefault("batchCommit", false);
+	}
+
+	/**
+	 * 方言实现类的全限定名, 没有配置返回null(表示用MySQL)
+	 * 
+	 * @return 类名
+	 */
+	public static String getDialect() {
+		return getJsonObject().getString("dialect");
+	}
+
+	/**
+	 * 方法默认的时限(秒), 没有配置为0, 表示不限. 方法上的 &#064;QueryTimeout 或 &#064;Transactional(timeout) 优先
+	 * 
+	 * @return 秒
+	 */
+	public static int getQueryTimeout() {
+		return getJsonObject().getIntValue("queryTimeout");
+	}
+
+	/**
+	 * &#064;Source 为集合或数组时, 一次调用最多同时在几个数据源上执行, 没有配置默认8
+	 * 
+	 * @return 并行数
+	 */
+	public static int getScatterParallelism() {
+		int parallelism = getJsonObject().getIntValue("scatterParallelism");
+		return parallelism > 0 ? parallelism : 8;
+	}
+
+	/**
+	 * 分片组的配置, 没有配置返回空数组
+	 * 
+	 * @return 分片组
+	 */
+	public static JSONArray getShardGroups() {
+		JSONArray array = getJsonObject().getJSONArray("shardGroups");
+		return array != null ? array : new JSONArray();
+	}
+
+	/**
+	 * 异步方法(返回CompletableFuture)每个数据源的工作线程数, 没有配置默认为CPU核数的2倍
+	 * 
+	 * @return 线程数
+	 */
+	public static int getAsyncPoolSize() {
+		int size = getJsonObject().getIntValue("asyncPoolSize");
+		return size > 0 ? size : Runtime.getRuntime().availableProcessors() * 2;
+	}
+
+	/**
+	 * 异步方法每个数据源最多可排队等待的任务数, 超出后新提交的任务以RepositoryException失败, 没有配置默认1024
+	 * 
+	 * @return 队列容量
+	 */
+	public static int getAsyncQueueSize() {
+		int size = getJsonObject().getIntValue("asyncQueueSize");
+		return size > 0 ? size : 1024;
+	}
+
+	/**
+	 * 异步方法是否使用虚拟线程(当前JVM支持时才生效), 没有配置默认true
+	 * 
+	 * @return y:true/n:false
+	 */
+	public static boolean getAsyncVirtualThreads() {
+		return (boolean) getJsonObject().getOrDefault("asyncVirtualThreads", true);
+	}
+
 	public static List<String> getQueries() {
 		List<String> strs = new ArrayList<>();
 		JSONArray jsonArray = getJsonObject().getJSONArray("queries");
@@ -22,6 +22,7 @@
 
 package org.fastquery.util;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,7 +32,14 @@ import org.fastquery.core.RepositoryException;
 import org.fastquery.core.Resource;
 import org.fastquery.dsm.FastQueryJson;
 import org.fastquery.dsm.FQueryProperties;
+import org.fastquery.dsm.FastPool;
+import org.fastquery.dsm.FastPoolConfig;
 import org.fastquery.dsm.JdbcConfig;
+import org.fastquery.dsm.ReplicaSet;
+import org.fastquery.dsm.ShardGroup;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
 /**
  * 
  * @author xixifeng (fastquery@126.com)
@@ -52,66 +60,117 @@ public class LoadPrperties {
 		String namedConfig;
 		Set<String> basePackages;
 		Map<String, JdbcConfig> jdbcConfigs = PropertiesUtil.getJdbcConfigs(fqueryResource.getResourceAsStream("jdbc-config.xml"));
-		JdbcConfig jdbcConfig;
-		String url;
 		String config;
 		
+		// fastpool 的配置: fastpool-config.xml 中的, 加上fastquery.json中内联的
+		JSONObject fastPoolConfigs = null;
+		if (fqueryResource.exist("fastpool-config.xml")) {
+			fastPoolConfigs = PropertiesUtil.getFastPoolConfigs(fqueryResource.getResourceAsStream("fastpool-config.xml"));
+		}
+		if (fastPoolConfigs == null) {
+			fastPoolConfigs = new JSONObject();
+		}
+		for (FastQueryJson fQueryPropertie : fqProperties) {
+			if (fQueryPropertie.getFastpool() != null) {
+				fastPoolConfigs.put(fQueryPropertie.getDataSourceName(), fQueryPropertie.getFastpool());
+			}
+		}
+		
 		for (FastQueryJson fQueryPropertie : fqProperties) {
 			config = fQueryPropertie.getConfig(); // 获取fastquery.json 中的config属性
 			namedConfig = fQueryPropertie.getDataSourceName();
 
-			switch (config) {
-			case "c3p0":
-				if(FQueryProperties.findDataSource(namedConfig) == null && namedConfig!=null) {  // 如果名称为namedConfig的数据源不存在,才能new!
-					com.mchange.v2.c3p0.ComboPooledDataSource cpds = new com.mchange.v2.c3p0.ComboPooledDataSource(namedConfig);
-					FQueryProperties.putDataSource(namedConfig, cpds);
-					LOG.debug(String.format("创建数据源:%s,名称为:%s",cpds,namedConfig));
+			createDataSource(config, namedConfig, jdbcConfigs, fastPoolConfigs);
+			
+			// 从库与主库采用相同的config
+			List<String> replicas = fQueryPropertie.getReplicas();
+			if(replicas != null && !replicas.isEmpty() && namedConfig != null) {
+				for (String replica : replicas) {
+					createDataSource(config, replica, jdbcConfigs, fastPoolConfigs);
 				}
-				break;
+				FQueryProperties.putReplicaSet(new ReplicaSet(namedConfig, replicas, fQueryPropertie.getBalance()));
+				LOG.debug(String.format("数据源%s的从库:%s",namedConfig,replicas));
+			}
 
-			case "jdbc":
-				jdbcConfig = jdbcConfigs.get(namedConfig);
+			basePackages = fQueryPropertie.getBasePackages();
+			for (String basePackage : basePackages) {
+				FQueryProperties.putDataSourceIndex(basePackage, namedConfig);
+			}
+		}
+		
+		// 分片组, 已在PropertiesUtil.getFQueryProperties中校验过
+		for (Object obj : FastQueryJSONObject.getShardGroups()) {
+			JSONObject json = (JSONObject) obj;
+			ShardGroup shardGroup = PropertiesUtil.getShardGroup(json);
+			JSONArray bps = json.getJSONArray("basePackages");
+			if (bps != null) {
+				bps.toJavaList(String.class).forEach(bp -> FQueryProperties.putShardGroup(bp, shardGroup));
+			}
+			LOG.debug(String.format("分片组%s:%s",shardGroup.getName(),shardGroup.getDataSourceNames()));
+		}
+		
+		return fqProperties;
+	}
+	
+	private static void createDataSource(String config, String namedConfig, Map<String, JdbcConfig> jdbcConfigs, JSONObject fastPoolConfigs) {
+		JdbcConfig jdbcConfig;
+		String url;
+		switch (config) {
+		case "c3p0":
+			if(FQueryProperties.findDataSource(namedConfig) == null && namedConfig!=null) {  // 如果名称为namedConfig的数据源不存在,才能new!
+				com.mchange.v2.c3p0.ComboPooledDataSource cpds = new com.mchange.v2.c3p0.ComboPooledDataSource(namedConfig);
+				FQueryProperties.putDataSource(namedConfig, cpds);
+				LOG.debug(String.format("创建数据源:%s,名称为:%s",cpds,namedConfig));
+			}
+			break;
 
-				if (jdbcConfig == null) {
-					throw new RepositoryException("配置错误!!!");
-				}
+		case "jdbc":
+			jdbcConfig = jdbcConfigs.get(namedConfig);
 
-				// 根据不同的jdbc的驱动,选择不同的数据源实现
-				switch (jdbcConfig.getDriverClass()) {
-				case "com.mysql.cj.jdbc.Driver":
-					if(FQueryProperties.findDataSource(namedConfig) == null) { // 如果名称为namedConfig的数据源不存在,才能new!
-						com.mysql.cj.jdbc.MysqlDataSource cpd = new com.mysql.cj.jdbc.MysqlDataSource();
-						cpd.setDatabaseName(jdbcConfig.getDatabaseName());
-						cpd.setPassword(jdbcConfig.getPassword());
-						cpd.setPortNumber(jdbcConfig.getPortNumber());
-						cpd.setServerName(jdbcConfig.getServerName());
-						cpd.setUser(jdbcConfig.getUser());
-						url = jdbcConfig.getUrl();
-						if (url != null) {
-							cpd.setUrl(url);
-						}
-						FQueryProperties.putDataSource(namedConfig, cpd);
-					}
-					break;
+			if (jdbcConfig == null) {
+				throw new RepositoryException("配置错误!!!");
+			}
 
-				default:
-					break;
+			// 根据不同的jdbc的驱动,选择不同的数据源实现
+			switch (jdbcConfig.getDriverClass()) {
+			case "com.mysql.cj.jdbc.Driver":
+				if(FQueryProperties.findDataSource(namedConfig) == null) { // 如果名称为namedConfig的数据源不存在,才能new!
+					com.mysql.cj.jdbc.MysqlDataSource cpd = new com.mysql.cj.jdbc.MysqlDataSource();
+					cpd.setDatabaseName(jdbcConfig.getDatabaseName());
+					cpd.setPassword(jdbcConfig.getPassword());
+					cpd.setPortNumber(jdbcConfig.getPortNumber());
+					cpd.setServerName(jdbcConfig.getServerName());
+					cpd.setUser(jdbcConfig.getUser());
+					url = jdbcConfig.getUrl();
+					if (url != null) {
+						cpd.setUrl(url);
+					}
+					FQueryProperties.putDataSource(namedConfig, cpd);
 				}
-				// 根据不同的jdbc的驱动,选择不同的数据源实现 End
-
 				break;
 
 			default:
 				break;
 			}
+			// 根据不同的jdbc的驱动,选择不同的数据源实现 End
 
-			basePackages = fQueryPropertie.getBasePackages();
-			for (String basePackage : basePackages) {
-				FQueryProperties.putDataSourceIndex(basePackage, namedConfig);
+			break;
+
+		case "fastpool":
+			if(FQueryProperties.findDataSource(namedConfig) == null && namedConfig!=null) { // 如果名称为namedConfig的数据源不存在,才能new!
+				JSONObject properties = fastPoolConfigs.getJSONObject(namedConfig);
+				if (properties == null) {
+					throw new RepositoryException("没有找到fastpool数据源" + namedConfig + "的配置");
+				}
+				FastPool pool = new FastPool(FastPoolConfig.of(namedConfig, properties));
+				FQueryProperties.putDataSource(namedConfig, pool);
+				LOG.debug(String.format("创建数据源:%s,名称为:%s",pool,namedConfig));
 			}
+			break;
+
+		default:
+			break;
 		}
-		
-		return fqProperties;
 	}
 
 }
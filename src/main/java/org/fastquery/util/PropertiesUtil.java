@@ -25,6 +25,7 @@ package org.fastquery.util;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,7 +41,10 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.fastquery.core.RepositoryException;
 import org.fastquery.core.Resource;
+import org.fastquery.dsm.FastPoolConfig;
 import org.fastquery.dsm.FastQueryJson;
+import org.fastquery.dsm.ReplicaSet;
+import org.fastquery.dsm.ShardGroup;
 import org.fastquery.dsm.JdbcConfig;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -48,6 +52,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 
 /**
@@ -68,6 +73,22 @@ public class PropertiesUtil {
 	 * @return c3p0 config for json
 	 */
 	public static JSONObject getC3p0Configs(InputStream inputStream){
+		return getNamedConfigs(inputStream, "c3p0-config.xml");
+	}
+	
+	/**
+	 * 解析 fastpool-config.xml, 格式与c3p0-config.xml相同 <br>
+	 * 返回null 表示待解析的文件不存在.
+	 * 
+	 * @param inputStream 配置文件输入流
+	 * @return fastpool config for json
+	 */
+	public static JSONObject getFastPoolConfigs(InputStream inputStream){
+		return getNamedConfigs(inputStream, "fastpool-config.xml");
+	}
+	
+	// 解析由named-config组成的配置文件, 每个named-config转换成一个JSONObject
+	private static JSONObject getNamedConfigs(InputStream inputStream, String fileName){
 
 		if(inputStream == null) {
 			return null;
@@ -104,10 +125,10 @@ public class PropertiesUtil {
 						key = jdbcConfigElement.getAttribute("name");
 						val = jdbcConfigElement.getTextContent();
 						if(key == null || "".equals(key)) {
-							throw new RepositoryException("c3p0-config.xml 中的property其name属性不能是空字符且不能为null");
+							throw new RepositoryException(fileName + " 中的property其name属性不能是空字符且不能为null");
 						}
 						if(val == null || "".equals(val)) {
-							throw new RepositoryException("c3p0-config.xml 中的property其值不能是空字符且不能为null");
+							throw new RepositoryException(fileName + " 中的property其值不能是空字符且不能为null");
 						}
 						jsonObject.put(key, val);
 					}
@@ -261,6 +282,7 @@ public class PropertiesUtil {
 		Set<String> basePackages = null;
 		List<String> dataSourceNames = new ArrayList<>(); // 用于存储所有的数据源名称,在fastquery.json文件里禁止dataSourceName重复出现
 		List<String> bpNames = new ArrayList<>(); // 用于存储所有的basePackage,在fastquery.json文件里禁止basePackage重复出现
+		Set<String> configuredNames = new HashSet<>(); // scope中配置的数据源(含从库), 分片组只能使用它们
 		for (FastQueryJson fQueryPropertie : fqProperties) {
 			
 			// 顺便校验配置
@@ -306,10 +328,51 @@ public class PropertiesUtil {
 				}
 				// 校验指定的数据源名称是否正确
 				break;
+			case "fastpool":
+				if(fQueryPropertie.getFastpool() != null) { // 内联在fastquery.json中
+					if(dataSourceName == null) {
+						throw new RepositoryException("fastquery.json 配置文件中, 内联了fastpool的配置,就必须指定dataSourceName");
+					}
+					FastPoolConfig.of(dataSourceName, fQueryPropertie.getFastpool());
+				} else if(dataSourceName != null) {
+					if(!fqueryResource.exist("fastpool-config.xml")) {
+						throw new RepositoryException("fastquery.json 配置文件中, config设置了fastpool,又没有内联配置,因此依赖fastpool-config.xml配置文件,可是没有找到.");
+					}
+					if(!getFastPoolConfigs(fqueryResource.getResourceAsStream("fastpool-config.xml")).containsKey(dataSourceName)) {
+						throw new RepositoryException("fastquery.json 配置文件中, 指定了数据源为"+dataSourceName+",而在fastpool-config.xml中,找不到对该数据源的配置.");
+					}
+				}
+				break;
 			default:
 				throw new RepositoryException("fastquery.json 配置文件中, config设置了"+config+",不支持该属性值");
 			}
 			
+			// 校验从库
+			List<String> replicas = fQueryPropertie.getReplicas();
+			if(replicas != null && !replicas.isEmpty()) {
+				if(dataSourceName == null) {
+					throw new RepositoryException("fastquery.json 配置文件中, 配置了replicas,就必须指定主库的dataSourceName");
+				}
+				Set<String> names;
+				if("c3p0".equals(config)) {
+					names = getC3p0Configs(fqueryResource.getResourceAsStream("c3p0-config.xml")).keySet();
+				} else if("fastpool".equals(config)) {
+					JSONObject fastPoolConfigs = getFastPoolConfigs(fqueryResource.getResourceAsStream("fastpool-config.xml"));
+					names = fastPoolConfigs != null ? fastPoolConfigs.keySet() : new HashSet<>();
+				} else {
+					names = getJdbcConfigs(fqueryResource.getResourceAsStream("jdbc-config.xml")).keySet();
+				}
+				for (String replica : replicas) {
+					if(!names.contains(replica)) {
+						throw new RepositoryException("fastquery.json 配置文件中, 指定了从库为"+replica+",而在"+config+"的配置文件中,找不到对该数据源的配置.");
+					}
+				}
+			}
+			String balance = fQueryPropertie.getBalance();
+			if(balance != null && !ReplicaSet.ROUND_ROBIN.equals(balance) && !ReplicaSet.LEAST_IN_FLIGHT.equals(balance)) {
+				throw new RepositoryException("fastquery.json 配置文件中, balance只能是\"" + ReplicaSet.ROUND_ROBIN + "\"或\"" + ReplicaSet.LEAST_IN_FLIGHT + "\"");
+			}
+			
 			// 校验数据源的名称是否配置正确
 			
 			
@@ -319,12 +382,21 @@ public class PropertiesUtil {
 			if(dataSourceName==null){
 				dataSourceNames.add(dataSourceName);	
 			}
+			if(dataSourceName!=null) {
+				configuredNames.add(dataSourceName);
+			}
+			if(replicas != null) {
+				configuredNames.addAll(replicas);
+			}
 			// 收集数据 用做校验 End
 			
 			
 			fqs.add(fQueryPropertie);
 		}
 	
+		// 校验分片组, 其basePackages与scope的一同校验是否重复
+		checkShardGroups(FastQueryJSONObject.getShardGroups(), configuredNames, bpNames);
+		
 		// 校验 fastquery.json
 		for (int i = 0; i < dataSourceNames.size(); i++) {
 			if(Collections.frequency(dataSourceNames, dataSourceNames.get(i))>1) {
@@ -341,5 +413,52 @@ public class PropertiesUtil {
 		// 还有其他校验... 待续 可以扩展
 		
 		return fqs;
-	}	
+	}
+
+	/**
+	 * 由fastquery.json中shardGroups的一项构建分片组
+	 * @param json 分片组的配置
+	 * @return 分片组
+	 */
+	static ShardGroup getShardGroup(JSONObject json) {
+		JSONArray dataSourceNames = json.getJSONArray("dataSourceNames");
+		JSONArray ranges = json.getJSONArray("ranges");
+		return new ShardGroup(json.getString("name"), dataSourceNames != null ? dataSourceNames.toJavaList(String.class) : null, json.getString("strategy"),
+				ranges != null ? ranges.toJavaList(BigDecimal.class) : null);
+	}
+
+	/**
+	 * 校验分片组: 名称不能为空也不能重复, 使用的数据源必须在scope中配置过
+	 * @param shardGroups fastquery.json 中的shardGroups
+	 * @param configuredNames scope中配置的数据源名称(含从库)
+	 * @param bpNames 收集分片组的basePackages, 以便与scope的一同校验是否重复
+	 */
+	static void checkShardGroups(JSONArray shardGroups, Set<String> configuredNames, List<String> bpNames) {
+		List<String> groupNames = new ArrayList<>();
+		for (Object obj : shardGroups) {
+			JSONObject group = (JSONObject) obj;
+			String name = group.getString("name");
+			if(name == null || "".equals(name)) {
+				throw new RepositoryException("fastquery.json 中的shardGroups, name不能是空字符且不能为null");
+			}
+			if(groupNames.contains(name)) {
+				throw new RepositoryException("fastquery.json 配置文件中, 分片组\""+name+"\"不能重复出现.");
+			}
+			groupNames.add(name);
+			ShardGroup shardGroup = getShardGroup(group);
+			for (String sourceName : shardGroup.getDataSourceNames()) {
+				if(!configuredNames.contains(sourceName)) {
+					throw new RepositoryException("fastquery.json 配置文件中, 分片组"+name+"指定了数据源"+sourceName+",而在scope中,找不到对该数据源的配置.");
+				}
+			}
+			JSONArray bps = group.getJSONArray("basePackages");
+			if(bps != null) {
+				for (String basePackage : bps.toJavaList(String.class)) {
+					if(basePackage!=null && !"".equals(basePackage)) {
+						bpNames.add(basePackage);
+					}
+				}
+			}
+		}
+	}
 }
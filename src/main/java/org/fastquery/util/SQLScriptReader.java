@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 流式地从SQL脚本中逐条读取语句, 内存占用只与单条语句的长度有关, 与文件大小无关. <br>
+ * 按UTF-8解码(多字节字符跨越缓冲区边界也不会损坏), 支持: <br>
+ * 1). 单引号,双引号,反引号中的内容原样保留(包括其中的分隔符,注释符号和反斜杠转义) <br>
+ * 2). "-- " 和 "#" 行注释, "/* *&#47;" 块注释会被去掉, MySQL的可执行注释"/*! *&#47;"原样保留 <br>
+ * 3). DELIMITER 命令, 如: "DELIMITER $$" 之后用 "$$" 作为语句的分隔符
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public final class SQLScriptReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String DELIMITER = "delimiter";
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer bytes;
+	private final CharBuffer chars;
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+			.onUnmappableCharacter(CodingErrorAction.REPORT);
+	private boolean eof; // channel已读完
+	private boolean flushed; // decoder已flush
+	private int pushback = -1; // 回退的字符
+	private int line = 1; // 当前读到的行
+	private int statementLine; // 最近返回的语句的起始行
+	private String delimiter = ";";
+	private final StringBuilder sb = new StringBuilder();
+
+	/**
+	 * 打开SQL脚本
+	 * 
+	 * @param file 脚本文件
+	 * @throws IOException 打开文件失败
+	 */
+	public SQLScriptReader(Path file) throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.READ), BUFFER_SIZE);
+	}
+
+	SQLScriptReader(ReadableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.bytes = ByteBuffer.allocate(bufferSize);
+		this.chars = CharBuffer.allocate(bufferSize);
+		this.chars.flip();
+	}
+
+	/**
+	 * 读取下一条语句(不含分隔符,去掉了注释和首尾空白)
+	 * 
+	 * @return 语句, 没有了返回null
+	 * @throws IOException 读取失败或者不是合法的UTF-8
+	 */
+	public String next() throws IOException {
+		sb.setLength(0);
+		int c;
+		while ((c = read()) != -1) {
+			if (sb.length() == 0) {
+				if (Character.isWhitespace(c) || c == '\uFEFF') {
+					continue;
+				}
+				statementLine = line;
+			}
+			if (c == '\'' || c == '"' || c == '`') {
+				quote((char) c);
+			} else if (c == '#') {
+				skipLine();
+			} else if (c == '-' && peek() == '-') {
+				read();
+				int n = peek();
+				if (n == -1 || Character.isWhitespace(n)) {
+					skipLine();
+				} else {
+					sb.append("--");
+				}
+			} else if (c == '/' && peek() == '*') {
+				read();
+				blockComment();
+			} else {
+				sb.append((char) c);
+				if (isDelimiterCommand()) {
+					// "DELIMITER xx" 以换行结束
+					if (c == '\n') {
+						changeDelimiter();
+					}
+				} else if (endsWithDelimiter()) {
+					sb.setLength(sb.length() - delimiter.length());
+					String sql = sb.toString().trim();
+					if (!sql.isEmpty()) {
+						return sql;
+					}
+					sb.setLength(0);
+				}
+			}
+		}
+		if (isDelimiterCommand()) {
+			changeDelimiter();
+			return null;
+		}
+		String sql = sb.toString().trim();
+		return sql.isEmpty() ? null : sql;
+	}
+
+	/**
+	 * 最近一次 next() 返回的语句在脚本中的起始行号, 从1开始
+	 * 
+	 * @return 行号
+	 */
+	public int getLine() {
+		return statementLine;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// 引号中的内容原样保留, 单引号和双引号中支持反斜杠转义, 两个连续的引号由下一次quote处理
+	private void quote(char q) throws IOException {
+		sb.append(q);
+		int c;
+		while ((c = read()) != -1) {
+			sb.append((char) c);
+			if (c == q) {
+				return;
+			} else if (c == '\\' && q != '`') {
+				c = read();
+				if (c == -1) {
+					return;
+				}
+				sb.append((char) c);
+			}
+		}
+	}
+
+	private void skipLine() throws IOException {
+		int c;
+		while ((c = read()) != -1 && c != '\n') {
+			// 跳过
+		}
+		separate();
+		if (c == '\n' && isDelimiterCommand()) {
+			changeDelimiter();
+		}
+	}
+
+	private void blockComment() throws IOException {
+		boolean executable = peek() == '!';
+		if (executable) {
+			sb.append("/*");
+		}
+		int prev = 0;
+		int c;
+		while ((c = read()) != -1) {
+			if (executable) {
+				sb.append((char) c);
+			}
+			if (prev == '*' && c == '/') {
+				break;
+			}
+			prev = c;
+		}
+		if (!executable) {
+			separate();
+		}
+	}
+
+	// 去掉的注释用一个空白代替, 避免前后两个单词粘在一起
+	private void separate() {
+		if (sb.length() != 0 && !Character.isWhitespace(sb.charAt(sb.length() - 1))) {
+			sb.append(' ');
+		}
+	}
+
+	private boolean endsWithDelimiter() {
+		int len = delimiter.length();
+		int start = sb.length() - len;
+		if (start < 0) {
+			return false;
+		}
+		for (int i = 0; i < len; i++) {
+			if (sb.charAt(start + i) != delimiter.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void changeDelimiter() {
+		String d = sb.substring(DELIMITER.length()).trim();
+		if (!d.isEmpty()) {
+			delimiter = d;
+		}
+		sb.setLength(0);
+	}
+
+	// 当前缓冲的内容是否是一条(还没有读完的) "DELIMITER xx" 命令, SQL语句不会以delimiter开头
+	private boolean isDelimiterCommand() {
+		int len = DELIMITER.length();
+		return sb.length() > len && sb.length() <= len + 64 && sb.substring(0, len).equalsIgnoreCase(DELIMITER)
+				&& Character.isWhitespace(sb.charAt(len));
+	}
+
+	private int peek() throws IOException {
+		if (pushback == -1) {
+			pushback = readChar();
+		}
+		return pushback;
+	}
+
+	private int read() throws IOException {
+		if (pushback != -1) {
+			int c = pushback;
+			pushback = -1;
+			return c;
+		}
+		return readChar();
+	}
+
+	private int readChar() throws IOException {
+		if (!chars.hasRemaining() && !fill()) {
+			return -1;
+		}
+		char c = chars.get();
+		if (c == '\n') {
+			line++;
+		}
+		return c;
+	}
+
+	// 从channel读取并解码, 未解码完的字节(被缓冲区边界截断的多字节字符)留到下一次
+	private boolean fill() throws IOException {
+		chars.clear();
+		while (chars.position() == 0 && !flushed) {
+			if (!eof && channel.read(bytes) == -1) {
+				eof = true;
+			}
+			bytes.flip();
+			CoderResult result = decoder.decode(bytes, chars, eof);
+			bytes.compact();
+			if (result.isError()) {
+				result.throwException();
+			}
+			if (eof && result.isUnderflow()) {
+				decoder.flush(chars);
+				flushed = true;
+			}
+		}
+		chars.flip();
+		return chars.hasRemaining();
+	}
+}
@@ -23,6 +23,8 @@
 package org.fastquery.util;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.ParameterizedType;
@@ -36,6 +38,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,12 +47,16 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.fastquery.core.Id;
+import org.fastquery.core.MethodMetadata;
+import org.fastquery.core.Modifying;
 import org.fastquery.core.Param;
 import org.fastquery.core.Placeholder;
 import org.fastquery.core.Query;
 import org.fastquery.core.QueryByNamed;
 import org.fastquery.core.Repository;
+import org.fastquery.core.RowHandler;
 import org.fastquery.core.RepositoryException;
+import org.fastquery.core.SQLTemplate;
 import org.fastquery.mapper.QueryPool;
 import org.fastquery.page.PageIndex;
 import org.fastquery.page.PageSize;
@@ -446,33 +454,8 @@ public class TypeUtil implements Opcodes{
 	 * @return sql
 	 */
 	private static String paramFilter(Method method, Object[] args, String sql) {
-		String s = sql;
-		// 替换@Param
-		Annotation[][] annotations = method.getParameterAnnotations();
-		QueryByNamed queryByNamed = method.getAnnotation(QueryByNamed.class);
-		int len = annotations.length;
-		for (int i = 0; i < len; i++) {
-			Annotation[] anns = annotations[i];
-			for (Annotation ann : anns) {
-				if(ann.annotationType() == Param.class) {
-					Param param = (Param) ann;
-					Object objx = args[i];
-					objx = BeanUtil.parseList(objx);
-					// 将 ":xx" 格式的 替换成 "?num"
-					// 替换时必须加单词分界符(\\b),举例说明: sql中同时存在":ABCD",":A", 不加单词分界符,":A"替换成"?num"后,会使":ABCD"变成":?numBCD"
-					s = s.replaceAll("\\:"+param.value()+"\\b", "?"+(i+1));
-					// 这里的replaceAll的先后顺序很重要
-					// '{' 是正则语法的关键字,必须转义
-					if( queryByNamed == null ) {
-						String replacement = objx!=null?objx.toString():Matcher.quoteReplacement(param.defaultVal());
-						s = s.replaceAll("\\$\\{"+param.value()+"\\}", replacement);
-						s = s.replaceAll("\\$"+param.value()+"\\b", replacement);	
-					}
-				}
-			}
-		}
-		// 替换@Param End
-		return s;
+		MethodMetadata metadata = MethodMetadata.of(method);
+		return SQLTemplate.compile(sql, metadata.getParams(), metadata.getQueryByNamed() != null).text(null, args);
 	}
 	
 	/**
@@ -483,30 +466,16 @@ public class TypeUtil implements Opcodes{
 	 * @return sql
 	 */
 	public static String paramNameFilter(Method method, Object[] args, String sql) {
-		String s = sql;
-		// 替换@Param
-		Annotation[][] annotations = method.getParameterAnnotations();
-		int len = annotations.length;
-		for (int i = 0; i < len; i++) {
-			Annotation[] anns = annotations[i];
-			for (Annotation ann : anns) {
-				if(ann.annotationType() == Param.class) {
-					Param param = (Param) ann;
-					// Pattern.quote(":"+param.value())
-					s = s.replaceAll("\\:"+param.value()+"\\b", "?"+(i+1));
-				}
-			}
-		}
-		// 替换@Param End
-		return s;
+		return SQLTemplate.compile(sql, MethodMetadata.of(method).getParams(), true).text(null, args);
 	}
 	
 	/**
 	 * 裁决是否忽略指定的条件,返回true表示要把这个条件忽略掉
 	 * @param condition 条件
+	 * @param arg 条件中的变量值
 	 * @return y:true/n:false
 	 */
-	private static boolean ignoreCondition(Condition condition,Object arg) {
+	public static boolean ignoreCondition(Condition condition,Object arg) {
 		/*
 		if(arg == null) {
 			return true;
@@ -591,45 +560,7 @@ public class TypeUtil implements Opcodes{
 	 * @return where部分sql
 	 */
 	public static String getWhereSQL(Method method, Object[] args) {
-		StringBuilder sb = new StringBuilder();
-		// 追加条件
-		Condition[] conditions = method.getAnnotationsByType(Condition.class);
-		o: for (int i = 0; i < conditions.length; i++) {
-			String value = conditions[i].value();
-			value = paramFilter(method, args, value);
-			// value 属性中包含的参数,必须去重
-			Set<String> pars = TypeUtil.matchesNotrepeat(value, "\\?\\d+");
-			for (String par : pars) {
-				int index = Integer.parseInt(par.replace("?", "")); // 计数是1开始的
-				if (ignoreCondition(conditions[i], args[index - 1])) {
-					continue o; // 跳出最外层的当次循环,不进行条件追加
-				} else if(args[index - 1] == null) {
-					// 如果传递null 还要求参与运算.
-					// sql中null无法跟比较运算符(如 =, <, 或者 <>),一起运算,必须使用 is null 和 is not null 操作符. 
-					value = value.replaceAll("\\s+", " "); // 把多个空白换成一个空格
-					value = value.replaceAll("=\\?", "= ?"); // 将"=?" 替换成 "= ?"  
-					value = value.replaceAll(" = \\?" + index," is null");
-					value = value.replaceAll(" <> \\?" + index," is not null");
-					value = value.replaceAll(" != \\?" + index," is not null");
-				}
-			}
-
-			int sblen = sb.length();
-			// sb的长度是0 或者 最后一个字符就是空格
-			if( sblen ==0 || (sblen>=1 && sb.charAt(sblen-1) != ' ')   ) {
-				sb.append(' ');	
-			}
-			if (sb.length() == 1 && i != 0) { // 条件成立,表示这个SQL条件的前面还不存在条件,// 那么第一个条件的链接符,必须去掉. (where后面不能直接跟运算符号)
-				sb.append(removePart(value));
-			} else {
-				sb.append(value);
-			}
-		}
-		// 追加条件 End
-		if (!"".equals(sb.toString())) { // 特别注意: 此处不能写成 !sb.equals("")
-			sb.insert(0, "where");
-		}
-		return sb.toString();
+		return MethodMetadata.of(method).getWhere().text(args);
 	}
 	
 
@@ -642,27 +573,30 @@ public class TypeUtil implements Opcodes{
 	 */
 	public static List<String> getQuerySQL(Method method,Query[] queries,Object[] args) {
 		List<String> sqls = new ArrayList<>();
+		MethodMetadata metadata = MethodMetadata.of(method);
 		
 		// 如果是QueryByNamed
-		if(method.getAnnotation(QueryByNamed.class)!=null){
+		if(metadata.getQueryByNamed()!=null){
 			String s = QueryPool.render(true);
 			s = paramFilter(method, args, s);
 			sqls.add(s);
 			return sqls;
 		}
 		
-		for (Query query : queries) {
-			String sql = query.value();
-			
-			sql = paramFilter(method, args, sql);
-			
-			sqls.add(sql.replaceFirst(Placeholder.WHERE_REG, Matcher.quoteReplacement(getWhereSQL(method, args))));
+		SQLTemplate[] templates = metadata.getQueryTemplates();
+		for (int i = 0; i < queries.length; i++) {
+			SQLTemplate template = queries == metadata.getQueries() ? templates[i] : SQLTemplate.compile(queries[i].value(), metadata.getParams(), false);
+			sqls.add(template.text(metadata, args));
 		}
 		return sqls;
 	}
 
 	public static String getCountQuerySQL(Method method, String sql, Object[] args) {
-		String csql = sql.replaceFirst(Placeholder.WHERE_REG, Matcher.quoteReplacement(getWhereSQL(method, args)));
+		String csql = sql;
+		int index = sql.indexOf(Placeholder.WHERE);
+		if(index != -1) {
+			csql = new StringBuilder(sql).replace(index, index + Placeholder.WHERE.length(), getWhereSQL(method, args)).toString();
+		}
 		LOG.info("求和:" + csql);
 		return csql;
 	}
@@ -910,13 +844,77 @@ public class TypeUtil implements Opcodes{
 				|| ct == Double.class || ct == Character.class || ct == Boolean.class;
 	}
 	
+	/**
+	 * 是否是异步方法, 即: 返回值是CompletableFuture&lt;T&gt;
+	 * @param method 方法
+	 * @return y:true/n:false
+	 */
+	public static boolean isAsync(Method method) {
+		return method.getReturnType() == CompletableFuture.class;
+	}
+	
+	/**
+	 * 方法实际的返回类型(含泛型). 异步方法返回CompletableFuture&lt;T&gt;中的T, 其中Void视为void,Boolean视为boolean; 
+	 * 改操作或逐行回调的方法, Integer视为int, Long视为long
+	 * @param method 方法
+	 * @return 返回类型
+	 */
+	public static java.lang.reflect.Type getGenericReturnType(Method method) {
+		if (!isAsync(method)) {
+			return method.getGenericReturnType();
+		}
+		java.lang.reflect.Type type = method.getGenericReturnType();
+		if (!(type instanceof ParameterizedType)) {
+			return Object.class;
+		}
+		java.lang.reflect.Type t = ((ParameterizedType) type).getActualTypeArguments()[0];
+		if (t == Void.class) {
+			return void.class;
+		} else if (t == Boolean.class) {
+			return boolean.class;
+		}
+		Class<?>[] pts = method.getParameterTypes();
+		boolean handler = pts.length != 0 && (pts[pts.length - 1] == Consumer.class || pts[pts.length - 1] == RowHandler.class);
+		if (handler || method.getAnnotation(Modifying.class) != null) {
+			if (t == Integer.class) {
+				return int.class;
+			} else if (t == Long.class) {
+				return long.class;
+			}
+		}
+		return t;
+	}
+	
+	/**
+	 * 方法实际的返回类型, 见 getGenericReturnType
+	 * @param method 方法
+	 * @return 返回类型
+	 */
+	public static Class<?> getReturnType(Method method) {
+		if (!isAsync(method)) {
+			return method.getReturnType();
+		}
+		java.lang.reflect.Type type = getGenericReturnType(method);
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		} else if (type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		} else if (type instanceof GenericArrayType) {
+			java.lang.reflect.Type component = ((GenericArrayType) type).getGenericComponentType();
+			if (component instanceof Class) {
+				return Array.newInstance((Class<?>) component, 0).getClass();
+			}
+		}
+		return Object.class;
+	}
+	
 	/**
 	 * 获取返回值map泛型的value的类型
 	 * @param method 方法
 	 * @return clazz
 	 */
 	public static Class<?> mapValueTyep(Method method) {
-		ParameterizedType type = (ParameterizedType) method.getGenericReturnType();
+		ParameterizedType type = (ParameterizedType) getGenericReturnType(method);
 		return (Class<?>) type.getActualTypeArguments()[1];
 	}
 	
@@ -926,7 +924,7 @@ public class TypeUtil implements Opcodes{
 	 * @return clazz
 	 */
 	public static Class<?> listMapValueTyep(Method method) {
-		ParameterizedType type = (ParameterizedType) method.getGenericReturnType();
+		ParameterizedType type = (ParameterizedType) getGenericReturnType(method);
 		type = (ParameterizedType) type.getActualTypeArguments()[0];
 		return (Class<?>) type.getActualTypeArguments()[1];
 	}
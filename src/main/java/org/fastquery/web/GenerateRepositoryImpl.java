@@ -23,6 +23,7 @@
 package org.fastquery.web;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -33,6 +34,7 @@ import org.fastquery.core.FQueryResourceImpl;
 import org.fastquery.core.GenerateRepository;
 import org.fastquery.core.Repository;
 import org.fastquery.core.Resource;
+import org.fastquery.dsm.FQueryProperties;
 import org.fastquery.dsm.FastQueryJson;
 import org.fastquery.mapper.QueryPool;
 import org.fastquery.util.ClassUtil;
@@ -82,18 +84,19 @@ class GenerateRepositoryImpl implements GenerateRepository {
 		
 		List<Class<Repository>> clses = new ArrayList<>();
 
-		// 3). 批量生成 Repository 的实现类
-		Set<String> basePackages;
+		// 3). 批量生成 Repository 的实现类, 分片组下的 Repository 也要生成
+		Set<String> basePackages = new LinkedHashSet<>();
 		for (FastQueryJson fQueryPropertie : fqPropertie) {
-			basePackages = fQueryPropertie.getBasePackages();
-			for (String basePackage : basePackages) {
-				List<Class<Repository>> classes = ClassUtil.getClasses(basePackage, classLoader);
-				clses.addAll(classes);
-				// classes.forEach(this::generate)
-				for (Class<Repository> rcls : classes) {
-					generate(rcls); // 生成
-					QueryPool.put(rcls.getName(), resource);
-				}
+			basePackages.addAll(fQueryPropertie.getBasePackages());
+		}
+		basePackages.addAll(FQueryProperties.getShardGroupPackages());
+		for (String basePackage : basePackages) {
+			List<Class<Repository>> classes = ClassUtil.getClasses(basePackage, classLoader);
+			clses.addAll(classes);
+			// classes.forEach(this::generate)
+			for (Class<Repository> rcls : classes) {
+				generate(rcls); // 生成
+				QueryPool.put(rcls.getName(), resource);
 			}
 		}
 
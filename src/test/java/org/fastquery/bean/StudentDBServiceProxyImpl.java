@@ -83,6 +83,27 @@ public class StudentDBServiceProxyImpl implements StudentDBService {
 		return 0;
 	}
 
+	@Override
+	public <E> int[] saveOrUpdate(Collection<E> entities) {
+		return (int[]) Prepared.excute("saveOrUpdate", "(Ljava/util/Collection;)[I", new Object[] { entities }, this);
+	}
+
+	@Override
+	public int[] saveOrUpdateArray(Object... entities) {
+		return (int[]) Prepared.excute("saveOrUpdateArray", "([Ljava/lang/Object;)[I", new Object[] { entities }, this);
+	}
+
+	@Override
+	public <E> int[] saveOrUpdate(String dataSourceName, Collection<E> entities) {
+		return (int[]) Prepared.excute("saveOrUpdate", "(Ljava/lang/String;Ljava/util/Collection;)[I", new Object[] { dataSourceName, entities }, this);
+	}
+
+	@Override
+	public <E> int[] saveOrUpdate(String dataSourceName, String dbName, Collection<E> entities) {
+		return (int[]) Prepared.excute("saveOrUpdate", "(Ljava/lang/String;Ljava/lang/String;Ljava/util/Collection;)[I",
+				new Object[] { dataSourceName, dbName, entities }, this);
+	}
+
 	@Override
 	public <E> E save(E entity) {
 		// TODO Auto-generated method stub
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.fastquery.dsm.FQueryProperties;
+import org.fastquery.util.FastQueryJSONRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class AsyncExecutorsTest {
+
+	@ClassRule
+	public static final FastQueryJSONRule CONFIG = new FastQueryJSONRule();
+
+	public interface AsyncDB extends QueryRepository {
+		@Modifying
+		@Query("update UserInfo set age = ?2 where id = ?3")
+		CompletableFuture<Integer> update(@Source String source, int age, int id);
+	}
+
+	// 记下取连接和关闭连接时所在的线程
+	private static DataSource recording(DataSource dataSource, List<String> events) {
+		return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class }, (p, m, a) -> {
+			if (!m.getName().equals("getConnection")) {
+				return m.invoke(dataSource, a);
+			}
+			events.add("getConnection@" + Thread.currentThread().getName());
+			Connection conn = dataSource.getConnection();
+			return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, (cp, cm, ca) -> {
+				if (cm.getName().equals("close")) {
+					events.add("close@" + Thread.currentThread().getName());
+				}
+				return cm.invoke(conn, ca);
+			});
+		});
+	}
+
+	@Test
+	public void contextOnWorker() throws Exception {
+		List<String> events = new CopyOnWriteArrayList<>();
+		String source = "AsyncExecutorsTest";
+		FQueryProperties.putDataSource(source, recording(new JdbcStub().getDataSource(), events));
+		InvocationPlan plan = JdbcStub.plan(AsyncDB.class, "update");
+
+		Object future = Prepared.excute(plan, new Object[] { source, 18, 1 }, null);
+		assertThat(((CompletableFuture<?>) future).get(5, TimeUnit.SECONDS), equalTo(1));
+		// QueryContext 在工作线程上建立, 也在工作线程上释放(关闭连接)
+		assertThat(events, hasSize(2));
+		String worker = events.get(0).substring("getConnection@".length());
+		assertThat(worker, startsWith("fastquery-async-"));
+		assertThat(events.get(1), equalTo("close@" + worker));
+		// 调用者的线程上没有遗留QueryContext, 可以立即开始下一个
+		QueryContext.start(plan, new Object[] { source, 18, 1 }, null);
+		QueryContext.clear();
+	}
+
+	@Test
+	public void executorPerDataSource() throws Exception {
+		// equals 认为相等的两个数据源, 依然各用各的线程池
+		DataSource a = equalsAll();
+		DataSource b = equalsAll();
+		assertThat(a, equalTo(b));
+		String poolA = pool(AsyncExecutors.submit(a, () -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS));
+		String poolB = pool(AsyncExecutors.submit(b, () -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS));
+		assertThat(poolA, not(equalTo(poolB)));
+		assertThat(pool(AsyncExecutors.submit(a, () -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS)), equalTo(poolA));
+	}
+
+	private static DataSource equalsAll() {
+		return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class }, (p, m, a) -> {
+			switch (m.getName()) {
+			case "equals":
+				return true;
+			case "hashCode":
+				return 1;
+			default:
+				return null;
+			}
+		});
+	}
+
+	// fastquery-async-N-M 中的 fastquery-async-N
+	private static String pool(String threadName) {
+		return threadName.substring(0, threadName.lastIndexOf('-'));
+	}
+}
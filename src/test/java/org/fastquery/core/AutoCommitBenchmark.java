@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.fastquery.struct.SQLValue;
+import org.fastquery.util.FastQueryJSONRule;
+
+/**
+ * 统计单条改操作在自动提交和显式事务两种方式下与数据库的往返次数. 连接由JdbcStub提供, 每次往返模拟 LATENCY_MICROS 微秒的网络延迟. 
+ * 显式事务的一行即是以前单条改操作的做法(关闭自动提交, 执行, 提交). 直接运行main即可, 不参与单元测试.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class AutoCommitBenchmark {
+
+	private static final long LATENCY_MICROS = 200;
+	private static final int ITERATIONS = 2000;
+	private static final String SQL = "update UserInfo set age = ? where id = ?";
+
+	// 会与数据库往返的调用
+	private static final List<String> ROUND_TRIPS = Arrays.asList("setAutoCommit", "commit", "rollback", "executeUpdate", "executeBatch");
+
+	private static final AtomicLong trips = new AtomicLong();
+
+	private static final JdbcStub stub = new JdbcStub();
+
+	public interface BenchDB extends Repository {
+		@Modifying
+		@Query(SQL)
+		int single(int age, int id);
+
+		@Transactional
+		@Modifying
+		@Query(SQL)
+		int explicit(int age, int id);
+
+		@Modifying
+		@Query(SQL)
+		@Query("update UserInfo set name = ? where id = ?")
+		int multi(int age, int id);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new FastQueryJSONRule().install();
+		stub.register();
+		stub.onCall(AutoCommitBenchmark::roundTrip);
+		run("single", 1, ITERATIONS / 10);
+		run("explicit", 1, ITERATIONS / 10);
+		run("multi", 2, ITERATIONS / 10);
+		for (String name : Arrays.asList("single", "explicit", "multi")) {
+			long start = System.nanoTime();
+			double perCall = run(name, name.equals("multi") ? 2 : 1, ITERATIONS);
+			long us = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / ITERATIONS;
+			System.out.printf("%-9s %.1f round trips/call, %d us/call%n", name, perCall, us);
+		}
+	}
+
+	private static double run(String method, int statements, int iterations) throws Exception {
+		InvocationPlan plan = JdbcStub.plan(BenchDB.class, method);
+		trips.set(0);
+		for (int i = 0; i < iterations; i++) {
+			stub.start(plan, 18, 1);
+			try {
+				List<SQLValue> sqlValues = Collections.nCopies(statements, new SQLValue(SQL, Arrays.asList(18, 1)));
+				DB.modify(sqlValues, true, false);
+			} finally {
+				stub.clear();
+			}
+		}
+		stub.getCalls().clear();
+		return (double) trips.get() / iterations;
+	}
+
+	private static void roundTrip(String method) {
+		if (ROUND_TRIPS.contains(method)) {
+			trips.incrementAndGet();
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(LATENCY_MICROS));
+		}
+	}
+}
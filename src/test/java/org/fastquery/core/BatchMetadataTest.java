@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.fastquery.bean.UserInfo;
+import org.fastquery.struct.SQLValue;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class BatchMetadataTest {
+
+	interface BatchDB extends QueryRepository {
+		@Batch
+		@Modifying
+		@Query("update UserInfo set age = ?1 where id = ?2")
+		int[] rows(List<Object[]> rows);
+
+		@Batch
+		@Modifying
+		@Query("update UserInfo set name = :name, age = :age where id = :id")
+		int beans(@Source String dataSourceName, UserInfo[] beans);
+
+		@Batch
+		@Modifying
+		@Query("update UserInfo set age = :nothing where id = :id")
+		void unknown(List<UserInfo> beans);
+
+		@Batch
+		@Modifying
+		@Query("update UserInfo set age = ?1 where id = ?2")
+		void twoArgs(List<Object[]> rows, int age);
+	}
+
+	private static BatchMetadata of(String name) {
+		return Arrays.stream(BatchDB.class.getMethods()).filter(m -> m.getName().equals(name)).map(BatchMetadata::of).findFirst().get();
+	}
+
+	@Test
+	public void rows() {
+		Object[][] rows = { { 18, 1 }, { 20, 2 } };
+		Iterator<SQLValue> it = of("rows").sqlValues(new Object[] { Arrays.asList(rows) }, null, null);
+		SQLValue sqlValue = it.next();
+		assertThat(sqlValue.getSql(), equalTo("update UserInfo set age = ? where id = ?"));
+		assertThat(sqlValue.getValues(), contains(18, 1));
+		assertThat(it.next().getValues(), contains(20, 2));
+		assertThat(it.hasNext(), is(false));
+
+		try {
+			of("rows").sqlValues(new Object[] { Arrays.asList(new Object[][] { { 1 } }) }, null, null).next();
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("需要2个值"));
+		}
+	}
+
+	@Test
+	public void beans() {
+		UserInfo[] beans = { new UserInfo(1, "a", 18), new UserInfo(2, null, 20) };
+		Iterator<SQLValue> it = of("beans").sqlValues(new Object[] { "xk", beans }, null, null);
+		SQLValue sqlValue = it.next();
+		assertThat(sqlValue.getSql(), equalTo("update UserInfo set name = ?, age = ? where id = ?"));
+		assertThat(sqlValue.getValues(), contains("a", 18, 1));
+		assertThat(it.next().getValues(), contains(null, 20, 2));
+	}
+
+	@Test
+	public void illegal() {
+		try {
+			of("unknown");
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("nothing"));
+		}
+		try {
+			of("twoArgs");
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("只能有一个集合或数组参数"));
+		}
+	}
+}
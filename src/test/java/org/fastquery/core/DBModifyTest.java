@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.fastquery.bean.UserInfo;
+import org.fastquery.filter.generate.modifying.AnnotationSynxFilter;
+import org.fastquery.struct.RespUpdate;
+import org.fastquery.struct.SQLValue;
+import org.fastquery.util.FastQueryJSONRule;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class DBModifyTest {
+
+	@ClassRule
+	public static final FastQueryJSONRule CONFIG = new FastQueryJSONRule();
+
+	@Rule
+	public final JdbcStub stub = new JdbcStub();
+
+	public interface ModifyDB extends QueryRepository {
+		@Modifying
+		@Query("update UserInfo set age = ?1 where id = ?2")
+		int update(int age, int id);
+
+		@Modifying
+		@Query("update UserInfo set age = ?1 where id = ?2")
+		void updateVoid(int age, int id);
+
+		@Modifying
+		@Query("insert into UserInfo(age,id) values(?1,?2)")
+		Primarykey insert(int age, int id);
+
+		@Modifying(table = "UserInfo", readBack = false)
+		@Query("insert into UserInfo(name,age) values(?1,?2)")
+		Map<String, Object> add(@Param("name") String name, @Param("age") Integer age);
+
+		@Modifying(table = "UserInfo", readBack = false)
+		@Query("update UserInfo set name = ?2 where id = ?1")
+		Map<String, Object> renamePositional(@Id Integer id, String name);
+	}
+
+	@Before
+	public void before() throws SQLException {
+		stub.start(ModifyDB.class, "update", 18, 1);
+	}
+
+	private static List<SQLValue> sqlValues(String... sqls) {
+		List<SQLValue> list = new ArrayList<>();
+		for (String sql : sqls) {
+			list.add(new SQLValue(sql, Arrays.asList(18, 1)));
+		}
+		return list;
+	}
+
+	@Test
+	public void adjacentBatched() {
+		List<RespUpdate> rus = DB.modify(sqlValues("update a", "update a", "update b", "update a"), true, false);
+		// 相邻且相同的SQL合并成一次executeBatch, 不相邻的重复SQL共用一个PreparedStatement
+		assertThat(stub.executions(), contains("c1.setAutoCommit(false)", "c1.prepareStatement(update a)", "c1.addBatch()", "c1.addBatch()",
+				"c1.executeBatch(update a)", "c1.prepareStatement(update b)", "c1.executeUpdate(update b)", "c1.executeUpdate(update a)",
+				"c1.commit()"));
+		// executeBatch 返回的 SUCCESS_NO_INFO 记作1行
+		assertThat(rus.stream().map(RespUpdate::getEffect).collect(Collectors.toList()), contains(1, 1, 1, 1));
+		assertThat(rus.get(0).getPk(), nullValue());
+	}
+
+	@Test
+	public void generatedKeys() {
+		List<RespUpdate> rus = DB.modify(sqlValues("insert a", "insert a", "insert b"), true, true);
+		assertThat(stub.executions(), hasItems("c1.prepareStatement(insert a, RETURN_GENERATED_KEYS)", "c1.prepareStatement(insert b, RETURN_GENERATED_KEYS)"));
+		assertThat(stub.executions().stream().filter(c -> c.startsWith("c1.prepareStatement")).count(), is(2L));
+		assertThat(rus.stream().map(RespUpdate::getPk).collect(Collectors.toList()), contains(100L, 101L, 100L));
+	}
+
+	@Test
+	public void single() {
+		List<RespUpdate> rus = DB.modify(sqlValues("update a"), true, false);
+		// 单条语句保持自动提交
+		assertThat(stub.executions(), contains("c1.prepareStatement(update a)", "c1.executeUpdate(update a)"));
+		assertThat(rus.get(0).getEffect(), is(1));
+	}
+
+	@Test
+	public void generatedKeysByReturnType() throws SQLException {
+		assertThat(QueryProcess.getInstance().modifying(), equalTo(1));
+		stub.clear();
+		stub.start(ModifyDB.class, "updateVoid", 18, 1);
+		QueryProcess.getInstance().modifying();
+		// int, void 不请求生成的主键
+		assertThat(stub.executions().stream().filter(c -> c.contains("RETURN_GENERATED_KEYS")).count(), is(0L));
+		assertThat(stub.executions().stream().filter(c -> c.contains(".prepareStatement(")).count(), is(2L));
+
+		stub.clear();
+		stub.start(ModifyDB.class, "insert", 18, 1);
+		Primarykey pk = (Primarykey) QueryProcess.getInstance().modifying();
+		assertThat(stub.executions(), hasItem("c3.prepareStatement(insert into UserInfo(age,id) values(?,?), RETURN_GENERATED_KEYS)"));
+		assertThat(pk.getPrimarykey(), is(100L));
+	}
+
+	@Test
+	public void upsertBatchNoInfo() throws SQLException {
+		List<UserInfo> users = Arrays.asList(new UserInfo(1, "a", 1), new UserInfo(2, "b", 2), new UserInfo(3, "c", 3));
+		// 驱动只给出SUCCESS_NO_INFO, 插入计1更新计2, 无法得知每批的行数
+		assertThat(DB.upsertBatch(users, null, 2), equalTo(new int[] { Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO }));
+		assertThat(stub.executions().stream().filter(c -> c.contains(".executeBatch(")).count(), is(2L));
+
+		// insert每条计1行
+		stub.clear();
+		stub.start(ModifyDB.class, "update", 18, 1);
+		assertThat(DB.insertBatch(users, null, false, 2, false), is(3));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void readBackFalse() throws SQLException {
+		stub.clear();
+		stub.start(ModifyDB.class, "add", "n", 18);
+		Map<String, Object> map = (Map<String, Object>) QueryProcess.getInstance().modifying();
+		assertThat(map.get("id"), equalTo(100L));
+		assertThat(map.get("name"), equalTo("n"));
+		assertThat(map.get("age"), equalTo(18));
+		assertThat(stub.executions(), hasItem(endsWith(".executeUpdate(insert into UserInfo(name,age) values(?,?))")));
+		assertThat(stub.executions().stream().filter(c -> c.contains("executeQuery") || c.toLowerCase().contains("select")).count(), is(0L));
+	}
+
+	@Test
+	public void readBackFalseNeedsParam() throws NoSuchMethodException {
+		Method method = ModifyDB.class.getMethod("renamePositional", Integer.class, String.class);
+		try {
+			new AnnotationSynxFilter().doFilter(method);
+			fail("没有标识@Param的参数对应不到列, 应该报错");
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("必须用@Param标识"));
+		}
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.fastquery.util.FastQueryJSONRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class DeadlineTest {
+
+	@ClassRule
+	public static final FastQueryJSONRule CONFIG = new FastQueryJSONRule();
+
+	@Rule
+	public final JdbcStub stub = new JdbcStub();
+
+	public interface TimeoutDB extends QueryRepository {
+		@QueryTimeout(1)
+		@Modifying
+		@Query("update UserInfo set age = 1")
+		int update();
+	}
+
+	private PreparedStatement statement() throws SQLException {
+		return stub.getDataSource().getConnection().prepareStatement("select 1");
+	}
+
+	private void start() throws SQLException {
+		stub.start(TimeoutDB.class, "update");
+	}
+
+	// 等到1秒的时限过去
+	private static void expire() throws InterruptedException {
+		TimeUnit.MILLISECONDS.sleep(1300);
+	}
+
+	@Test
+	public void remaining() throws SQLException {
+		Deadline deadline = new Deadline(5);
+		try {
+			deadline.watch(statement());
+			assertThat(stub.getCalls(), contains("c1.prepareStatement(select 1)", "c1.setQueryTimeout(5)"));
+			assertThat(deadline.isExpired(), is(false));
+		} finally {
+			deadline.cancel();
+		}
+	}
+
+	@Test
+	public void expired() throws Exception {
+		Deadline deadline = new Deadline(1);
+		deadline.watch(statement());
+		expire();
+		// 看门狗取消了尚未完成的语句
+		assertThat(deadline.isExpired(), is(true));
+		assertThat(stub.getCalls(), contains("c1.prepareStatement(select 1)", "c1.setQueryTimeout(1)", "c1.cancel()"));
+		try {
+			deadline.watch(statement());
+			fail();
+		} catch (SQLTimeoutException e) {
+			assertThat(e.getMessage(), containsString("1 秒"));
+		}
+	}
+
+	@Test
+	public void clearCancelsWatchdog() throws Exception {
+		start();
+		QueryContext.watch(statement());
+		assertThat(stub.getCalls(), hasItem("c2.setQueryTimeout(1)"));
+		stub.clear();
+		expire();
+		assertThat(stub.getCalls(), not(hasItem(endsWith(".cancel()"))));
+	}
+
+	@Test
+	public void queryTimeoutException() throws Exception {
+		start();
+		// 没有超时
+		assertThat(Prepared.failure(new SQLException("x")), not(instanceOf(QueryTimeoutException.class)));
+		// 语句超时
+		RepositoryException e = Prepared.failure(new RepositoryException(new SQLTimeoutException("statement timeout")));
+		assertThat(e, instanceOf(QueryTimeoutException.class));
+		// 超过了方法的时限
+		QueryContext.watch(statement());
+		expire();
+		e = Prepared.failure(new SQLException("canceled"));
+		assertThat(e, instanceOf(QueryTimeoutException.class));
+		assertThat(e.getMessage(), equalTo("执行超过了时限 1 秒"));
+		assertThat(QueryContext.expiredTimeout(), is(1));
+	}
+}
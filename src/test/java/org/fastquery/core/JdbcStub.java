@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.fastquery.dsm.FQueryProperties;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.objectweb.asm.Type;
+
+/**
+ * 记录调用的假数据源, 供不连数据库的单元测试使用. 每次getConnection都是一个新的连接, 编号依次为c1,c2...; 
+ * 生成的主键从100开始递增. 连接和语句上与事务, 执行相关的调用记成 "c1.commit()", "c1.executeUpdate(sql)" 这样的字符串.
+ * <p>
+ * 用作 &#064;Rule 时, 每个测试开始前以唯一的名称登记数据源, 结束后注销, 并释放测试中没有释放的QueryContext. 
+ * 需要读取的配置项由 FastQueryJSONRule 提供.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+final class JdbcStub implements TestRule {
+
+	private static final AtomicInteger SEQ = new AtomicInteger();
+
+	// 需要记录的调用
+	private static final List<String> RECORDED = Arrays.asList("setAutoCommit", "commit", "rollback", "setSavepoint", "releaseSavepoint",
+			"prepareStatement", "addBatch", "executeBatch", "executeUpdate", "executeQuery", "setQueryTimeout", "cancel");
+
+	private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+	private final Map<String, SQLException> failures = new HashMap<>();
+	private final AtomicInteger connections = new AtomicInteger();
+	private final DataSource dataSource;
+	private String source; // 登记的数据源名称
+	private boolean started; // 是否有由start开始, 尚未释放的QueryContext
+	private Consumer<String> listener = call -> {
+	};
+
+	JdbcStub() {
+		dataSource = (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class }, (p, m, a) -> {
+			if (m.getName().equals("getConnection")) {
+				return connection("c" + connections.incrementAndGet());
+			}
+			throw new UnsupportedOperationException(m.getName());
+		});
+	}
+
+	DataSource getDataSource() {
+		return dataSource;
+	}
+
+	/**
+	 * 以唯一的名称登记数据源
+	 * 
+	 * @return 数据源名称
+	 */
+	String register() {
+		source = "JdbcStub" + SEQ.incrementAndGet();
+		FQueryProperties.putDataSource(source, dataSource);
+		return source;
+	}
+
+	void unregister() {
+		FQueryProperties.removeDataSource(source);
+	}
+
+	String getSource() {
+		return source;
+	}
+
+	/**
+	 * 方法名称在接口声明的方法中唯一的调用计划
+	 * 
+	 * @param iclass Repository 接口
+	 * @param name 方法名称
+	 * @return 调用计划
+	 */
+	static InvocationPlan plan(Class<? extends Repository> iclass, String name) {
+		Method found = null;
+		for (Method m : iclass.getDeclaredMethods()) {
+			if (m.getName().equals(name)) {
+				if (found != null) {
+					throw new IllegalArgumentException(iclass + " 中有多个 " + name);
+				}
+				found = m;
+			}
+		}
+		if (found == null) {
+			throw new IllegalArgumentException(iclass + " 中没有 " + name);
+		}
+		return InvocationPlan.of(iclass, name, Type.getMethodDescriptor(found));
+	}
+
+	/**
+	 * 在登记的数据源上开始QueryContext, 就像Prepared执行方法前那样
+	 * 
+	 * @param plan 调用计划
+	 * @param args 实参
+	 * @throws SQLException 取连接失败
+	 */
+	void start(InvocationPlan plan, Object... args) throws SQLException {
+		QueryContext.start(plan, args, source);
+		started = true;
+	}
+
+	void start(Class<? extends Repository> iclass, String method, Object... args) throws SQLException {
+		start(plan(iclass, method), args);
+	}
+
+	/**
+	 * 释放由start开始的QueryContext
+	 * 
+	 * @throws SQLException 关闭连接失败
+	 */
+	void clear() throws SQLException {
+		started = false;
+		QueryContext.clear();
+	}
+
+	/**
+	 * 执行这条SQL时抛出异常
+	 * 
+	 * @param sql SQL
+	 * @param e 抛出的异常
+	 */
+	void fail(String sql, SQLException e) {
+		failures.put(sql, e);
+	}
+
+	List<String> getCalls() {
+		return calls;
+	}
+
+	/**
+	 * 执行和事务相关的调用, 不含设置时限(它取决于配置)
+	 * 
+	 * @return 调用
+	 */
+	List<String> executions() {
+		return calls.stream().filter(c -> !c.contains(".setQueryTimeout(")).collect(Collectors.toList());
+	}
+
+	/**
+	 * 每记下一次调用都通知listener
+	 * 
+	 * @param listener 参数是方法名称
+	 */
+	void onCall(Consumer<String> listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public Statement apply(Statement base, Description description) {
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				register();
+				try {
+					base.evaluate();
+				} finally {
+					if (started) {
+						clear();
+					}
+					unregister();
+				}
+			}
+		};
+	}
+
+	int getConnections() {
+		return connections.get();
+	}
+
+	private void record(String conn, String method, Object arg) {
+		if (RECORDED.contains(method)) {
+			calls.add(conn + "." + method + "(" + (arg != null ? arg : "") + ")");
+			listener.accept(method);
+		}
+	}
+
+	private Connection connection(String name) {
+		boolean[] autoCommit = { true };
+		boolean[] closed = { false };
+		AtomicInteger savepoints = new AtomicInteger();
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, (p, m, a) -> {
+			switch (m.getName()) {
+			case "getAutoCommit":
+				return autoCommit[0];
+			case "setAutoCommit":
+				autoCommit[0] = (Boolean) a[0];
+				record(name, m.getName(), a[0]);
+				return null;
+			case "setSavepoint":
+				Savepoint sp = savepoint("sp" + savepoints.incrementAndGet());
+				record(name, m.getName(), sp);
+				return sp;
+			case "prepareStatement":
+				boolean keys = a.length == 2 && Integer.valueOf(java.sql.Statement.RETURN_GENERATED_KEYS).equals(a[1]);
+				record(name, m.getName(), keys ? a[0] + ", RETURN_GENERATED_KEYS" : a[0]);
+				return statement(name, (String) a[0]);
+			case "close":
+				closed[0] = true;
+				return null;
+			case "isClosed":
+				return closed[0];
+			case "toString":
+				return name;
+			case "equals":
+				return p == a[0];
+			case "hashCode":
+				return System.identityHashCode(p);
+			default:
+				record(name, m.getName(), a != null ? a[0] : null);
+				return null;
+			}
+		});
+	}
+
+	private static Savepoint savepoint(String name) {
+		return (Savepoint) Proxy.newProxyInstance(Savepoint.class.getClassLoader(), new Class<?>[] { Savepoint.class },
+				(p, m, a) -> "toString".equals(m.getName()) ? name : null);
+	}
+
+	// 生成的主键依次为 100, 101 ...
+	private static ResultSet generatedKeys() {
+		long[] key = { 99 };
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (p, m, a) -> {
+			switch (m.getName()) {
+			case "next":
+				key[0]++;
+				return true;
+			case "getLong":
+				return key[0];
+			case "getObject":
+				return key[0];
+			default:
+				return null;
+			}
+		});
+	}
+
+	private PreparedStatement statement(String conn, String sql) {
+		int[] batched = { 0 };
+		boolean[] closed = { false };
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+				(p, m, a) -> {
+					String method = m.getName();
+					record(conn, method, method.startsWith("execute") ? sql : (a != null ? a[0] : null));
+					if (method.startsWith("execute") && failures.containsKey(sql)) {
+						throw failures.get(sql);
+					}
+					switch (method) {
+					case "addBatch":
+						batched[0]++;
+						return null;
+					case "executeUpdate":
+						return 1;
+					case "executeBatch":
+						int[] counts = new int[batched[0]];
+						Arrays.fill(counts, java.sql.Statement.SUCCESS_NO_INFO);
+						batched[0] = 0;
+						return counts;
+					case "getGeneratedKeys":
+						return generatedKeys();
+					case "close":
+						closed[0] = true;
+						return null;
+					case "isClosed":
+						return closed[0];
+					default:
+						return m.getReturnType() == int.class ? 0 : (m.getReturnType() == boolean.class ? false : null);
+					}
+				});
+	}
+}
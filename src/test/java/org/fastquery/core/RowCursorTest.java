@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class RowCursorTest {
+
+	private final Set<String> closed = new HashSet<>();
+
+	// 用动态代理模拟只有一列的结果集, 记录哪些资源被关闭了
+	private RowCursor<Object> cursor(Object... rows) {
+		int[] index = { -1 };
+		ResultSet rs = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (p, m, a) -> {
+			switch (m.getName()) {
+			case "next":
+				return ++index[0] < rows.length;
+			case "getObject":
+				return rows[index[0]];
+			case "close":
+				closed.add("rs");
+				return null;
+			default:
+				throw new UnsupportedOperationException(m.getName());
+			}
+		});
+		return new RowCursor<>(rs, closeable(Statement.class, "stat"), closeable(Connection.class, "conn"), r -> {
+			Object obj = r.getObject(1);
+			if (obj instanceof SQLException) {
+				throw (SQLException) obj;
+			}
+			return obj;
+		});
+	}
+
+	private <T> T closeable(Class<T> clazz, String name) {
+		return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, (p, m, a) -> {
+			if ("close".equals(m.getName())) {
+				closed.add(name);
+				return null;
+			}
+			throw new UnsupportedOperationException(m.getName());
+		}));
+	}
+
+	@Test
+	public void iterator() {
+		RowCursor<Object> cursor = cursor(1, 2);
+		assertThat(cursor.hasNext(), is(true));
+		assertThat(cursor.hasNext(), is(true));
+		assertThat(cursor.next(), equalTo(1));
+		assertThat(cursor.next(), equalTo(2));
+		assertThat(closed, empty());
+		assertThat(cursor.hasNext(), is(false));
+		assertThat(closed, containsInAnyOrder("rs", "stat", "conn"));
+		assertThat(cursor.isClosed(), is(true));
+		try {
+			cursor.next();
+			fail();
+		} catch (NoSuchElementException e) {
+			assertThat(cursor.hasNext(), is(false));
+		}
+	}
+
+	@Test
+	public void stream() {
+		List<Object> rows;
+		try (Stream<Object> stream = cursor(1, 2, 3).stream()) {
+			rows = stream.limit(2).collect(Collectors.toList());
+			assertThat(closed, empty());
+		}
+		assertThat(rows, contains(1, 2));
+		assertThat(closed, containsInAnyOrder("rs", "stat", "conn"));
+	}
+
+	@Test
+	public void error() {
+		RowCursor<Object> cursor = cursor(1, new SQLException("boom"));
+		assertThat(cursor.next(), equalTo(1));
+		try {
+			cursor.next();
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), equalTo("boom"));
+		}
+		assertThat(closed, containsInAnyOrder("rs", "stat", "conn"));
+		cursor.close();
+		assertThat(cursor.hasNext(), is(false));
+	}
+}
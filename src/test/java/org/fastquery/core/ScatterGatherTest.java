@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import org.fastquery.bean.UserInfo;
+import org.fastquery.dsm.FQueryProperties;
+import org.fastquery.page.NotCount;
+import org.fastquery.page.Page;
+import org.fastquery.page.PageImpl;
+import org.fastquery.page.Pageable;
+import org.fastquery.page.PageableImpl;
+import org.fastquery.page.Slice;
+import org.fastquery.util.FastQueryJSONRule;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class ScatterGatherTest {
+
+	@ClassRule
+	public static final FastQueryJSONRule CONFIG = new FastQueryJSONRule();
+
+	interface ScatterDB extends QueryRepository {
+		@Query("select id,name,age from UserInfo u order by u.`age` desc, id limit 10")
+		Page<UserInfo> ordered(@Source List<String> sources, Pageable pageable);
+
+		@Query("select * from UserInfo order by ${orderBy}")
+		Page<Map<String, Object>> dynamic(@Source String[] sources, @Param("orderBy") String orderBy, Pageable pageable);
+
+		@Query("select count(id) from UserInfo")
+		long count(@Source List<String> sources);
+
+		@NotCount
+		@Query("select id,name,age from UserInfo order by age desc, id")
+		Page<UserInfo> notCount(@Source List<String> sources, Pageable pageable);
+
+		@Modifying
+		@Query("update UserInfo set age = 1")
+		int reset(@Source List<String> sources);
+
+		@Query("select id, create_time from Event order by create_time desc, id")
+		Page<Event> events(@Source List<String> sources, Pageable pageable);
+
+		@Query("select id, create_time from Event order by created desc")
+		Page<Event> unknown(@Source List<String> sources, Pageable pageable);
+	}
+
+	public static class Event {
+		private final Integer id;
+		private final Long createTime;
+
+		Event(Integer id, Long createTime) {
+			this.id = id;
+			this.createTime = createTime;
+		}
+
+		public Integer getId() {
+			return id;
+		}
+
+		public Long getCreateTime() {
+			return createTime;
+		}
+	}
+
+	private static final List<String> SOURCES = Arrays.asList("sg1", "sg2", "sg3");
+
+	// 每个数据源上的行, 已按 age desc, id 排好序
+	private static final Map<String, List<UserInfo>> ROWS = new HashMap<>();
+
+	@BeforeClass
+	public static void beforeClass() {
+		for (String source : SOURCES) {
+			if (FQueryProperties.findDataSource(source) == null) {
+				FQueryProperties.putDataSource(source, new JdbcStub().getDataSource());
+			}
+		}
+		ROWS.put("sg1", Arrays.asList(new UserInfo(1, "a", 30), new UserInfo(4, "d", 20), new UserInfo(7, "g", 10)));
+		ROWS.put("sg2", Arrays.asList(new UserInfo(2, "b", 30), new UserInfo(5, "e", 25), new UserInfo(8, "h", 5)));
+		ROWS.put("sg3", Arrays.asList(new UserInfo(3, "c", 28), new UserInfo(6, "f", 20), new UserInfo(9, "i", 20)));
+	}
+
+	private static InvocationPlan plan(String name) {
+		return JdbcStub.plan(ScatterDB.class, name);
+	}
+
+	// 模拟各数据源执行分页查询: 取前 pageSize 行(已被改成 页码×每页条数)
+	private static Page<UserInfo> page(String source, Pageable pageable, Map<String, Pageable> received) {
+		received.put(source, pageable);
+		return top(ROWS.get(source), pageable);
+	}
+
+	private static <T> Page<T> top(List<T> rows, Pageable pageable) {
+		int size = pageable.getPageSize();
+		List<T> content = new ArrayList<>(rows.subList(0, Math.min(size, rows.size())));
+		boolean hasNext = rows.size() > size;
+		return new PageImpl<>(size, content.size(), 1, content, rows.size(), 1, !content.isEmpty(), hasNext, false, true, !hasNext, new Slice(1, size),
+				new Slice(1, size));
+	}
+
+	private static List<Integer> ids(Page<UserInfo> page) {
+		return page.getContent().stream().map(UserInfo::getId).collect(Collectors.toList());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Page<UserInfo> excutePage(String method, int number, int size, Map<String, Pageable> received) {
+		return (Page<UserInfo>) ScatterGather.excute(plan(method), new Object[] { SOURCES, new PageableImpl(number, size) }, SOURCES,
+				(source, as) -> {
+					assertThat(as[0], equalTo(source)); // @Source 已替换成单个数据源
+					return page(source, (Pageable) as[1], received);
+				});
+	}
+
+	private static MethodMetadata metadata(String name) {
+		return Arrays.stream(ScatterDB.class.getMethods()).filter(m -> m.getName().equals(name)).map(MethodMetadata::of).findFirst().get();
+	}
+
+	private static Map<String, Object> row(Object id, Object age) {
+		Map<String, Object> map = new HashMap<>();
+		map.put("ID", id);
+		map.put("AGE", age);
+		return map;
+	}
+
+	@Test
+	public void scatter() {
+		assertThat(metadata("ordered").isScatter(), is(true));
+		assertThat(metadata("dynamic").isScatter(), is(true));
+		assertThat(metadata("count").isScatter(), is(true));
+	}
+
+	@Test
+	public void comparator() {
+		Comparator<Object> comparator = ScatterGather.comparator(metadata("ordered"));
+		assertThat(comparator, notNullValue());
+		List<Object> rows = new ArrayList<>(Arrays.asList(row(3, 20), row(1, null), row(2, 30L), row(0, 20)));
+		rows.sort(comparator);
+		assertThat(rows, contains(row(2, 30L), row(0, 20), row(3, 20), row(1, null)));
+
+		UserInfo a = new UserInfo(1, "a", 18);
+		UserInfo b = new UserInfo(2, "b", 19);
+		assertThat(comparator.compare(a, b), greaterThan(0));
+
+		// order by 中含有参数, 无法在内存中排序
+		assertThat(ScatterGather.comparator(metadata("dynamic")), nullValue());
+		assertThat(ScatterGather.comparator(metadata("count")), nullValue());
+	}
+
+	@Test
+	public void mergePage() {
+		Map<String, Pageable> received = new ConcurrentHashMap<>();
+		// 全局顺序(age desc, id): 1,2,3,5,4,6,9,7,8
+		Page<UserInfo> page = excutePage("ordered", 2, 2, received);
+		assertThat(received.keySet(), containsInAnyOrder("sg1", "sg2", "sg3"));
+		for (Pageable pageable : received.values()) {
+			assertThat(pageable.getPageIndex(), is(1));
+			assertThat(pageable.getPageSize(), is(4));
+		}
+		assertThat(ids(page), contains(3, 5));
+		assertThat(page.getNumber(), is(2));
+		assertThat(page.getTotalElements(), is(9L));
+		assertThat(page.getTotalPages(), is(5));
+		assertThat(page.isHasNext(), is(true));
+		assertThat(page.isHasPrevious(), is(true));
+
+		page = excutePage("ordered", 3, 3, received);
+		assertThat(ids(page), contains(9, 7, 8));
+		assertThat(page.getTotalPages(), is(3));
+		assertThat(page.isHasNext(), is(false));
+		assertThat(page.isLast(), is(true));
+
+		// 超出范围的页
+		page = excutePage("ordered", 5, 3, received);
+		assertThat(page.getContent(), empty());
+		assertThat(page.isHasContent(), is(false));
+	}
+
+	@Test
+	public void mergePageNotCount() {
+		Map<String, Pageable> received = new ConcurrentHashMap<>();
+		Page<UserInfo> page = excutePage("notCount", 2, 2, received);
+		assertThat(ids(page), contains(3, 5));
+		assertThat(page.getTotalElements(), is(-1L));
+		assertThat(page.getTotalPages(), is(-1));
+		assertThat(page.isHasNext(), is(true)); // 合并后共9行, 多于前两页的4行
+
+		page = excutePage("notCount", 4, 2, received);
+		assertThat(ids(page), contains(9, 7));
+		assertThat(page.isHasNext(), is(true)); // 合并后共9行, 多于前四页的8行
+		assertThat(received.get("sg1").getPageSize(), is(8));
+
+		page = excutePage("notCount", 3, 3, received);
+		assertThat(ids(page), contains(9, 7, 8));
+		assertThat(page.isHasNext(), is(false));
+	}
+
+	@Test
+	public void sum() {
+		Map<String, Object> results = new HashMap<>();
+		results.put("sg1", 3L);
+		results.put("sg2", null);
+		results.put("sg3", 4L);
+		assertThat(ScatterGather.excute(plan("count"), new Object[] { SOURCES }, SOURCES, (source, as) -> results.get(source)), equalTo(7L));
+		assertThat(ScatterGather.excute(plan("reset"), new Object[] { SOURCES }, SOURCES, (source, as) -> Integer.valueOf(source.substring(2))),
+				equalTo(6));
+	}
+
+	@Test
+	public void firstFailure() {
+		BiFunction<String, Object[], Object> executor = (source, as) -> {
+			if ("sg2".equals(source)) {
+				throw new RepositoryException("sg2 失败");
+			} else if ("sg3".equals(source)) {
+				throw new IllegalStateException("sg3 失败");
+			}
+			return 1L;
+		};
+		try {
+			ScatterGather.excute(plan("count"), new Object[] { SOURCES }, SOURCES, executor);
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), equalTo("sg2 失败"));
+		}
+		// 不是RepositoryException的, 包装后注明数据源
+		List<String> sources = Arrays.asList("sg1", "sg3");
+		try {
+			ScatterGather.excute(plan("count"), new Object[] { sources }, sources, executor);
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("数据源 sg3 执行失败"));
+			assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+		}
+		// 数据源不存在, 不会执行
+		try {
+			ScatterGather.excute(plan("count"), new Object[] { null }, Collections.singletonList("nothing"), executor);
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("没有找到数据源: nothing"));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void beanRows() {
+		Map<String, List<Event>> rows = new HashMap<>();
+		rows.put("sg1", Arrays.asList(new Event(1, 50L), new Event(4, 20L)));
+		rows.put("sg2", Arrays.asList(new Event(2, 40L), new Event(5, 10L)));
+		rows.put("sg3", Arrays.asList(new Event(3, 30L), new Event(6, null)));
+		BiFunction<String, Object[], Object> executor = (source, as) -> top(rows.get(source), (Pageable) as[1]);
+
+		// create_time 匹配 createTime
+		Page<Event> page = (Page<Event>) ScatterGather.excute(plan("events"), new Object[] { SOURCES, new PageableImpl(1, 4) }, SOURCES, executor);
+		assertThat(page.getContent().stream().map(Event::getId).collect(Collectors.toList()), contains(1, 2, 3, 4));
+
+		// 匹配不到排序的列, 按数据源的顺序拼接
+		page = (Page<Event>) ScatterGather.excute(plan("unknown"), new Object[] { SOURCES, new PageableImpl(1, 4) }, SOURCES, executor);
+		assertThat(page.getContent().stream().map(Event::getId).collect(Collectors.toList()), contains(1, 4, 2, 5));
+		assertThat(ScatterGather.comparator(metadata("unknown")).unresolved(new Event(1, 1L)), equalTo("created"));
+
+		Map<String, Object> row = new HashMap<>();
+		row.put("ID", 1);
+		row.put("CREATE_TIME", 1L);
+		assertThat(ScatterGather.comparator(metadata("events")).unresolved(row), nullValue());
+	}
+
+	@Test
+	public void topOverflow() {
+		try {
+			excutePage("ordered", Integer.MAX_VALUE, 2, new HashMap<>());
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("超出了范围"));
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import org.fastquery.bean.UserInfo;
+import org.fastquery.dsm.FQueryProperties;
+import org.fastquery.dsm.ShardGroup;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.objectweb.asm.Type;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class ShardRouterTest {
+
+	public interface ShardDB extends QueryRepository {
+		@Query("select * from UserInfo where id = ?1")
+		UserInfo findById(@ShardKey Integer id);
+
+		@Query("select * from UserInfo where id = ?2")
+		UserInfo findBySource(@Source String source, @ShardKey Integer id);
+
+		@Query("select * from UserInfo")
+		List<UserInfo> findAll();
+
+		@Modifying
+		@Query("update UserInfo set age = 1")
+		int reset();
+
+		@Query("select * from UserInfo")
+		Stream<UserInfo> stream();
+
+		@Query("select * from UserInfo")
+		CompletableFuture<List<UserInfo>> async();
+	}
+
+	// 不属于任何分片组
+	public interface PlainDB extends QueryRepository {
+		@Query("select * from UserInfo")
+		List<UserInfo> findAll();
+	}
+
+	private static final ShardGroup GROUP = new ShardGroup("users", Arrays.asList("s0", "s1", "s2"), null, null);
+
+	@BeforeClass
+	public static void beforeClass() {
+		FQueryProperties.putShardGroup(ShardDB.class.getName(), GROUP);
+	}
+
+	private static InvocationPlan plan(Class<? extends Repository> iclass, String name, Class<?>... parameterTypes) {
+		try {
+			return InvocationPlan.of(iclass, name, Type.getMethodDescriptor(iclass.getMethod(name, parameterTypes)));
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static void reject(InvocationPlan plan, Object[] args, String message) {
+		try {
+			ShardRouter.route(plan, args);
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString(message));
+		}
+	}
+
+	@Test
+	public void shardKey() {
+		InvocationPlan plan = plan(ShardDB.class, "findById", Integer.class);
+		for (int id = 1; id < 10; id++) {
+			assertThat(ShardRouter.route(plan, new Object[] { id }), contains(GROUP.route(id)));
+		}
+		// @Source 没有指定时才按分片键路由
+		plan = plan(ShardDB.class, "findBySource", String.class, Integer.class);
+		assertThat(ShardRouter.route(plan, new Object[] { null, 4 }), contains(GROUP.route(4)));
+	}
+
+	@Test
+	public void source() {
+		assertThat(ShardRouter.route(plan(ShardDB.class, "findBySource", String.class, Integer.class), new Object[] { "other", 4 }), nullValue());
+		assertThat(ShardRouter.route(plan(PlainDB.class, "findAll"), new Object[0]), nullValue());
+	}
+
+	@Test
+	public void entityId() {
+		UserInfo u4 = new UserInfo(4, "a", 18);
+		assertThat(ShardRouter.route(plan(ShardDB.class, "save", Object.class), new Object[] { u4 }), contains(GROUP.route(4)));
+		assertThat(ShardRouter.route(plan(ShardDB.class, "update", Object.class), new Object[] { u4 }), contains(GROUP.route(4)));
+
+		// 批量保存: 实体都在同一个分片
+		UserInfo u7 = new UserInfo(7, "b", 19);
+		assertThat(GROUP.route(7), equalTo(GROUP.route(4)));
+		InvocationPlan saveArray = plan(ShardDB.class, "saveArray", boolean.class, Object[].class);
+		assertThat(ShardRouter.route(saveArray, new Object[] { true, new Object[] { u4, u7 } }), contains(GROUP.route(4)));
+		InvocationPlan save = plan(ShardDB.class, "save", boolean.class, Collection.class);
+		assertThat(ShardRouter.route(save, new Object[] { true, Arrays.asList(u4, u7) }), contains(GROUP.route(4)));
+
+		// 分属不同分片的拒绝执行
+		UserInfo u5 = new UserInfo(5, "c", 20);
+		assertThat(GROUP.route(5), not(equalTo(GROUP.route(4))));
+		reject(saveArray, new Object[] { true, new Object[] { u4, u5 } }, "分属不同的分片");
+		reject(save, new Object[] { true, Arrays.asList(u4, u5) }, "分属不同的分片");
+
+		// 主键为null或没有实体
+		reject(plan(ShardDB.class, "save", Object.class), new Object[] { new UserInfo("d", 21) }, "主键不能为null");
+		reject(save, new Object[] { true, Collections.emptyList() }, "没有可用于分片的实体主键");
+	}
+
+	@Test
+	public void updateWhere() {
+		InvocationPlan plan = plan(ShardDB.class, "update", Object.class, String.class);
+		// 实体没有主键, 条件可能命中任何分片
+		assertThat(ShardRouter.route(plan, new Object[] { new UserInfo("d", 21), "age > 18" }), contains("s0", "s1", "s2"));
+		// 有主键时只在它所在的分片上执行
+		assertThat(ShardRouter.route(plan, new Object[] { new UserInfo(4, "d", 21), "age > 18" }), contains(GROUP.route(4)));
+		plan = plan(ShardDB.class, "update", String.class, String.class, Object.class, String.class);
+		assertThat(ShardRouter.route(plan, new Object[] { null, "xk", new UserInfo("d", 21), "age > 18" }), contains("s0", "s1", "s2"));
+
+		// 执行脚本不分片, 须用@Source指定数据源
+		reject(plan(ShardDB.class, "executeBatch", String.class, String.class), new Object[] { "update.sql", "out.txt" }, "没有可用于分片的实体主键");
+	}
+
+	@Test
+	public void fanOut() {
+		assertThat(ShardRouter.route(plan(ShardDB.class, "findAll"), new Object[0]), contains("s0", "s1", "s2"));
+	}
+
+	@Test
+	public void keyless() {
+		reject(plan(ShardDB.class, "reset"), new Object[0], "@ShardKey");
+		reject(plan(ShardDB.class, "stream"), new Object[0], "@ShardKey");
+		reject(plan(ShardDB.class, "async"), new Object[0], "@ShardKey");
+	}
+}
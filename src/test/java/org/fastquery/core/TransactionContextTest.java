@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.core;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.fastquery.struct.SQLValue;
+import org.fastquery.util.FastQueryJSONRule;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class TransactionContextTest {
+
+	@ClassRule
+	public static final FastQueryJSONRule CONFIG = new FastQueryJSONRule();
+
+	@Rule
+	public final JdbcStub stub = new JdbcStub();
+
+	public interface TxDB extends Repository {
+		@Modifying
+		@Query("update a")
+		int required();
+
+		@Transactional(propagation = Propagation.NESTED)
+		@Modifying
+		@Query("update a")
+		int nested();
+
+		@Transactional(propagation = Propagation.REQUIRES_NEW)
+		@Modifying
+		@Query("update a")
+		int requiresNew();
+
+		@Modifying
+		@Query("update a")
+		CompletableFuture<Integer> async();
+
+		@Modifying
+		@Query("update a")
+		int scatter(@Source List<String> sources);
+	}
+
+	// 像Prepared那样执行TxDB的一个方法, 执行sql
+	private int call(String method, String sql) {
+		try {
+			stub.start(TxDB.class, method);
+			try {
+				return DB.modify(Collections.singletonList(new SQLValue(sql, Collections.emptyList())), true, false).get(0).getEffect();
+			} finally {
+				stub.clear();
+			}
+		} catch (SQLException e) {
+			throw new RepositoryException(e);
+		}
+	}
+
+	@Test
+	public void joinAndCommitOnce() {
+		TransactionContext.execute(Propagation.REQUIRED, () -> call("required", "update a") + call("required", "update b"));
+		// 两次调用用的是同一个连接, 最后只提交一次
+		assertThat(stub.getConnections(), is(1));
+		assertThat(stub.executions(), contains("c1.setAutoCommit(false)", "c1.prepareStatement(update a)", "c1.executeUpdate(update a)",
+				"c1.prepareStatement(update b)", "c1.executeUpdate(update b)", "c1.commit()", "c1.setAutoCommit(true)"));
+	}
+
+	@Test
+	public void rollbackOnly() {
+		stub.fail("update b", new SQLException("duplicate"));
+		try {
+			TransactionContext.execute(Propagation.REQUIRED, () -> {
+				call("required", "update a");
+				try {
+					call("required", "update b");
+					fail();
+				} catch (RepositoryException e) {
+					// 吞掉异常, 事务依然只能回滚
+				}
+				return call("required", "update c");
+			});
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("只能回滚"));
+		}
+		assertThat(stub.executions(), hasItem("c1.rollback()"));
+		assertThat(stub.executions(), not(hasItem("c1.commit()")));
+		assertThat(TransactionContext.isActive(), is(false));
+	}
+
+	@Test
+	public void joinedBlockFailure() {
+		try {
+			TransactionContext.execute(Propagation.REQUIRED, () -> {
+				call("required", "update a");
+				try {
+					TransactionContext.execute(Propagation.REQUIRED, () -> {
+						call("required", "update b");
+						throw new IllegalStateException("joined");
+					});
+					fail();
+				} catch (IllegalStateException e) {
+					// 吞掉加入的代码块抛出的异常, 事务依然只能回滚
+				}
+				return call("required", "update c");
+			});
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("只能回滚"));
+		}
+		assertThat(stub.executions(), hasItems("c1.executeUpdate(update c)", "c1.rollback()"));
+		assertThat(stub.executions(), not(hasItem("c1.commit()")));
+	}
+
+	@Test
+	public void notJoinable() {
+		TransactionContext.execute(Propagation.REQUIRED, () -> {
+			// 异步方法在别的线程上执行, 无法加入事务
+			CompletableFuture<?> future = (CompletableFuture<?>) Prepared.excute(JdbcStub.plan(TxDB.class, "async"), new Object[0], null);
+			try {
+				future.join();
+				fail();
+			} catch (CompletionException e) {
+				assertThat(e.getCause().getMessage(), containsString("不能加入当前事务"));
+			}
+			// 在多个数据源上执行的方法用的是各自的连接
+			try {
+				Prepared.excute(JdbcStub.plan(TxDB.class, "scatter"), new Object[] { Arrays.asList(stub.getSource(), stub.getSource()) }, null);
+				fail();
+			} catch (RepositoryException e) {
+				assertThat(e.getMessage(), containsString("不能加入当前事务"));
+			}
+			return null;
+		});
+		assertThat(stub.getConnections(), is(0));
+	}
+
+	@Test
+	public void nestedMethod() {
+		stub.fail("update b", new SQLException("duplicate"));
+		TransactionContext.execute(Propagation.REQUIRED, () -> {
+			call("required", "update a");
+			try {
+				call("nested", "update b");
+				fail();
+			} catch (RepositoryException e) {
+				// 只撤销到nested方法开始时的保存点
+			}
+			return call("nested", "update c");
+		});
+		assertThat(stub.executions(), contains("c1.setAutoCommit(false)", "c1.prepareStatement(update a)", "c1.executeUpdate(update a)",
+				"c1.setSavepoint(sp1)", "c1.prepareStatement(update b)", "c1.executeUpdate(update b)", "c1.rollback(sp1)",
+				"c1.setSavepoint(sp2)", "c1.prepareStatement(update c)", "c1.executeUpdate(update c)", "c1.releaseSavepoint(sp2)",
+				"c1.commit()", "c1.setAutoCommit(true)"));
+	}
+
+	@Test
+	public void nestedBlock() {
+		TransactionContext.execute(Propagation.REQUIRED, () -> {
+			call("required", "update a");
+			try {
+				TransactionContext.execute(Propagation.NESTED, () -> {
+					call("required", "update b");
+					throw new IllegalStateException("nested");
+				});
+				fail();
+			} catch (IllegalStateException e) {
+				assertThat(e.getMessage(), equalTo("nested"));
+			}
+			return call("required", "update c");
+		});
+		assertThat(stub.getConnections(), is(1));
+		assertThat(stub.executions(), hasItems("c1.setSavepoint(sp1)", "c1.rollback(sp1)", "c1.executeUpdate(update c)", "c1.commit()"));
+		assertThat(stub.executions(), not(hasItem("c1.rollback()")));
+	}
+
+	@Test
+	public void requiresNew() {
+		TransactionContext.execute(Propagation.REQUIRED, () -> {
+			call("required", "update a");
+			// 另取一个连接, 自行提交
+			call("requiresNew", "update b");
+			assertThat(stub.executions(), hasItems("c2.executeUpdate(update b)", "c2.commit()"));
+			assertThat(stub.executions(), not(hasItem("c1.commit()")));
+			return TransactionContext.execute(Propagation.REQUIRES_NEW, () -> call("required", "update c"));
+		});
+		assertThat(stub.getConnections(), is(3));
+		assertThat(stub.executions(), hasItems("c1.executeUpdate(update a)", "c3.executeUpdate(update c)", "c3.commit()", "c1.commit()"));
+		assertThat(stub.executions().indexOf("c3.commit()"), lessThan(stub.executions().indexOf("c1.commit()")));
+	}
+
+	@Test
+	public void propagation() {
+		assertThat(TransactionContext.isActive(), is(false));
+		String result = TransactionContext.execute(Propagation.REQUIRED, () -> {
+			assertThat(TransactionContext.isActive(), is(true));
+			// NOT_SUPPORTED 挂起当前事务
+			assertThat(TransactionContext.execute(Propagation.NOT_SUPPORTED, TransactionContext::isActive), is(false));
+			assertThat(TransactionContext.execute(Propagation.NESTED, TransactionContext::isActive), is(true));
+			assertThat(TransactionContext.execute(Propagation.MANDATORY, TransactionContext::isActive), is(true));
+			return "ok";
+		});
+		assertThat(result, equalTo("ok"));
+		assertThat(TransactionContext.isActive(), is(false));
+		assertThat(TransactionContext.execute(Propagation.SUPPORTS, TransactionContext::isActive), is(false));
+	}
+
+	@Test(expected = RepositoryException.class)
+	public void mandatory() {
+		TransactionContext.execute(Propagation.MANDATORY, () -> null);
+	}
+
+	@Test
+	public void never() {
+		try {
+			TransactionContext.execute(Propagation.REQUIRED, () -> TransactionContext.execute(Propagation.NEVER, () -> null));
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString("NEVER"));
+		}
+		// 抛出异常后事务栈已经清空
+		assertThat(TransactionContext.isActive(), is(false));
+	}
+}
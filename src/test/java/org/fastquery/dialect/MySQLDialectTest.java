@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dialect;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import org.fastquery.bean.UserInfo;
+import org.fastquery.util.EntityMetadata;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class MySQLDialectTest {
+
+	@Test
+	public void upsertSQL() {
+		EntityMetadata metadata = EntityMetadata.of(UserInfo.class);
+		Dialect dialect = new MySQLDialect();
+		assertThat(dialect.upsertSQL(metadata, null), equalTo(
+				"insert into `UserInfo`(`id`,`name`,`age`) values(?,?,?) on duplicate key update `name`=ifnull(values(`name`),`name`),`age`=ifnull(values(`age`),`age`)"));
+		assertThat(dialect.upsertSQL(metadata, "xk"), startsWith("insert into `xk`.`UserInfo`(`id`,`name`,`age`) values(?,?,?) on duplicate key update "));
+		assertThat(dialect.upsertValues(metadata, new UserInfo(3, null, 18)), arrayContaining(3, null, 18));
+	}
+}
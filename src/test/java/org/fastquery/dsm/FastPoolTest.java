@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dsm;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class FastPoolTest {
+
+	private final List<String> calls = new ArrayList<>(); // 物理连接上调用过的方法
+	private int created;
+	private boolean valid = true;
+	private FastPool pool;
+
+	private FastPool pool(FastPoolConfig config) {
+		config.setJdbcUrl("jdbc:fake");
+		pool = new FastPool(config, () -> {
+			int id = ++created;
+			boolean[] autoCommit = { true };
+			Map<String, Object> settings = new HashMap<>(); // 连接的设置, 键是去掉 get,set,is 的名称
+			settings.put("ReadOnly", false);
+			settings.put("TransactionIsolation", Connection.TRANSACTION_REPEATABLE_READ);
+			settings.put("Catalog", "db");
+			settings.put("Holdability", ResultSet.HOLD_CURSORS_OVER_COMMIT);
+			settings.put("NetworkTimeout", 0);
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (p, m, a) -> {
+				synchronized (calls) {
+					calls.add(m.getName());
+				}
+				switch (m.getName()) {
+				case "toString":
+					return "conn" + id;
+				case "isValid":
+					return valid;
+				case "getAutoCommit":
+					return autoCommit[0];
+				case "setAutoCommit":
+					autoCommit[0] = (Boolean) a[0];
+					return null;
+				case "isReadOnly":
+				case "getTransactionIsolation":
+				case "getCatalog":
+				case "getSchema":
+				case "getHoldability":
+				case "getNetworkTimeout":
+					return settings.get(m.getName().substring(m.getName().startsWith("is") ? 2 : 3));
+				case "setReadOnly":
+				case "setTransactionIsolation":
+				case "setCatalog":
+				case "setSchema":
+				case "setHoldability":
+				case "setNetworkTimeout":
+					settings.put(m.getName().substring(3), a[a.length - 1]);
+					return null;
+				case "prepareStatement":
+					return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (sp, sm, sa) -> {
+						synchronized (calls) {
+							calls.add(sm.getName() + ":" + a[0]);
+						}
+						if (sm.getName().startsWith("execute") && "broken".equals(a[0])) {
+							throw new SQLException("Communications link failure", "08S01");
+						}
+						return null;
+					});
+				case "createStatement":
+					return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Statement.class }, (sp, sm, sa) -> {
+						if (sm.getName().startsWith("execute")) {
+							throw new SQLException("Communications link failure", "08S01");
+						}
+						return null;
+					});
+				default:
+					return null;
+				}
+			});
+		});
+		return pool;
+	}
+
+	@After
+	public void after() {
+		if (pool != null) {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void reuse() throws Exception {
+		FastPool pool = pool(new FastPoolConfig("t"));
+		for (int i = 0; i < 5; i++) {
+			Connection conn = pool.getConnection();
+			assertThat(pool.getActiveConnections(), is(1));
+			conn.close();
+			assertThat(conn.isClosed(), is(true));
+		}
+		assertThat(created, is(1));
+		assertThat(pool.getIdleConnections(), is(1));
+	}
+
+	@Test
+	public void timeoutAndHandoff() throws Exception {
+		FastPoolConfig config = new FastPoolConfig("t");
+		config.setMaxPoolSize(1);
+		config.setConnectionTimeout(100);
+		FastPool pool = pool(config);
+		Connection conn = pool.getConnection();
+		try {
+			pool.getConnection();
+			fail();
+		} catch (SQLTransientConnectionException e) {
+			assertThat(e.getMessage(), containsString("没有取到连接"));
+		}
+		// 等待者拿到归还的连接
+		config.setConnectionTimeout(5000);
+		CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+			try {
+				return pool.getConnection();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		TimeUnit.MILLISECONDS.sleep(50);
+		conn.close();
+		waiting.get(5, TimeUnit.SECONDS).close();
+		assertThat(created, is(1));
+	}
+
+	@Test
+	public void resetAndValidate() throws Exception {
+		FastPoolConfig config = new FastPoolConfig("t");
+		config.setValidationBypass(0);
+		FastPool pool = pool(config);
+		Connection conn = pool.getConnection();
+		conn.setAutoCommit(false);
+		conn.close();
+		// 归还时撤销未提交的事务并恢复自动提交
+		assertThat(calls, hasItems("rollback", "setAutoCommit"));
+		valid = false;
+		pool.getConnection().close();
+		assertThat(created, is(2));
+		assertThat(pool.getTotalConnections(), is(1));
+	}
+
+	@Test
+	public void resetSettings() throws Exception {
+		FastPool pool = pool(new FastPoolConfig("t"));
+		try (Connection conn = pool.getConnection()) {
+			conn.setReadOnly(true);
+			conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+			conn.setCatalog("other");
+			conn.setSchema("s");
+			conn.setHoldability(ResultSet.CLOSE_CURSORS_AT_COMMIT);
+			conn.setNetworkTimeout(Runnable::run, 5000);
+			conn.setReadOnly(false);
+			conn.setReadOnly(true);
+		}
+		// 归还时恢复成连接创建时的值
+		try (Connection conn = pool.getConnection()) {
+			assertThat(conn.isReadOnly(), is(false));
+			assertThat(conn.getTransactionIsolation(), is(Connection.TRANSACTION_REPEATABLE_READ));
+			assertThat(conn.getCatalog(), equalTo("db"));
+			assertThat(conn.getSchema(), nullValue());
+			assertThat(conn.getHoldability(), is(ResultSet.HOLD_CURSORS_OVER_COMMIT));
+			assertThat(conn.getNetworkTimeout(), is(0));
+		}
+		assertThat(created, is(1));
+		// 没有改过的设置, 归还时不必恢复
+		calls.clear();
+		pool.getConnection().close();
+		assertThat(calls, empty());
+	}
+
+	@Test
+	public void housekeep() throws Exception {
+		FastPoolConfig config = new FastPoolConfig("t");
+		config.setIdleTimeout(1);
+		FastPool pool = pool(config);
+		Connection c1 = pool.getConnection();
+		Connection c2 = pool.getConnection();
+		c1.close();
+		TimeUnit.MILLISECONDS.sleep(5);
+		pool.housekeep();
+		assertThat(pool.getTotalConnections(), is(1));
+		c2.close();
+		config.setMinIdle(2);
+		pool.housekeep();
+		assertThat(pool.getIdleConnections(), is(2));
+	}
+
+	@Test
+	public void statementCache() throws Exception {
+		FastPoolConfig config = new FastPoolConfig("t");
+		config.setStatementCacheSize(2);
+		FastPool pool = pool(config);
+		try (Connection conn = pool.getConnection()) {
+			PreparedStatement a = conn.prepareStatement("a");
+			assertThat(a.getConnection(), sameInstance(conn));
+			a.setInt(1, 1);
+			a.close();
+			assertThat(a.isClosed(), is(true));
+			conn.prepareStatement("a").close(); // 命中
+			conn.prepareStatement("a", Statement.RETURN_GENERATED_KEYS).close(); // 生成主键的方式不同, 不命中
+			conn.prepareStatement("b").close(); // 淘汰最久没用的 a
+			conn.prepareStatement("c"); // 连接归还时一并放回缓存
+		}
+		// 放回缓存时只清空参数, 被淘汰的才真正关闭
+		assertThat(calls, hasItems("clearParameters:a", "close:a"));
+		assertThat(pool.getStatementCacheHits(), is(1L));
+		assertThat(pool.getStatementCacheMisses(), is(4L));
+		assertThat(pool.getStatementCacheEvictions(), is(2L));
+		try (Connection conn = pool.getConnection()) {
+			conn.prepareStatement("c").close();
+		}
+		assertThat(pool.getStatementCacheHits(), is(2L));
+	}
+
+	@Test
+	public void evictBrokenByStatement() throws Exception {
+		FastPoolConfig config = new FastPoolConfig("t");
+		config.setStatementCacheSize(2);
+		FastPool pool = pool(config);
+		try (Connection conn = pool.getConnection()) {
+			assertThat(conn.toString(), endsWith("conn1"));
+			Statement stat = conn.createStatement();
+			assertThat(stat.getConnection(), sameInstance(conn));
+			try {
+				stat.executeQuery("select 1");
+				fail();
+			} catch (SQLException e) {
+				assertThat(e.getSQLState(), equalTo("08S01"));
+			}
+		}
+		// 断了的连接不会再借出去
+		try (Connection conn = pool.getConnection()) {
+			assertThat(conn.toString(), endsWith("conn2"));
+			// 缓存的语句执行时断线也一样
+			try (PreparedStatement stat = conn.prepareStatement("broken")) {
+				stat.executeUpdate();
+				fail();
+			} catch (SQLException e) {
+				assertThat(e.getSQLState(), equalTo("08S01"));
+			}
+		}
+		try (Connection conn = pool.getConnection()) {
+			assertThat(conn.toString(), endsWith("conn3"));
+		}
+		assertThat(pool.getTotalConnections(), is(1));
+	}
+}
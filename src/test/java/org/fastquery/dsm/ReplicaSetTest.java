@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dsm;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class ReplicaSetTest {
+
+	@Test
+	public void roundRobin() {
+		ReplicaSet rs = new ReplicaSet("p", Arrays.asList("r1", "r2", "r3"), null);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 4; i++) {
+			int index = rs.acquire();
+			sb.append(rs.getReplica(index));
+			rs.release(index);
+		}
+		assertThat(sb.toString(), equalTo("r1r2r3r1"));
+		assertThat(rs.getInFlight(0), is(0));
+	}
+
+	@Test
+	public void leastInFlight() {
+		ReplicaSet rs = new ReplicaSet("p", Arrays.asList("r1", "r2"), ReplicaSet.LEAST_IN_FLIGHT);
+		int a = rs.acquire();
+		int b = rs.acquire();
+		assertThat(a, not(b));
+		rs.release(a);
+		// b 还在途, 之后总是选 a
+		assertThat(rs.acquire(), is(a));
+		assertThat(rs.acquire(), either(is(a)).or(is(b)));
+		assertThat(rs.getInFlight(a) + rs.getInFlight(b), is(3));
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.dsm;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.fastquery.core.RepositoryException;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class ShardGroupTest {
+
+	@Test
+	public void hash() {
+		ShardGroup group = new ShardGroup("u", Arrays.asList("s0", "s1", "s2"), null, null);
+		assertThat(group.route(4), equalTo("s1"));
+		assertThat(group.route(4L), equalTo("s1"));
+		assertThat(group.route(-1), equalTo("s2"));
+		// 同一个键总是路由到同一个数据源
+		assertThat(group.route("abc"), equalTo(group.route(new String("abc"))));
+		// 由数字组成的字符串与数值落在同一个分片
+		assertThat(group.route("123"), equalTo(group.route(123L)));
+		assertThat(group.route("-1"), equalTo("s2"));
+		assertThat(group.route("98765432109876543210"), equalTo(group.route(new BigInteger("98765432109876543210"))));
+	}
+
+	@Test
+	public void range() {
+		ShardGroup group = new ShardGroup("u", Arrays.asList("s0", "s1", "s2"), ShardGroup.RANGE, Arrays.asList(100, 200));
+		assertThat(group.route(-5), equalTo("s0"));
+		assertThat(group.route(99), equalTo("s0"));
+		assertThat(group.route(100), equalTo("s1"));
+		assertThat(group.route(199.5), equalTo("s1"));
+		assertThat(group.route("200"), equalTo("s2"));
+	}
+
+	@Test(expected = RepositoryException.class)
+	public void rangeCount() {
+		new ShardGroup("u", Arrays.asList("s0", "s1"), ShardGroup.RANGE, Arrays.asList(1, 2));
+	}
+
+	@Test(expected = RepositoryException.class)
+	public void nullKey() {
+		new ShardGroup("u", Arrays.asList("s0", "s1"), ShardGroup.HASH, null).route(null);
+	}
+}
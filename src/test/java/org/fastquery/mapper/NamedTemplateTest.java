@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.mapper;
+
+import org.fastquery.asm.AsmTemplateRenderer;
+import org.fastquery.core.MethodMetadata;
+import org.fastquery.core.Param;
+import org.fastquery.core.SQLTemplate;
+import org.fastquery.struct.SQLValue;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class NamedTemplateTest {
+
+	public void m(@Param("name") String name, @Param("ids") Integer[] ids) {
+	}
+
+	private static final String TPL = "select * from UserInfo \n  ## 注释\n <where>\n  #if($name)\n   and name = :name\n  #end\n  #if($ids)\n  or id in(:ids)\n  #end\n </where>";
+
+	@Test
+	public void normalize() {
+		assertThat(NamedTemplate.normalize("  select  *\n\t from  \n\n UserInfo  "), equalTo("select *\nfrom\nUserInfo"));
+		assertThat(NamedTemplate.collapse(" \n select\t\t*  from\r\nUserInfo \n"), equalTo("select * from UserInfo"));
+	}
+
+	@Test
+	public void render() throws Exception {
+		Param[] params = MethodMetadata.of(NamedTemplateTest.class.getMethod("m", String.class, Integer[].class)).getParams();
+		NamedTemplate template = NamedTemplate.parse("NamedTemplateTest.m", TPL, null);
+		assertThat(template.getSource(), equalTo(TPL));
+		assertThat(template.render(params, new Object[] { "Jack", null }, false), equalTo("select * from UserInfo where name = :name"));
+		assertThat(template.render(params, new Object[] { null, new Integer[] { 1 } }, false), equalTo("select * from UserInfo where id in(:ids)"));
+		assertThat(template.render(params, new Object[] { null, null }, false), equalTo("select * from UserInfo "));
+	}
+
+	@Test
+	public void memo() throws Exception {
+		Param[] params = MethodMetadata.of(NamedTemplateTest.class.getMethod("m", String.class, Integer[].class)).getParams();
+		NamedTemplate template = NamedTemplate.parse("NamedTemplateTest.m", TPL, null);
+		String str = template.render(params, new Object[] { "Jack", new Integer[] { 1, 2 } }, true);
+		assertThat(str, equalTo("select * from UserInfo where name = :name or id in(:ids)"));
+		// 形状相同, 得到的是同一个对象
+		assertThat(template.render(params, new Object[] { "Tom", new Integer[] { 3, 4 } }, true), sameInstance(str));
+		assertThat(template.render(params, new Object[] { "", new Integer[] { 3 } }, true), not(sameInstance(str)));
+		assertThat(template.render(params, new Object[] { null, null }, true), equalTo("select * from UserInfo "));
+	}
+
+	@Test
+	public void sqlTemplate() throws Exception {
+		Param[] params = MethodMetadata.of(NamedTemplateTest.class.getMethod("m", String.class, Integer[].class)).getParams();
+		NamedTemplate template = NamedTemplate.parse("NamedTemplateTest.m", TPL, null);
+		Object[] args = { "Jack", new Integer[] { 1, 2 } };
+		SQLTemplate tpl = template.compile(params, args, true, true);
+		SQLValue sqlValue = tpl.render(null, args, null, null);
+		assertThat(sqlValue.getSql(), equalTo("select * from UserInfo where name = ? or id in(?,?)"));
+		assertThat(sqlValue.getValues(), contains("Jack", 1, 2));
+		// 形状相同, 复用编译好的模板
+		assertThat(template.compile(params, new Object[] { "Tom", new Integer[] { 3 } }, true, true), sameInstance(tpl));
+		assertThat(template.compile(params, new Object[] { null, null }, true, true), not(sameInstance(tpl)));
+		// 没有开启memo, 每次都编译
+		assertThat(template.compile(params, args, true, false), not(sameInstance(tpl)));
+		// 不渲染, 原始模板只编译一次
+		assertThat(template.compile(params, args, false, false), sameInstance(template.compile(params, args, false, false)));
+	}
+
+	@Test
+	public void compiled() throws Exception {
+		Param[] params = MethodMetadata.of(NamedTemplateTest.class.getMethod("m", String.class, Integer[].class)).getParams();
+		NamedTemplate template = NamedTemplate.parse("NamedTemplateTest.m", TPL, new AsmTemplateRenderer());
+		assertThat(template.isCompiled(), is(true));
+		assertThat(template.render(params, new Object[] { "Jack", null }, false), equalTo("select * from UserInfo where name = :name"));
+		assertThat(template.render(params, new Object[] { null, new Integer[] { 1 } }, false), equalTo("select * from UserInfo where id in(:ids)"));
+		assertThat(template.render(params, new Object[] { "", new Integer[0] }, false), equalTo("select * from UserInfo "));
+	}
+
+	@Test
+	public void compile() {
+		TemplateRenderer renderer = new AsmTemplateRenderer();
+		CompiledTemplate template = renderer.compile("t1",
+				"#foreach($i in $ids)$i#if($foreach.hasNext),#end#end|#if($age >= 18 && $name != 'Tom')adult#elseif(!$age)none#else$!name#end|$x");
+		assertThat(template.getNames(), arrayContaining("ids", "age", "name", "x"));
+		assertThat(render(template, new Object[] { new int[] { 1, 2, 3 }, 20, "Jack", null }), equalTo("1,2,3|adult|$x"));
+		assertThat(render(template, new Object[] { null, 0, "Tom", 1 }), equalTo("|none|1"));
+		assertThat(render(template, new Object[] { java.util.Arrays.asList("a"), "17", "Tom", "" }), equalTo("a|Tom|"));
+
+		// 不支持的语法返回null, 交由Velocity处理
+		assertThat(renderer.compile("t2", "#set($a = 1)$a"), nullValue());
+		assertThat(renderer.compile("t3", "$user.name"), nullValue());
+		assertThat(renderer.compile("t4", "#macro(m)x#end"), nullValue());
+	}
+
+	private static String render(CompiledTemplate template, Object[] values) {
+		StringBuilder sb = new StringBuilder();
+		template.render(values, sb);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.mapper;
+
+import org.fastquery.asm.AsmTemplateRenderer;
+import org.fastquery.core.MethodMetadata;
+import org.fastquery.core.Param;
+
+/**
+ * 对比Velocity与ASM编译模板渲染$queries的耗时, 直接运行main即可. 不参与单元测试.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class TemplateRendererBenchmark {
+
+	private static final int WARMUP = 50000;
+	private static final int ROUNDS = 5;
+	private static final int ITERATIONS = 200000;
+
+	private static final String TPL = "select id,name,age from UserInfo\n <where>\n  #if($name)\n   and name like :name\n  #end\n"
+			+ "  #if($age && $age > 18)\n   and age > :age\n  #elseif($age)\n   and age = :age\n  #end\n"
+			+ "  #if($ids)\n   and id in(#foreach($i in $ids)$i#if($foreach.hasNext),#end#end)\n  #end\n </where>\n order by id desc";
+
+	public void m(@Param("name") String name, @Param("age") Integer age, @Param("ids") Integer[] ids) {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Param[] params = MethodMetadata.of(TemplateRendererBenchmark.class.getMethod("m", String.class, Integer.class, Integer[].class)).getParams();
+		Object[][] argss = { { "%Jack%", 20, null }, { null, 16, new Integer[] { 1, 2, 3 } }, { "Tom", null, new Integer[] { 7 } }, { null, null, null } };
+
+		NamedTemplate velocity = NamedTemplate.parse("TemplateRendererBenchmark.velocity", TPL, null);
+		NamedTemplate asm = NamedTemplate.parse("TemplateRendererBenchmark.asm", TPL, new AsmTemplateRenderer());
+		for (Object[] a : argss) {
+			if (!velocity.render(params, a, false).equals(asm.render(params, a, false))) {
+				throw new IllegalStateException("渲染结果不一致");
+			}
+		}
+
+		run("velocity", velocity, params, argss, WARMUP);
+		run("asm", asm, params, argss, WARMUP);
+		for (int r = 0; r < ROUNDS; r++) {
+			long v = run("velocity", velocity, params, argss, ITERATIONS);
+			long c = run("asm", asm, params, argss, ITERATIONS);
+			System.out.printf("round %d: velocity %d ns/op, asm %d ns/op%n", r + 1, v, c);
+		}
+	}
+
+	private static long run(String tag, NamedTemplate template, Param[] params, Object[][] argss, int iterations) {
+		int len = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			len += template.render(params, argss[i & 3], false).length();
+		}
+		long ns = (System.nanoTime() - start) / iterations;
+		if (len == 0) {
+			System.out.println(tag);
+		}
+		return ns;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.test;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.fastquery.bean.UserInfo;
+import org.fastquery.core.FetchSize;
+import org.fastquery.core.MethodMetadata;
+import org.fastquery.core.Param;
+import org.fastquery.core.Query;
+import org.fastquery.core.QueryTimeout;
+import org.fastquery.core.RowHandler;
+import org.fastquery.core.Source;
+import org.fastquery.core.Transactional;
+import org.fastquery.page.NotCount;
+import org.fastquery.page.Page;
+import org.fastquery.page.PageIndex;
+import org.fastquery.page.PageSize;
+import org.fastquery.where.I18n;
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class MethodMetadataTest {
+
+	@Query("select * from UserInfo")
+	@I18n({ "name" })
+	public List<Map<String, String>> m1(@Param("name") String name, @Source String source, int age) {
+		return null;
+	}
+
+	@Query("select * from UserInfo")
+	@NotCount
+	public Page<UserInfo> m2(@PageIndex int index, @PageSize int size) {
+		return null;
+	}
+
+	public Page<Map<String, Object>> m3() {
+		return null;
+	}
+
+	public Map<String, String> m4() {
+		return null;
+	}
+
+	@FetchSize(Integer.MIN_VALUE)
+	public Stream<UserInfo> m5() {
+		return null;
+	}
+
+	public long m6(@Param("name") String name, RowHandler<Map<String, Object>> handler) {
+		return 0;
+	}
+
+	public Iterator<Map<String, String>> m7() {
+		return null;
+	}
+
+	@Transactional(timeout = 30)
+	public int m8() {
+		return 0;
+	}
+
+	@Transactional(timeout = 30)
+	@QueryTimeout(5)
+	public int m9() {
+		return 0;
+	}
+
+	@Test
+	public void of() throws Exception {
+		Method m1 = MethodMetadataTest.class.getMethod("m1", String.class, String.class, int.class);
+		MethodMetadata metadata = MethodMetadata.of(m1);
+		assertThat(MethodMetadata.of(m1), sameInstance(metadata));
+		assertThat(metadata.getQueries().length, is(1));
+		assertThat(metadata.getConditions().length, is(0));
+		assertThat(metadata.getModifying(), nullValue());
+		assertThat(metadata.getI18nFields(), contains("name"));
+		assertThat(metadata.isTransactionSupported(), is(true));
+		assertThat(metadata.getParams()[0].value(), equalTo("name"));
+		assertThat(metadata.getParams()[1], nullValue());
+		assertThat(metadata.getParams()[2], nullValue());
+		assertThat(metadata.getSourceIndex(), is(1));
+		assertThat(metadata.getIdIndex(), is(-1));
+		assertThat(metadata.getPageableIndex(), is(-1));
+		assertThat(metadata.isListMapSO(), is(true));
+		assertThat(metadata.getListMapValueType(), equalTo(String.class));
+		assertThat(metadata.getPageBeanType(), nullValue());
+		assertThat(metadata.isStreaming(), is(false));
+		assertThat(metadata.getRowHandlerIndex(), is(-1));
+		assertThat(metadata.getFetchSize(), nullValue());
+		assertThat(metadata.getTimeout(), is(-1));
+	}
+
+	@Test
+	public void timeout() throws Exception {
+		assertThat(MethodMetadata.of(MethodMetadataTest.class.getMethod("m8")).getTimeout(), is(30));
+		assertThat(MethodMetadata.of(MethodMetadataTest.class.getMethod("m9")).getTimeout(), is(5));
+	}
+
+	@Test
+	public void page() throws Exception {
+		MethodMetadata metadata = MethodMetadata.of(MethodMetadataTest.class.getMethod("m2", int.class, int.class));
+		assertThat(metadata.isNotCount(), is(true));
+		assertThat(metadata.getPageIndexIndex(), is(0));
+		assertThat(metadata.getPageSizeIndex(), is(1));
+		assertThat(metadata.getPageBeanType(), equalTo(UserInfo.class));
+		assertThat(metadata.getI18nFields(), nullValue());
+
+		metadata = MethodMetadata.of(MethodMetadataTest.class.getMethod("m3"));
+		assertThat(metadata.getPageBeanType(), nullValue());
+
+		metadata = MethodMetadata.of(MethodMetadataTest.class.getMethod("m4"));
+		assertThat(metadata.getMapValueType(), equalTo(String.class));
+		assertThat(metadata.isListMapSO(), is(false));
+	}
+
+	@Test
+	public void streaming() throws Exception {
+		MethodMetadata metadata = MethodMetadata.of(MethodMetadataTest.class.getMethod("m5"));
+		assertThat(metadata.isStreaming(), is(true));
+		assertThat(metadata.getRowType(), equalTo(UserInfo.class));
+		assertThat(metadata.getFetchSize(), is(Integer.MIN_VALUE));
+
+		metadata = MethodMetadata.of(MethodMetadataTest.class.getMethod("m6", String.class, RowHandler.class));
+		assertThat(metadata.isStreaming(), is(true));
+		assertThat(metadata.getRowHandlerIndex(), is(1));
+		assertThat(metadata.getRowType(), equalTo(Map.class));
+
+		// 只支持 Map<String,Object>
+		metadata = MethodMetadata.of(MethodMetadataTest.class.getMethod("m7"));
+		assertThat(metadata.isStreaming(), is(true));
+		assertThat(metadata.getRowType(), nullValue());
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.fastquery.struct.RowMap;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * 
+ * @author mei.sir@aliyun.cn
+ */
+public class RowMapTest {
+
+	private static final String[] LABELS = { "id", "name", "age", "description", "name" };
+
+	// 原来每行一个HashMap的做法
+	private static Map<String, Object> hashMap(Object[] row) {
+		Map<String, Object> map = new HashMap<>();
+		for (int i = 0; i < LABELS.length; i++) {
+			map.put(LABELS[i], row[i]);
+		}
+		return map;
+	}
+
+	private static Map<String, Object> rowMap(RowMap.Columns columns, Object[] row) {
+		Object[] values = new Object[columns.size()];
+		for (int i = 0; i < row.length; i++) {
+			values[columns.slot(i)] = row[i];
+		}
+		return new RowMap(columns, values);
+	}
+
+	@Test
+	public void sameAsHashMap() {
+		RowMap.Columns columns = new RowMap.Columns(LABELS);
+		Object[] row = { 1, "a", null, "d", "b" };
+		Map<String, Object> expected = hashMap(row);
+		Map<String, Object> map = rowMap(columns, row);
+		assertThat(columns.size(), is(4));
+		assertThat(map, equalTo(expected));
+		assertThat(map.hashCode(), is(expected.hashCode()));
+		assertThat(map.toString(), equalTo(expected.toString()));
+		assertThat(JSON.toJSONString(map), equalTo(JSON.toJSONString(expected)));
+		assertThat(map.get("name"), equalTo("b"));
+		assertThat(map.containsKey("age"), is(true));
+		assertThat(map.get("age"), nullValue());
+		assertThat(map.get("nothing"), nullValue());
+	}
+
+	@Test
+	public void modify() {
+		RowMap.Columns columns = new RowMap.Columns(LABELS);
+		Map<String, Object> map = rowMap(columns, new Object[] { 1, "a", 18, "d", "b" });
+		Map<String, Object> other = rowMap(columns, new Object[] { 2, "x", 20, "y", "z" });
+		assertThat(map.put("age", 19), is(18));
+		assertThat(map.get("age"), is(19));
+		map.put("sex", "m");
+		assertThat(map.size(), is(5));
+		assertThat(map.remove("id"), is(1));
+		assertThat(map.keySet(), containsInAnyOrder("name", "age", "description", "sex"));
+		// 共享同一个列名字典的其他行不受影响
+		assertThat(other.size(), is(4));
+		assertThat(other.get("id"), is(2));
+	}
+}
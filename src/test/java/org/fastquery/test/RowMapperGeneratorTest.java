@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.test;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.HashMap;
+
+import org.fastquery.asm.RowMapperGenerator;
+import org.fastquery.bean.UserInfo;
+import org.fastquery.core.RowMapper;
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class RowMapperGeneratorTest {
+
+	public static class Student {
+		private Integer id = 9;
+		private int age = 7;
+		private String userName;
+		public Long score;
+
+		public Integer getId() {
+			return id;
+		}
+
+		public void setId(Integer id) {
+			this.id = id;
+		}
+
+		public int getAge() {
+			return age;
+		}
+
+		public void setAge(int age) {
+			this.age = age;
+		}
+
+		public String getUserName() {
+			return userName;
+		}
+
+		public Student setUserName(String userName) {
+			this.userName = userName;
+			return this;
+		}
+	}
+
+	// 用动态代理模拟只有一行数据的结果集
+	private static ResultSet resultSet(String[] labels, int[] types, Object[] row) {
+		ResultSetMetaData meta = (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(), new Class<?>[] { ResultSetMetaData.class }, (p, m, a) -> {
+			switch (m.getName()) {
+			case "getColumnCount":
+				return labels.length;
+			case "getColumnLabel":
+				return labels[(int) a[0] - 1];
+			case "getColumnType":
+				return types[(int) a[0] - 1];
+			case "isSigned":
+				return true;
+			default:
+				return 0;
+			}
+		});
+		Object[] last = new Object[1];
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (p, m, a) -> {
+			String name = m.getName();
+			if ("getMetaData".equals(name)) {
+				return meta;
+			} else if ("wasNull".equals(name)) {
+				return last[0] == null;
+			}
+			Object val = row[(int) a[0] - 1];
+			last[0] = val;
+			if ("getInt".equals(name)) {
+				return val == null ? 0 : ((Number) val).intValue();
+			} else if ("getLong".equals(name)) {
+				return val == null ? 0L : ((Number) val).longValue();
+			}
+			return val; // getString, getObject
+		});
+	}
+
+	@Test
+	public void map() throws Exception {
+		String[] labels = { "id", "AGE", "user_name", "score", "other" };
+		int[] types = { Types.INTEGER, Types.INTEGER, Types.VARCHAR, Types.VARCHAR, Types.INTEGER };
+		ResultSet rs = resultSet(labels, types, new Object[] { 1, 18, "Jack", "100", 5 });
+		RowMapper<Student> mapper = RowMapperGenerator.get(Student.class, rs.getMetaData());
+		Student student = mapper.map(rs);
+		assertThat(student.getId(), is(1));
+		assertThat(student.getAge(), is(18));
+		assertThat(student.getUserName(), equalTo("Jack"));
+		// 类型对不上的列交由fastjson转换
+		assertThat(student.score, is(100L));
+
+		// 列值为null: 包装类型赋null, 基本类型保持原值
+		rs = resultSet(labels, types, new Object[] { null, null, null, null, null });
+		student = RowMapperGenerator.get(Student.class, rs.getMetaData()).map(rs);
+		assertThat(student.getId(), nullValue());
+		assertThat(student.getAge(), is(7));
+		assertThat(student.getUserName(), nullValue());
+		assertThat(student.score, nullValue());
+	}
+
+	@Test
+	public void cache() throws Exception {
+		ResultSet rs1 = resultSet(new String[] { "id", "name" }, new int[] { Types.INTEGER, Types.VARCHAR }, new Object[] { 1, "a" });
+		ResultSet rs2 = resultSet(new String[] { "id", "name" }, new int[] { Types.INTEGER, Types.VARCHAR }, new Object[] { 2, "b" });
+		ResultSet rs3 = resultSet(new String[] { "id", "name" }, new int[] { Types.BIGINT, Types.VARCHAR }, new Object[] { 3L, "c" });
+		RowMapper<UserInfo> mapper = RowMapperGenerator.get(UserInfo.class, rs1.getMetaData());
+		assertThat(RowMapperGenerator.get(UserInfo.class, rs2.getMetaData()), sameInstance(mapper));
+		assertThat(RowMapperGenerator.get(UserInfo.class, rs3.getMetaData()), not(sameInstance(mapper)));
+		assertThat(RowMapperGenerator.get(UserInfo.class, rs3.getMetaData()).map(rs3).getId(), is(3));
+
+		// 不支持的类型
+		assertThat(RowMapperGenerator.get(HashMap.class, rs1.getMetaData()), nullValue());
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fastquery.core.MethodMetadata;
+import org.fastquery.core.Param;
+import org.fastquery.core.Query;
+import org.fastquery.core.RepositoryException;
+import org.fastquery.core.SQLTemplate;
+import org.fastquery.core.WhereTemplate;
+import org.fastquery.struct.SQLValue;
+import org.fastquery.where.Condition;
+import org.junit.Test;
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class SQLTemplateTest {
+
+	@Query("select * from #{#table} where #{#id} = ?1 and name like `-%:name%-` and age in (?3) order by ${orderBy}")
+	public void m1(int id, @Param("name") String name, List<Integer> ages, @Param(value = "orderBy", defaultVal = "id") String orderBy) {
+	}
+
+	@Query("select * from UserInfo #{#where}")
+	@Condition("name = :name")
+	@Condition(value = "and age = ?2", ignoreNull = false)
+	@Condition(value = "or id in (?3)")
+	public void m2(@Param("name") String name, Integer age, Integer[] ids) {
+	}
+
+	private static SQLValue render(Method method, Object[] args, String table, String id) {
+		MethodMetadata metadata = MethodMetadata.of(method);
+		return metadata.getQueryTemplates()[0].render(metadata, args, table, id);
+	}
+
+	@Test
+	public void render() throws Exception {
+		Method m1 = SQLTemplateTest.class.getMethod("m1", int.class, String.class, List.class, String.class);
+		SQLValue sqlValue = render(m1, new Object[] { 1, "Ja`ck", Arrays.asList(18, 19), null }, "UserInfo", "id");
+		assertThat(sqlValue.getSql(), equalTo("select * from UserInfo where id = ? and name like ? and age in (?,?) order by id"));
+		assertThat(sqlValue.getValues(), contains(1, "%Jack%", 18, 19));
+
+		sqlValue = render(m1, new Object[] { 1, "Jack", Arrays.asList(), "age desc" }, null, null);
+		assertThat(sqlValue.getSql(), equalTo("select * from #{#table} where #{#id} = ? and name like ? and age in (?) order by age desc"));
+		assertThat(sqlValue.getValues(), contains(1, "%Jack%"));
+	}
+
+	@Test(expected = RepositoryException.class)
+	public void percent() throws Exception {
+		Method m1 = SQLTemplateTest.class.getMethod("m1", int.class, String.class, List.class, String.class);
+		render(m1, new Object[] { 1, "%", Arrays.asList(1), null }, null, null);
+	}
+
+	@Test
+	public void where() throws Exception {
+		Method m2 = SQLTemplateTest.class.getMethod("m2", String.class, Integer.class, Integer[].class);
+
+		SQLValue sqlValue = render(m2, new Object[] { "Jack", 18, new Integer[] { 1, 2 } }, null, null);
+		assertThat(sqlValue.getSql(), equalTo("select * from UserInfo where name = ? and age = ? or id in (?,?)"));
+		assertThat(sqlValue.getValues(), contains("Jack", 18, 1, 2));
+
+		sqlValue = render(m2, new Object[] { null, null, null }, null, null);
+		assertThat(sqlValue.getSql(), equalTo("select * from UserInfo where age is null"));
+		assertThat(sqlValue.getValues(), empty());
+
+		sqlValue = render(m2, new Object[] { null, 3, null }, null, null);
+		assertThat(sqlValue.getSql(), equalTo("select * from UserInfo where age = ?"));
+		assertThat(sqlValue.getValues(), contains(3));
+
+		MethodMetadata metadata = MethodMetadata.of(m2);
+		assertThat(metadata.getQueryTemplates()[0].text(metadata, new Object[] { "Jack", null, null }), equalTo("select * from UserInfo where name = ?1 and age is null"));
+		assertThat(metadata.getWhere().text(new Object[] { null, null, null }), equalTo("where age is null"));
+	}
+
+	@Condition(value = "name = ?1", allow = "J.*")
+	@Condition(value = "and age = ?2", ignore = "0")
+	@Condition(value = "or email = ?3", ignoreNull = false)
+	public void m3(String name, Integer age, String email) {
+	}
+
+	@Test
+	public void whereCache() throws Exception {
+		WhereTemplate where = MethodMetadata.of(SQLTemplateTest.class.getMethod("m3", String.class, Integer.class, String.class)).getWhere();
+		assertThat(where.text(new Object[] { "Jack", 18, "a@b.c" }), equalTo("where name = ?1 and age = ?2 or email = ?3"));
+		assertThat(where.text(new Object[] { "Jim", 20, "x@y.z" }), equalTo("where name = ?1 and age = ?2 or email = ?3"));
+		assertThat(where.cachedSize(), is(1));
+
+		assertThat(where.text(new Object[] { "Tom", 0, null }), equalTo("where email is null"));
+		assertThat(where.text(new Object[] { "Tom", 0, "a@b.c" }), equalTo("where email = ?3"));
+		assertThat(where.text(new Object[] { null, 5, null }), equalTo("where age = ?2 or email is null"));
+		assertThat(where.cachedSize(), is(4));
+	}
+
+	@Test
+	public void compile() throws Exception {
+		Method m1 = SQLTemplateTest.class.getMethod("m1", int.class, String.class, List.class, String.class);
+		Param[] params = MethodMetadata.of(m1).getParams();
+		Object[] args = { 1, "Jack", null, "age" };
+		assertThat(SQLTemplate.compile(":name :name2 :names $orderBy ${orderBy} $orderBy2 '10:30' ?10", params, false).text(null, args), equalTo("?2 :name2 :names age age $orderBy2 '10:30' ?10"));
+		assertThat(SQLTemplate.compile("$orderBy :name #{#where}", params, true).text(null, args), equalTo("$orderBy ?2 #{#where}"));
+		assertThat(SQLTemplate.compile("`- ?1 -` `-abc` `x`", null, true).render(null, args, null, null).getSql(), equalTo("? `-abc` `x`"));
+	}
+}
@@ -76,6 +76,21 @@ public class BeanUtilTest {
 		assertThat(sql, equalTo("insert into `T`(`key`) values(null)"));
 	}
 
+	@Test
+	public void toParameterizedInsertSQL() {
+		assertThat(BeanUtil.toInsertSQL(UserInfo.class, null, false, false), equalTo("insert into `UserInfo`(`name`,`age`) values(?,?)"));
+		assertThat(BeanUtil.toInsertSQL(UserInfo.class, "xk", true, true), equalTo("insert ignore into `xk`.`UserInfo`(`id`,`name`,`age`) values(?,?,?)"));
+		assertThat(BeanUtil.toInsertSQL(T.class, null, false, false), equalTo("insert into `T`(`key`) values(?)"));
+
+		UserInfo userInfo = new UserInfo(33, "想向公主", null);
+		assertThat(BeanUtil.hasIdValue(userInfo), is(true));
+		assertThat(BeanUtil.toInsertValues(userInfo, true), arrayContaining(33, "想向公主", null));
+		assertThat(BeanUtil.toInsertValues(userInfo, false), arrayContaining("想向公主", null));
+		userInfo.setId(null);
+		assertThat(BeanUtil.hasIdValue(userInfo), is(false));
+		assertThat(BeanUtil.hasIdValue(new T()), is(false));
+	}
+
 	@Test
 	public void testToInsertSQL2() {
 		UserInfo userInfo = new UserInfo(33, "想向公主", 18);
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.util;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import org.fastquery.bean.UserInfo;
+import org.fastquery.bean.Visitor;
+import org.fastquery.struct.SQLValue;
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class EntityMetadataTest {
+
+	@Test
+	public void of() {
+		EntityMetadata metadata = EntityMetadata.of(UserInfo.class);
+		assertThat(EntityMetadata.of(UserInfo.class), sameInstance(metadata));
+		assertThat(metadata.getTableName(), equalTo("UserInfo"));
+		assertThat(metadata.getId().getName(), equalTo("id"));
+		assertThat(metadata.getProperties().length, is(3));
+		assertThat(metadata.getProperty("age").getIndex(), is(2));
+		assertThat(metadata.getProperty("nothing"), nullValue());
+		assertThat(metadata.idValue(new UserInfo(7, "a", 1)), equalTo(7));
+
+		// @Transient 不参与持久化
+		assertThat(EntityMetadata.of(Visitor.class).getProperty("description"), nullValue());
+	}
+
+	@Test
+	public void templates() {
+		EntityMetadata metadata = EntityMetadata.of(UserInfo.class);
+		assertThat(metadata.insertSQL(null, false, false), equalTo("insert into `UserInfo`(`name`,`age`) values(?,?)"));
+		assertThat(metadata.insertSQL("xk", false, true), equalTo("insert into `xk`.`UserInfo`(`id`,`name`,`age`) values(?,?,?)"));
+		assertThat(metadata.selectSQL("xk"), equalTo("select * from `xk`.`UserInfo` where `id` = ?"));
+
+		SQLValue sqlValue = BeanUtil.toInsertSQLValue(new UserInfo(null, "向'公主", 18), null);
+		assertThat(sqlValue.getSql(), equalTo("insert into `UserInfo`(`name`,`age`) values(?,?)"));
+		assertThat(sqlValue.getValues(), contains("向'公主", 18));
+
+		sqlValue = BeanUtil.toSelectSQLValue(new UserInfo(33, null, null), null, null);
+		assertThat(sqlValue.getSql(), equalTo("select * from `UserInfo` where `id` = ?"));
+		assertThat(sqlValue.getValues(), contains(33));
+	}
+
+	@Test
+	public void update() {
+		EntityMetadata metadata = EntityMetadata.of(UserInfo.class);
+		SQLValue sqlValue = metadata.update(new UserInfo(33, null, 18), "xk");
+		assertThat(sqlValue.getSql(), equalTo("update `xk`.`UserInfo` set `age`=? where `id`=?"));
+		assertThat(sqlValue.getValues(), contains(18, 33));
+
+		// 参与set的字段相同, 语句是同一个
+		assertThat(metadata.update(new UserInfo(1, null, 20), "xk").getSql(), sameInstance(sqlValue.getSql()));
+		assertThat(metadata.update(new UserInfo(1, "b", 20), "xk").getSql(), equalTo("update `xk`.`UserInfo` set `name`=?, `age`=? where `id`=?"));
+		assertThat(metadata.update(new UserInfo(1, null, null), null), nullValue());
+	}
+
+	@Test
+	public void copy() {
+		EntityMetadata metadata = EntityMetadata.of(UserInfo.class);
+		assertThat(metadata.isReadBack(), is(true));
+		UserInfo bean = new UserInfo(null, "a", 18);
+		UserInfo copy = (UserInfo) metadata.copy(bean, 5L);
+		assertThat(copy, not(sameInstance(bean)));
+		assertThat(copy.getId(), equalTo(5));
+		assertThat(copy.getName(), equalTo("a"));
+		assertThat(copy.getAge(), equalTo(18));
+		assertThat(bean.getId(), nullValue());
+
+		// 传入的主键优先
+		assertThat(((UserInfo) metadata.copy(new UserInfo(7, null, null), 5L)).getId(), equalTo(7));
+		// 没有主键
+		assertThat(metadata.copy(bean, null), nullValue());
+	}
+}
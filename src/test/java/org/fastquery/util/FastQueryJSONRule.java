@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.util;
+
+import org.fastquery.core.RepositoryException;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * 不装载fastquery.json的单元测试所用的配置. 当前还没有装载配置时, 装上给定的配置, 测试结束后卸下; 已经装载了(如与连数据库的测试同在一个JVM里)就沿用它.
+ * 用作 &#064;ClassRule.
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class FastQueryJSONRule implements TestRule {
+
+	// 方法的时限取60秒, 与其他项的默认值一起, 足以驱动框架内部而不连数据库
+	private static final String DEFAULT = "{\"queryTimeout\":60}";
+
+	private final String json;
+	private boolean installed;
+
+	public FastQueryJSONRule() {
+		this(DEFAULT);
+	}
+
+	public FastQueryJSONRule(String json) {
+		this.json = json;
+	}
+
+	/**
+	 * 还没有装载配置时装上
+	 * 
+	 * @return 是否装上了
+	 */
+	public boolean install() {
+		try {
+			FastQueryJSONObject.setJsonObject(JSONObject.parseObject(json));
+			installed = true;
+		} catch (RepositoryException e) { // 已经装载了
+			installed = false;
+		}
+		return installed;
+	}
+
+	/**
+	 * 卸下由install装上的配置
+	 */
+	public void uninstall() {
+		if (installed) {
+			FastQueryJSONObject.removeCurrent();
+			installed = false;
+		}
+	}
+
+	@Override
+	public Statement apply(Statement base, Description description) {
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				install();
+				try {
+					base.evaluate();
+				} finally {
+					uninstall();
+				}
+			}
+		};
+	}
+}
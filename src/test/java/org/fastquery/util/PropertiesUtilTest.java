@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+
+package org.fastquery.util;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.fastquery.core.RepositoryException;
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSONArray;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class PropertiesUtilTest {
+
+	private static final Set<String> CONFIGURED = new HashSet<>(Arrays.asList("s0", "s1", "s2"));
+
+	private static void reject(String shardGroups, String message) {
+		try {
+			PropertiesUtil.checkShardGroups(JSONArray.parseArray(shardGroups), CONFIGURED, new ArrayList<>());
+			fail();
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), containsString(message));
+		}
+	}
+
+	@Test
+	public void checkShardGroups() {
+		List<String> bpNames = new ArrayList<>();
+		PropertiesUtil.checkShardGroups(JSONArray.parseArray("[{\"name\":\"users\",\"dataSourceNames\":[\"s0\",\"s1\"],\"basePackages\":[\"a.b\",\"\"]},"
+				+ "{\"name\":\"orders\",\"dataSourceNames\":[\"s2\",\"s1\"],\"strategy\":\"range\",\"ranges\":[100],\"basePackages\":[\"a.c\"]}]"),
+				CONFIGURED, bpNames);
+		// basePackages 收集起来与scope的一同校验是否重复
+		assertThat(bpNames, contains("a.b", "a.c"));
+
+		reject("[{\"dataSourceNames\":[\"s0\"]}]", "name不能是空字符且不能为null");
+		reject("[{\"name\":\"u\",\"dataSourceNames\":[\"s0\"]},{\"name\":\"u\",\"dataSourceNames\":[\"s1\"]}]", "分片组\"u\"不能重复出现");
+		reject("[{\"name\":\"u\",\"dataSourceNames\":[\"s0\",\"s9\"]}]", "分片组u指定了数据源s9");
+		reject("[{\"name\":\"u\",\"dataSourceNames\":[\"s0\"],\"strategy\":\"mod\"}]", "strategy只能是");
+		reject("[{\"name\":\"u\"}]", "dataSourceNames不能为空");
+	}
+}
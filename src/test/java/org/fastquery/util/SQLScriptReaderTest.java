@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016-2017, fastquery.org and/or its affiliates. All rights reserved.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * For more information, please see http://www.fastquery.org/.
+ * 
+ */
+package org.fastquery.util;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 
+ * @author xixifeng (fastquery@126.com)
+ */
+public class SQLScriptReaderTest {
+
+	private static List<String> read(String script, int bufferSize, List<Integer> lines) throws IOException {
+		List<String> sqls = new ArrayList<>();
+		try (SQLScriptReader reader = new SQLScriptReader(Channels.newChannel(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8))), bufferSize)) {
+			String sql;
+			while ((sql = reader.next()) != null) {
+				sqls.add(sql);
+				lines.add(reader.getLine());
+			}
+		}
+		return sqls;
+	}
+
+	@Test
+	public void next() throws IOException {
+		String script = "-- 注释\n" + 
+				"update `t;1` set a = 'x;''y' where b = \"c\\\";d\";\n" + 
+				"# 注释\n" + 
+				"insert into t values(1) /* 块;注释 */; /*!40101 SET NAMES utf8 */ ;\n" + 
+				"select 5--1, 2 -- 注释;\n" + 
+				"from dual;;  \n" + 
+				"delete from t";
+		List<Integer> lines = new ArrayList<>();
+		List<String> sqls = read(script, 64 * 1024, lines);
+		assertThat(sqls, contains("update `t;1` set a = 'x;''y' where b = \"c\\\";d\"", "insert into t values(1)", "/*!40101 SET NAMES utf8 */",
+				"select 5--1, 2 from dual", "delete from t"));
+		assertThat(lines, contains(2, 4, 4, 5, 7));
+	}
+
+	@Test
+	public void delimiter() throws IOException {
+		String script = "DELIMITER $$\n" + 
+				"create procedure p() begin select 1; select 2; end$$\n" + 
+				"delimiter ;\n" + 
+				"call p();\n";
+		List<String> sqls = read(script, 1024, new ArrayList<>());
+		assertThat(sqls, contains("create procedure p() begin select 1; select 2; end", "call p()"));
+	}
+
+	@Test
+	public void utf8() throws IOException {
+		// 缓冲区很小, 多字节字符一定会跨越缓冲区边界
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			sb.append("insert into t values('中文𝄞").append(i).append("');\n");
+		}
+		List<String> sqls = read(sb.toString(), 5, new ArrayList<>());
+		assertThat(sqls.size(), is(50));
+		assertThat(sqls.get(49), equalTo("insert into t values('中文𝄞49')"));
+	}
+}
@@ -31,11 +31,13 @@ import java.lang.reflect.Parameter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import org.fastquery.core.Id;
+import org.fastquery.core.Modifying;
 import org.fastquery.core.Param;
 import org.fastquery.core.Placeholder;
 import org.fastquery.core.Query;
@@ -564,4 +566,27 @@ public class TypeUtilTest implements Opcodes {
 		assertThat(TypeUtil.listMapValueTyep(method) == String.class, is(true));
 	}
 
+	@Test
+	public void getReturnType() throws NoSuchMethodException {
+		abstract class C {
+			public abstract CompletableFuture<List<Map<String, String>>> list();
+			public abstract CompletableFuture<Integer> one();
+			@Modifying
+			public abstract CompletableFuture<Integer> update();
+			public abstract CompletableFuture<Void> none();
+			public abstract List<String> sync();
+		}
+
+		Method list = C.class.getMethod("list");
+		assertThat(TypeUtil.isAsync(list), is(true));
+		assertThat(TypeUtil.getReturnType(list) == List.class, is(true));
+		assertThat(TypeUtil.listMapValueTyep(list) == String.class, is(true));
+		assertThat(TypeUtil.getReturnType(C.class.getMethod("one")) == Integer.class, is(true));
+		assertThat(TypeUtil.getReturnType(C.class.getMethod("update")) == int.class, is(true));
+		assertThat(TypeUtil.getReturnType(C.class.getMethod("none")) == void.class, is(true));
+		Method sync = C.class.getMethod("sync");
+		assertThat(TypeUtil.isAsync(sync), is(false));
+		assertThat(TypeUtil.getGenericReturnType(sync), equalTo(sync.getGenericReturnType()));
+	}
+
 }